@@ -0,0 +1,35 @@
+package ru.mail.polis.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for {@code ./gradlew jmh}. Accepts the usual JMH command line
+ * and, unless {@code -p factory=...} is given, runs every discovered DaoFactory.
+ * Throughput and SampleTime modes give ops/s and p50/p99/p999 latency,
+ * GC profiler adds allocation rate per operation.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+        // Only main
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .jvmArgsAppend("--add-modules", "jdk.incubator.foreign")
+                .addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackageName() + ".*Benchmark");
+        }
+        if (!commandLine.getParameter("factory").hasValue()) {
+            options.param("factory", DaoFactories.names());
+        }
+        new Runner(options.build()).run();
+    }
+}
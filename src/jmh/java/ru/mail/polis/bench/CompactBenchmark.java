@@ -0,0 +1,52 @@
+package ru.mail.polis.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to compact {@code tables} interleaved tables of {@code keyCount} entries in total.
+ * Every invocation gets a fresh store, so the input is identical for each sample.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CompactBenchmark extends DaoState {
+
+    @Param("8")
+    public int tables;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws IOException, ReflectiveOperationException {
+        openDao();
+        for (int table = 0; table < tables; table++) {
+            for (int i = table; i < keyCount; i += tables) {
+                dao.upsert(entry(i));
+            }
+            dao.flush();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws IOException {
+        closeDao();
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        dao.compact();
+    }
+}
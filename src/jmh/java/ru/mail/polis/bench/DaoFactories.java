@@ -0,0 +1,68 @@
+package ru.mail.polis.bench;
+
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.DaoFactory;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds every {@link DaoFactory} declared under ru.mail.polis.test.&lt;username&gt;,
+ * the same way DaoTest.DaoList does it for JUnit, but without the "max stage" filter.
+ */
+final class DaoFactories {
+
+    private static final String TEST_PACKAGE = "ru.mail.polis.test.";
+
+    private DaoFactories() {
+        // Utility class
+    }
+
+    static String[] names() throws IOException, URISyntaxException {
+        Path path = Path.of(DaoFactory.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        try (Stream<Path> walk = Files.walk(path)) {
+            List<String> factories = walk
+                    .filter(p -> p.getFileName().toString().endsWith(".class"))
+                    .map(p -> getFactoryName(path, p))
+                    .filter(Objects::nonNull)
+                    .sorted()
+                    .collect(Collectors.toList());
+            if (factories.isEmpty()) {
+                throw new IllegalStateException("No DaoFactory declared under " + TEST_PACKAGE + "<username> package");
+            }
+            return factories.toArray(new String[0]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <D, E extends Entry<D>> DaoFactory.Factory<D, E> create(String className) throws ReflectiveOperationException {
+        Class<?> clazz = Class.forName(className);
+        if (clazz.getAnnotation(DaoFactory.class) == null) {
+            throw new IllegalArgumentException(className + " is not annotated with @DaoFactory");
+        }
+        return (DaoFactory.Factory<D, E>) clazz.getDeclaredConstructor().newInstance();
+    }
+
+    private static String getFactoryName(Path root, Path file) {
+        StringBuilder result = new StringBuilder();
+        for (Path subPath : root.relativize(file)) {
+            result.append(subPath).append('.');
+        }
+        String className = result.substring(0, result.length() - ".class.".length());
+        if (!className.startsWith(TEST_PACKAGE)) {
+            return null;
+        }
+        try {
+            Class<?> clazz = Class.forName(className, false, DaoFactory.class.getClassLoader());
+            return clazz.getAnnotation(DaoFactory.class) == null ? null : className;
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.mail.polis.bench;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.DaoFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Common workload parameters and DAO lifecycle shared by all benchmarks.
+ * Keys and values are converted to the engine's native type before measurement,
+ * so every implementation pays only for its own storage path.
+ */
+@State(Scope.Benchmark)
+public class DaoState {
+
+    /**
+     * Fully qualified name of the factory; filled in by {@link BenchmarkRunner}.
+     */
+    @Param("")
+    public String factory;
+
+    @Param("16")
+    public int keySize;
+
+    @Param("100")
+    public int valueSize;
+
+    @Param("100000")
+    public int keyCount;
+
+    @Param("1048576")
+    public long flushThresholdBytes;
+
+    protected DaoFactory.Factory<Object, Entry<Object>> daoFactory;
+    protected Dao<Object, Entry<Object>> dao;
+    protected Path basePath;
+    protected Object[] keys;
+    protected Object[] missingKeys;
+    protected Object value;
+
+    protected void openDao() throws IOException, ReflectiveOperationException {
+        daoFactory = DaoFactories.create(factory);
+        basePath = Files.createTempDirectory("bench");
+        dao = daoFactory.createDao(new Config(basePath, flushThresholdBytes));
+
+        keys = new Object[keyCount];
+        missingKeys = new Object[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = daoFactory.fromString(key('k', i));
+            missingKeys[i] = daoFactory.fromString(key('m', i));
+        }
+        char[] data = new char[valueSize];
+        Arrays.fill(data, 'V');
+        value = daoFactory.fromString(new String(data));
+    }
+
+    protected void closeDao() throws IOException {
+        try {
+            if (dao != null) {
+                dao.close();
+                dao = null;
+            }
+        } finally {
+            deleteRecursively(basePath);
+        }
+    }
+
+    protected void load(int from, int to) {
+        for (int i = from; i < to; i++) {
+            dao.upsert(entry(i));
+        }
+    }
+
+    protected Entry<Object> entry(int index) {
+        return daoFactory.fromBaseEntry(new BaseEntry<>(keys[index], value));
+    }
+
+    protected static int randomIndex(int bound) {
+        return ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    private String key(char prefix, int index) {
+        StringBuilder builder = new StringBuilder(keySize).append(prefix);
+        String number = Integer.toString(index);
+        for (int i = number.length() + 1; i < keySize; i++) {
+            builder.append('0');
+        }
+        return builder.append(number).toString();
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (path == null || !Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,46 @@
+package ru.mail.polis.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to persist a memtable holding {@code keyCount} entries.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FlushBenchmark extends DaoState {
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ReflectiveOperationException {
+        openDao();
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        load(0, keyCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        closeDao();
+    }
+
+    @Benchmark
+    public void flush() throws IOException {
+        dao.flush();
+    }
+}
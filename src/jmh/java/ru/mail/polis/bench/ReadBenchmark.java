@@ -0,0 +1,70 @@
+package ru.mail.polis.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.mail.polis.Entry;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point and range reads over data loaded in {@code tables} flushed chunks.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark extends DaoState {
+
+    @Param("4")
+    public int tables;
+
+    @Param("100")
+    public int rangeSize;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ReflectiveOperationException {
+        openDao();
+        int chunk = (keyCount + tables - 1) / tables;
+        for (int from = 0; from < keyCount; from += chunk) {
+            load(from, Math.min(keyCount, from + chunk));
+            dao.flush();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        closeDao();
+    }
+
+    @Benchmark
+    public Entry<Object> get() throws IOException {
+        return dao.get(keys[randomIndex(keyCount)]);
+    }
+
+    @Benchmark
+    public Entry<Object> getMissing() throws IOException {
+        return dao.get(missingKeys[randomIndex(keyCount)]);
+    }
+
+    @Benchmark
+    public void range(Blackhole blackhole) throws IOException {
+        int from = randomIndex(keyCount - rangeSize);
+        Iterator<Entry<Object>> iterator = dao.get(keys[from], keys[from + rangeSize]);
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package ru.mail.polis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking facade over any {@link Dao}: calls are run on the executor and results are returned
+ * as futures, ranges are published with backpressure, so entries are read from dao only when requested.
+ * Default executor starts a virtual thread per task when runtime has them (Java 21+)
+ * and falls back to a cached pool of daemon threads otherwise.
+ */
+public class AsyncDao<D, E extends Entry<D>> implements Closeable {
+
+    private final Dao<D, E> dao;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    public AsyncDao(Dao<D, E> dao) {
+        this.dao = dao;
+        this.ownedExecutor = defaultExecutor();
+        this.executor = ownedExecutor;
+    }
+
+    /**
+     * Facade running calls on the given executor, executor is not shut down on {@link #close()}.
+     */
+    public AsyncDao(Dao<D, E> dao, Executor executor) {
+        this.dao = dao;
+        this.executor = executor;
+        this.ownedExecutor = null;
+    }
+
+    /**
+     * Returns entry by key.
+     * @param key entry`s key
+     * @return future of entry or null if there is no such key
+     */
+    public CompletableFuture<E> getAsync(D key) {
+        return call(() -> dao.get(key));
+    }
+
+    /**
+     * Returns publisher of ordered entries with keys between from (inclusive) and to (exclusive).
+     * Every subscriber gets its own iterator which is opened on the first request.
+     * @param from lower bound of range (inclusive), null means no bound
+     * @param to upper bound of range (exclusive), null means no bound
+     * @return entries [from;to)
+     */
+    public Flow.Publisher<E> rangeAsync(D from, D to) {
+        return subscriber -> {
+            RangeSubscription subscription = new RangeSubscription(subscriber, from, to);
+            subscriber.onSubscribe(subscription);
+        };
+    }
+
+    public CompletableFuture<Void> upsertAsync(E entry) {
+        return call(() -> {
+            dao.upsert(entry);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> flushAsync() {
+        return call(() -> {
+            dao.flush();
+            return null;
+        });
+    }
+
+    /*
+     * Waits for tasks of own executor and closes dao.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+            try {
+                while (!ownedExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    // Tasks still block on dao
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for tasks", e);
+            }
+        }
+        dao.close();
+    }
+
+    private <T> CompletableFuture<T> call(DaoCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static ExecutorService defaultExecutor() {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                            MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "async-dao");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't create virtual thread executor", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface DaoCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Emits entries on the executor while there is demand, only one drain runs at a time:
+     * requests made during drain are picked up by the running one.
+     */
+    private final class RangeSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super E> subscriber;
+        private final D from;
+        private final D to;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable badRequest;
+        private Iterator<E> iterator;
+
+        RangeSubscription(Flow.Subscriber<? super E> subscriber, D from, D to) {
+            this.subscriber = subscriber;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("Requested " + n + " entries, must be positive");
+            } else {
+                demand.getAndAccumulate(n, (current, added) -> {
+                    long sum = current + added;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            if (pendingDrains.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    cancelled = true;
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public void run() {
+            int drains = 1;
+            do {
+                if (!cancelled && !drain()) {
+                    cancelled = true;
+                }
+                drains = pendingDrains.addAndGet(-drains);
+            } while (drains != 0);
+        }
+
+        // false if subscription is over
+        private boolean drain() {
+            try {
+                if (badRequest != null) {
+                    subscriber.onError(badRequest);
+                    return false;
+                }
+                if (iterator == null) {
+                    iterator = dao.get(from, to);
+                }
+                while (!cancelled) {
+                    if (!iterator.hasNext()) {
+                        subscriber.onComplete();
+                        return false;
+                    }
+                    if (demand.get() == 0) {
+                        return true;
+                    }
+                    subscriber.onNext(iterator.next());
+                    demand.decrementAndGet();
+                }
+                return false;
+            } catch (IOException | RuntimeException e) {
+                subscriber.onError(e);
+                return false;
+            }
+        }
+    }
+}
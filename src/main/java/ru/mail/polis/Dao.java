@@ -3,6 +3,10 @@ package ru.mail.polis;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface Dao<D, E extends Entry<D>> extends Closeable {
 
@@ -57,12 +61,49 @@ public interface Dao<D, E extends Entry<D>> extends Closeable {
         return get(null, null);
     }
 
+    /**
+     * Returns ordered stream of entries with keys between from (inclusive) and to (exclusive).
+     * Default implementation is backed by {@link #get(Object, Object)} and can't be split,
+     * daos may return {@link RangeSpliterator} based stream to scale {@code parallel()} scans.
+     * @param from lower bound of range (inclusive)
+     * @param to upper bound of range (exclusive)
+     * @return entries [from;to)
+     */
+    default Stream<E> stream(D from, D to) throws IOException {
+        Spliterator<E> spliterator = Spliterators.spliteratorUnknownSize(
+                get(from, to),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL
+        );
+        return StreamSupport.stream(spliterator, false);
+    }
+
     /**
      * Inserts of replaces entry.
      * @param entry element to upsert
      */
     void upsert(E entry);
 
+    /**
+     * Upserts all entries of the batch in order.
+     * Default implementation upserts them one by one, so readers may see part of the batch.
+     * @param batch elements to upsert
+     */
+    default void write(WriteBatch<D, E> batch) {
+        for (E entry : batch) {
+            upsert(entry);
+        }
+    }
+
+    /**
+     * Removes all entries with keys between from (inclusive) and to (exclusive).
+     * Unlike upsert of tombstones it does not need to know keys of the range.
+     * @param from lower bound of range (inclusive), null means no lower bound
+     * @param to upper bound of range (exclusive), null means no upper bound
+     */
+    default void deleteRange(D from, D to) {
+        throw new UnsupportedOperationException("Range deletion is not supported");
+    }
+
     /**
      * Persists data (no-op by default).
      */
@@ -0,0 +1,134 @@
+package ru.mail.polis;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * K-way merge on loser tree: every internal node keeps source which lost the match in it,
+ * so advancing the winner replays only matches on its path, log k comparisons per element.
+ * Source with lower index wins on equal elements, others are skipped in the same pass.
+ * Null elements are not allowed, null head marks exhausted source.
+ */
+public final class MergeIterator<E> implements Iterator<E> {
+
+    private final Iterator<E>[] sources;
+    private final E[] heads;
+    // tree[0] is the winner, tree[1..k-1] are losers of internal nodes, leaf of source i is i + k
+    private final int[] tree;
+    private final Comparator<E> comparator;
+    private final Predicate<E> skip;
+    private E next;
+
+    @SuppressWarnings("unchecked")
+    private MergeIterator(List<Iterator<E>> iterators, Comparator<E> comparator, Predicate<E> skip) {
+        this.sources = iterators.toArray((Iterator<E>[]) new Iterator<?>[0]);
+        this.heads = (E[]) new Object[sources.length];
+        this.tree = new int[sources.length];
+        this.comparator = comparator;
+        this.skip = skip;
+        for (int i = 0; i < sources.length; i++) {
+            heads[i] = sources[i].hasNext() ? sources[i].next() : null;
+        }
+        tree[0] = build(1);
+        next = pull();
+    }
+
+    // iterators are strictly ordered by comparator (previous element always < next element)
+    public static <E> Iterator<E> of(List<Iterator<E>> iterators, Comparator<E> comparator) {
+        switch (iterators.size()) {
+            case 0:
+                return Collections.emptyIterator();
+            case 1:
+                return iterators.get(0);
+            default:
+                // Just go on
+        }
+
+        return new MergeIterator<>(iterators, comparator, null);
+    }
+
+    // same as above, elements matching skip are dropped after they shadowed older ones
+    public static <E> Iterator<E> of(List<Iterator<E>> iterators, Comparator<E> comparator, Predicate<E> skip) {
+        if (iterators.isEmpty()) {
+            return Collections.emptyIterator();
+        }
+
+        return new MergeIterator<>(iterators, comparator, skip);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public E next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        E result = next;
+        next = pull();
+        return result;
+    }
+
+    private E pull() {
+        while (true) {
+            int winner = tree[0];
+            E result = heads[winner];
+            if (result == null) {
+                return null;
+            }
+            advance(winner);
+            while (heads[tree[0]] != null && comparator.compare(heads[tree[0]], result) == 0) {
+                advance(tree[0]);
+            }
+            if (skip == null || !skip.test(result)) {
+                return result;
+            }
+        }
+    }
+
+    private void advance(int source) {
+        heads[source] = sources[source].hasNext() ? sources[source].next() : null;
+        int winner = source;
+        for (int node = (source + sources.length) >>> 1; node > 0; node >>>= 1) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    private int build(int node) {
+        if (node >= sources.length) {
+            return node - sources.length;
+        }
+        int left = build(node * 2);
+        int right = build(node * 2 + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    // exhausted source loses to anything
+    private boolean beats(int first, int second) {
+        if (heads[first] == null) {
+            return false;
+        }
+        if (heads[second] == null) {
+            return true;
+        }
+        int result = comparator.compare(heads[first], heads[second]);
+        return result < 0 || (result == 0 && first < second);
+    }
+
+}
@@ -0,0 +1,106 @@
+package ru.mail.polis;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spliterator over entries with keys in [from;to) which splits by keys: prefix [from;splitKey)
+ * is given away and this one continues from the split key, so every part is merged on its own
+ * and order of the whole range is kept. Split is possible only before traversal started.
+ */
+public final class RangeSpliterator<D, E extends Entry<D>> implements Spliterator<E> {
+
+    private final Source<D, E> source;
+    private D from;
+    private final D to;
+    private Iterator<E> iterator;
+
+    public RangeSpliterator(Source<D, E> source, D from, D to) {
+        this.source = source;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Returns stream of entries with keys between from (inclusive) and to (exclusive).
+     * @param parallel whether stream is parallel
+     * @return entries [from;to)
+     */
+    public static <D, E extends Entry<D>> Stream<E> stream(Source<D, E> source, D from, D to, boolean parallel) {
+        return StreamSupport.stream(new RangeSpliterator<>(source, from, to), parallel);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        Iterator<E> entries = entries();
+        if (!entries.hasNext()) {
+            return false;
+        }
+        action.accept(entries.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+        entries().forEachRemaining(action);
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        if (iterator != null) {
+            return null;
+        }
+        D splitKey = source.splitKey(from, to);
+        if (splitKey == null) {
+            return null;
+        }
+        RangeSpliterator<D, E> prefix = new RangeSpliterator<>(source, from, splitKey);
+        from = splitKey;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL;
+    }
+
+    private Iterator<E> entries() {
+        if (iterator == null) {
+            try {
+                iterator = source.get(from, to);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return iterator;
+    }
+
+    /**
+     * Data of the range, usually bound to one state of dao.
+     */
+    public interface Source<D, E extends Entry<D>> {
+
+        /**
+         * Returns ordered iterator of live entries with keys between from (inclusive) and to (exclusive).
+         */
+        Iterator<E> get(D from, D to) throws IOException;
+
+        /**
+         * Returns key strictly between from and to splitting the range into parts of comparable size,
+         * or null if range is too small to split.
+         * @param from lower bound of range (inclusive), null means no bound
+         * @param to upper bound of range (exclusive), null means no bound
+         */
+        D splitKey(D from, D to);
+    }
+}
@@ -0,0 +1,66 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Entries to upsert together, see {@link Dao#write(WriteBatch)}.
+ * Entries are applied in order of adding, so later entry wins over earlier one with the same key.
+ */
+public final class WriteBatch<D, E extends Entry<D>> implements Iterable<E> {
+
+    private final List<E> entries;
+
+    private WriteBatch(List<E> entries) {
+        this.entries = entries;
+    }
+
+    public static <D, E extends Entry<D>> Builder<D, E> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Returns entries in order of adding.
+     * @return unmodifiable list of entries
+     */
+    public List<E> entries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return entries.iterator();
+    }
+
+    public static final class Builder<D, E extends Entry<D>> {
+
+        private final List<E> entries = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds entry to upsert, entry with null value removes the key.
+         * @param entry element to upsert
+         * @return this builder
+         */
+        public Builder<D, E> upsert(E entry) {
+            entries.add(Objects.requireNonNull(entry, "entry"));
+            return this;
+        }
+
+        public WriteBatch<D, E> build() {
+            return new WriteBatch<>(List.copyOf(entries));
+        }
+    }
+}
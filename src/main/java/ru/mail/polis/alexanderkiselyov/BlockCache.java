@@ -0,0 +1,122 @@
+package ru.mail.polis.alexanderkiselyov;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-capacity cache of file blocks kept off-heap, may be shared by several daos.
+ * Block is identified by file id and block number, file gets new id every time it is opened
+ * by {@link FileOperations}, so blocks of replaced files are never returned and just get evicted.
+ * Eviction is CLOCK: hit marks the slot, hand clears marks and takes the first unmarked slot.
+ */
+public class BlockCache {
+    public static final long DEFAULT_CAPACITY_BYTES = 16L * 1024 * 1024;
+    static final int BLOCK_SIZE = 4096;
+
+    // blocks are kept in direct buffers allocated on first use, at most capacity / BLOCK_SIZE of them
+    private final ByteBuffer[] slots;
+    private final long[] slotKeys;
+    private final int[] slotSizes;
+    private final boolean[] referenced;
+    private final Map<Long, Integer> slotsByKey = new HashMap<>();
+    private int usedSlots;
+    private int clockHand;
+    private final AtomicInteger fileIds = new AtomicInteger();
+
+    public BlockCache(long capacityBytes) {
+        int count = (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacityBytes / BLOCK_SIZE));
+        slots = new ByteBuffer[count];
+        slotKeys = new long[count];
+        slotSizes = new int[count];
+        referenced = new boolean[count];
+    }
+
+    int nextFileId() {
+        return fileIds.getAndIncrement();
+    }
+
+    /**
+     * Fills dst with file bytes starting at position, missing blocks are read from channel.
+     */
+    void read(int fileId, FileChannel channel, long position, ByteBuffer dst) throws IOException {
+        long current = position;
+        while (dst.hasRemaining()) {
+            long block = current / BLOCK_SIZE;
+            long key = ((long) fileId << Integer.SIZE) | block;
+            int offset = (int) (current % BLOCK_SIZE);
+            int copied = copy(key, offset, dst);
+            if (copied < 0) {
+                load(key, channel, block);
+                continue;
+            }
+            if (copied == 0) {
+                throw new EOFException("Read after end of file at " + current);
+            }
+            current += copied;
+        }
+    }
+
+    // -1 if block is not cached, 0 if offset is after end of file
+    private synchronized int copy(long key, int offset, ByteBuffer dst) {
+        Integer slot = slotsByKey.get(key);
+        if (slot == null) {
+            return -1;
+        }
+        referenced[slot] = true;
+        int length = Math.min(slotSizes[slot] - offset, dst.remaining());
+        if (length <= 0) {
+            return 0;
+        }
+        dst.put(dst.position(), slots[slot], offset, length);
+        dst.position(dst.position() + length);
+        return length;
+    }
+
+    // disk is read without lock, so misses of different threads do not wait for each other
+    private void load(long key, FileChannel channel, long block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        long position = block * BLOCK_SIZE;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        put(key, buffer);
+    }
+
+    private synchronized void put(long key, ByteBuffer block) {
+        if (slotsByKey.containsKey(key)) {
+            return;
+        }
+        int slot;
+        if (usedSlots < slots.length) {
+            slot = usedSlots++;
+            slots[slot] = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        } else {
+            slot = evict();
+            slotsByKey.remove(slotKeys[slot]);
+        }
+        slots[slot].put(0, block, 0, block.remaining());
+        slotKeys[slot] = key;
+        slotSizes[slot] = block.remaining();
+        referenced[slot] = true;
+        slotsByKey.put(key, slot);
+    }
+
+    private int evict() {
+        while (referenced[clockHand]) {
+            referenced[clockHand] = false;
+            clockHand = (clockHand + 1) % slots.length;
+        }
+        int slot = clockHand;
+        clockHand = (clockHand + 1) % slots.length;
+        return slot;
+    }
+}
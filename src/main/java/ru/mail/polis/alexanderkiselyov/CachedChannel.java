@@ -0,0 +1,26 @@
+package ru.mail.polis.alexanderkiselyov;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+record CachedChannel(int fileId, FileChannel channel, BlockCache cache) {
+
+    long readLong(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        cache.read(fileId, channel, position, buffer);
+        return buffer.getLong(0);
+    }
+
+    int readInt(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+        cache.read(fileId, channel, position, buffer);
+        return buffer.getInt(0);
+    }
+
+    byte[] readBytes(long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        cache.read(fileId, channel, position, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+}
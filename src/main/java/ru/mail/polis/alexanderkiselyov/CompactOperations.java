@@ -176,15 +176,6 @@ public class CompactOperations {
         Files.move(compactedIndex, basePath.resolve(fileIndexName + "0" + fileIndexExtension), ATOMIC_MOVE);
     }
 
-    void clearFileIterators(List<FileIterator> fileIterators) throws IOException {
-        for (FileIterator fi : fileIterators) {
-            if (fi != null) {
-                fi.close();
-            }
-        }
-        fileIterators.clear();
-    }
-
     void deleteAllFiles(List<Path> ssTables, List<Path> ssIndexes) throws IOException {
         for (Path ssTable : ssTables) {
             Files.delete(ssTable);
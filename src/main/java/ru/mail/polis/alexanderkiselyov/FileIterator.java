@@ -2,28 +2,21 @@ package ru.mail.polis.alexanderkiselyov;
 
 import ru.mail.polis.BaseEntry;
 
-import java.io.Closeable;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
-import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
-public class FileIterator implements Iterator<BaseEntry<byte[]>>, Closeable {
+public class FileIterator implements Iterator<BaseEntry<byte[]>> {
 
-    private final FileChannel channelTable;
-    private final FileChannel channelIndex;
-    private final RandomAccessFile rafTable;
-    private final RandomAccessFile rafIndex;
+    private final CachedChannel channelTable;
+    private final CachedChannel channelIndex;
     private long pos;
     private final long to;
 
-    public FileIterator(Path ssTable, Path ssIndex, byte[] from, byte[] to, long indexSize) throws IOException {
-        rafTable = new RandomAccessFile(String.valueOf(ssTable), "r");
-        rafIndex = new RandomAccessFile(String.valueOf(ssIndex), "r");
-        channelTable = rafTable.getChannel();
-        channelIndex = rafIndex.getChannel();
+    public FileIterator(CachedChannel channelTable, CachedChannel channelIndex,
+                        byte[] from, byte[] to, long indexSize) throws IOException {
+        this.channelTable = channelTable;
+        this.channelIndex = channelIndex;
         pos = from == null ? 0 : FileOperations.getEntryIndex(channelTable, channelIndex, from, indexSize);
         this.to = to == null ? indexSize : FileOperations.getEntryIndex(channelTable, channelIndex, to, indexSize);
     }
@@ -44,12 +37,4 @@ public class FileIterator implements Iterator<BaseEntry<byte[]>>, Closeable {
         pos++;
         return entry;
     }
-
-    @Override
-    public void close() throws IOException {
-        channelTable.close();
-        channelIndex.close();
-        rafTable.close();
-        rafIndex.close();
-    }
 }
@@ -9,6 +9,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -23,7 +24,9 @@ public class FileOperations {
     private final List<Path> ssTables;
     private final List<Path> ssIndexes;
     private final Map<Path, Long> tablesSizes;
-    private final List<FileIterator> fileIterators = new ArrayList<>();
+    // channels are opened once per file and shared by all iterators over it
+    private final Map<Path, CachedChannel> channels;
+    private final BlockCache blockCache;
     private final CompactOperations compactOperations;
     private static final String FILE_NAME = "myData";
     private static final String FILE_EXTENSION = ".dat";
@@ -31,10 +34,16 @@ public class FileOperations {
     private static final String FILE_INDEX_EXTENSION = ".idx";
 
     public FileOperations(Config config) throws IOException {
+        this(config, new BlockCache(BlockCache.DEFAULT_CAPACITY_BYTES));
+    }
+
+    public FileOperations(Config config, BlockCache blockCache) throws IOException {
         basePath = config.basePath();
         ssTables = new ArrayList<>();
         ssIndexes = new ArrayList<>();
         tablesSizes = new ConcurrentHashMap<>();
+        channels = new ConcurrentHashMap<>();
+        this.blockCache = blockCache;
         compactOperations = new CompactOperations(FILE_NAME, FILE_EXTENSION, FILE_INDEX_NAME, FILE_INDEX_EXTENSION);
         Map<Path, Path> allData = compactOperations.checkFiles(basePath);
         getDataInfo(allData);
@@ -48,9 +57,15 @@ public class FileOperations {
         }
         for (int i = 0; i < filesCount; i++) {
             tablesSizes.put(ssIndexes.get(i), indexSize(ssIndexes.get(i)));
+            channels.put(ssTables.get(i), openChannel(ssTables.get(i)));
+            channels.put(ssIndexes.get(i), openChannel(ssIndexes.get(i)));
         }
     }
 
+    private CachedChannel openChannel(Path file) throws IOException {
+        return new CachedChannel(blockCache.nextFileId(), FileChannel.open(file, StandardOpenOption.READ), blockCache);
+    }
+
     Iterator<BaseEntry<byte[]>> diskIterator(byte[] from, byte[] to) throws IOException {
         List<IndexedPeekIterator> peekIterators = new ArrayList<>();
         for (int i = 0; i < ssTables.size(); i++) {
@@ -63,12 +78,10 @@ public class FileOperations {
     private Iterator<BaseEntry<byte[]>> diskIterator(Path ssTable, Path ssIndex, byte[] from, byte[] to)
             throws IOException {
         long indexSize = tablesSizes.get(ssIndex);
-        FileIterator fileIterator = new FileIterator(ssTable, ssIndex, from, to, indexSize);
-        fileIterators.add(fileIterator);
-        return fileIterator;
+        return new FileIterator(channels.get(ssTable), channels.get(ssIndex), from, to, indexSize);
     }
 
-    static long getEntryIndex(FileChannel channelTable, FileChannel channelIndex,
+    static long getEntryIndex(CachedChannel channelTable, CachedChannel channelIndex,
                               byte[] key, long indexSize) throws IOException {
         long low = 0;
         long high = indexSize - 1;
@@ -93,7 +106,7 @@ public class FileOperations {
             return;
         }
         compactOperations.saveDataAndIndexesCompact(iterator, basePath);
-        compactOperations.clearFileIterators(fileIterators);
+        closeChannels();
         compactOperations.deleteAllFiles(ssTables, ssIndexes);
         compactOperations.renameCompactedFile(basePath);
         ssTables.clear();
@@ -186,34 +199,25 @@ public class FileOperations {
         return size;
     }
 
-    static BaseEntry<byte[]> getCurrent(long pos, FileChannel channelTable,
-                                        FileChannel channelIndex) throws IOException {
-        long position;
-        channelIndex.position((pos + 1) * Long.BYTES);
-        ByteBuffer buffLong = ByteBuffer.allocate(Long.BYTES);
-        channelIndex.read(buffLong);
-        buffLong.flip();
-        position = buffLong.getLong();
-        channelTable.position(position);
-        ByteBuffer buffInt = ByteBuffer.allocate(Integer.BYTES);
-        channelTable.read(buffInt);
-        buffInt.flip();
-        int keyLength = buffInt.getInt();
-        buffInt.clear();
-        ByteBuffer currentKey = ByteBuffer.allocate(keyLength);
-        channelTable.read(currentKey);
-        channelTable.read(buffInt);
-        buffInt.flip();
-        int valueLength = buffInt.getInt();
+    static BaseEntry<byte[]> getCurrent(long pos, CachedChannel channelTable,
+                                        CachedChannel channelIndex) throws IOException {
+        long position = channelIndex.readLong((pos + 1) * Long.BYTES);
+        int keyLength = channelTable.readInt(position);
+        position += Integer.BYTES;
+        byte[] currentKey = channelTable.readBytes(position, keyLength);
+        position += keyLength;
+        int valueLength = channelTable.readInt(position);
         if (valueLength == -1) {
-            return new BaseEntry<>(currentKey.array(), null);
+            return new BaseEntry<>(currentKey, null);
         }
-        ByteBuffer currentValue = ByteBuffer.allocate(valueLength);
-        channelTable.read(currentValue);
-        return new BaseEntry<>(currentKey.array(), currentValue.array());
+        position += Integer.BYTES;
+        return new BaseEntry<>(currentKey, channelTable.readBytes(position, valueLength));
     }
 
-    public void clearFileIterators() throws IOException {
-        compactOperations.clearFileIterators(fileIterators);
+    public void closeChannels() throws IOException {
+        for (CachedChannel cachedChannel : channels.values()) {
+            cachedChannel.channel().close();
+        }
+        channels.clear();
     }
 }
@@ -16,8 +16,15 @@ public class InMemoryDao implements Dao<byte[], BaseEntry<byte[]>> {
     private final FileOperations fileOperations;
 
     public InMemoryDao(Config config) throws IOException {
+        this(config, new BlockCache(BlockCache.DEFAULT_CAPACITY_BYTES));
+    }
+
+    /**
+     * Dao reading its files through given cache, one cache may be passed to several daos to share the budget.
+     */
+    public InMemoryDao(Config config, BlockCache blockCache) throws IOException {
         pairs = new ConcurrentSkipListMap<>(Arrays::compare);
-        fileOperations = new FileOperations(config);
+        fileOperations = new FileOperations(config, blockCache);
     }
 
     @Override
@@ -81,7 +88,7 @@ public class InMemoryDao implements Dao<byte[], BaseEntry<byte[]>> {
     @Override
     public void close() throws IOException {
         flush();
-        fileOperations.clearFileIterators();
+        fileOperations.closeChannels();
         pairs.clear();
     }
 }
@@ -3,6 +3,7 @@ package ru.mail.polis.andreyilchenko;
 import ru.mail.polis.BaseEntry;
 import ru.mail.polis.Config;
 import ru.mail.polis.Dao;
+import ru.mail.polis.MergeIterator;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -12,6 +13,7 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentNavigableMap;
@@ -24,6 +26,8 @@ public class PersistentDao implements Dao<ByteBuffer, BaseEntry<ByteBuffer>> {
     private static final String DATA_EXTENSION = ".d";
     private static final String OFFSETS_EXTENSION = ".o";
     private static final int DEFAULT_ALLOCATE_BUFFER_WRITE_SIZE = 0xA00;
+    private static final Comparator<BaseEntry<ByteBuffer>> KEY_COMPARATOR =
+            (first, second) -> first.key().compareTo(second.key());
 
     private final ConcurrentNavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> entries = new ConcurrentSkipListMap<>();
     private final Path pathToData;
@@ -66,7 +70,18 @@ public class PersistentDao implements Dao<ByteBuffer, BaseEntry<ByteBuffer>> {
                     )
             );
         }
-        return new MergedIterator(iterators);
+        return merge(iterators);
+    }
+
+    /**
+     * Iterator with lower priority wins on equal keys, tombstones are skipped after they shadowed older entries.
+     */
+    static Iterator<BaseEntry<ByteBuffer>> merge(List<PeekingPriorityIterator> iterators) {
+        List<Iterator<BaseEntry<ByteBuffer>>> sorted = iterators.stream()
+                .sorted(Comparator.comparingInt(PeekingPriorityIterator::getPriority))
+                .<Iterator<BaseEntry<ByteBuffer>>>map(iterator -> iterator)
+                .toList();
+        return MergeIterator.of(sorted, KEY_COMPARATOR, entry -> entry.value() == null);
     }
 
     @Override
@@ -4,10 +4,12 @@ import jdk.incubator.foreign.MemorySegment;
 import ru.mail.polis.Config;
 import ru.mail.polis.Dao;
 import ru.mail.polis.Entry;
+import ru.mail.polis.WriteBatch;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -25,10 +27,21 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Config config;
+    private final WriteAheadLog log;
 
+    /**
+     * Creates dao with {@link SyncPolicy#EVERY_WRITE}: upsert returns only after it survives a crash.
+     * Concurrent upserts share one force, so the cost is paid per group of writers, not per upsert.
+     */
     public MemorySegmentDao(Config config) throws IOException {
+        this(config, SyncPolicy.EVERY_WRITE);
+    }
+
+    public MemorySegmentDao(Config config, SyncPolicy syncPolicy) throws IOException {
         this.config = config;
         this.storage = Storage.load(config);
+        // upserts not flushed before previous close are restored from log
+        this.log = WriteAheadLog.open(config.basePath(), syncPolicy, entry -> memory.put(entry.key(), entry));
     }
 
     @Override
@@ -81,12 +94,35 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
 
     @Override
     public void upsert(Entry<MemorySegment> entry) {
+        long sequence;
+        lock.readLock().lock();
+        try {
+            sequence = log.append(List.of(entry), () -> memory.put(entry.key(), entry));
+        } finally {
+            lock.readLock().unlock();
+        }
+        log.sync(sequence);
+    }
+
+    // log gets the batch as one record, so it is replayed whole or not at all;
+    // shared lock like upsert: flush can not split the batch, concurrent readers may see part of it
+    @Override
+    public void write(WriteBatch<MemorySegment, Entry<MemorySegment>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long sequence;
         lock.readLock().lock();
         try {
-            memory.put(entry.key(), entry);
+            sequence = log.append(batch.entries(), () -> {
+                for (Entry<MemorySegment> entry : batch) {
+                    memory.put(entry.key(), entry);
+                }
+            });
         } finally {
             lock.readLock().unlock();
         }
+        log.sync(sequence);
     }
 
     @Override
@@ -99,10 +135,12 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
             if (memory.isEmpty()) {
                 return;
             }
+            long segment = log.rotate();
             storage.close();
             Storage.save(config, storage, memory.values());
             memory = createMemoryStorage();
             this.storage = Storage.load(config);
+            log.deleteSegmentsBefore(segment);
         } finally {
             lock.writeLock().unlock();
         }
@@ -115,9 +153,13 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
             if (memory.isEmpty() && storage.isCompacted()) {
                 return;
             }
+            long segment = log.rotate();
             Storage.compact(config, this::all);
             storage.close();
             memory = createMemoryStorage();
+            // dao stays open, so that close() still closes the log and deletes its last segment
+            this.storage = Storage.load(config);
+            log.deleteSegmentsBefore(segment);
         } finally {
             lock.writeLock().unlock();
         }
@@ -131,10 +173,11 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
                 return;
             }
             storage.close();
-            if (memory.isEmpty()) {
-                return;
+            log.close();
+            if (!memory.isEmpty()) {
+                Storage.save(config, storage, memory.values());
             }
-            Storage.save(config, storage, memory.values());
+            log.deleteSegmentsBefore(Long.MAX_VALUE);
         } finally {
             lock.writeLock().unlock();
         }
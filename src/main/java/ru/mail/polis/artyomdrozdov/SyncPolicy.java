@@ -0,0 +1,40 @@
+package ru.mail.polis.artyomdrozdov;
+
+/**
+ * When write-ahead log forces appended records to disk.
+ * Only {@link #EVERY_WRITE} keeps acknowledged upserts after power loss, so it is the default of dao;
+ * the others trade the last upserts (all unforced or ones of the last interval) for latency.
+ */
+public final class SyncPolicy {
+
+    // upsert returns after its record is forced, concurrent upserts share one force
+    public static final SyncPolicy EVERY_WRITE = new SyncPolicy(0);
+    // records are written to file by background writer, force is left to OS
+    public static final SyncPolicy NONE = new SyncPolicy(-1);
+
+    private final long intervalMillis;
+
+    private SyncPolicy(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    // upsert does not wait, records are forced not later than interval after append
+    public static SyncPolicy periodic(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive: " + intervalMillis);
+        }
+        return new SyncPolicy(intervalMillis);
+    }
+
+    boolean isEveryWrite() {
+        return intervalMillis == 0;
+    }
+
+    boolean isPeriodic() {
+        return intervalMillis > 0;
+    }
+
+    long intervalMillis() {
+        return intervalMillis;
+    }
+}
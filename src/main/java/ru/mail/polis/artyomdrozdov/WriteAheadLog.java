@@ -0,0 +1,384 @@
+package ru.mail.polis.artyomdrozdov;
+
+import jdk.incubator.foreign.MemorySegment;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.Entry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of upserts which are not flushed yet.
+ * Record: (size)(crc)[(keySize)(key)(valueSize)(value)]+, valueSize is -1 for tombstone,
+ * size and crc cover everything after crc. Record holds entries of one upsert or one batch.
+ * Log is split to segments wal<N>.log, new segment is started before memory is saved
+ * so old ones can be deleted after save.
+ * Appends are queued and written by one writer thread, so concurrent appends share one write and one force.
+ */
+class WriteAheadLog implements Closeable {
+
+    private static final String FILE_NAME = "wal";
+    private static final String FILE_EXT = ".log";
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES * 2;
+    private static final long TOMBSTONE_SIZE = -1;
+
+    private final Path basePath;
+    private final SyncPolicy syncPolicy;
+    private final Thread writer;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition appendedCondition = lock.newCondition();
+    private final Condition writtenCondition = lock.newCondition();
+
+    // guarded by lock
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private long appended;
+    private long written;
+    private long synced;
+    private IOException failure;
+    private boolean closed;
+    private FileChannel channel;
+    private long segment;
+
+    private WriteAheadLog(Path basePath, SyncPolicy syncPolicy, long segment) throws IOException {
+        this.basePath = basePath;
+        this.syncPolicy = syncPolicy;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        this.writer = new Thread(this::writeLoop, "wal-writer-" + basePath.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Passes records of all existing segments to consumer in order of appending and opens new segment after them.
+     * Incomplete or corrupted record ends its segment: it is a write interrupted by crash.
+     */
+    static WriteAheadLog open(
+            Path basePath,
+            SyncPolicy syncPolicy,
+            Consumer<Entry<MemorySegment>> consumer) throws IOException {
+        long[] segments = segments(basePath);
+        for (long segment : segments) {
+            replay(segmentPath(basePath, segment), consumer);
+        }
+        long next = segments.length == 0 ? 0 : segments[segments.length - 1] + 1;
+        return new WriteAheadLog(basePath, syncPolicy, next);
+    }
+
+    /**
+     * Queues one record of all entries, action is run under the same lock to keep memory and log in the same order.
+     * Returns sequence number of the record to pass to {@link #sync(long)}.
+     */
+    long append(Collection<? extends Entry<MemorySegment>> entries, Runnable action) {
+        ByteBuffer record = encode(entries);
+        lock.lock();
+        try {
+            checkState();
+            action.run();
+            pending.add(record);
+            appendedCondition.signal();
+            return ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until record is forced for {@link SyncPolicy#EVERY_WRITE}, returns right away otherwise.
+     * Concurrent waiters are released by one force.
+     */
+    void sync(long sequence) {
+        if (!syncPolicy.isEveryWrite()) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (synced < sequence && failure == null) {
+                writtenCondition.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Log write failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts new segment after all queued records are written to the current one.
+     * Returns number of the new segment, segments before it hold only records appended before this call.
+     * Caller must exclude concurrent appends.
+     */
+    long rotate() throws IOException {
+        lock.lock();
+        try {
+            while (written < appended && failure == null) {
+                writtenCondition.awaitUninterruptibly();
+            }
+            checkFailure();
+            // records of old segment may be waited by sync after their memory is saved
+            channel.force(false);
+            synced = written;
+            writtenCondition.signalAll();
+            channel.close();
+            segment++;
+            channel = openSegment(segment);
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void deleteSegmentsBefore(long segment) throws IOException {
+        for (long existing : segments(basePath)) {
+            if (existing < segment) {
+                Files.deleteIfExists(segmentPath(basePath, existing));
+            }
+        }
+    }
+
+    /**
+     * Writes and forces queued records and stops writer, segments are kept.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            appendedCondition.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing log", e);
+        }
+        lock.lock();
+        try {
+            if (failure == null) {
+                channel.force(false);
+            }
+            channel.close();
+            checkFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        long lastSync = System.nanoTime();
+        while (true) {
+            List<ByteBuffer> batch;
+            FileChannel target;
+            long batchEnd;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed && !(written > synced && syncDue(lastSync))) {
+                    if (syncPolicy.isPeriodic() && written > synced) {
+                        long waitNanos = lastSync + TimeUnit.MILLISECONDS.toNanos(syncPolicy.intervalMillis())
+                                - System.nanoTime();
+                        appendedCondition.awaitNanos(Math.max(waitNanos, 1));
+                    } else {
+                        appendedCondition.await();
+                    }
+                }
+                if (pending.isEmpty() && closed) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                target = channel;
+                batchEnd = appended;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(new IOException("Log writer is interrupted", e));
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                long remaining = 0;
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= target.write(buffers);
+                }
+                boolean force = syncPolicy.isEveryWrite() || syncDue(lastSync);
+                if (force) {
+                    target.force(false);
+                    lastSync = System.nanoTime();
+                }
+
+                lock.lock();
+                try {
+                    written = batchEnd;
+                    if (force) {
+                        synced = batchEnd;
+                    }
+                    writtenCondition.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+        }
+    }
+
+    private boolean syncDue(long lastSync) {
+        return syncPolicy.isPeriodic()
+                && System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(syncPolicy.intervalMillis());
+    }
+
+    private void fail(IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            writtenCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkState() {
+        if (failure != null) {
+            throw new UncheckedIOException("Log write failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Log is closed");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Log write failed", failure);
+        }
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        return FileChannel.open(
+                segmentPath(basePath, segment),
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE
+        );
+    }
+
+    private static ByteBuffer encode(Collection<? extends Entry<MemorySegment>> entries) {
+        long payloadSize = 0;
+        for (Entry<MemorySegment> entry : entries) {
+            payloadSize += Long.BYTES * 2 + entry.key().byteSize();
+            if (entry.value() != null) {
+                payloadSize += entry.value().byteSize();
+            }
+        }
+        if (payloadSize > Integer.MAX_VALUE - RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Entries are too big for log: " + payloadSize);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + (int) payloadSize);
+        // segments may be backed by any memory, so bytes are copied segment to segment
+        MemorySegment recordSegment = MemorySegment.ofArray(record.array());
+        int offset = RECORD_HEADER_SIZE;
+        for (Entry<MemorySegment> entry : entries) {
+            MemorySegment key = entry.key();
+            MemorySegment value = entry.value();
+            record.putLong(offset, key.byteSize());
+            offset += Long.BYTES;
+            recordSegment.asSlice(offset, key.byteSize()).copyFrom(key);
+            offset += (int) key.byteSize();
+            record.putLong(offset, value == null ? TOMBSTONE_SIZE : value.byteSize());
+            offset += Long.BYTES;
+            if (value != null) {
+                recordSegment.asSlice(offset, value.byteSize()).copyFrom(value);
+                offset += (int) value.byteSize();
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_SIZE, (int) payloadSize);
+        record.putInt(0, (int) payloadSize);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        return record;
+    }
+
+    private static void replay(Path segmentPath, Consumer<Entry<MemorySegment>> consumer) throws IOException {
+        byte[] bytes = Files.readAllBytes(segmentPath);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        MemorySegment segment = MemorySegment.ofArray(bytes);
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int payloadSize = buffer.getInt(start);
+            int checksum = buffer.getInt(start + Integer.BYTES);
+            int payloadStart = start + RECORD_HEADER_SIZE;
+            if (payloadSize < Long.BYTES * 2 || payloadSize > bytes.length - payloadStart) {
+                return;
+            }
+            crc.reset();
+            crc.update(bytes, payloadStart, payloadSize);
+            if ((int) crc.getValue() != checksum) {
+                return;
+            }
+
+            int payloadEnd = payloadStart + payloadSize;
+            int offset = payloadStart;
+            while (offset < payloadEnd) {
+                long keySize = buffer.getLong(offset);
+                MemorySegment key = segment.asSlice(offset + Long.BYTES, keySize);
+                offset += Long.BYTES + (int) keySize;
+                long valueSize = buffer.getLong(offset);
+                offset += Long.BYTES;
+                MemorySegment value = null;
+                if (valueSize != TOMBSTONE_SIZE) {
+                    value = segment.asSlice(offset, valueSize);
+                    offset += (int) valueSize;
+                }
+                consumer.accept(new BaseEntry<>(key, value));
+            }
+            buffer.position(payloadEnd);
+        }
+    }
+
+    private static long[] segments(Path basePath) throws IOException {
+        try (Stream<Path> files = Files.list(basePath)) {
+            return files
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(FILE_NAME) && name.endsWith(FILE_EXT))
+                    .map(name -> name.substring(FILE_NAME.length(), name.length() - FILE_EXT.length()))
+                    .filter(number -> !number.isEmpty() && number.chars().allMatch(Character::isDigit))
+                    .mapToLong(Long::parseLong)
+                    .sorted()
+                    .toArray();
+        }
+    }
+
+    private static Path segmentPath(Path basePath, long segment) {
+        return basePath.resolve(FILE_NAME + segment + FILE_EXT);
+    }
+}
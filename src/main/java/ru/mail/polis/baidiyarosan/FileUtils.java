@@ -21,24 +21,37 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.stream.Stream;
 
 public final class FileUtils {
 
     public static final String INDEX_FOLDER = "indexes";
 
+    // output of running compaction, moved to its place only when complete
+    public static final String COMPACTION_FOLDER = "compaction";
+
     public static final String DATA_FILE_HEADER = "data";
 
     public static final String COMPACTED_DATA_FILE_HEADER = "comp_data";
 
     public static final String INDEX_FILE_HEADER = "index";
 
+    // "first last count written phase" of compaction which output is complete, see finishCompaction
+    public static final String COMMIT_FILE_HEADER = "commit";
+
     public static final String FILE_EXTENSION = ".log";
 
     public static final int NULL_SIZE_FLAG = -1;
 
     private static final int COMPACTED_FILE_INDEX = 0;
 
+    // inputs are deleted and output is moved to their place
+    private static final int PHASE_REPLACE = 0;
+
+    // later files are renumbered to close the gap
+    private static final int PHASE_SHIFT = 1;
+
     private static Unsafe UNSAFE;
 
     // unsafe hack that need to delete files on windows
@@ -72,7 +85,7 @@ public final class FileUtils {
 
     // windows method that close files before delete
     public static void clearFrom(List<MappedByteBuffer> list, int number) {
-        if (list.size() < number) {
+        if (list.size() < number || list.get(number - 1) == null) {
             return;
         }
 
@@ -102,6 +115,121 @@ public final class FileUtils {
         return directory.resolve(Paths.get(INDEX_FOLDER, INDEX_FILE_HEADER + fileNumber + FILE_EXTENSION));
     }
 
+    // data file of given number, either flushed or compacted
+    public static Path getExistingDataPath(Path directory, int fileNumber) {
+        if (isCompacted(directory, fileNumber)) {
+            return getCompactedDataPath(directory, fileNumber);
+        }
+        return getDataPath(directory, fileNumber);
+    }
+
+    public static Path getCompactionDataPath(Path directory) {
+        return directory.resolve(Paths.get(COMPACTION_FOLDER, COMPACTED_DATA_FILE_HEADER + FILE_EXTENSION));
+    }
+
+    public static Path getCompactionIndexPath(Path directory) {
+        return directory.resolve(Paths.get(COMPACTION_FOLDER, INDEX_FILE_HEADER + FILE_EXTENSION));
+    }
+
+    public static Path getCompactionCommitPath(Path directory) {
+        return directory.resolve(Paths.get(COMPACTION_FOLDER, COMMIT_FILE_HEADER + FILE_EXTENSION));
+    }
+
+    /**
+     * Makes compaction of files from first to last durable, the output is in compaction folder if written.
+     * Since that moment startup finishes the compaction instead of dropping its output.
+     * @param count number of files at the moment of commit
+     */
+    public static void commitCompaction(Path directory, int first, int last, int count, boolean written)
+            throws IOException {
+        writeCommit(directory, new int[]{first, last, count, written ? 1 : 0, PHASE_REPLACE});
+    }
+
+    /**
+     * Replaces committed files with compaction output and renumbers later files, so that numbering has no gaps.
+     * Every step can be repeated after crash, so it is called on startup too.
+     * Without commit, output of unfinished compaction is deleted and files stay untouched.
+     */
+    public static void finishCompaction(Path directory) throws IOException {
+        Path commitPath = getCompactionCommitPath(directory);
+        Path dataPath = getCompactionDataPath(directory);
+        Path indexPath = getCompactionIndexPath(directory);
+        if (Files.notExists(commitPath)) {
+            Files.deleteIfExists(dataPath);
+            Files.deleteIfExists(indexPath);
+            return;
+        }
+        int[] commit = Files.readAllLines(commitPath).stream()
+                .flatMap(line -> Stream.of(line.split(" ")))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        int first = commit[0];
+        int last = commit[1];
+        int count = commit[2];
+        boolean written = commit[3] == 1;
+        if (commit[4] == PHASE_REPLACE) {
+            // output data is moved only after inputs are deleted, so slot of first file is not its output
+            if (!written || Files.exists(dataPath)) {
+                for (int i = first; i <= last; ++i) {
+                    deleteFile(directory, i);
+                }
+            }
+            if (written && Files.exists(dataPath)) {
+                Files.move(dataPath, getCompactedDataPath(directory, first), StandardCopyOption.ATOMIC_MOVE);
+            }
+            if (written && Files.exists(indexPath)) {
+                Files.move(indexPath, getIndexPath(directory, first), StandardCopyOption.ATOMIC_MOVE);
+            }
+            writeCommit(directory, new int[]{first, last, count, commit[3], PHASE_SHIFT});
+        }
+        int shift = written ? last - first : last + 1 - first;
+        // files are moved in ascending order to free slots, so occupied slot means the file is already moved
+        for (int i = last + 1; i <= count; ++i) {
+            renameFile(directory, i, i - shift);
+        }
+        Files.delete(commitPath);
+    }
+
+    private static void writeCommit(Path directory, int[] commit) throws IOException {
+        Path commitPath = getCompactionCommitPath(directory);
+        Path tmpPath = commitPath.resolveSibling(COMMIT_FILE_HEADER + ".tmp");
+        StringBuilder line = new StringBuilder();
+        for (int value : commit) {
+            line.append(value).append(' ');
+        }
+        Files.writeString(tmpPath, line.toString().trim());
+        Files.move(tmpPath, commitPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static MappedByteBuffer map(Path filePath) throws IOException {
+        try (FileChannel in = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+    }
+
+    public static void deleteFile(Path directory, int fileNumber) throws IOException {
+        Files.deleteIfExists(getIndexPath(directory, fileNumber));
+        Files.deleteIfExists(getDataPath(directory, fileNumber));
+        Files.deleteIfExists(getCompactedDataPath(directory, fileNumber));
+    }
+
+    // moves file to free slot, parts which are already there are not moved again
+    private static void renameFile(Path directory, int fileNumber, int newNumber) throws IOException {
+        if (Files.notExists(getDataPath(directory, newNumber)) && !isCompacted(directory, newNumber)) {
+            Path source = getExistingDataPath(directory, fileNumber);
+            if (Files.exists(source)) {
+                Path target = isCompacted(directory, fileNumber)
+                        ? getCompactedDataPath(directory, newNumber)
+                        : getDataPath(directory, newNumber);
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        if (Files.notExists(getIndexPath(directory, newNumber)) && Files.exists(getIndexPath(directory, fileNumber))) {
+            Files.move(getIndexPath(directory, fileNumber), getIndexPath(directory, newNumber),
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
     public static int sizeOfEntry(BaseEntry<ByteBuffer> entry) {
         return 2 * Integer.BYTES + entry.key().remaining() + (entry.value() == null ? 0 : entry.value().remaining());
     }
@@ -130,26 +258,36 @@ public final class FileUtils {
     }
 
     private static ByteBuffer writeEntryToBuffer(ByteBuffer buffer, BaseEntry<ByteBuffer> entry) {
-        buffer.putInt(entry.key().remaining()).put(entry.key());
+        // duplicates keep entries readable for iterators over flushing collection
+        buffer.putInt(entry.key().remaining()).put(entry.key().duplicate());
         if (entry.value() == null) {
             buffer.putInt(NULL_SIZE_FLAG);
         } else {
-            buffer.putInt(entry.value().remaining()).put(entry.value());
+            buffer.putInt(entry.value().remaining()).put(entry.value().duplicate());
         }
         return buffer.flip();
     }
 
     public static void writeOnDisk(
-            NavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> collection, Path path) throws IOException {
+            NavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> collection, Path path, int fileNumber) throws IOException {
+        write(collection.values().iterator(), getDataPath(path, fileNumber), getIndexPath(path, fileNumber));
+    }
+
+    // returns false if iterator is empty and nothing was written
+    public static boolean write(
+            Iterator<? extends BaseEntry<ByteBuffer>> iter, Path dataPath, Path indexPath) throws IOException {
+        if (!iter.hasNext()) {
+            return false;
+        }
         ByteBuffer buffer = ByteBuffer.wrap(new byte[]{});
         ByteBuffer indexBuffer = ByteBuffer.allocate(Integer.BYTES);
-        int fileNumber = getPaths(path).size() + 1;
-        try (FileChannel dataOut = FileChannel.open(getDataPath(path, fileNumber),
+        try (FileChannel dataOut = FileChannel.open(dataPath,
                 StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
-             FileChannel indexOut = FileChannel.open(getIndexPath(path, fileNumber),
+             FileChannel indexOut = FileChannel.open(indexPath,
                      StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
             int size;
-            for (BaseEntry<ByteBuffer> entry : collection.values()) {
+            while (iter.hasNext()) {
+                BaseEntry<ByteBuffer> entry = iter.next();
                 size = sizeOfEntry(entry);
                 if (buffer.remaining() < size) {
                     buffer = ByteBuffer.allocate(size);
@@ -163,6 +301,7 @@ public final class FileUtils {
                 dataOut.write(writeEntryToBuffer(buffer, entry));
             }
         }
+        return true;
     }
 
     // All files
@@ -177,23 +316,7 @@ public final class FileUtils {
         List<PeekIterator<BaseEntry<ByteBuffer>>> list = new LinkedList<>();
         Collection<BaseEntry<ByteBuffer>> temp;
         for (int i = 0; i < filesCount; ++i) {
-            // file naming starts from 1, collections ordering starts from 0
-            Path filePath;
-            if (isCompacted(path, i + 1)) {
-                filePath = getCompactedDataPath(path, i + 1);
-            } else {
-                filePath = getDataPath(path, i + 1);
-            }
-            Path indexPath = getIndexPath(path, i + 1);
-            if (files.size() <= i || files.get(i) == null) {
-                try (FileChannel in = FileChannel.open(filePath, StandardOpenOption.READ);
-                     FileChannel indexes = FileChannel.open(indexPath, StandardOpenOption.READ)
-                ) {
-                    files.add(i, in.map(FileChannel.MapMode.READ_ONLY, 0, in.size()));
-                    fileIndexes.add(i, indexes.map(FileChannel.MapMode.READ_ONLY, 0, indexes.size()));
-                }
-            }
-
+            mapFile(i, path, files, fileIndexes);
             temp = getInFileCollection(files.get(i), fileIndexes.get(i), from, to);
             if (!temp.isEmpty()) {
                 list.add(new PeekIterator<>(temp.iterator(), filesCount - i));
@@ -203,31 +326,17 @@ public final class FileUtils {
         return list;
     }
 
-    public static void compact(Iterator<? extends BaseEntry<ByteBuffer>> iter, Path path) throws IOException {
-
-        int fileNumber = COMPACTED_FILE_INDEX;
-        if (iter.hasNext()) {
-            ByteBuffer buffer = ByteBuffer.wrap(new byte[]{});
-            ByteBuffer indexBuffer = ByteBuffer.allocate(Integer.BYTES);
-            try (FileChannel dataOut = FileChannel.open(getCompactedDataPath(path, fileNumber),
-                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
-                 FileChannel indexOut = FileChannel.open(getIndexPath(path, fileNumber),
-                         StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
-                int size;
-                while (iter.hasNext()) {
-                    BaseEntry<ByteBuffer> entry = iter.next();
-                    size = sizeOfEntry(entry);
-                    if (buffer.remaining() < size) {
-                        buffer = ByteBuffer.allocate(size);
-                    } else {
-                        buffer.clear();
-                    }
-                    indexBuffer.clear();
-                    indexBuffer.putInt((int) dataOut.position());
-                    indexBuffer.flip();
-                    indexOut.write(indexBuffer);
-                    dataOut.write(writeEntryToBuffer(buffer, entry));
-                }
+    // file naming starts from 1, collections ordering starts from 0, files may be mapped newest first
+    public static void mapFile(int i, Path path, List<MappedByteBuffer> files, List<MappedByteBuffer> fileIndexes)
+            throws IOException {
+        synchronized (files) {
+            while (files.size() <= i) {
+                files.add(null);
+                fileIndexes.add(null);
+            }
+            if (files.get(i) == null) {
+                files.set(i, map(getExistingDataPath(path, i + 1)));
+                fileIndexes.set(i, map(getIndexPath(path, i + 1)));
             }
         }
     }
@@ -293,6 +402,27 @@ public final class FileUtils {
         return collection.subMap(from, to).values();
     }
 
+    // lazy iteration over the whole file, unlike getInFileCollection
+    public static Iterator<BaseEntry<ByteBuffer>> getFileIterator(ByteBuffer file, ByteBuffer index) {
+        return new Iterator<>() {
+            private final int size = index.remaining() / Integer.BYTES;
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < size;
+            }
+
+            @Override
+            public BaseEntry<ByteBuffer> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return readEntry(file, intAt(index, position++));
+            }
+        };
+    }
+
     public static Collection<BaseEntry<ByteBuffer>> getInFileCollection(
             ByteBuffer file, ByteBuffer index, ByteBuffer from, ByteBuffer to) {
         final int size = index.remaining() / Integer.BYTES - 1;
@@ -322,6 +452,17 @@ public final class FileUtils {
         return list;
     }
 
+    // entry with exactly this key, tombstone included, or null if the file has no such key
+    public static BaseEntry<ByteBuffer> getInFile(ByteBuffer file, ByteBuffer index, ByteBuffer key) {
+        final int size = index.remaining() / Integer.BYTES;
+        int position = getIndex(file, index, key, 0, size - 1);
+        if (position == size) {
+            return null;
+        }
+        BaseEntry<ByteBuffer> entry = readEntry(file, intAt(index, position));
+        return entry.key().equals(key) ? entry : null;
+    }
+
     public static int getIndex(ByteBuffer file, ByteBuffer index, ByteBuffer key, int start, int end) {
         int min = start;
         int max = end;
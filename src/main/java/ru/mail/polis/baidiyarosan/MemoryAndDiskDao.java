@@ -3,8 +3,12 @@ package ru.mail.polis.baidiyarosan;
 import ru.mail.polis.BaseEntry;
 import ru.mail.polis.Config;
 import ru.mail.polis.Dao;
+import ru.mail.polis.WriteBatch;
+import ru.mail.polis.metrics.DaoMetrics;
+import ru.mail.polis.metrics.MeteredIterator;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
@@ -17,24 +21,45 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class MemoryAndDiskDao implements Dao<ByteBuffer, BaseEntry<ByteBuffer>> {
 
+    // file fits in bucket if its size is between these fractions of bucket average size
+    private static final double BUCKET_LOW = 0.5;
+
+    private static final double BUCKET_HIGH = 1.5;
+
+    private static final int MAX_BUCKET_FILES = 32;
+
     private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor();
 
     private final ExecutorService compactExecutor = Executors.newSingleThreadExecutor();
 
+    // held shortly to swap collections and files, readers take it for snapshot of them
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
+    // flush and compaction change files numbering under it, readers don't take it
+    private final Lock filesLock = new ReentrantLock();
+
+    private final Lock flushLock = new ReentrantLock();
+
+    private final Lock compactLock = new ReentrantLock();
+
     private final List<MappedByteBuffer> files = new ArrayList<>();
 
     private final List<MappedByteBuffer> fileIndexes = new ArrayList<>();
@@ -43,6 +68,11 @@ public class MemoryAndDiskDao implements Dao<ByteBuffer, BaseEntry<ByteBuffer>>
 
     private final long memMaxBytes;
 
+    // files in bucket to start background compaction, less than 2 turns it off
+    private final int bucketThreshold;
+
+    private final DaoMetrics metrics;
+
     private final AtomicBoolean isClosed = new AtomicBoolean(false);
 
     private final AtomicLong memBytes = new AtomicLong(0);
@@ -50,18 +80,40 @@ public class MemoryAndDiskDao implements Dao<ByteBuffer, BaseEntry<ByteBuffer>>
     private final AtomicInteger filesCount = new AtomicInteger(0);
 
     private volatile NavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> collection;
-    // flush queue is single file
+    // flush queue is single file, collection stays readable until its file is counted
     private volatile NavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> onFlushCollection;
 
+    // changed under flushLock
+    private volatile Future<?> flushTask = CompletableFuture.completedFuture(null);
+
+    // changed under compactLock, failed task passes its failure to the next one until it is thrown
+    private Future<?> compactTask = CompletableFuture.completedFuture(null);
+
     public MemoryAndDiskDao(Config config) throws IOException {
+        this(config, 0);
+    }
+
+    public MemoryAndDiskDao(Config config, int bucketThreshold) throws IOException {
+        this(config, bucketThreshold, DaoMetrics.NONE);
+    }
+
+    public MemoryAndDiskDao(Config config, int bucketThreshold, DaoMetrics metrics) throws IOException {
+        this.metrics = metrics;
         this.path = config.basePath();
         this.memMaxBytes = config.flushThresholdBytes();
+        this.bucketThreshold = bucketThreshold;
         createMemoryData();
-        this.filesCount.set(FileUtils.getPaths(path).size());
         Path indexesDir = path.resolve(Paths.get(FileUtils.INDEX_FOLDER));
         if (Files.notExists(indexesDir)) {
             Files.createDirectory(indexesDir);
         }
+        Path compactionDir = path.resolve(Paths.get(FileUtils.COMPACTION_FOLDER));
+        if (Files.notExists(compactionDir)) {
+            Files.createDirectory(compactionDir);
+        }
+        // committed compaction is finished, uncommitted one is dropped, files must be in place before counting
+        FileUtils.finishCompaction(path);
+        this.filesCount.set(FileUtils.getPaths(path).size());
         FileUtils.clearOldFiles(filesCount.get(), path, fileIndexes, files);
     }
 
@@ -71,38 +123,69 @@ public class MemoryAndDiskDao implements Dao<ByteBuffer, BaseEntry<ByteBuffer>>
 
     @Override
     public Iterator<BaseEntry<ByteBuffer>> get(ByteBuffer from, ByteBuffer to) throws IOException {
+        return MeteredIterator.of(range(from, to), FileUtils::sizeOfEntry, metrics);
+    }
+
+    private Iterator<BaseEntry<ByteBuffer>> range(ByteBuffer from, ByteBuffer to) throws IOException {
         validate();
 
         List<PeekIterator<BaseEntry<ByteBuffer>>> list = new LinkedList<>();
-        Collection<BaseEntry<ByteBuffer>> temp = FileUtils.getInMemoryCollection(collection, from, to);
-        if (!temp.isEmpty()) {
-            list.add(new PeekIterator<>(temp.iterator(), 0));
-        }
-        if (onFlushCollection != null) {
-            temp = FileUtils.getInMemoryCollection(collection, from, to);
+        // compaction swaps files under write lock
+        lock.readLock().lock();
+        try {
+            Collection<BaseEntry<ByteBuffer>> temp = FileUtils.getInMemoryCollection(collection, from, to);
             if (!temp.isEmpty()) {
                 list.add(new PeekIterator<>(temp.iterator(), 0));
             }
+            NavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> flushing = onFlushCollection;
+            if (flushing != null) {
+                temp = FileUtils.getInMemoryCollection(flushing, from, to);
+                if (!temp.isEmpty()) {
+                    list.add(new PeekIterator<>(temp.iterator(), 0));
+                }
+            }
+            list.addAll(FileUtils.getFilesCollection(filesCount.get(), path, files, fileIndexes, from, to));
+        } finally {
+            lock.readLock().unlock();
         }
-        list.addAll(FileUtils.getFilesCollection(filesCount.get(), path, files, fileIndexes, from, to));
         return new MergingIterator(list);
     }
 
+    // no bloom filters, files are searched from the newest until the key is found
     @Override
-    public void upsert(BaseEntry<ByteBuffer> entry) {
+    public BaseEntry<ByteBuffer> get(ByteBuffer key) throws IOException {
         validate();
+
+        BaseEntry<ByteBuffer> entry;
+        int tablesProbed = 0;
         lock.readLock().lock();
         try {
-            int entrySize = FileUtils.sizeOfEntry(entry);
-            if (memBytes.get() + entrySize > memMaxBytes) {
-                try {
-                    flush();
-                } catch (IOException e) {
-                    // can't access file system
-                    throw new UncheckedIOException(e);
-                }
-
+            entry = collection.get(key);
+            NavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> flushing = onFlushCollection;
+            if (entry == null && flushing != null) {
+                entry = flushing.get(key);
+            }
+            for (int i = filesCount.get() - 1; entry == null && i >= 0; --i) {
+                FileUtils.mapFile(i, path, files, fileIndexes);
+                entry = FileUtils.getInFile(files.get(i), fileIndexes.get(i), key);
+                tablesProbed++;
             }
+        } finally {
+            lock.readLock().unlock();
+        }
+        metrics.onGet(tablesProbed);
+        return entry == null || entry.value() == null ? null : entry;
+    }
+
+    @Override
+    public void upsert(BaseEntry<ByteBuffer> entry) {
+        validate();
+        int entrySize = FileUtils.sizeOfEntry(entry);
+        if (memBytes.get() + entrySize > memMaxBytes) {
+            flushOnOverflow(entrySize);
+        }
+        lock.readLock().lock();
+        try {
             memBytes.addAndGet(entrySize);
             collection.put(entry.key(), entry);
         } finally {
@@ -110,21 +193,65 @@ public class MemoryAndDiskDao implements Dao<ByteBuffer, BaseEntry<ByteBuffer>>
         }
     }
 
+    // whole batch goes to one collection: flush can not swap it in the middle of the batch
     @Override
-    public void flush() throws IOException {
+    public void write(WriteBatch<ByteBuffer, BaseEntry<ByteBuffer>> batch) {
         validate();
-
-        if (collection.isEmpty()) {
-            return;
+        int batchSize = 0;
+        for (BaseEntry<ByteBuffer> entry : batch) {
+            batchSize += FileUtils.sizeOfEntry(entry);
         }
-        if (onFlushCollection != null) {
-            throw new UnsupportedOperationException("Can't flush more");
+        if (memBytes.get() + batchSize > memMaxBytes) {
+            flushOnOverflow(batchSize);
+        }
+        lock.readLock().lock();
+        try {
+            memBytes.addAndGet(batchSize);
+            for (BaseEntry<ByteBuffer> entry : batch) {
+                collection.put(entry.key(), entry);
+            }
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        flushExecutor.execute(this::executeFlush);
+    // waits only for previous flush, file is written in background
+    @Override
+    public void flush() throws IOException {
+        validate();
+        flushLock.lock();
+        try {
+            awaitFlush();
+            startFlush();
+        } finally {
+            flushLock.unlock();
+        }
     }
 
-    private void executeFlush() {
+    // memory holds at most two collections, so writer waits if previous one is still flushing
+    private void flushOnOverflow(int bytes) {
+        long stallStart = System.nanoTime();
+        boolean stalled = !flushTask.isDone();
+        flushLock.lock();
+        try {
+            awaitFlush();
+            if (stalled) {
+                metrics.onFlushStall(System.nanoTime() - stallStart);
+            }
+            // another writer may have flushed already
+            if (memBytes.get() + bytes > memMaxBytes) {
+                startFlush();
+            }
+        } catch (IOException e) {
+            // can't access file system
+            throw new UncheckedIOException(e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // previous flush is complete here
+    private void startFlush() {
         lock.writeLock().lock();
         try {
             if (collection.isEmpty()) {
@@ -133,59 +260,268 @@ public class MemoryAndDiskDao implements Dao<ByteBuffer, BaseEntry<ByteBuffer>>
             onFlushCollection = collection;
             createMemoryData();
             memBytes.set(0);
-            FileUtils.writeOnDisk(onFlushCollection, path);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
         } finally {
-            onFlushCollection = null;
-            filesCount.incrementAndGet();
             lock.writeLock().unlock();
         }
+        flushTask = flushExecutor.submit(() -> {
+            executeFlush();
+            return null;
+        });
+    }
+
+    // throws failure of previous flush once, its collection stays readable and is written again by the next flush
+    private void awaitFlush() throws IOException {
+        try {
+            flushTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing");
+        } catch (ExecutionException e) {
+            flushTask = CompletableFuture.completedFuture(null);
+            throw new IOException(e.getCause());
+        }
+        if (onFlushCollection != null) {
+            flushTask = flushExecutor.submit(() -> {
+                executeFlush();
+                return null;
+            });
+            awaitFlush();
+        }
+    }
+
+    // writes without lock, readers see flushing collection until its file is counted
+    private void executeFlush() throws IOException {
+        NavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> flushing = onFlushCollection;
+        long start = System.nanoTime();
+        long bytes;
+        filesLock.lock();
+        try {
+            int fileNumber = filesCount.get() + 1;
+            try {
+                FileUtils.writeOnDisk(flushing, path, fileNumber);
+            } catch (IOException | UncheckedIOException e) {
+                // so that the next flush can write the file again
+                FileUtils.deleteFile(path, fileNumber);
+                throw e;
+            }
+            bytes = Files.size(FileUtils.getDataPath(path, fileNumber));
+            lock.writeLock().lock();
+            try {
+                filesCount.set(fileNumber);
+                onFlushCollection = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            filesLock.unlock();
+        }
+        metrics.onFlush(flushing.size(), bytes, System.nanoTime() - start);
+        if (bucketThreshold > 1) {
+            try {
+                submitCompaction(this::executeTieredCompaction);
+            } catch (RejectedExecutionException e) {
+                // closing, buckets will be checked after next flush
+            }
+        }
     }
 
+    // waits only for previous compaction and throws its failure once, compaction itself goes in background
     @Override
     public void compact() throws IOException {
         validate();
+        awaitCompaction();
         if (!(filesCount.get() > 1 || (filesCount.get() == 1 && !FileUtils.isCompacted(path, 1)))) {
             //don't need compaction
             return;
         }
-        compactExecutor.execute(this::executeCompact);
+        submitCompaction(this::executeCompact);
     }
 
-    private void executeCompact() {
-        lock.writeLock().lock();
+    private void submitCompaction(Compaction compaction) {
+        compactLock.lock();
+        try {
+            Future<?> previous = compactTask;
+            compactTask = compactExecutor.submit(() -> {
+                // executor is single threaded, so previous task is done
+                IOException previousFailure = failureOf(previous);
+                try {
+                    compaction.run();
+                } catch (IOException | UncheckedIOException e) {
+                    if (previousFailure != null) {
+                        e.addSuppressed(previousFailure);
+                    }
+                    throw e;
+                }
+                if (previousFailure != null) {
+                    throw previousFailure;
+                }
+                return null;
+            });
+        } finally {
+            compactLock.unlock();
+        }
+    }
+
+    private void awaitCompaction() throws IOException {
+        Future<?> task;
+        compactLock.lock();
+        try {
+            task = compactTask;
+            compactTask = CompletableFuture.completedFuture(null);
+        } finally {
+            compactLock.unlock();
+        }
+        IOException failure = failureOf(task);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static IOException failureOf(Future<?> task) throws InterruptedIOException {
+        try {
+            task.get();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compacting");
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof IOException cause ? cause
+                    : new IOException("Background compaction failed", e.getCause());
+        }
+    }
+
+    private void executeCompact() throws IOException {
+        compactFiles(1, filesCount.get());
+    }
+
+    private void executeTieredCompaction() throws IOException {
+        int[] bucket = findBucket();
+        while (bucket != null) {
+            compactFiles(bucket[0], bucket[1]);
+            bucket = findBucket();
+        }
+    }
+
+    // bounds of first bucket big enough to be compacted, or null
+    // only neighbour files are bucketed, so merged file keeps its place in files order
+    private int[] findBucket() throws IOException {
+        int count = filesCount.get();
+        int first = 1;
+        long bucketBytes = 0;
+        for (int i = 1; i <= count; ++i) {
+            long size = Files.size(FileUtils.getExistingDataPath(path, i));
+            if (i > first) {
+                double average = (double) bucketBytes / (i - first);
+                if (size < average * BUCKET_LOW || size > average * BUCKET_HIGH) {
+                    if (i - first >= bucketThreshold) {
+                        return new int[]{first, i - 1};
+                    }
+                    first = i;
+                    bucketBytes = 0;
+                }
+            }
+            bucketBytes += size;
+            if (i - first + 1 == MAX_BUCKET_FILES) {
+                return new int[]{first, i};
+            }
+        }
+        if (count - first + 1 >= bucketThreshold) {
+            return new int[]{first, count};
+        }
+        return null;
+    }
+
+    // merge goes without lock, flushes and reads are blocked only while files are swapped
+    // inputs are deleted only after commit, so crash either drops the output or is finished on startup
+    private void compactFiles(int first, int last) throws IOException {
+        long start = System.nanoTime();
+        long inputBytes = 0;
+        List<PeekIterator<BaseEntry<ByteBuffer>>> list = new LinkedList<>();
+        for (int i = first; i <= last; ++i) {
+            inputBytes += Files.size(FileUtils.getExistingDataPath(path, i));
+            // private mapping, shared lists are changed by readers
+            Iterator<BaseEntry<ByteBuffer>> iter = FileUtils.getFileIterator(
+                    FileUtils.map(FileUtils.getExistingDataPath(path, i)),
+                    FileUtils.map(FileUtils.getIndexPath(path, i)));
+            if (iter.hasNext()) {
+                list.add(new PeekIterator<>(iter, last - i));
+            }
+        }
+        Path dataPath = FileUtils.getCompactionDataPath(path);
+        Path indexPath = FileUtils.getCompactionIndexPath(path);
+        // tombstones are still needed if there are older files
+        boolean written = FileUtils.write(new MergingIterator(list, first == 1), dataPath, indexPath);
+        metrics.onCompaction(inputBytes, written ? Files.size(dataPath) : 0, System.nanoTime() - start);
+
+        filesLock.lock();
         try {
             int count = filesCount.get();
-            FileUtils.compact(new MergingIterator(FileUtils.getFilesCollection(count, path, files, fileIndexes)), path);
-            FileUtils.clearOldFiles(count, path, fileIndexes, files);
-            filesCount.set(1);
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            FileUtils.commitCompaction(path, first, last, count, written);
+            int shift = written ? last - first : last + 1 - first;
+            lock.writeLock().lock();
+            try {
+                FileUtils.finishCompaction(path);
+                // deleted files aren't unmapped, returned iterators may still use them
+                // renamed files keep their buffers, compacted one will be mapped on demand
+                shiftMapped(files, first, count - shift, written, shift);
+                shiftMapped(fileIndexes, first, count - shift, written, shift);
+                filesCount.set(count - shift);
+            } finally {
+                lock.writeLock().unlock();
+            }
         } finally {
-            lock.writeLock().unlock();
+            filesLock.unlock();
         }
     }
 
+    private static void shiftMapped(List<MappedByteBuffer> buffers, int first, int filesLeft, boolean written,
+                                    int shift) {
+        List<MappedByteBuffer> shifted = new ArrayList<>(filesLeft);
+        for (int i = 1; i <= filesLeft; ++i) {
+            int oldNumber = i < first ? i : i + shift;
+            if ((written && i == first) || oldNumber > buffers.size()) {
+                shifted.add(null);
+            } else {
+                shifted.add(buffers.get(oldNumber - 1));
+            }
+        }
+        buffers.clear();
+        buffers.addAll(shifted);
+    }
+
     @Override
     public void close() throws IOException {
         if (isClosed.get()) {
             return;
         }
-        flush();
-        flushExecutor.shutdown();
-        compactExecutor.shutdown();
         try {
-            // waits infinitely
-            flushExecutor.awaitTermination(Integer.MAX_VALUE, TimeUnit.DAYS);
-            compactExecutor.awaitTermination(Integer.MAX_VALUE, TimeUnit.DAYS);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            flush();
+            flushLock.lock();
+            try {
+                awaitFlush();
+            } finally {
+                flushLock.unlock();
+            }
+        } finally {
+            flushExecutor.shutdown();
+            compactExecutor.shutdown();
+            try {
+                // waits infinitely
+                flushExecutor.awaitTermination(Integer.MAX_VALUE, TimeUnit.DAYS);
+                compactExecutor.awaitTermination(Integer.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
         }
         isClosed.set(true);
         FileUtils.clearAllFrom(files);
         FileUtils.clearAllFrom(fileIndexes);
+        awaitCompaction();
+    }
 
+    @FunctionalInterface
+    private interface Compaction {
+        void run() throws IOException;
     }
 
     private void validate() {
@@ -17,11 +17,19 @@ public class MergingIterator implements Iterator<BaseEntry<ByteBuffer>> {
 
     private final PriorityQueue<PeekIterator<BaseEntry<ByteBuffer>>> heap;
 
+    // partial compaction must keep tombstones to hide older files
+    private final boolean skipTombstones;
+
     private BaseEntry<ByteBuffer> value;
 
     public MergingIterator(Collection<PeekIterator<BaseEntry<ByteBuffer>>> collection) {
+        this(collection, true);
+    }
+
+    public MergingIterator(Collection<PeekIterator<BaseEntry<ByteBuffer>>> collection, boolean skipTombstones) {
         this.heap = new PriorityQueue<>(COMPARATOR);
         this.heap.addAll(collection);
+        this.skipTombstones = skipTombstones;
     }
 
     @Override
@@ -53,7 +61,7 @@ public class MergingIterator implements Iterator<BaseEntry<ByteBuffer>> {
 
                 filter(entry);
 
-                if (entry.value() != null) {
+                if (entry.value() != null || !skipTombstones) {
                     value = entry;
                     return value;
                 }
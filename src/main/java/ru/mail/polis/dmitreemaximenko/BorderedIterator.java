@@ -30,7 +30,7 @@ public class BorderedIterator implements Iterator<Entry<MemorySegment>> {
     }
 
     public BorderedIterator(MemorySegment from, MemorySegment last, Iterator<Entry<MemorySegment>> iterator,
-                             List<MemorySegment> logs) {
+                             List<LogFile> logs) {
         int sourceId = 0;
         sources = new TreeMap<>(COMPARATOR);
         if (iterator.hasNext()) {
@@ -150,7 +150,11 @@ public class BorderedIterator implements Iterator<Entry<MemorySegment>> {
 
     static class FileEntryIterator implements Iterator<Entry<MemorySegment>> {
         private long offset;
+        private final LogFile file;
         private final MemorySegment log;
+        // blocks of [verifiedFrom;verifiedTo) are verified, sequential reads mostly stay in it
+        private long verifiedFrom;
+        private long verifiedTo;
         private final MemorySegment last;
         private Entry<MemorySegment> next;
         private final long valuesAmount;
@@ -165,9 +169,14 @@ public class BorderedIterator implements Iterator<Entry<MemorySegment>> {
             }
         }
 
-        private FileEntryIterator(MemorySegment from, MemorySegment last, MemorySegment log) {
-            this.log = log;
+        private FileEntryIterator(MemorySegment from, MemorySegment last, LogFile file) {
+            this.file = file;
+            this.log = file.body();
+            if (file.isVerified()) {
+                verifiedTo = Long.MAX_VALUE;
+            }
             if (log.byteSize() > 0) {
+                verify(0, Long.BYTES);
                 valuesAmount = MemoryAccess.getLongAtOffset(log, 0);
                 if (valuesAmount > 0) {
                     offset = getOffsetOfEntryNotLessThan(from);
@@ -204,10 +213,12 @@ public class BorderedIterator implements Iterator<Entry<MemorySegment>> {
             Entry<MemorySegment> entry = null;
             long entryOffset = offset;
             if (entryOffset < log.byteSize()) {
+                verify(entryOffset, 2L * Long.BYTES);
                 long keySize = MemoryAccess.getLongAtOffset(log, entryOffset);
                 entryOffset += Long.BYTES;
                 long valueSize = MemoryAccess.getLongAtOffset(log, entryOffset);
                 entryOffset += Long.BYTES;
+                verify(entryOffset, keySize + Math.max(valueSize, 0));
 
                 MemorySegment currentKey = log.asSlice(entryOffset, keySize);
                 if (valueSize == NULL_VALUE_SIZE) {
@@ -252,16 +263,20 @@ public class BorderedIterator implements Iterator<Entry<MemorySegment>> {
         private MemorySegment getKeyByIndex(long index) {
             long entryOffset = getEntryOffsetByIndex(index);
 
+            verify(entryOffset, 2L * Long.BYTES);
             long keySize = MemoryAccess.getLongAtOffset(log, entryOffset);
             long keyOffset = entryOffset + 2L * Long.BYTES;
+            verify(keyOffset, keySize);
             return log.asSlice(keyOffset, keySize);
         }
 
         private Entry<MemorySegment> getEntryByOffset() {
+            verify(offset, 2L * Long.BYTES);
             long keySize = MemoryAccess.getLongAtOffset(log, offset);
             long valueSize = MemoryAccess.getLongAtOffset(log, offset + Long.BYTES);
 
             long keyOffset = offset + 2L * Long.BYTES;
+            verify(keyOffset, keySize + Math.max(valueSize, 0));
             MemorySegment key = log.asSlice(keyOffset, keySize);
 
             long valueOffset = keyOffset + keySize;
@@ -276,8 +291,19 @@ public class BorderedIterator implements Iterator<Entry<MemorySegment>> {
             return new BaseEntry<>(key, value);
         }
 
+        private void verify(long offset, long length) {
+            if (offset >= verifiedFrom && offset + length <= verifiedTo) {
+                return;
+            }
+            file.check(offset, length);
+            // span is stretched over blocks verified by others, once the whole log is verified checks stop
+            verifiedTo = file.verifiedUntil(offset + length - 1);
+            verifiedFrom = verifiedTo == Long.MAX_VALUE ? 0 : offset / LogFile.BLOCK_SIZE * LogFile.BLOCK_SIZE;
+        }
+
         private long getEntryOffsetByIndex(long index) {
             long indexOffset = Long.BYTES + index * Long.BYTES;
+            verify(indexOffset, Long.BYTES);
             return MemoryAccess.getLongAtOffset(log, indexOffset);
         }
     }
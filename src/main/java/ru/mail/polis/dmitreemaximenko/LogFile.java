@@ -0,0 +1,179 @@
+package ru.mail.polis.dmitreemaximenko;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Mapped log with checksums of its blocks, a block is verified on first read of any byte in it.
+ * Logs written before checksums were introduced have no trailer and are read unverified.
+ * Once a mismatch is found the log is corrupted and every later check of it fails, the file is kept as is.
+ */
+final class LogFile {
+    // values_amount index1 ... indexN k1_size v1_size k1 v1 .... crc(block1) ... crc(blockM) body_size magic
+    static final long BLOCK_SIZE = 64 * 1024;
+    private static final long MAGIC = 0x4C4F474352433332L;
+    private static final long TRAILER_FOOTER_SIZE = 2L * Long.BYTES;
+
+    private final Path path;
+    private final MemorySegment body;
+    private final MemorySegment checksums;
+    private final long blocksCount;
+    // benign race: block may be verified twice, but never marked verified without check
+    private final AtomicIntegerArray verified;
+    private final AtomicLong verifiedBlocks = new AtomicLong();
+    private volatile IOException corruption;
+
+    private LogFile(Path path, MemorySegment body, MemorySegment checksums) {
+        this.path = path;
+        this.body = body;
+        this.checksums = checksums;
+        this.blocksCount = checksums == null ? 0 : blocksCount(body.byteSize());
+        this.verified = checksums == null ? null : new AtomicIntegerArray((int) blocksCount);
+    }
+
+    static LogFile map(Path path, ResourceScope scope) throws IOException {
+        long size = Files.size(path);
+        MemorySegment log = MemorySegment.mapFile(path, 0, size, FileChannel.MapMode.READ_ONLY, scope);
+        if (size < TRAILER_FOOTER_SIZE || MemoryAccess.getLongAtOffset(log, size - Long.BYTES) != MAGIC) {
+            return new LogFile(path, log, null);
+        }
+
+        long bodySize = MemoryAccess.getLongAtOffset(log, size - TRAILER_FOOTER_SIZE);
+        if (bodySize < 0 || bodySize > size || trailerSize(bodySize) != size - bodySize) {
+            throw new IOException("Broken checksums trailer of " + path);
+        }
+        return new LogFile(path, log.asSlice(0, bodySize),
+                log.asSlice(bodySize, blocksCount(bodySize) * Integer.BYTES));
+    }
+
+    static long trailerSize(long bodySize) {
+        return blocksCount(bodySize) * Integer.BYTES + TRAILER_FOOTER_SIZE;
+    }
+
+    /**
+     * Writes trailer after body of the log, log must be of size bodySize + trailerSize(bodySize).
+     */
+    static void writeTrailer(MemorySegment log, long bodySize) {
+        long offset = bodySize;
+        for (long block = 0; block < blocksCount(bodySize); block++) {
+            MemoryAccess.setIntAtOffset(log, offset, checksum(log, block, bodySize));
+            offset += Integer.BYTES;
+        }
+        MemoryAccess.setLongAtOffset(log, offset, bodySize);
+        MemoryAccess.setLongAtOffset(log, offset + Long.BYTES, MAGIC);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    MemorySegment body() {
+        return body;
+    }
+
+    boolean hasChecksums() {
+        return checksums != null;
+    }
+
+    long blocksCount() {
+        return blocksCount;
+    }
+
+    /**
+     * Whether nothing is left to check: the log has no checksums or all its blocks are verified.
+     */
+    boolean isVerified() {
+        return verifiedBlocks.get() == blocksCount;
+    }
+
+    IOException corruption() {
+        return corruption;
+    }
+
+    /**
+     * Verifies blocks containing bytes [offset;offset + length) of body.
+     *
+     * @throws UncheckedIOException if checksum does not match or the log is already found corrupted
+     */
+    void check(long offset, long length) {
+        if (verified == null || length <= 0) {
+            return;
+        }
+        IOException failure = corruption;
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+        long last = (offset + length - 1) / BLOCK_SIZE;
+        for (long block = offset / BLOCK_SIZE; block <= last; block++) {
+            if (verified.get((int) block) == 0) {
+                verifyBlock(block);
+            }
+        }
+    }
+
+    /**
+     * Returns end of verified blocks run starting at the given verified block.
+     */
+    long verifiedUntil(long offset) {
+        if (isVerified()) {
+            return Long.MAX_VALUE;
+        }
+        long block = offset / BLOCK_SIZE + 1;
+        while (block < blocksCount && verified.get((int) block) != 0) {
+            block++;
+        }
+        return block * BLOCK_SIZE;
+    }
+
+    /**
+     * Verifies block if it was not read yet.
+     *
+     * @return size of verified block in bytes, 0 if it was already verified
+     */
+    long scrub(long block) {
+        if (verified.get((int) block) != 0) {
+            return 0;
+        }
+        verifyBlock(block);
+        return blockSize(block, body.byteSize());
+    }
+
+    private void verifyBlock(long block) {
+        int expected = MemoryAccess.getIntAtOffset(checksums, block * Integer.BYTES);
+        if (checksum(body, block, body.byteSize()) != expected) {
+            IOException failure = new IOException("Checksum mismatch in block " + block + " of " + path);
+            if (corruption == null) {
+                corruption = failure;
+            }
+            throw new UncheckedIOException(failure);
+        }
+        if (verified.compareAndSet((int) block, 0, 1)) {
+            verifiedBlocks.incrementAndGet();
+        }
+    }
+
+    // direct buffer of mapped segment goes to intrinsic CRC32C, SSE 4.2 or ARMv8 crc instructions
+    private static int checksum(MemorySegment log, long block, long bodySize) {
+        CRC32C crc = new CRC32C();
+        crc.update(log.asSlice(block * BLOCK_SIZE, blockSize(block, bodySize)).asByteBuffer());
+        return (int) crc.getValue();
+    }
+
+    private static long blockSize(long block, long bodySize) {
+        return Math.min(BLOCK_SIZE, bodySize - block * BLOCK_SIZE);
+    }
+
+    private static long blocksCount(long bodySize) {
+        return (bodySize + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+}
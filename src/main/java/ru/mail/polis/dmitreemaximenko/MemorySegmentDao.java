@@ -3,10 +3,16 @@ package ru.mail.polis.dmitreemaximenko;
 import jdk.incubator.foreign.MemoryAccess;
 import jdk.incubator.foreign.MemorySegment;
 import jdk.incubator.foreign.ResourceScope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.mail.polis.Config;
 import ru.mail.polis.Dao;
 import ru.mail.polis.Entry;
+import ru.mail.polis.WriteBatch;
+import ru.mail.polis.metrics.DaoMetrics;
+import ru.mail.polis.metrics.MeteredIterator;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
@@ -19,52 +25,75 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>> {
+    private static final Logger logger = LoggerFactory.getLogger(MemorySegmentDao.class);
     private static final Comparator<MemorySegment> COMPARATOR = NaturalOrderComparator.getInstance();
     private static final String LOG_NAME = "log";
     private static final MemorySegment VERY_FIRST_KEY = MemorySegment.ofArray(new byte[]{});
     private static final long NULL_VALUE_SIZE = -1;
     private static final String TMP_SUFFIX = "tmp";
     private static final int LOG_INDEX_START = 0;
+    private static final long SCRUB_BYTES_PER_SECOND = 32L * 1024 * 1024;
     private int logIndexNextFileName;
     private final ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> data =
             new ConcurrentSkipListMap<>(COMPARATOR);
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Config config;
-    private final List<MemorySegment> logs;
+    private final List<LogFile> logs;
     private final ResourceScope scope = ResourceScope.globalScope();
+    private final DaoMetrics metrics;
+    private final Thread scrubber;
+    private volatile boolean scrubbing;
 
     public MemorySegmentDao() throws IOException {
         this(null);
     }
 
     public MemorySegmentDao(Config config) throws IOException {
+        this(config, DaoMetrics.NONE);
+    }
+
+    public MemorySegmentDao(Config config, DaoMetrics metrics) throws IOException {
         this.config = config;
+        this.metrics = metrics;
         if (config == null) {
             logs = null;
+            scrubber = null;
         } else {
             List<Path> logPaths = getLogPaths();
             logIndexNextFileName = logPaths.size();
             logs = new ArrayList<>(logPaths.size());
 
             for (Path logPath : logPaths) {
-                MemorySegment log;
+                LogFile log;
                 try {
-                    long size = Files.size(logPath);
-                    log = MemorySegment.mapFile(logPath, 0, size, FileChannel.MapMode.READ_ONLY, scope);
+                    log = LogFile.map(logPath, scope);
                 } catch (NoSuchFileException e) {
                     log = null;
                 }
                 logs.add(log);
             }
+
+            scrubbing = true;
+            scrubber = new Thread(this::scrubLogs, "log-scrubber");
+            scrubber.setDaemon(true);
+            scrubber.setPriority(Thread.MIN_PRIORITY);
+            scrubber.start();
         }
     }
 
     @Override
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) throws IOException {
+        return MeteredIterator.of(range(from, to), MemorySegmentDao::sizeOfEntry, metrics);
+    }
+
+    private Iterator<Entry<MemorySegment>> range(MemorySegment from, MemorySegment to) {
         lock.readLock().lock();
         MemorySegment fromValue = from;
         try {
@@ -122,9 +151,74 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
         return config.basePath().resolve(LOG_NAME + LOG_INDEX_START);
     }
 
+    // reads every block of every log once at limited rate, so corruption is found before reads hit it.
+    // Corrupted log is left on disk untouched and fails every later read, found mismatch is logged
+    private void scrubLogs() {
+        long start = System.nanoTime();
+        long scrubbedBytes = 0;
+        for (int i = 0; i < logs.size() && scrubbing; i++) {
+            LogFile log = getLog(i);
+            if (log == null || !log.hasChecksums()) {
+                continue;
+            }
+
+            try {
+                for (long block = 0; block < log.blocksCount() && scrubbing; block++) {
+                    scrubbedBytes += log.scrub(block);
+                    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    long aheadMillis = scrubbedBytes * 1000 / SCRUB_BYTES_PER_SECOND - elapsedMillis;
+                    if (aheadMillis > 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(aheadMillis));
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                logger.error("Log {} is corrupted, reads of it fail until it is restored", log.path(), e);
+            } catch (RuntimeException e) {
+                logger.error("Scrubbing of {} failed", log.path(), e);
+            }
+        }
+    }
+
+    private LogFile getLog(int index) {
+        lock.readLock().lock();
+        try {
+            return logs.get(index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until scrubber has checked all logs.
+     */
+    void awaitScrubbed() throws InterruptedException {
+        if (scrubber != null) {
+            scrubber.join();
+        }
+    }
+
+    private void stopScrubber() {
+        if (scrubber == null) {
+            return;
+        }
+        scrubbing = false;
+        LockSupport.unpark(scrubber);
+        try {
+            scrubber.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long sizeOfEntry(Entry<MemorySegment> entry) {
+        return entry.key().byteSize() + (entry.value() == null ? 0 : entry.value().byteSize());
+    }
+
+    // logs have no filters, every log is searched
     @Override
     public Entry<MemorySegment> get(MemorySegment key) throws IOException {
-        Iterator<Entry<MemorySegment>> iterator = get(key, null);
+        Iterator<Entry<MemorySegment>> iterator = range(key, null);
+        metrics.onGet(logs == null ? 0 : logs.size());
         if (!iterator.hasNext()) {
             return null;
         }
@@ -137,7 +231,7 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
 
     @Override
     public void upsert(Entry<MemorySegment> entry) {
-        lock.readLock().lock();
+        lockWaitingStore(lock.readLock());
         try {
             data.put(entry.key(), entry);
         } finally {
@@ -145,6 +239,29 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
         }
     }
 
+    // one write lock for the whole batch, readers see all of it or nothing
+    @Override
+    public void write(WriteBatch<MemorySegment, Entry<MemorySegment>> batch) {
+        lockWaitingStore(lock.writeLock());
+        try {
+            for (Entry<MemorySegment> entry : batch) {
+                data.put(entry.key(), entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // compaction and close hold write lock while writing log
+    private void lockWaitingStore(Lock writersLock) {
+        if (writersLock.tryLock()) {
+            return;
+        }
+        long stallStart = System.nanoTime();
+        writersLock.lock();
+        metrics.onFlushStall(System.nanoTime() - stallStart);
+    }
+
     // values_amount index1 index2 ... indexN k1_size v1_size k1 v1 ....
     @Override
     public void close() throws IOException {
@@ -152,10 +269,17 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
             return;
         }
 
+        stopScrubber();
         lock.writeLock().lock();
         try {
             if (!data.isEmpty()) {
-                writeValuesToFile(data.values().iterator(), data.values().iterator(), getLogName());
+                long start = System.nanoTime();
+                Path logName = getLogName();
+                Path tmpLogFileName = getTmpLogFileName();
+                writeValuesToFile(data.values().iterator(), data.values().iterator(), tmpLogFileName);
+                Files.move(tmpLogFileName, logName, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                metrics.onFlush(data.size(), Files.size(logName), System.nanoTime() - start);
             }
         } finally {
             lock.writeLock().unlock();
@@ -191,7 +315,7 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
                     MemorySegment.mapFile(
                             fileName,
                             0,
-                            size,
+                            size + LogFile.trailerSize(size),
                             FileChannel.MapMode.READ_WRITE,
                             writeScope);
 
@@ -221,6 +345,9 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
                     dataOffset += value.value().byteSize();
                 }
             }
+
+            LogFile.writeTrailer(log, size);
+            log.force();
         }
     }
 
@@ -240,7 +367,13 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
             // if we crashed after step 2 - values that was only in L1 - still in L1 (which is compact), values that
             // were in L1 and L2 we will use still from L2, values that was in memory now in L1,
             // values that was both in memory and L1 or L2 now in L1
-            writeValuesToFile(get(null, null), get(null, null), tmpLogFileName);
+            long start = System.nanoTime();
+            long inputBytes = 0;
+            for (LogFile log : logs) {
+                inputBytes += log == null ? 0 : log.body().byteSize();
+            }
+            writeValuesToFile(range(null, null), range(null, null), tmpLogFileName);
+            metrics.onCompaction(inputBytes, Files.size(tmpLogFileName), System.nanoTime() - start);
             Files.move(tmpLogFileName, getFirstLogFileName(), StandardCopyOption.ATOMIC_MOVE,
                     StandardCopyOption.REPLACE_EXISTING);
             removeLogFilesExceptFirst();
@@ -30,7 +30,7 @@ public class MemorySegmentInMemoryDao implements Dao<MemorySegment, Entry<Memory
             new ConcurrentSkipListMap<>(COMPARATOR);
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Config config;
-    private final List<MemorySegment> logs;
+    private final List<LogFile> logs;
     private final ResourceScope scope = ResourceScope.newSharedScope();
 
     public MemorySegmentInMemoryDao() throws IOException {
@@ -46,10 +46,9 @@ public class MemorySegmentInMemoryDao implements Dao<MemorySegment, Entry<Memory
             logs = new ArrayList<>(logPaths.size());
 
             for (Path logPath : logPaths) {
-                MemorySegment log;
+                LogFile log;
                 try {
-                    long size = Files.size(logPath);
-                    log = MemorySegment.mapFile(logPath, 0, size, FileChannel.MapMode.READ_ONLY, scope);
+                    log = LogFile.map(logPath, scope);
                 } catch (NoSuchFileException e) {
                     log = null;
                 }
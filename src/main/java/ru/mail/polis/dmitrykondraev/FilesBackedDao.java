@@ -5,6 +5,8 @@ import ru.mail.polis.Config;
 import ru.mail.polis.Dao;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -15,9 +17,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -26,13 +38,37 @@ import java.util.stream.Stream;
  */
 
 public class FilesBackedDao implements Dao<MemorySegment, MemorySegmentEntry> {
-    private final ConcurrentNavigableMap<MemorySegment, MemorySegmentEntry> map =
-            new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
+    // Entries travel map -> flushingMap -> sortedStringTables, readers look in the same order
+    private volatile ConcurrentNavigableMap<MemorySegment, MemorySegmentEntry> map = newMap();
+    private volatile ConcurrentNavigableMap<MemorySegment, MemorySegmentEntry> flushingMap = newMap();
     private final Deque<SortedStringTable> sortedStringTables = new ConcurrentLinkedDeque<>();
     private final Path basePath;
+    private final long flushThresholdBytes;
+    // new tables are written with prefix compressed keys if positive
+    private final int restartInterval;
+    private final LongAdder mapBytes = new LongAdder();
+    private final ReadWriteLock upsertLock = new ReentrantReadWriteLock();
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "dmitrykondraev-flush"));
+    // guards flushTask only, so writers are not blocked by other synchronized operations of dao
+    private final Lock flushLock = new ReentrantLock();
+    private Future<?> flushTask = CompletableFuture.completedFuture(null); // guarded by flushLock
 
     public FilesBackedDao(Config config) throws IOException {
+        this(config, 0);
+    }
+
+    /**
+     * Creates dao, which writes tables with every restartInterval-th key stored in full
+     * and the rest of keys stored as suffix after prefix shared with previous key.
+     */
+    public FilesBackedDao(Config config, int restartInterval) throws IOException {
+        if (restartInterval < 0) {
+            throw new IllegalArgumentException("Negative restart interval: " + restartInterval);
+        }
         basePath = config.basePath();
+        flushThresholdBytes = config.flushThresholdBytes();
+        this.restartInterval = restartInterval;
         try (Stream<Path> list = Files.list(basePath)) {
             list.filter(Files::isDirectory)
                 .sorted(Comparator.reverseOrder())
@@ -45,12 +81,11 @@ public class FilesBackedDao implements Dao<MemorySegment, MemorySegmentEntry> {
         if (from == null) {
             return get(MemorySegmentComparator.MINIMAL, to);
         }
-        Iterator<MemorySegmentEntry> inMemoryIterator = inMemoryGet(from, to);
-        if (sortedStringTables.isEmpty()) {
-            return withoutTomStones(new PeekIterator<>(inMemoryIterator));
-        }
-        List<PeekIterator<MemorySegmentEntry>> iterators = new ArrayList<>(1 + sortedStringTables.size());
+        Iterator<MemorySegmentEntry> inMemoryIterator = inMemoryGet(map, from, to);
+        Iterator<MemorySegmentEntry> flushingIterator = inMemoryGet(flushingMap, from, to);
+        List<PeekIterator<MemorySegmentEntry>> iterators = new ArrayList<>(2 + sortedStringTables.size());
         iterators.add(new PeekIterator<>(inMemoryIterator));
+        iterators.add(new PeekIterator<>(flushingIterator));
         for (SortedStringTable table : sortedStringTables) {
             iterators.add(new PeekIterator<>(table.get(from, to)));
         }
@@ -59,13 +94,29 @@ public class FilesBackedDao implements Dao<MemorySegment, MemorySegmentEntry> {
 
     @Override
     public void upsert(MemorySegmentEntry entry) {
-        // implicit check for non-null entry and entry.key()
-        map.put(entry.key(), entry);
+        upsertLock.readLock().lock();
+        try {
+            // implicit check for non-null entry and entry.key()
+            map.put(entry.key(), entry);
+            mapBytes.add(entry.bytesSize());
+        } finally {
+            upsertLock.readLock().unlock();
+        }
+        if (mapBytes.sum() >= flushThresholdBytes) {
+            try {
+                flushInBackground(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
     @Override
     public MemorySegmentEntry get(MemorySegment key) throws IOException {
         MemorySegmentEntry result = map.get(key);
+        if (result == null) {
+            result = flushingMap.get(key);
+        }
         if (result != null) {
             return result.isTomStone() ? null : result;
         }
@@ -80,25 +131,116 @@ public class FilesBackedDao implements Dao<MemorySegment, MemorySegmentEntry> {
 
     @Override
     public void flush() throws IOException {
-        // NOTE consider factor out format string parameter
-        String directoryName = String.format("%010d", sortedStringTables.size());
-        SortedStringTable.of(Files.createDirectory(basePath.resolve(directoryName)))
-                .write(map.values())
-                .close();
-        sortedStringTables.addFirst(SortedStringTable.of(basePath.resolve(directoryName)));
-        map.clear();
+        flushLock.lock();
+        try {
+            flushInBackground(false);
+            awaitFlush();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Moves map to flushingMap and writes it to new {@link SortedStringTable} in background.
+     * Blocks caller only until previous flush completes.
+     * @param thresholdOnly skip flush if map was already flushed by another writer
+     */
+    private void flushInBackground(boolean thresholdOnly) throws IOException {
+        flushLock.lock();
+        try {
+            awaitFlush();
+            ConcurrentNavigableMap<MemorySegment, MemorySegmentEntry> frozen;
+            upsertLock.writeLock().lock();
+            try {
+                frozen = map;
+                if (frozen.isEmpty() || (thresholdOnly && mapBytes.sum() < flushThresholdBytes)) {
+                    return;
+                }
+                flushingMap = frozen;
+                map = newMap();
+                mapBytes.reset();
+            } finally {
+                upsertLock.writeLock().unlock();
+            }
+            flushTask = submitFlush(frozen);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private Future<?> submitFlush(ConcurrentNavigableMap<MemorySegment, MemorySegmentEntry> frozen) {
+        return flushExecutor.submit(() -> {
+            // NOTE consider factor out format string parameter
+            String directoryName = String.format("%010d", sortedStringTables.size());
+            Path directory = Files.createDirectory(basePath.resolve(directoryName));
+            try {
+                SortedStringTable.of(directory, restartInterval)
+                        .write(frozen.values())
+                        .close();
+            } catch (IOException | UncheckedIOException e) {
+                // so that the next flush can write the table again
+                deleteDirectory(directory);
+                throw e;
+            }
+            sortedStringTables.addFirst(SortedStringTable.of(directory));
+            flushingMap = newMap();
+            return null;
+        });
+    }
+
+    /**
+     * Throws failure of previous flush once, its map stays readable and is written again by the next flush.
+     */
+    private void awaitFlush() throws IOException {
+        try {
+            flushTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing");
+        } catch (ExecutionException e) {
+            flushTask = CompletableFuture.completedFuture(null);
+            throw new IOException(e.getCause());
+        }
+        if (!flushingMap.isEmpty()) {
+            flushTask = submitFlush(flushingMap);
+            awaitFlush();
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (Files.notExists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
     }
 
     @Override
     public void close() throws IOException {
-        flush();
+        try {
+            flush();
+        } finally {
+            flushExecutor.shutdown();
+        }
+    }
+
+    private static ConcurrentNavigableMap<MemorySegment, MemorySegmentEntry> newMap() {
+        return new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
     }
 
     private static <K, V> Iterator<V> iterator(Map<K, V> map) {
         return map.values().iterator();
     }
 
-    private Iterator<MemorySegmentEntry> inMemoryGet(MemorySegment from, MemorySegment to) {
+    private static Iterator<MemorySegmentEntry> inMemoryGet(
+            ConcurrentNavigableMap<MemorySegment, MemorySegmentEntry> map,
+            MemorySegment from,
+            MemorySegment to
+    ) {
         Map<MemorySegment, MemorySegmentEntry> subMap = to == null ? map.tailMap(from) : map.subMap(from, to);
         return iterator(subMap);
     }
@@ -12,23 +12,32 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import static ru.mail.polis.dmitrykondraev.MemorySegmentComparator.INSTANCE;
 
 final class SortedStringTable implements Closeable {
     public static final String INDEX_FILENAME = "index";
     public static final String DATA_FILENAME = "data";
+    // present instead of index file in tables with prefix compressed keys
+    public static final String RESTARTS_FILENAME = "restarts";
+    private static final long RECORD_HEADER_SIZE = Long.BYTES + 2L * Integer.BYTES;
 
     private final Path indexFile;
     private final Path dataFile;
+    private final Path restartsFile;
     // Either dataSegment and offsets both null or both non-null
     private MemorySegment dataSegment;
     private MemorySegment indexSegment;
     private final ResourceScope scope;
+    // every restartInterval-th key is stored in full, 0 means table without prefix compression
+    private int restartInterval;
 
-    private SortedStringTable(Path indexFile, Path dataFile, ResourceScope scope) {
-        this.indexFile = indexFile;
-        this.dataFile = dataFile;
+    private SortedStringTable(Path folderPath, int restartInterval, ResourceScope scope) {
+        this.indexFile = folderPath.resolve(INDEX_FILENAME);
+        this.dataFile = folderPath.resolve(DATA_FILENAME);
+        this.restartsFile = folderPath.resolve(RESTARTS_FILENAME);
+        this.restartInterval = restartInterval;
         this.scope = scope;
     }
 
@@ -36,14 +45,24 @@ final class SortedStringTable implements Closeable {
      * Constructs SortedStringTable.
      */
     public static SortedStringTable of(Path folderPath) {
-        return new SortedStringTable(
-                folderPath.resolve(INDEX_FILENAME),
-                folderPath.resolve(DATA_FILENAME),
-                ResourceScope.newSharedScope()
-        );
+        return of(folderPath, 0);
+    }
+
+    /**
+     * Constructs SortedStringTable, which is written with prefix compressed keys if restartInterval is positive.
+     * Format of existing table is detected when it is read.
+     */
+    public static SortedStringTable of(Path folderPath, int restartInterval) {
+        if (restartInterval < 0) {
+            throw new IllegalArgumentException("Negative restart interval: " + restartInterval);
+        }
+        return new SortedStringTable(folderPath, restartInterval, ResourceScope.newSharedScope());
     }
 
     public SortedStringTable write(Collection<MemorySegmentEntry> entries) throws IOException {
+        if (restartInterval > 0) {
+            return writeCompressed(entries);
+        }
         writeIndex(entries);
         dataSegment = MemorySegment.mapFile(
                 createFileIfNotExists(dataFile),
@@ -97,6 +116,9 @@ final class SortedStringTable implements Closeable {
         if (indexSegment == null && dataSegment == null) {
             loadFromFiles();
         }
+        if (restartInterval > 0) {
+            return compressedGet(from, to);
+        }
         int tableSize = entriesMapped();
         return new Iterator<>() {
             private int first = insertionPoint(binarySearch(0, tableSize, from));
@@ -124,6 +146,10 @@ final class SortedStringTable implements Closeable {
         if (indexSegment == null && dataSegment == null) {
             loadFromFiles();
         }
+        if (restartInterval > 0) {
+            Cursor cursor = seek(key);
+            return cursor.entry != null && INSTANCE.compare(cursor.entry.key(), key) == 0 ? cursor.entry : null;
+        }
         int size = entriesMapped();
         int index = binarySearch(0, size, key);
         return index < 0 ? null : mappedEntry(index);
@@ -140,6 +166,11 @@ final class SortedStringTable implements Closeable {
         if (indexSegment != null || dataSegment != null) {
             throw new IllegalStateException("Can't load if already mapping");
         }
+        if (Files.exists(restartsFile)) {
+            loadCompressed();
+            return;
+        }
+        restartInterval = 0;
         indexSegment = MemorySegment.mapFile(
                 indexFile,
                 0L,
@@ -209,6 +240,203 @@ final class SortedStringTable implements Closeable {
         indexSegment = indexSegment.asReadOnly();
     }
 
+    /**
+     * write entries with keys compressed against previous key in format:
+     * ┌───────────────┬─────────────────┬───────────────┬──────────────┬───────────────┐
+     * │valueSize: long│sharedPrefix: int│suffixSize: int│suffix: byte[]│value: byte[]  │
+     * └───────────────┴─────────────────┴───────────────┴──────────────┴───────────────┘
+     * where valueSize is -1 for tombstone and sharedPrefix is 0 for every restartInterval-th entry,
+     * and offsets of these restart entries in restarts file:
+     * ┌─────────┬────────────────────┬───────────────────────┬──────────────┐
+     * │size: int│restartInterval: int│offsets: long[restarts]│dataSize: long│
+     * └─────────┴────────────────────┴───────────────────────┴──────────────┘
+     */
+    private SortedStringTable writeCompressed(Collection<MemorySegmentEntry> entries) throws IOException {
+        long dataSize = 0L;
+        MemorySegment previous = null;
+        int i = 0;
+        for (MemorySegmentEntry entry : entries) {
+            long shared = i % restartInterval == 0 ? 0 : sharedPrefix(previous, entry.key());
+            dataSize += recordSize(entry, shared);
+            previous = entry.key();
+            i++;
+        }
+        int restarts = (entries.size() + restartInterval - 1) / restartInterval;
+        indexSegment = MemorySegment.mapFile(
+                createFileIfNotExists(restartsFile),
+                0L,
+                2L * Integer.BYTES + (1L + restarts) * Long.BYTES,
+                FileChannel.MapMode.READ_WRITE,
+                scope
+        );
+        dataSegment = MemorySegment.mapFile(
+                createFileIfNotExists(dataFile),
+                0L,
+                dataSize,
+                FileChannel.MapMode.READ_WRITE,
+                scope
+        );
+        MemoryAccess.setIntAtOffset(indexSegment, 0L, entries.size());
+        MemoryAccess.setIntAtOffset(indexSegment, Integer.BYTES, restartInterval);
+        long offset = 0L;
+        previous = null;
+        i = 0;
+        for (MemorySegmentEntry entry : entries) {
+            long shared = 0;
+            if (i % restartInterval == 0) {
+                MemoryAccess.setLongAtOffset(indexSegment, restartOffsetPosition(i / restartInterval), offset);
+            } else {
+                shared = sharedPrefix(previous, entry.key());
+            }
+            writeRecord(entry, shared, offset);
+            offset += recordSize(entry, shared);
+            previous = entry.key();
+            i++;
+        }
+        MemoryAccess.setLongAtOffset(indexSegment, restartOffsetPosition(restarts), offset);
+        return this;
+    }
+
+    private void writeRecord(MemorySegmentEntry entry, long shared, long offset) {
+        MemorySegment key = entry.key();
+        MemorySegment value = entry.value();
+        long suffixSize = key.byteSize() - shared;
+        MemoryAccess.setLongAtOffset(dataSegment, offset, entry.isTomStone() ? -1 : value.byteSize());
+        MemoryAccess.setIntAtOffset(dataSegment, offset + Long.BYTES, (int) shared);
+        MemoryAccess.setIntAtOffset(dataSegment, offset + Long.BYTES + Integer.BYTES, (int) suffixSize);
+        dataSegment.asSlice(offset + RECORD_HEADER_SIZE, suffixSize).copyFrom(key.asSlice(shared));
+        if (!entry.isTomStone()) {
+            dataSegment.asSlice(offset + RECORD_HEADER_SIZE + suffixSize, value.byteSize()).copyFrom(value);
+        }
+    }
+
+    private static long recordSize(MemorySegmentEntry entry, long shared) {
+        return RECORD_HEADER_SIZE + entry.key().byteSize() - shared
+                + (entry.isTomStone() ? 0 : entry.value().byteSize());
+    }
+
+    private static long sharedPrefix(MemorySegment previous, MemorySegment key) {
+        long mismatch = previous.mismatch(key);
+        return mismatch == -1 ? key.byteSize() : mismatch;
+    }
+
+    private void loadCompressed() throws IOException {
+        indexSegment = MemorySegment.mapFile(
+                restartsFile,
+                0L,
+                Files.size(restartsFile),
+                FileChannel.MapMode.READ_ONLY,
+                scope
+        );
+        restartInterval = MemoryAccess.getIntAtOffset(indexSegment, Integer.BYTES);
+        dataSegment = MemorySegment.mapFile(
+                dataFile,
+                0L,
+                restartOffset(restartsMapped()),
+                FileChannel.MapMode.READ_ONLY,
+                scope
+        );
+    }
+
+    private int restartsMapped() {
+        return (entriesMapped() + restartInterval - 1) / restartInterval;
+    }
+
+    private static long restartOffsetPosition(int restart) {
+        return 2L * Integer.BYTES + (long) restart * Long.BYTES;
+    }
+
+    private long restartOffset(int restart) {
+        return MemoryAccess.getLongAtOffset(indexSegment, restartOffsetPosition(restart));
+    }
+
+    private MemorySegment restartKey(int restart) {
+        long offset = restartOffset(restart);
+        int keySize = MemoryAccess.getIntAtOffset(dataSegment, offset + Long.BYTES + Integer.BYTES);
+        return dataSegment.asSlice(offset + RECORD_HEADER_SIZE, keySize);
+    }
+
+    /**
+     * Binary search over restart points, then linear scan inside restart interval.
+     * @return cursor at first entry which key is not less than given key
+     */
+    private Cursor seek(MemorySegment key) {
+        int low = 0;
+        int high = restartsMapped() - 1;
+        while (low <= high) {
+            int mid = low + (high - low) / 2;
+            if (INSTANCE.compare(restartKey(mid), key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int restart = Math.max(high, 0);
+        Cursor cursor = new Cursor(restart * restartInterval, restartOffset(restart));
+        while (cursor.entry != null && INSTANCE.compare(cursor.entry.key(), key) < 0) {
+            cursor.advance();
+        }
+        return cursor;
+    }
+
+    private Iterator<MemorySegmentEntry> compressedGet(MemorySegment from, MemorySegment to) {
+        Cursor cursor = seek(from);
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.entry != null && (to == null || INSTANCE.compare(cursor.entry.key(), to) < 0);
+            }
+
+            @Override
+            public MemorySegmentEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                MemorySegmentEntry result = cursor.entry;
+                cursor.advance();
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Reads prefix compressed entries one by one, restoring full keys.
+     */
+    private final class Cursor {
+        private int index;
+        private long offset;
+        private byte[] previousKey = new byte[0];
+        MemorySegmentEntry entry;
+
+        Cursor(int index, long offset) {
+            this.index = index;
+            this.offset = offset;
+            advance();
+        }
+
+        void advance() {
+            if (index >= entriesMapped()) {
+                entry = null;
+                return;
+            }
+            long valueSize = MemoryAccess.getLongAtOffset(dataSegment, offset);
+            int shared = MemoryAccess.getIntAtOffset(dataSegment, offset + Long.BYTES);
+            int suffixSize = MemoryAccess.getIntAtOffset(dataSegment, offset + Long.BYTES + Integer.BYTES);
+            byte[] key = new byte[shared + suffixSize];
+            System.arraycopy(previousKey, 0, key, 0, shared);
+            MemorySegment.ofArray(key).asSlice(shared)
+                    .copyFrom(dataSegment.asSlice(offset + RECORD_HEADER_SIZE, suffixSize));
+            long valueOffset = offset + RECORD_HEADER_SIZE + suffixSize;
+            entry = MemorySegmentEntry.of(
+                    MemorySegment.ofArray(key),
+                    valueSize < 0 ? null : dataSegment.asSlice(valueOffset, valueSize)
+            );
+            previousKey = key;
+            offset = valueOffset + Math.max(valueSize, 0);
+            index++;
+        }
+    }
+
     private static Path createFileIfNotExists(Path path) throws IOException {
         try {
             return Files.createFile(path);
@@ -17,7 +17,7 @@ import java.util.stream.Stream;
 public class FileWorker {
     private static final long WRONG_SIZE = -1;
 
-    private final List<BaseEntry<MemorySegment>> files = new ArrayList<>();
+    private final List<Table> files = new ArrayList<>();
     private Path[] paths;
 
     public void load(Path basePath) {
@@ -30,7 +30,7 @@ public class FileWorker {
                         FileChannel.MapMode.READ_ONLY, ResourceScope.newConfinedScope());
                 MemorySegment entries = createMappedSegment(paths[i + count], Files.size(paths[i + count]),
                         FileChannel.MapMode.READ_ONLY, ResourceScope.newConfinedScope());
-                files.add(new BaseEntry<>(offsets, entries));
+                files.add(Table.of(offsets, entries));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -85,17 +85,15 @@ public class FileWorker {
             return null;
         }
 
-        int count = paths.length / 2;
-        for (int i = count - 1; i >= 0; i--) {
-            MemorySegment offsets = files.get(i).key();
-            MemorySegment entries = files.get(i).value();
+        for (int i = files.size() - 1; i >= 0; i--) {
+            Table table = files.get(i);
+            if (!table.mayContain(key)) {
+                continue;
+            }
+            MemorySegment offsets = table.offsets();
+            MemorySegment entries = table.entries();
 
-            long result = binarySearch(
-                    key,
-                    offsets,
-                    entries,
-                    Files.size(paths[i]) / (Long.BYTES * 3) - 1
-            );
+            long result = binarySearch(key, offsets, entries, table.size() - 1);
 
             if (result >= 0) {
                 long valueSize = MemoryAccess.getLongAtIndex(offsets, result * 3 + 2);
@@ -129,13 +127,16 @@ public class FileWorker {
         }
 
         List<PeekIterator> iterator = new ArrayList<>();
-        int count = paths.length / 2;
 
-        for (int i = count - 1; i >= 0; i--) {
-            MemorySegment offsets = files.get(i).key();
-            MemorySegment entries = files.get(i).value();
+        for (int i = files.size() - 1; i >= 0; i--) {
+            Table table = files.get(i);
+            if (!table.intersects(from, to)) {
+                continue;
+            }
+            MemorySegment offsets = table.offsets();
+            MemorySegment entries = table.entries();
 
-            long boarder = Files.size(paths[i]) / (Long.BYTES * 3) - 1;
+            long boarder = table.size() - 1;
             long start = from == null ? 0 : Math.abs(binarySearch(from, offsets, entries, boarder));
             long end = to == null ? boarder : Math.abs(binarySearch(to, offsets, entries, boarder)) - 1;
 
@@ -197,6 +198,38 @@ public class FileWorker {
         );
     }
 
+    /**
+     * Mapped table with its key range and entries count, kept to skip tables not overlapping the query.
+     * minKey and maxKey are null for empty table.
+     */
+    private record Table(MemorySegment offsets, MemorySegment entries, long size,
+                         MemorySegment minKey, MemorySegment maxKey) {
+
+        static Table of(MemorySegment offsets, MemorySegment entries) {
+            long size = offsets.byteSize() / (Long.BYTES * 3);
+            if (size == 0) {
+                return new Table(offsets, entries, 0, null, null);
+            }
+            return new Table(offsets, entries, size, keyAt(offsets, entries, 0), keyAt(offsets, entries, size - 1));
+        }
+
+        private static MemorySegment keyAt(MemorySegment offsets, MemorySegment entries, long index) {
+            return entries.asSlice(MemoryAccess.getLongAtIndex(offsets, index * 3),
+                    MemoryAccess.getLongAtIndex(offsets, index * 3 + 1));
+        }
+
+        boolean mayContain(MemorySegment key) {
+            return size > 0 && Comparator.compare(key, minKey) >= 0 && Comparator.compare(key, maxKey) <= 0;
+        }
+
+        // [from, to) and [minKey, maxKey] have common keys, null bound is open
+        boolean intersects(MemorySegment from, MemorySegment to) {
+            return size > 0
+                    && (from == null || Comparator.compare(from, maxKey) <= 0)
+                    && (to == null || Comparator.compare(to, minKey) > 0);
+        }
+    }
+
     private long createFiles(Path basePath) throws IOException {
         long nano = System.nanoTime();
         Files.createFile(basePath.resolve(FileName.SAVED_DATA.getName() + nano));
@@ -0,0 +1,40 @@
+package ru.mail.polis.kirillpobedonostsev;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of decompressed blocks limited by total size of blocks.
+ */
+class BlockCache {
+    private final long capacityBytes;
+    private final Map<Long, ByteBuffer> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+
+    BlockCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    static long key(int fileId, int block) {
+        return ((long) fileId << Integer.SIZE) | block;
+    }
+
+    synchronized ByteBuffer get(long key) {
+        return blocks.get(key);
+    }
+
+    synchronized void put(long key, ByteBuffer block) {
+        ByteBuffer previous = blocks.put(key, block);
+        if (previous != null) {
+            sizeBytes -= previous.capacity();
+        }
+        sizeBytes += block.capacity();
+        Iterator<ByteBuffer> eldest = blocks.values().iterator();
+        while (sizeBytes > capacityBytes && eldest.hasNext()) {
+            sizeBytes -= eldest.next().capacity();
+            eldest.remove();
+        }
+    }
+}
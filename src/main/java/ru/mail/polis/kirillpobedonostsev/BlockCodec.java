@@ -0,0 +1,38 @@
+package ru.mail.polis.kirillpobedonostsev;
+
+import java.nio.ByteBuffer;
+
+public interface BlockCodec {
+    BlockCodec NONE = new NoneCodec();
+    BlockCodec LZ4 = new Lz4Codec();
+
+    /**
+     * Identifier written to file header.
+     */
+    int id();
+
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses first length bytes of src into dst.
+     *
+     * @param dst at least {@link #maxCompressedLength(int)} bytes
+     * @return compressed length
+     */
+    int compress(byte[] src, int length, byte[] dst);
+
+    /**
+     * Decompresses whole src, dst length must be equal to uncompressed length.
+     */
+    void decompress(ByteBuffer src, byte[] dst);
+
+    static BlockCodec byId(int id) {
+        if (id == NONE.id()) {
+            return NONE;
+        }
+        if (id == LZ4.id()) {
+            return LZ4;
+        }
+        throw new IllegalStateException("Unknown codec: " + id);
+    }
+}
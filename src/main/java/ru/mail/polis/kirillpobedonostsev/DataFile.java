@@ -0,0 +1,295 @@
+package ru.mail.polis.kirillpobedonostsev;
+
+import ru.mail.polis.BaseEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sorted data file of one of two versions.
+ * Version 0: header, offsets of all entries and entries, whole file is one block.
+ * Version 1: header, blocks compressed with codec from header, directory with first entry number,
+ * position, sizes and first key of every block. Uncompressed block is offsets of its entries and entries.
+ */
+class DataFile {
+    static final long PLAIN_FILE_VERSION = 0;
+    static final long BLOCK_FILE_VERSION = 1;
+    static final int BLOCK_SIZE = 16 * 1024;
+
+    // version, entries count, codec id, blocks count, directory position
+    private static final int BLOCK_FILE_HEADER_SIZE = Long.BYTES + 4 * Integer.BYTES;
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final int id = ids.incrementAndGet();
+    private final ByteBuffer file;
+    private final int count;
+    private final BlockCodec codec;
+    private final BlockCache cache;
+    private final int[] firstEntries;
+    private final int[] positions;
+    private final int[] compressedSizes;
+    private final int[] rawSizes;
+    private final ByteBuffer[] firstKeys;
+
+    private DataFile(ByteBuffer file, BlockCache cache) {
+        this.file = file;
+        this.cache = cache;
+        long version = file.getLong(0);
+        count = file.getInt(Long.BYTES);
+        if (version == PLAIN_FILE_VERSION) {
+            codec = null;
+            firstEntries = new int[]{0};
+            positions = null;
+            compressedSizes = null;
+            rawSizes = null;
+            firstKeys = null;
+            return;
+        }
+        if (version != BLOCK_FILE_VERSION) {
+            throw new IllegalStateException("Unknown version: " + version);
+        }
+        codec = BlockCodec.byId(file.getInt(Long.BYTES + Integer.BYTES));
+        int blocks = file.getInt(Long.BYTES + 2 * Integer.BYTES);
+        int offset = file.getInt(Long.BYTES + 3 * Integer.BYTES);
+        firstEntries = new int[blocks];
+        positions = new int[blocks];
+        compressedSizes = new int[blocks];
+        rawSizes = new int[blocks];
+        firstKeys = new ByteBuffer[blocks];
+        for (int i = 0; i < blocks; i++) {
+            firstEntries[i] = file.getInt(offset);
+            positions[i] = file.getInt(offset + Integer.BYTES);
+            compressedSizes[i] = file.getInt(offset + 2 * Integer.BYTES);
+            rawSizes[i] = file.getInt(offset + 3 * Integer.BYTES);
+            int keySize = file.getInt(offset + 4 * Integer.BYTES);
+            offset += 5 * Integer.BYTES;
+            firstKeys[i] = file.slice(offset, keySize);
+            offset += keySize;
+        }
+    }
+
+    static DataFile open(ByteBuffer file, BlockCache cache) {
+        return new DataFile(file, cache);
+    }
+
+    int size() {
+        return count;
+    }
+
+    int blockOf(int entry) {
+        int low = 0;
+        int high = firstEntries.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstEntries[mid] <= entry) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    int firstEntry(int block) {
+        return firstEntries[block];
+    }
+
+    int endEntry(int block) {
+        return block + 1 < firstEntries.length ? firstEntries[block + 1] : count;
+    }
+
+    /**
+     * Uncompressed block, plain file is returned as is.
+     */
+    ByteBuffer block(int block) {
+        if (codec == null) {
+            return file;
+        }
+        ByteBuffer compressed = file.slice(positions[block], compressedSizes[block]);
+        if (codec == BlockCodec.NONE) {
+            return compressed;
+        }
+        long key = BlockCache.key(id, block);
+        ByteBuffer cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] raw = new byte[rawSizes[block]];
+        codec.decompress(compressed, raw);
+        ByteBuffer decompressed = ByteBuffer.wrap(raw).asReadOnlyBuffer();
+        cache.put(key, decompressed);
+        return decompressed;
+    }
+
+    BaseEntry<ByteBuffer> entry(ByteBuffer block, int indexInBlock) {
+        int offset = entryOffset(block, indexInBlock);
+        int keySize = block.getInt(offset);
+        offset += Integer.BYTES;
+        final ByteBuffer key = block.slice(offset, keySize);
+        offset += keySize;
+        int valueSize = block.getInt(offset);
+        offset += Integer.BYTES;
+        ByteBuffer value = null;
+        if (valueSize != PersistenceDao.NULL_VALUE_LENGTH) {
+            value = block.slice(offset, valueSize);
+        }
+        return new BaseEntry<>(key, value);
+    }
+
+    private ByteBuffer key(ByteBuffer block, int indexInBlock) {
+        int offset = entryOffset(block, indexInBlock);
+        return block.slice(offset + Integer.BYTES, block.getInt(offset));
+    }
+
+    private int entryOffset(ByteBuffer block, int indexInBlock) {
+        int indexStart = codec == null ? PersistenceDao.FILE_HEADER_SIZE : 0;
+        return block.getInt(indexStart + indexInBlock * Integer.BYTES);
+    }
+
+    /**
+     * Number of the first entry with key not less than given key, number of entries for null key.
+     */
+    int search(ByteBuffer key) {
+        if (key == null) {
+            return count;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        int block = 0;
+        if (firstKeys != null) {
+            block = searchBlock(key);
+            if (block < 0) {
+                return 0;
+            }
+        }
+        ByteBuffer data = block(block);
+        int first = firstEntry(block);
+        int low = 0;
+        int high = endEntry(block) - first - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compareResult = key(data, mid).compareTo(key);
+            if (compareResult > 0) {
+                high = mid - 1;
+            } else if (compareResult < 0) {
+                low = mid + 1;
+            } else {
+                return first + mid;
+            }
+        }
+        return first + low;
+    }
+
+    // last block with first key not greater than given key
+    private int searchBlock(ByteBuffer key) {
+        int low = 0;
+        int high = firstKeys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compareResult = firstKeys[mid].compareTo(key);
+            if (compareResult > 0) {
+                high = mid - 1;
+            } else if (compareResult < 0) {
+                low = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return low - 1;
+    }
+
+    static MappedByteBuffer write(Iterator<BaseEntry<ByteBuffer>> entries, Path path, BlockCodec codec)
+            throws IOException {
+        if (!entries.hasNext()) {
+            return null;
+        }
+        int count = 0;
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+        List<BaseEntry<ByteBuffer>> block = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            channel.position(BLOCK_FILE_HEADER_SIZE);
+            int blocks = 0;
+            int blockSize = 0;
+            while (entries.hasNext()) {
+                BaseEntry<ByteBuffer> entry = entries.next();
+                block.add(entry);
+                blockSize += Integer.BYTES + entrySize(entry);
+                count++;
+                if (blockSize >= BLOCK_SIZE || !entries.hasNext()) {
+                    writeBlock(block, blockSize, count - block.size(), channel, directory, codec);
+                    blocks++;
+                    block.clear();
+                    blockSize = 0;
+                }
+            }
+            int directoryPosition = (int) channel.position();
+            channel.write(ByteBuffer.wrap(directoryBytes.toByteArray()));
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_FILE_HEADER_SIZE);
+            header.putLong(BLOCK_FILE_VERSION)
+                    .putInt(count)
+                    .putInt(codec.id())
+                    .putInt(blocks)
+                    .putInt(directoryPosition)
+                    .flip();
+            channel.write(header, 0);
+            channel.force(false);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static void writeBlock(List<BaseEntry<ByteBuffer>> entries, int blockSize, int firstEntry,
+                                   FileChannel channel, DataOutputStream directory, BlockCodec codec)
+            throws IOException {
+        ByteBuffer raw = ByteBuffer.allocate(blockSize);
+        int offset = entries.size() * Integer.BYTES;
+        for (BaseEntry<ByteBuffer> entry : entries) {
+            raw.putInt(offset);
+            offset += entrySize(entry);
+        }
+        for (BaseEntry<ByteBuffer> entry : entries) {
+            writeItem(raw, entry.key());
+            writeItem(raw, entry.value());
+        }
+        byte[] compressed = new byte[codec.maxCompressedLength(blockSize)];
+        int compressedSize = codec.compress(raw.array(), blockSize, compressed);
+
+        directory.writeInt(firstEntry);
+        directory.writeInt((int) channel.position());
+        directory.writeInt(compressedSize);
+        directory.writeInt(blockSize);
+        ByteBuffer firstKey = entries.get(0).key();
+        directory.writeInt(firstKey.remaining());
+        byte[] keyBytes = new byte[firstKey.remaining()];
+        firstKey.get(firstKey.position(), keyBytes);
+        directory.write(keyBytes);
+
+        channel.write(ByteBuffer.wrap(compressed, 0, compressedSize));
+    }
+
+    private static int entrySize(BaseEntry<ByteBuffer> entry) {
+        return 2 * Integer.BYTES + entry.key().remaining()
+                + (entry.value() == null ? 0 : entry.value().remaining());
+    }
+
+    private static void writeItem(ByteBuffer block, ByteBuffer item) {
+        if (item == null) {
+            block.putInt(PersistenceDao.NULL_VALUE_LENGTH);
+            return;
+        }
+        block.putInt(item.remaining());
+        block.put(item.duplicate());
+    }
+}
@@ -7,14 +7,18 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 public class FileIterator implements Iterator<BaseEntry<ByteBuffer>> {
-    private final ByteBuffer mappedFile;
+    private final DataFile file;
     private int pos;
     private final int toPos;
+    // block is decoded only when iterator reaches it
+    private ByteBuffer block;
+    private int blockFirst;
+    private int blockEnd;
 
-    public FileIterator(ByteBuffer mappedFile, int fromPos, int toPos) {
+    FileIterator(DataFile file, int fromPos, int toPos) {
         pos = fromPos;
         this.toPos = toPos;
-        this.mappedFile = mappedFile;
+        this.file = file;
     }
 
     @Override
@@ -27,18 +31,12 @@ public class FileIterator implements Iterator<BaseEntry<ByteBuffer>> {
         if (!hasNext()) {
             throw new NoSuchElementException();
         }
-        int offset = mappedFile.getInt(PersistenceDao.FILE_HEADER_SIZE + pos * Integer.BYTES);
-        int keySize = mappedFile.getInt(offset);
-        offset += Integer.BYTES;
-        final ByteBuffer key = mappedFile.slice(offset, keySize);
-        offset += keySize;
-        int valueSize = mappedFile.getInt(offset);
-        offset += Integer.BYTES;
-        ByteBuffer value = null;
-        if (valueSize != PersistenceDao.NULL_VALUE_LENGTH) {
-            value = mappedFile.slice(offset, valueSize);
+        if (block == null || pos >= blockEnd) {
+            int blockNumber = file.blockOf(pos);
+            block = file.block(blockNumber);
+            blockFirst = file.firstEntry(blockNumber);
+            blockEnd = file.endEntry(blockNumber);
         }
-        pos++;
-        return new BaseEntry<>(key, value);
+        return file.entry(block, pos++ - blockFirst);
     }
 }
@@ -0,0 +1,144 @@
+package ru.mail.polis.kirillpobedonostsev;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LZ4 block format: sequences of literals followed by match (offset, length) to already decoded data.
+ * Token byte holds 4 bits of literals length and 4 bits of match length, longer lengths continue in
+ * following bytes of 255. Last sequence has literals only.
+ */
+final class Lz4Codec implements BlockCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int HASH_LOG = 12;
+    private static final int RUN_MASK = 0xF;
+
+    @Override
+    public int id() {
+        return 1;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int length, byte[] dst) {
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int srcPos = 0;
+        int dstPos = 0;
+        int limit = length - MATCH_FIND_LIMIT;
+        while (srcPos < limit) {
+            int sequence = readInt(src, srcPos);
+            int hash = (sequence * -1640531535) >>> (Integer.SIZE - HASH_LOG);
+            int ref = table[hash];
+            table[hash] = srcPos;
+            if (ref < 0 || srcPos - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                srcPos++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            int maxMatchLength = length - LAST_LITERALS - srcPos;
+            while (matchLength < maxMatchLength && src[ref + matchLength] == src[srcPos + matchLength]) {
+                matchLength++;
+            }
+
+            int literals = srcPos - anchor;
+            int token = dstPos++;
+            dstPos = writeLiterals(src, anchor, literals, dst, dstPos);
+            dst[dstPos++] = (byte) (srcPos - ref);
+            dst[dstPos++] = (byte) ((srcPos - ref) >>> 8);
+            int extraLength = matchLength - MIN_MATCH;
+            if (extraLength >= RUN_MASK) {
+                dstPos = writeLength(extraLength - RUN_MASK, dst, dstPos);
+            }
+            dst[token] = (byte) ((Math.min(literals, RUN_MASK) << 4) | Math.min(extraLength, RUN_MASK));
+
+            srcPos += matchLength;
+            anchor = srcPos;
+        }
+
+        int literals = length - anchor;
+        int token = dstPos++;
+        dstPos = writeLiterals(src, anchor, literals, dst, dstPos);
+        dst[token] = (byte) (Math.min(literals, RUN_MASK) << 4);
+        return dstPos;
+    }
+
+    @Override
+    public void decompress(ByteBuffer src, byte[] dst) {
+        int srcPos = 0;
+        int dstPos = 0;
+        int end = src.limit();
+        while (true) {
+            int token = src.get(srcPos++) & 0xFF;
+            int literals = token >>> 4;
+            if (literals == RUN_MASK) {
+                int b;
+                do {
+                    b = src.get(srcPos++) & 0xFF;
+                    literals += b;
+                } while (b == 0xFF);
+            }
+            src.get(srcPos, dst, dstPos, literals);
+            srcPos += literals;
+            dstPos += literals;
+            if (srcPos >= end) {
+                break;
+            }
+
+            int offset = (src.get(srcPos) & 0xFF) | ((src.get(srcPos + 1) & 0xFF) << 8);
+            srcPos += 2;
+            int matchLength = token & RUN_MASK;
+            if (matchLength == RUN_MASK) {
+                int b;
+                do {
+                    b = src.get(srcPos++) & 0xFF;
+                    matchLength += b;
+                } while (b == 0xFF);
+            }
+            matchLength += MIN_MATCH;
+            // match may overlap bytes being written, so copy one by one
+            for (int i = 0; i < matchLength; i++) {
+                dst[dstPos] = dst[dstPos - offset];
+                dstPos++;
+            }
+        }
+        if (dstPos != dst.length) {
+            throw new IllegalStateException("Corrupted block");
+        }
+    }
+
+    private static int writeLiterals(byte[] src, int from, int literals, byte[] dst, int dstPos) {
+        int pos = dstPos;
+        if (literals >= RUN_MASK) {
+            pos = writeLength(literals - RUN_MASK, dst, pos);
+        }
+        System.arraycopy(src, from, dst, pos, literals);
+        return pos + literals;
+    }
+
+    private static int writeLength(int length, byte[] dst, int dstPos) {
+        int pos = dstPos;
+        int left = length;
+        while (left >= 0xFF) {
+            dst[pos++] = (byte) 0xFF;
+            left -= 0xFF;
+        }
+        dst[pos++] = (byte) left;
+        return pos;
+    }
+
+    private static int readInt(byte[] src, int pos) {
+        return (src[pos] & 0xFF)
+                | (src[pos + 1] & 0xFF) << 8
+                | (src[pos + 2] & 0xFF) << 16
+                | (src[pos + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,26 @@
+package ru.mail.polis.kirillpobedonostsev;
+
+import java.nio.ByteBuffer;
+
+final class NoneCodec implements BlockCodec {
+    @Override
+    public int id() {
+        return 0;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length;
+    }
+
+    @Override
+    public int compress(byte[] src, int length, byte[] dst) {
+        System.arraycopy(src, 0, dst, 0, length);
+        return length;
+    }
+
+    @Override
+    public void decompress(ByteBuffer src, byte[] dst) {
+        src.get(0, dst, 0, dst.length);
+    }
+}
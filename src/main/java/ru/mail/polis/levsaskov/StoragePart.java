@@ -3,6 +3,7 @@ package ru.mail.polis.levsaskov;
 import ru.mail.polis.BaseEntry;
 
 import java.io.IOException;
+import java.lang.ref.Cleaner;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
@@ -15,81 +16,83 @@ import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class StoragePart implements AutoCloseable {
     public static final int LEN_FOR_NULL = -1;
+    private static final Cleaner CLEANER = Cleaner.create();
 
     private int storagePartN;
-    private MappedByteBuffer memoryBB;
-    private MappedByteBuffer indexBB;
-    private int entrysC;
-
-    public void init(Path memoryPath, Path indexPath, int storagePartN) throws IOException {
+    private Path memoryPath;
+    private Path indexPath;
+    private Mapping mapping;
+    private volatile long lastAccessNanos;
+    // mappings whose files are not unmapped yet, current one and those still read by iterators
+    private final AtomicInteger openMappings = new AtomicInteger();
+
+    /**
+     * Registers part, files are mapped on first access.
+     */
+    public void init(Path memoryPath, Path indexPath, int storagePartN) {
         this.storagePartN = storagePartN;
-        memoryBB = mapFile(memoryPath);
-        indexBB = mapFile(indexPath);
-        entrysC = indexBB.capacity() / Long.BYTES;
+        this.memoryPath = memoryPath;
+        this.indexPath = indexPath;
     }
 
-    public BaseEntry<ByteBuffer> get(ByteBuffer key) {
-        int position = binarySearch(entrysC - 1, key);
-        BaseEntry<ByteBuffer> res = readEntry(position);
-        return res.key().equals(key) ? res : null;
+    public BaseEntry<ByteBuffer> get(ByteBuffer key) throws IOException {
+        Mapping current = acquire();
+        try {
+            int position = current.binarySearch(current.entrysC - 1, key);
+            BaseEntry<ByteBuffer> res = current.readEntry(position);
+            return res.key().equals(key) ? res : null;
+        } finally {
+            current.release();
+        }
     }
 
-    public PeekIterator get(ByteBuffer from, ByteBuffer to) {
-        return new PeekIterator(new StoragePartIterator(from, to), storagePartN);
+    public PeekIterator get(ByteBuffer from, ByteBuffer to) throws IOException {
+        return new PeekIterator(new StoragePartIterator(acquire(), from, to), storagePartN);
     }
 
-    @Override
-    public void close() {
-        unmap(indexBB);
-        indexBB = null;
-        unmap(memoryBB);
-        memoryBB = null;
+    public int getStoragePartN() {
+        return storagePartN;
     }
 
-    private int binarySearch(int inLast, ByteBuffer key) {
-        if (key == null) {
-            return 0;
-        }
+    public synchronized boolean isMapped() {
+        return mapping != null;
+    }
 
-        int first = 0;
-        int last = inLast;
-        int position = (first + last) / 2;
-        BaseEntry<ByteBuffer> curEntry = readEntry(position);
+    public long getLastAccessNanos() {
+        return lastAccessNanos;
+    }
 
-        while (!curEntry.key().equals(key) && first <= last) {
-            if (curEntry.key().compareTo(key) > 0) {
-                last = position - 1;
-            } else {
-                first = position + 1;
-            }
-            position = (first + last) / 2;
-            curEntry = readEntry(position);
+    int getOpenMappings() {
+        return openMappings.get();
+    }
+
+    /**
+     * Drops mapping of the part, files are unmapped when the last reader using them finishes.
+     */
+    public synchronized void unmap() {
+        if (mapping != null) {
+            mapping.release();
+            mapping = null;
         }
-        return position;
     }
 
-    private BaseEntry<ByteBuffer> readEntry(int entryN) {
-        int ind = (int) indexBB.getLong(entryN * Long.BYTES);
-        var key = readBytes(ind);
-        assert (key.isPresent());
-        ind += Integer.BYTES + key.get().length;
-        var value = readBytes(ind);
-        return new BaseEntry<>(ByteBuffer.wrap(key.get()), value.map(ByteBuffer::wrap).orElse(null));
+    @Override
+    public void close() {
+        unmap();
     }
 
-    private Optional<byte[]> readBytes(int ind) {
-        int currInd = ind;
-        int len = memoryBB.getInt(currInd);
-        if (len == LEN_FOR_NULL) {
-            return Optional.empty();
+    private synchronized Mapping acquire() throws IOException {
+        lastAccessNanos = System.nanoTime();
+        if (mapping == null) {
+            mapping = new Mapping(mapFile(memoryPath), mapFile(indexPath));
+            openMappings.incrementAndGet();
         }
-        currInd += Integer.BYTES;
-        byte[] bytes = new byte[len];
-        memoryBB.get(currInd, bytes);
-        return Optional.of(bytes);
+        mapping.retain();
+        return mapping;
     }
 
     private static MappedByteBuffer mapFile(Path filePath) throws IOException {
@@ -118,21 +121,99 @@ public class StoragePart implements AutoCloseable {
         }
     }
 
-    private class StoragePartIterator implements Iterator<BaseEntry<ByteBuffer>> {
+    /**
+     * Mapped files of the part. Part holds one reference while mapping is current, every reader holds one more,
+     * files are unmapped when all of them are released. Iterator which is not read to the end releases
+     * its reference once it becomes unreachable.
+     */
+    private final class Mapping {
+        private final MappedByteBuffer memoryBB;
+        private final MappedByteBuffer indexBB;
+        private final int entrysC;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Mapping(MappedByteBuffer memoryBB, MappedByteBuffer indexBB) {
+            this.memoryBB = memoryBB;
+            this.indexBB = indexBB;
+            this.entrysC = indexBB.capacity() / Long.BYTES;
+        }
+
+        void retain() {
+            references.incrementAndGet();
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                StoragePart.unmap(indexBB);
+                StoragePart.unmap(memoryBB);
+                openMappings.decrementAndGet();
+            }
+        }
+
+        private int binarySearch(int inLast, ByteBuffer key) {
+            if (key == null) {
+                return 0;
+            }
+
+            int first = 0;
+            int last = inLast;
+            int position = (first + last) / 2;
+            BaseEntry<ByteBuffer> curEntry = readEntry(position);
+
+            while (!curEntry.key().equals(key) && first <= last) {
+                if (curEntry.key().compareTo(key) > 0) {
+                    last = position - 1;
+                } else {
+                    first = position + 1;
+                }
+                position = (first + last) / 2;
+                curEntry = readEntry(position);
+            }
+            return position;
+        }
+
+        private BaseEntry<ByteBuffer> readEntry(int entryN) {
+            int ind = (int) indexBB.getLong(entryN * Long.BYTES);
+            var key = readBytes(ind);
+            assert (key.isPresent());
+            ind += Integer.BYTES + key.get().length;
+            var value = readBytes(ind);
+            return new BaseEntry<>(ByteBuffer.wrap(key.get()), value.map(ByteBuffer::wrap).orElse(null));
+        }
+
+        private Optional<byte[]> readBytes(int ind) {
+            int currInd = ind;
+            int len = memoryBB.getInt(currInd);
+            if (len == LEN_FOR_NULL) {
+                return Optional.empty();
+            }
+            currInd += Integer.BYTES;
+            byte[] bytes = new byte[len];
+            memoryBB.get(currInd, bytes);
+            return Optional.of(bytes);
+        }
+    }
+
+    private static class StoragePartIterator implements Iterator<BaseEntry<ByteBuffer>> {
+        private final Mapping mapping;
+        // releases mapping at the end or, if iterator is dropped before, when it is unreachable
+        private final Cleaner.Cleanable reference;
         private int nextPos;
         private final ByteBuffer to;
         private BaseEntry<ByteBuffer> next;
 
-        public StoragePartIterator(ByteBuffer from, ByteBuffer to) {
+        public StoragePartIterator(Mapping mapping, ByteBuffer from, ByteBuffer to) {
+            this.mapping = mapping;
+            this.reference = CLEANER.register(this, mapping::release);
             this.to = to;
-            nextPos = binarySearch(entrysC - 1, from);
+            nextPos = mapping.binarySearch(mapping.entrysC - 1, from);
             // Граничные случаи
-            if (nextPos + 1 < entrysC && from != null
-                    && readEntry(nextPos).key().compareTo(from) < 0) {
+            if (nextPos + 1 < mapping.entrysC && from != null
+                    && mapping.readEntry(nextPos).key().compareTo(from) < 0) {
                 nextPos++;
             }
 
-            next = readEntry(nextPos);
+            next = mapping.readEntry(nextPos);
 
             if (from != null && next.key().compareTo(from) < 0) {
                 next = null;
@@ -141,7 +222,11 @@ public class StoragePart implements AutoCloseable {
 
         @Override
         public boolean hasNext() {
-            return next != null && nextPos < entrysC && (to == null || next.key().compareTo(to) < 0);
+            boolean hasNext = next != null && nextPos < mapping.entrysC && (to == null || next.key().compareTo(to) < 0);
+            if (!hasNext) {
+                reference.clean();
+            }
+            return hasNext;
         }
 
         @Override
@@ -152,11 +237,10 @@ public class StoragePart implements AutoCloseable {
 
             BaseEntry<ByteBuffer> current = next;
             nextPos++;
-            if (nextPos < entrysC) {
-                next = readEntry(nextPos);
+            if (nextPos < mapping.entrysC) {
+                next = mapping.readEntry(nextPos);
             }
             return current;
         }
     }
 }
-
@@ -6,11 +6,18 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -18,11 +25,36 @@ public class StorageSystem implements AutoCloseable {
     private static final int DEFAULT_ALLOC_SIZE = 2048;
     private static final String MEM_FILENAME = "daoMem.bin";
     private static final String INDEX_FILENAME = "daoIndex.bin";
+    private static final int DEFAULT_MAX_MAPPED_PARTS = 256;
+    private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofSeconds(30);
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private int storagePartsC;
     private Path location;
     private final List<StoragePart> storageParts = new ArrayList<>();
+    private final int maxMappedParts;
+    private final long idleTimeoutNanos;
+    // mapped parts in access order, eldest is evicted first
+    private final Map<Integer, StoragePart> mappedParts = new LinkedHashMap<>(16, 0.75f, true);
+    private ScheduledExecutorService idleUnmapper;
+
+    public StorageSystem() {
+        this(DEFAULT_MAX_MAPPED_PARTS, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Parts are mapped on first access.
+     *
+     * @param maxMappedParts - how many parts can stay mapped, least recently used part is unmapped when exceeded
+     * @param idleTimeout    - part which is not accessed for that time is unmapped
+     */
+    public StorageSystem(int maxMappedParts, Duration idleTimeout) {
+        if (maxMappedParts < 1) {
+            throw new IllegalArgumentException("At least one part must be mapped, got " + maxMappedParts);
+        }
+        this.maxMappedParts = maxMappedParts;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+    }
 
     public boolean init(Path location) throws IOException {
         if (!location.toFile().exists()) {
@@ -31,13 +63,22 @@ public class StorageSystem implements AutoCloseable {
 
         this.location = location;
 
-        // On every part we write memory file and index file, so devide on 2
-        // TODO: walk through files
-        storagePartsC = location.toFile().list().length / 2;
-        for (int partN = 0; partN < storagePartsC; partN++) {
+        // Parts are numbered from 0 without gaps, only registered here and mapped on demand
+        int partN = 0;
+        while (Files.exists(getIndexFilePath(partN))) {
             addStoragePart(partN);
+            partN++;
         }
+        storagePartsC = partN;
 
+        long sweepPeriodNanos = Math.max(idleTimeoutNanos / 2, 1);
+        idleUnmapper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "levsaskov-idle-unmapper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        idleUnmapper.scheduleWithFixedDelay(this::unmapIdleParts, sweepPeriodNanos, sweepPeriodNanos,
+                TimeUnit.NANOSECONDS);
         return true;
     }
 
@@ -52,7 +93,9 @@ public class StorageSystem implements AutoCloseable {
         lock.readLock().lock();
         try {
             for (int partN = storagePartsC - 1; partN >= 0; partN--) {
-                res = storageParts.get(partN).get(key);
+                StoragePart storagePart = storageParts.get(partN);
+                res = storagePart.get(key);
+                touch(storagePart);
                 if (res != null) {
                     break;
                 }
@@ -65,10 +108,12 @@ public class StorageSystem implements AutoCloseable {
     }
 
     public Iterator<BaseEntry<ByteBuffer>> getMergedEntrys(
-            ConcurrentNavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> localEntrys, ByteBuffer from, ByteBuffer to) {
+            ConcurrentNavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> localEntrys, ByteBuffer from, ByteBuffer to)
+            throws IOException {
         BinaryHeap binaryHeap = new BinaryHeap();
         for (StoragePart storagePart : storageParts) {
             PeekIterator peekIterator = storagePart.get(from, to);
+            touch(storagePart);
             if (peekIterator.peek() != null) {
                 binaryHeap.add(peekIterator);
             }
@@ -100,13 +145,52 @@ public class StorageSystem implements AutoCloseable {
         storagePartsC++;
     }
 
+    StoragePart getStoragePart(int partN) {
+        return storageParts.get(partN);
+    }
+
     @Override
     public void close() {
+        if (idleUnmapper != null) {
+            idleUnmapper.shutdownNow();
+        }
         for (StoragePart storagePart : storageParts) {
             storagePart.close();
         }
     }
 
+    /**
+     * Marks part as recently used and unmaps least recently used parts over the limit.
+     * Iterators keep parts they read, so unmapped part stays readable for them.
+     * Called after the part is read: registered before its mapping exists, it could be dropped by the sweeper
+     * in between and the mapping made next would never be unmapped.
+     */
+    private void touch(StoragePart storagePart) {
+        synchronized (mappedParts) {
+            mappedParts.put(storagePart.getStoragePartN(), storagePart);
+            Iterator<StoragePart> eldest = mappedParts.values().iterator();
+            while (mappedParts.size() > maxMappedParts) {
+                eldest.next().unmap();
+                eldest.remove();
+            }
+        }
+    }
+
+    private void unmapIdleParts() {
+        long now = System.nanoTime();
+        synchronized (mappedParts) {
+            Iterator<StoragePart> eldest = mappedParts.values().iterator();
+            while (eldest.hasNext()) {
+                StoragePart storagePart = eldest.next();
+                if (now - storagePart.getLastAccessNanos() < idleTimeoutNanos) {
+                    break;
+                }
+                storagePart.unmap();
+                eldest.remove();
+            }
+        }
+    }
+
     private void addStoragePart(int partN) throws IOException {
         StoragePart storagePart = new StoragePart();
         storagePart.init(getMemFilePath(partN), getIndexFilePath(partN), partN);
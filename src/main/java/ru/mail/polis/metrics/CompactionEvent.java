@@ -0,0 +1,29 @@
+package ru.mail.polis.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("ru.mail.polis.Compaction")
+@Label("Dao Compaction")
+@Category({"Dao", "LSM"})
+@Description("Tables merged into new ones")
+class CompactionEvent extends jdk.jfr.Event {
+    @Label("Dao")
+    String dao;
+
+    @Label("Input Bytes")
+    @DataAmount
+    long inputBytes;
+
+    @Label("Output Bytes")
+    @DataAmount
+    long outputBytes;
+
+    @Label("Merge Time")
+    @Timespan
+    long mergeNanos;
+}
@@ -0,0 +1,55 @@
+package ru.mail.polis.metrics;
+
+/**
+ * Events engines report about their work. Implementations must be thread-safe and cheap:
+ * methods are called on read and write paths. All methods do nothing by default.
+ */
+public interface DaoMetrics {
+
+    DaoMetrics NONE = new DaoMetrics() {
+    };
+
+    /**
+     * Point lookup is done.
+     * @param tablesProbed number of on-disk tables which were searched for the key
+     */
+    default void onGet(int tablesProbed) {
+        // Do nothing
+    }
+
+    /**
+     * Range iterator is exhausted, partially read scans are not reported.
+     * @param bytesReturned size of keys and values returned by the iterator
+     */
+    default void onScan(long bytesReturned) {
+        // Do nothing
+    }
+
+    /**
+     * Memory table is written to disk.
+     * @param entries number of flushed entries
+     * @param bytes size of the written table
+     * @param durationNanos time of writing
+     */
+    default void onFlush(long entries, long bytes, long durationNanos) {
+        // Do nothing
+    }
+
+    /**
+     * Tables are merged.
+     * @param inputBytes size of merged tables
+     * @param outputBytes size of written tables
+     * @param durationNanos time of merging
+     */
+    default void onCompaction(long inputBytes, long outputBytes, long durationNanos) {
+        // Do nothing
+    }
+
+    /**
+     * Caller was blocked waiting for flush or for files swap.
+     * @param durationNanos time of waiting
+     */
+    default void onFlushStall(long durationNanos) {
+        // Do nothing
+    }
+}
@@ -0,0 +1,210 @@
+package ru.mail.polis.metrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects engine events into lock-free counters and histograms.
+ * Can be published as MXBean, flushes and compactions are also emitted as JFR events.
+ */
+public class DaoStats implements DaoMetrics, DaoStatsMXBean {
+    private final String name;
+    private final Histogram tablesPerGet = new Histogram();
+    private final Histogram bytesReturnedPerScan = new Histogram();
+    private final Histogram flushTime = new Histogram();
+    private final Histogram compactionTime = new Histogram();
+    private final Histogram flushStallTime = new Histogram();
+    private final LongAdder flushedEntries = new LongAdder();
+    private final LongAdder flushedBytes = new LongAdder();
+    private final LongAdder compactionInputBytes = new LongAdder();
+    private final LongAdder compactionOutputBytes = new LongAdder();
+    private ObjectName objectName; // guarded by this
+
+    /**
+     * Creates stats.
+     *
+     * @param name name of dao in JMX and JFR events
+     */
+    public DaoStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Registers stats in platform MBean server as {@code ru.mail.polis:type=DaoStats,name=<name>}.
+     */
+    public synchronized void register() {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            ObjectName mbeanName = new ObjectName("ru.mail.polis:type=DaoStats,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, mbeanName);
+            objectName = mbeanName;
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException
+                 | MBeanRegistrationException | NotCompliantMBeanException e) {
+            throw new IllegalStateException("Can't register stats of " + name, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (InstanceNotFoundException | MBeanRegistrationException e) {
+            throw new IllegalStateException("Can't unregister stats of " + name, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public void onGet(int tablesProbed) {
+        tablesPerGet.record(tablesProbed);
+    }
+
+    @Override
+    public void onScan(long bytesReturned) {
+        bytesReturnedPerScan.record(bytesReturned);
+    }
+
+    @Override
+    public void onFlush(long entries, long bytes, long durationNanos) {
+        flushedEntries.add(entries);
+        flushedBytes.add(bytes);
+        flushTime.record(durationNanos);
+
+        FlushEvent event = new FlushEvent();
+        if (event.isEnabled()) {
+            event.dao = name;
+            event.entries = entries;
+            event.bytes = bytes;
+            event.writeNanos = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void onCompaction(long inputBytes, long outputBytes, long durationNanos) {
+        compactionInputBytes.add(inputBytes);
+        compactionOutputBytes.add(outputBytes);
+        compactionTime.record(durationNanos);
+
+        CompactionEvent event = new CompactionEvent();
+        if (event.isEnabled()) {
+            event.dao = name;
+            event.inputBytes = inputBytes;
+            event.outputBytes = outputBytes;
+            event.mergeNanos = durationNanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void onFlushStall(long durationNanos) {
+        flushStallTime.record(durationNanos);
+    }
+
+    @Override
+    public long getGets() {
+        return tablesPerGet.count();
+    }
+
+    @Override
+    public double getTablesPerGetMean() {
+        return tablesPerGet.mean();
+    }
+
+    @Override
+    public long getTablesPerGetP99() {
+        return tablesPerGet.percentile(99);
+    }
+
+    @Override
+    public long getTablesPerGetMax() {
+        return tablesPerGet.max();
+    }
+
+    @Override
+    public long getScans() {
+        return bytesReturnedPerScan.count();
+    }
+
+    @Override
+    public double getBytesReturnedPerScanMean() {
+        return bytesReturnedPerScan.mean();
+    }
+
+    @Override
+    public long getBytesReturnedPerScanP99() {
+        return bytesReturnedPerScan.percentile(99);
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushTime.count();
+    }
+
+    @Override
+    public long getFlushedEntries() {
+        return flushedEntries.sum();
+    }
+
+    @Override
+    public long getFlushedBytes() {
+        return flushedBytes.sum();
+    }
+
+    @Override
+    public long getFlushTimeP99() {
+        return flushTime.percentile(99);
+    }
+
+    @Override
+    public long getCompactions() {
+        return compactionTime.count();
+    }
+
+    @Override
+    public long getCompactionInputBytes() {
+        return compactionInputBytes.sum();
+    }
+
+    @Override
+    public long getCompactionOutputBytes() {
+        return compactionOutputBytes.sum();
+    }
+
+    @Override
+    public long getCompactionTimeP99() {
+        return compactionTime.percentile(99);
+    }
+
+    @Override
+    public double getWriteAmplification() {
+        long flushed = flushedBytes.sum();
+        return flushed == 0 ? 0 : (double) (flushed + compactionOutputBytes.sum()) / flushed;
+    }
+
+    @Override
+    public long getFlushStalls() {
+        return flushStallTime.count();
+    }
+
+    @Override
+    public long getFlushStallTimeTotal() {
+        return flushStallTime.sum();
+    }
+
+    @Override
+    public long getFlushStallTimeMax() {
+        return flushStallTime.max();
+    }
+}
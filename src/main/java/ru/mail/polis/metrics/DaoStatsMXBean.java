@@ -0,0 +1,48 @@
+package ru.mail.polis.metrics;
+
+/**
+ * JMX view of {@link DaoStats}, times are in nanoseconds.
+ */
+public interface DaoStatsMXBean {
+
+    long getGets();
+
+    double getTablesPerGetMean();
+
+    long getTablesPerGetP99();
+
+    long getTablesPerGetMax();
+
+    long getScans();
+
+    double getBytesReturnedPerScanMean();
+
+    long getBytesReturnedPerScanP99();
+
+    long getFlushes();
+
+    long getFlushedEntries();
+
+    long getFlushedBytes();
+
+    long getFlushTimeP99();
+
+    long getCompactions();
+
+    long getCompactionInputBytes();
+
+    long getCompactionOutputBytes();
+
+    long getCompactionTimeP99();
+
+    /**
+     * Bytes written by flushes and compactions per flushed byte.
+     */
+    double getWriteAmplification();
+
+    long getFlushStalls();
+
+    long getFlushStallTimeTotal();
+
+    long getFlushStallTimeMax();
+}
@@ -0,0 +1,28 @@
+package ru.mail.polis.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("ru.mail.polis.Flush")
+@Label("Dao Flush")
+@Category({"Dao", "LSM"})
+@Description("Memory table written to disk")
+class FlushEvent extends jdk.jfr.Event {
+    @Label("Dao")
+    String dao;
+
+    @Label("Entries")
+    long entries;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Write Time")
+    @Timespan
+    long writeNanos;
+}
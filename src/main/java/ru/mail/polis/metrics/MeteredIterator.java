@@ -0,0 +1,42 @@
+package ru.mail.polis.metrics;
+
+import java.util.Iterator;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counts bytes of returned entries and reports them once the iterator is exhausted.
+ */
+public final class MeteredIterator<E> implements Iterator<E> {
+    private final Iterator<E> delegate;
+    private final ToLongFunction<E> sizeOf;
+    private final DaoMetrics metrics;
+    private long bytesReturned;
+    private boolean reported;
+
+    private MeteredIterator(Iterator<E> delegate, ToLongFunction<E> sizeOf, DaoMetrics metrics) {
+        this.delegate = delegate;
+        this.sizeOf = sizeOf;
+        this.metrics = metrics;
+    }
+
+    public static <E> Iterator<E> of(Iterator<E> iterator, ToLongFunction<E> sizeOf, DaoMetrics metrics) {
+        return metrics == DaoMetrics.NONE ? iterator : new MeteredIterator<>(iterator, sizeOf, metrics);
+    }
+
+    @Override
+    public boolean hasNext() {
+        boolean hasNext = delegate.hasNext();
+        if (!hasNext && !reported) {
+            reported = true;
+            metrics.onScan(bytesReturned);
+        }
+        return hasNext;
+    }
+
+    @Override
+    public E next() {
+        E next = delegate.next();
+        bytesReturned += sizeOf.applyAsLong(next);
+        return next;
+    }
+}
@@ -0,0 +1,13 @@
+package ru.mail.polis.nikitadergunov;
+
+public enum CompactionStrategy {
+    /**
+     * {@code compact()} merges all tables and memory into a single table.
+     */
+    FULL,
+    /**
+     * Tables are organized in levels, see {@link LeveledCompaction}.
+     * Compaction runs in background after flushes and on {@code compact()}.
+     */
+    LEVELED
+}
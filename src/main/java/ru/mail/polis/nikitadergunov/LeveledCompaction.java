@@ -0,0 +1,168 @@
+package ru.mail.polis.nikitadergunov;
+
+import jdk.incubator.foreign.MemorySegment;
+import ru.mail.polis.Config;
+import ru.mail.polis.Entry;
+import ru.mail.polis.MergeIterator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+// Level 0 holds flushed tables which may overlap each other.
+// Every deeper level i is a sorted run of non-overlapping tables limited by flushThresholdBytes * 10^i.
+// A step merges one table (or whole level 0) only with the overlapping tables of the next level.
+final class LeveledCompaction {
+
+    static final int LEVEL_0_TABLES_LIMIT = 4;
+    static final int LEVEL_SIZE_MULTIPLIER = 10;
+    static final int MAX_LEVEL = 7;
+
+    private LeveledCompaction() {
+    }
+
+    static Storage compact(Config config, Storage storage) throws IOException {
+        Storage current = storage;
+        int level = levelToCompact(config, current);
+        while (level >= 0) {
+            current = compactLevel(config, current, level);
+            level = levelToCompact(config, current);
+        }
+        return current;
+    }
+
+    private static int levelToCompact(Config config, Storage storage) {
+        if (tablesOnLevel(storage, 0).size() >= LEVEL_0_TABLES_LIMIT) {
+            return 0;
+        }
+        long budget = config.flushThresholdBytes();
+        for (int level = 1; level < MAX_LEVEL; level++) {
+            budget *= LEVEL_SIZE_MULTIPLIER;
+            long size = 0;
+            for (Storage.Table table : tablesOnLevel(storage, level)) {
+                size += table.size();
+            }
+            if (size > budget) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    private static Storage compactLevel(Config config, Storage storage, int level) throws IOException {
+        List<Storage.Table> inputs;
+        if (level == 0) {
+            inputs = tablesOnLevel(storage, 0);
+        } else {
+            // the oldest table of the level, so that the whole key range is compacted in turn
+            inputs = List.of(tablesOnLevel(storage, level).stream()
+                    .min(Comparator.comparingInt(Storage.Table::priority))
+                    .orElseThrow());
+        }
+
+        int outputLevel = level + 1;
+        MemorySegment[] range = keyRange(inputs);
+        List<Storage.Table> overlapping = overlapping(storage, outputLevel, range[0], range[1]);
+        if (level > 0 && overlapping.isEmpty()) {
+            return storage.withMoved(config, inputs.get(0), outputLevel);
+        }
+
+        // inputs are newer than tables of the next level, so they go first
+        List<Storage.Table> merged = new ArrayList<>(inputs);
+        merged.addAll(overlapping);
+
+        // tables of the next level may stick out of the inputs range, so check the whole merged range
+        MemorySegment[] mergedRange = keyRange(merged);
+        boolean bottom = true;
+        for (int deeper = outputLevel + 1; deeper <= MAX_LEVEL; deeper++) {
+            if (!overlapping(storage, deeper, mergedRange[0], mergedRange[1]).isEmpty()) {
+                bottom = false;
+                break;
+            }
+        }
+
+        // entries deleted by ranges of newer merged tables are dropped
+        List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(merged.size());
+        RangeTombstones deleted = RangeTombstones.EMPTY;
+        for (Storage.Table table : merged) {
+            iterators.add(RangeFilteringIterator.of(
+                    from -> Storage.iterate(table.segment(), from, (MemorySegment) null), table.minKey(), deleted));
+            deleted = deleted.union(table.tombstones());
+        }
+        // at the bottom nothing older can be shadowed by tombstones anymore
+        Iterator<Entry<MemorySegment>> entries = bottom
+                ? MergeIterator.of(iterators, EntryKeyComparator.INSTANCE, MemorySegmentDao::isTombstone)
+                : MergeIterator.of(iterators, EntryKeyComparator.INSTANCE);
+        RangeTombstones tombstones = bottom ? RangeTombstones.EMPTY : deleted;
+
+        return storage.withCompacted(config, merged, write(config, storage, entries, tombstones), outputLevel);
+    }
+
+    // splits output into tables of about flushThresholdBytes each,
+    // ranges are cut at table bounds so that tables of a level do not overlap
+    private static List<Path> write(Config config,
+                                    Storage storage,
+                                    Iterator<Entry<MemorySegment>> entries,
+                                    RangeTombstones tombstones) throws IOException {
+        List<Path> result = new ArrayList<>();
+        List<Entry<MemorySegment>> chunk = new ArrayList<>();
+        long chunkSize = 0;
+        // null for the first chunk, then the first key of the chunk
+        MemorySegment chunkFrom = null;
+        while (entries.hasNext()) {
+            Entry<MemorySegment> entry = entries.next();
+            // the full chunk is saved only now: its ranges end at the first key of the next one
+            if (chunkSize >= config.flushThresholdBytes()) {
+                result.add(storage.saveCompacted(config, chunk, tombstones.clip(chunkFrom, entry.key())));
+                chunk.clear();
+                chunkSize = 0;
+                chunkFrom = entry.key();
+            }
+            chunk.add(entry);
+            chunkSize += Storage.sizeOf(entry);
+        }
+        RangeTombstones lastRanges = tombstones.clip(chunkFrom, null);
+        if (!chunk.isEmpty() || !lastRanges.isEmpty()) {
+            result.add(storage.saveCompacted(config, chunk, lastRanges));
+        }
+        return result;
+    }
+
+    // returns {min key, max key} of given tables, max key is null if deleted range has no upper bound
+    private static MemorySegment[] keyRange(List<Storage.Table> tables) {
+        MemorySegment minKey = tables.get(0).minKey();
+        MemorySegment maxKey = tables.get(0).maxKey();
+        for (Storage.Table table : tables) {
+            if (MemorySegmentComparator.INSTANCE.compare(table.minKey(), minKey) < 0) {
+                minKey = table.minKey();
+            }
+            if (RangeTombstones.compareEnds(table.maxKey(), maxKey) > 0) {
+                maxKey = table.maxKey();
+            }
+        }
+        return new MemorySegment[]{minKey, maxKey};
+    }
+
+    private static List<Storage.Table> tablesOnLevel(Storage storage, int level) {
+        List<Storage.Table> result = new ArrayList<>();
+        for (Storage.Table table : storage.tables()) {
+            if (table.level() == level) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+
+    private static List<Storage.Table> overlapping(Storage storage, int level, MemorySegment from, MemorySegment to) {
+        List<Storage.Table> result = new ArrayList<>();
+        for (Storage.Table table : tablesOnLevel(storage, level)) {
+            if (table.overlaps(from, to)) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+}
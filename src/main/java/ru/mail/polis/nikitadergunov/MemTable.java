@@ -0,0 +1,54 @@
+package ru.mail.polis.nikitadergunov;
+
+import jdk.incubator.foreign.MemorySegment;
+import ru.mail.polis.Entry;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// entries and range tombstones written since the last flush, they move to storage together
+final class MemTable {
+
+    private final ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> entries =
+            new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
+    // copy on write, changed only under exclusive lock of the dao
+    private volatile RangeTombstones tombstones = RangeTombstones.EMPTY;
+
+    ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> entries() {
+        return entries;
+    }
+
+    RangeTombstones tombstones() {
+        return tombstones;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty() && tombstones.isEmpty();
+    }
+
+    void put(Entry<MemorySegment> entry) {
+        entries.put(entry.key(), entry);
+    }
+
+    // range becomes visible before its entries are removed, so readers never see older versions of them
+    void deleteRange(MemorySegment from, MemorySegment to) {
+        tombstones = tombstones.with(from, to);
+        if (to == null) {
+            entries.tailMap(from).clear();
+        } else {
+            entries.subMap(from, to).clear();
+        }
+    }
+
+    Iterator<Entry<MemorySegment>> iterator(MemorySegment from, MemorySegment to) {
+        if (to != null && MemorySegmentComparator.INSTANCE.compare(from, to) >= 0) {
+            return Collections.emptyIterator();
+        }
+        if (to == null) {
+            return entries.tailMap(from).values().iterator();
+        }
+        return entries.subMap(from, to).values().iterator();
+    }
+}
@@ -1,34 +1,61 @@
 package ru.mail.polis.nikitadergunov;
 
 import jdk.incubator.foreign.MemorySegment;
+import ru.mail.polis.BaseEntry;
 import ru.mail.polis.Config;
 import ru.mail.polis.Dao;
 import ru.mail.polis.Entry;
+import ru.mail.polis.MergeIterator;
+import ru.mail.polis.WriteBatch;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>> {
 
     private static final MemorySegment VERY_FIRST_KEY = MemorySegment.ofArray(new byte[]{});
 
-    private final ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> memory =
-            new ConcurrentSkipListMap<>(MemorySegmentComparator.INSTANCE);
+    // memory -> flushingMemory -> storage: entries move only in this direction,
+    // so readers look at them in the same order and never miss an entry
+    private volatile MemTable memory = new MemTable();
+    private volatile MemTable flushingMemory = new MemTable();
 
-    private final Storage storage;
+    private volatile Storage storage;
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Config config;
+    private final CompactionStrategy compactionStrategy;
+
+    private final LongAdder memoryBytes = new LongAdder();
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "nikitadergunov-flush"));
+    // guards flushTask, not held by compaction, so writers never wait for it
+    private final Lock flushLock = new ReentrantLock();
+    // guarded by flushLock
+    private Future<?> flushTask = CompletableFuture.completedFuture(null);
 
     public MemorySegmentDao(Config config) throws IOException {
+        this(config, CompactionStrategy.FULL);
+    }
+
+    public MemorySegmentDao(Config config, CompactionStrategy compactionStrategy) throws IOException {
         this.config = config;
+        this.compactionStrategy = compactionStrategy;
         this.storage = Storage.load(config);
     }
 
@@ -39,112 +66,225 @@ public class MemorySegmentDao implements Dao<MemorySegment, Entry<MemorySegment>
             copyFrom = VERY_FIRST_KEY;
         }
 
+        MemTable currentMemory = memory;
+        MemTable currentFlushingMemory = flushingMemory;
+        RangeTombstones deleted = currentMemory.tombstones();
+
         List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>();
-        iterators.add(getMemoryIterator(copyFrom, to));
-        iterators.addAll(storage.iterate(copyFrom, to));
+        iterators.add(currentMemory.iterator(copyFrom, to));
+        iterators.add(RangeFilteringIterator.of(k -> currentFlushingMemory.iterator(k, to), copyFrom, deleted));
+        iterators.addAll(storage.iterate(copyFrom, to, deleted.union(currentFlushingMemory.tombstones())));
+
+        return MergeIterator.of(iterators, EntryKeyComparator.INSTANCE, MemorySegmentDao::isTombstone);
+    }
+
+    @Override
+    public Entry<MemorySegment> get(MemorySegment key) {
+        Entry<MemorySegment> result = getFromMemory(memory, key);
+        if (result == null) {
+            result = getFromMemory(flushingMemory, key);
+        }
+        if (result == null) {
+            result = storage.get(key);
+        }
 
-        Iterator<Entry<MemorySegment>> mergeIterator = MergeIterator.of(iterators, EntryKeyComparator.INSTANCE);
+        return (result == null || result.value() == null) ? null : result;
+    }
 
-        return new TombstoneFilteringIterator(mergeIterator);
+    // tombstone if the key is deleted by range, so older tables are not searched
+    private static Entry<MemorySegment> getFromMemory(MemTable memory, MemorySegment key) {
+        Entry<MemorySegment> result = memory.entries().get(key);
+        if (result == null && memory.tombstones().covers(key)) {
+            return new BaseEntry<>(key, null);
+        }
+        return result;
     }
 
-    private Iterator<Entry<MemorySegment>> getMemoryIterator(MemorySegment from, MemorySegment to) {
+    @Override
+    public void upsert(Entry<MemorySegment> entry) {
         lock.readLock().lock();
         try {
-
-            if (to == null) {
-                return memory.tailMap(from).values().iterator();
-            }
-
-            return memory.subMap(from, to).values().iterator();
+            memory.put(entry);
+            memoryBytes.add(Storage.sizeOf(entry));
         } finally {
             lock.readLock().unlock();
         }
+
+        flushIfFull();
     }
 
+    // exclusive lock: entries of the range are removed from memory, concurrent upsert of them must not be lost
     @Override
-    public Entry<MemorySegment> get(MemorySegment key) {
-        Entry<MemorySegment> result = memory.get(key);
-        if (result == null) {
-            result = storage.get(key);
+    public void deleteRange(MemorySegment from, MemorySegment to) {
+        MemorySegment copyFrom = from;
+        if (from == null) {
+            copyFrom = VERY_FIRST_KEY;
+        }
+        if (to != null && MemorySegmentComparator.INSTANCE.compare(copyFrom, to) >= 0) {
+            return;
         }
 
-        return (result == null || result.value() == null) ? null : result;
+        lock.writeLock().lock();
+        try {
+            memory.deleteRange(copyFrom, to);
+            memoryBytes.add(copyFrom.byteSize() + (to == null ? 0 : to.byteSize()) + Long.BYTES * 2L);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        flushIfFull();
     }
 
+    // whole batch goes to one memory table: flush can not swap tables in the middle of it
     @Override
-    public void upsert(Entry<MemorySegment> entry) {
+    public void write(WriteBatch<MemorySegment, Entry<MemorySegment>> batch) {
         lock.readLock().lock();
         try {
-            memory.put(entry.key(), entry);
+            long batchBytes = 0;
+            for (Entry<MemorySegment> entry : batch) {
+                memory.put(entry);
+                batchBytes += Storage.sizeOf(entry);
+            }
+            memoryBytes.add(batchBytes);
         } finally {
             lock.readLock().unlock();
         }
+
+        flushIfFull();
     }
 
-    @Override
-    public void compact() throws IOException {
+    private void flushIfFull() {
+        if (memoryBytes.sum() >= config.flushThresholdBytes()) {
+            try {
+                startFlush(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 
-        lock.writeLock();
+    @Override
+    public void flush() throws IOException {
+        flushLock.lock();
         try {
-            Storage.compact(config, storage, get(null, null), memory);
+            startFlush(false);
+            waitFlush();
         } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Waits only for previous flush: writers are blocked here if both memory tables are full
+    private void startFlush(boolean onlyAboveThreshold) throws IOException {
+        flushLock.lock();
+        try {
+            waitFlush();
+
+            MemTable toFlush;
             lock.writeLock().lock();
+            try {
+                toFlush = memory;
+                if (toFlush.isEmpty() || (onlyAboveThreshold && memoryBytes.sum() < config.flushThresholdBytes())) {
+                    return;
+                }
+                flushingMemory = toFlush;
+                memory = new MemTable();
+                memoryBytes.reset();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            flushTask = submitFlush(toFlush);
+        } finally {
+            flushLock.unlock();
         }
     }
 
+    private Future<?> submitFlush(MemTable toFlush) {
+        return flushExecutor.submit(() -> {
+            Path saved = storage.save(config, toFlush.entries().values(), toFlush.tombstones());
+            storage = storage.withNewest(saved);
+            flushingMemory = new MemTable();
+            if (compactionStrategy == CompactionStrategy.LEVELED) {
+                storage = LeveledCompaction.compact(config, storage);
+            }
+            return null;
+        });
+    }
+
+    // failure is thrown once, flushing memory stays readable and is saved again by the next flush
+    private void waitFlush() throws IOException {
+        try {
+            await(flushTask);
+        } catch (IOException e) {
+            flushTask = CompletableFuture.completedFuture(null);
+            throw e;
+        }
+        if (!flushingMemory.isEmpty()) {
+            flushTask = submitFlush(flushingMemory);
+            waitFlush();
+        }
+    }
+
+    private static void await(Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // runs in flush thread after memory is flushed, so storage is changed there only;
+    // writers keep going into the new memory table meanwhile
+    @Override
+    public synchronized void compact() throws IOException {
+        flush();
+        await(flushExecutor.submit(() -> {
+            if (compactionStrategy == CompactionStrategy.LEVELED) {
+                storage = LeveledCompaction.compact(config, storage);
+                return null;
+            }
+            Storage current = storage;
+            Iterator<Entry<MemorySegment>> entries = MergeIterator.of(
+                    current.iterate(VERY_FIRST_KEY, null, RangeTombstones.EMPTY),
+                    EntryKeyComparator.INSTANCE,
+                    MemorySegmentDao::isTombstone
+            );
+            storage = Storage.compact(config, current, entries);
+            return null;
+        }));
+    }
+
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         if (storage.isClosed()) {
             return;
         }
 
+        flushLock.lock();
+        try {
+            waitFlush();
+        } finally {
+            flushLock.unlock();
+            flushExecutor.shutdown();
+        }
         storage.close();
         lock.writeLock().lock();
         try {
             if (!storage.isClosed()) {
                 throw new IllegalStateException("Previous storage is open for write");
             }
-            Storage.save(config, memory.values());
+            storage.save(config, memory.entries().values(), memory.tombstones());
         } finally {
             lock.writeLock().unlock();
         }
 
     }
 
-    static class TombstoneFilteringIterator implements Iterator<Entry<MemorySegment>> {
-        private final Iterator<Entry<MemorySegment>> iterator;
-        private Entry<MemorySegment> current;
-
-        public TombstoneFilteringIterator(Iterator<Entry<MemorySegment>> mergeIterator) {
-            this.iterator = mergeIterator;
-        }
-
-        @Override
-        public boolean hasNext() {
-            if (current != null) {
-                return true;
-            }
-
-            while (iterator.hasNext()) {
-                Entry<MemorySegment> entry = iterator.next();
-                if (entry.value() != null) {
-                    current = entry;
-                    return true;
-                }
-            }
-
-            return false;
-        }
-
-        @Override
-        public Entry<MemorySegment> next() {
-            if (!hasNext()) {
-                throw new NoSuchElementException();
-            }
-            Entry<MemorySegment> next = current;
-            current = null;
-            return next;
-        }
+    static boolean isTombstone(Entry<MemorySegment> entry) {
+        return entry.value() == null;
     }
 }
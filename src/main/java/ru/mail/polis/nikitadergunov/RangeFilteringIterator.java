@@ -0,0 +1,71 @@
+package ru.mail.polis.nikitadergunov;
+
+import jdk.incubator.foreign.MemorySegment;
+import ru.mail.polis.Entry;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Hides entries of a source covered by range tombstones of newer sources. Covered range is not read:
+ * the source is reopened from the end of the range, which is a binary search for sstables.
+ */
+final class RangeFilteringIterator implements Iterator<Entry<MemorySegment>> {
+
+    private final Function<MemorySegment, Iterator<Entry<MemorySegment>>> openFrom;
+    private final RangeTombstones newer;
+    private Iterator<Entry<MemorySegment>> delegate;
+    private Entry<MemorySegment> next;
+
+    private RangeFilteringIterator(Function<MemorySegment, Iterator<Entry<MemorySegment>>> openFrom,
+                                   MemorySegment from,
+                                   RangeTombstones newer) {
+        this.openFrom = openFrom;
+        this.newer = newer;
+        this.delegate = openFrom.apply(from);
+        this.next = pull();
+    }
+
+    /**
+     * Returns entries of source starting from the key.
+     * @param openFrom opens source from the given key (inclusive), upper bound is up to the source
+     * @param newer ranges deleted in newer sources
+     */
+    static Iterator<Entry<MemorySegment>> of(Function<MemorySegment, Iterator<Entry<MemorySegment>>> openFrom,
+                                             MemorySegment from,
+                                             RangeTombstones newer) {
+        if (newer.isEmpty()) {
+            return openFrom.apply(from);
+        }
+        return new RangeFilteringIterator(openFrom, from, newer);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Entry<MemorySegment> next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        Entry<MemorySegment> result = next;
+        next = pull();
+        return result;
+    }
+
+    private Entry<MemorySegment> pull() {
+        while (delegate.hasNext()) {
+            Entry<MemorySegment> entry = delegate.next();
+            if (!newer.covers(entry.key())) {
+                return entry;
+            }
+            MemorySegment end = newer.endOf(entry.key());
+            delegate = end == null ? Collections.emptyIterator() : openFrom.apply(end);
+        }
+        return null;
+    }
+}
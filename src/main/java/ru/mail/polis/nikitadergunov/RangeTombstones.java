@@ -0,0 +1,146 @@
+package ru.mail.polis.nikitadergunov;
+
+import jdk.incubator.foreign.MemorySegment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sorted disjoint key ranges [from;to) deleted by {@code deleteRange}, null to means no upper bound.
+ * Ranges of a source hide keys of older sources only: entries of the same memory table are removed
+ * when range is deleted, so everything left in the source is newer than its ranges.
+ */
+final class RangeTombstones {
+
+    static final RangeTombstones EMPTY = new RangeTombstones(new MemorySegment[0], new MemorySegment[0]);
+
+    private final MemorySegment[] froms;
+    private final MemorySegment[] tos;
+
+    RangeTombstones(MemorySegment[] froms, MemorySegment[] tos) {
+        this.froms = froms;
+        this.tos = tos;
+    }
+
+    int size() {
+        return froms.length;
+    }
+
+    boolean isEmpty() {
+        return froms.length == 0;
+    }
+
+    MemorySegment from(int index) {
+        return froms[index];
+    }
+
+    MemorySegment to(int index) {
+        return tos[index];
+    }
+
+    // lowest deleted key, ranges must not be empty
+    MemorySegment minKey() {
+        return froms[0];
+    }
+
+    // upper bound (exclusive) of deleted keys or null if there is none, ranges must not be empty
+    MemorySegment maxKey() {
+        return tos[tos.length - 1];
+    }
+
+    boolean covers(MemorySegment key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Returns end of the range covering the key, null if it has no upper bound.
+     * Must be called only for covered keys.
+     */
+    MemorySegment endOf(MemorySegment key) {
+        return tos[indexOf(key)];
+    }
+
+    RangeTombstones with(MemorySegment from, MemorySegment to) {
+        return union(new RangeTombstones(new MemorySegment[]{from}, new MemorySegment[]{to}));
+    }
+
+    RangeTombstones union(RangeTombstones other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        List<MemorySegment> resultFroms = new ArrayList<>(size() + other.size());
+        List<MemorySegment> resultTos = new ArrayList<>(size() + other.size());
+        int i = 0;
+        int j = 0;
+        while (i < size() || j < other.size()) {
+            boolean takeThis = j == other.size()
+                    || (i < size() && MemorySegmentComparator.INSTANCE.compare(froms[i], other.froms[j]) <= 0);
+            MemorySegment from = takeThis ? froms[i] : other.froms[j];
+            MemorySegment to = takeThis ? tos[i++] : other.tos[j++];
+
+            int last = resultTos.size() - 1;
+            // ranges overlap or touch each other
+            if (last >= 0 && compareEnds(resultTos.get(last), from) >= 0) {
+                if (compareEnds(to, resultTos.get(last)) > 0) {
+                    resultTos.set(last, to);
+                }
+            } else {
+                resultFroms.add(from);
+                resultTos.add(to);
+            }
+        }
+        return new RangeTombstones(resultFroms.toArray(new MemorySegment[0]), resultTos.toArray(new MemorySegment[0]));
+    }
+
+    // parts of ranges within [from;to), null bounds mean no bound
+    RangeTombstones clip(MemorySegment from, MemorySegment to) {
+        List<MemorySegment> resultFroms = new ArrayList<>();
+        List<MemorySegment> resultTos = new ArrayList<>();
+        for (int i = 0; i < size(); i++) {
+            MemorySegment clippedFrom = from == null || MemorySegmentComparator.INSTANCE.compare(froms[i], from) >= 0
+                    ? froms[i] : from;
+            MemorySegment clippedTo = compareEnds(tos[i], to) <= 0 ? tos[i] : to;
+            if (compareEnds(clippedTo, clippedFrom) > 0) {
+                resultFroms.add(clippedFrom);
+                resultTos.add(clippedTo);
+            }
+        }
+        return new RangeTombstones(resultFroms.toArray(new MemorySegment[0]), resultTos.toArray(new MemorySegment[0]));
+    }
+
+    // index of the range covering the key or -1
+    private int indexOf(MemorySegment key) {
+        int low = 0;
+        int high = froms.length - 1;
+        // the last range starting not after the key
+        int candidate = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (MemorySegmentComparator.INSTANCE.compare(froms[mid], key) <= 0) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (candidate >= 0 && compareEnds(tos[candidate], key) > 0) {
+            return candidate;
+        }
+        return -1;
+    }
+
+    // compares upper bounds, null is greater than any key
+    static int compareEnds(MemorySegment end1, MemorySegment end2) {
+        if (end1 == null) {
+            return end2 == null ? 0 : 1;
+        }
+        if (end2 == null) {
+            return -1;
+        }
+        return MemorySegmentComparator.INSTANCE.compare(end1, end2);
+    }
+}
@@ -11,6 +11,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -18,74 +19,150 @@ import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 final class Storage implements Closeable {
 
     private static final long VERSION = 0;
+    // range deletion block after entries, its offset is in the last long of the file
+    private static final long VERSION_WITH_RANGES = 1;
     private static final int INDEX_HEADER_SIZE = Long.BYTES * 2;
     private static final int INDEX_RECORD_SIZE = Long.BYTES;
 
     private static final String FILE_NAME = "data";
     private static final String FILE_EXT = ".dat";
     private static final String FILE_EXT_TMP = ".tmp";
+    // output of compaction, becomes a table only when mentioned in the levels file
+    private static final String FILE_EXT_COMPACTED = ".cmp";
+    // line with priority of the newest file at the moment of writing, then lines "<file name> <level>"
+    // for every table; newer tables not mentioned here are flushed later and are on level 0,
+    // older ones are leftovers of compaction
+    private static final String LEVELS_FILE_NAME = "levels";
     private static final int LOW_PRIORITY_FILE = 0;
-    private static int maxPriorityFile;
 
     private static final Comparator<Path> fileComparator = Comparator.comparingInt(Storage::getPriorityFile);
 
+    // level 0 from newest to oldest, then deeper levels ordered by min key: newer data always goes first
+    private static final Comparator<Table> readOrder = Comparator.comparingInt(Table::level)
+            .thenComparing((t1, t2) -> t1.level() == 0
+                    ? Integer.compare(t2.priority(), t1.priority())
+                    : MemorySegmentComparator.INSTANCE.compare(t1.minKey(), t2.minKey()));
+
     private final ResourceScope scope;
-    private final List<MemorySegment> sstables;
+    private final List<Table> sstables;
+    // priority of the newest file of this directory, shared by all states derived from the loaded one
+    private final AtomicInteger maxPriorityFile;
 
     static Storage load(Config config) throws IOException {
         Path basePath = config.basePath();
+        Levels levels = readLevels(basePath);
+        recover(basePath, levels);
 
-        List<MemorySegment> sstables = new ArrayList<>();
+        List<Table> sstables = new ArrayList<>();
         ResourceScope scope = ResourceScope.newSharedScope();
+        AtomicInteger maxPriorityFile;
 
         try (Stream<Path> streamFiles = Files.list(basePath)) {
             List<Path> listFiles = streamFiles
                     .filter(path -> path.toString().endsWith(FILE_EXT))
                     .sorted(fileComparator.reversed()).toList();
 
+            // never decreases, so files written later are always newer than committed ones
+            int maxPriority = Math.max(LOW_PRIORITY_FILE, levels.lastPriority());
             if (!listFiles.isEmpty()) {
-                maxPriorityFile = getPriorityFile(listFiles.get(0));
+                maxPriority = Math.max(maxPriority, getPriorityFile(listFiles.get(0)));
             }
+            maxPriorityFile = new AtomicInteger(maxPriority);
             listFiles.forEach(path -> {
                 try {
-                    sstables.add(mapForRead(scope, path));
+                    int level = levels.byFile().getOrDefault(path.getFileName().toString(), 0);
+                    sstables.add(Table.of(path, mapForRead(scope, path), getPriorityFile(path), level));
                 } catch (IOException e) {
                     throw new UncheckedIOException(e);
                 }
             });
         }
 
-        return new Storage(scope, sstables);
+        sstables.sort(readOrder);
+        return new Storage(scope, sstables, maxPriorityFile);
     }
 
-    static void compact(Config config,
-                        Storage previousState,
-                        Iterator<Entry<MemorySegment>> entriesIterator,
-                        ConcurrentNavigableMap<MemorySegment, Entry<MemorySegment>> memory) throws IOException {
+    // finishes compaction interrupted by crash: its outputs are kept and its inputs are deleted
+    // only if the levels file mentioning the outputs was written, otherwise it is rolled back
+    private static void recover(Path basePath, Levels levels) throws IOException {
+        List<Path> files;
+        try (Stream<Path> streamFiles = Files.list(basePath)) {
+            files = streamFiles.toList();
+        }
+        for (Path path : files) {
+            String fileName = path.getFileName().toString();
+            if (fileName.endsWith(FILE_EXT_TMP)) {
+                Files.delete(path);
+            } else if (fileName.endsWith(FILE_EXT_COMPACTED)) {
+                Path committed = withExtension(path, FILE_EXT);
+                if (levels.byFile().containsKey(committed.getFileName().toString())) {
+                    Files.move(path, committed, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.delete(path);
+                }
+            } else if (fileName.endsWith(FILE_EXT)
+                    && getPriorityFile(path) <= levels.lastPriority() && !levels.byFile().containsKey(fileName)) {
+                Files.delete(path);
+            }
+        }
+    }
 
-        if (memory.isEmpty() && previousState.sstables.size() < 2) {
-            return;
+    private static Levels readLevels(Path basePath) throws IOException {
+        Path levelsPath = basePath.resolve(LEVELS_FILE_NAME);
+        Map<String, Integer> levels = new HashMap<>();
+        if (Files.notExists(levelsPath)) {
+            return new Levels(LOW_PRIORITY_FILE - 1, levels);
+        }
+        List<String> lines = Files.readAllLines(levelsPath, StandardCharsets.UTF_8);
+        for (String line : lines.subList(1, lines.size())) {
+            int separator = line.indexOf(' ');
+            if (separator > 0) {
+                levels.put(line.substring(0, separator), Integer.parseInt(line.substring(separator + 1)));
+            }
+        }
+        return new Levels(Integer.parseInt(lines.get(0)), levels);
+    }
+
+    // commits the new set of tables, it is atomic so that load sees either old or new one
+    private void writeLevels(Path basePath, List<Table> tables) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(Integer.toString(maxPriorityFile.get()));
+        for (Table table : tables) {
+            lines.add(table.path().getFileName() + " " + table.level());
+        }
+        Path levelsTmpPath = basePath.resolve(LEVELS_FILE_NAME + FILE_EXT_TMP);
+        Files.write(levelsTmpPath, lines, StandardCharsets.UTF_8);
+        Files.move(levelsTmpPath, basePath.resolve(LEVELS_FILE_NAME),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // entries are already filtered by range tombstones, so the compacted table has none of them
+    // returns state with the compacted table only
+    static Storage compact(Config config,
+                           Storage previousState,
+                           Iterator<Entry<MemorySegment>> entriesIterator) throws IOException {
+
+        if (previousState.sstables.size() < 2
+                && (previousState.sstables.isEmpty() || previousState.sstables.get(0).tombstones().isEmpty())) {
+            return previousState;
         }
 
         List<Entry<MemorySegment>> entries = new ArrayList<>();
         while (entriesIterator.hasNext()) {
             entries.add(entriesIterator.next());
         }
-        if (entries.isEmpty()) {
-            return;
-        }
 
-        save(config, entries);
-        memory.clear();
-        Path sstablePathOld = config.basePath().resolve(FILE_NAME + maxPriorityFile + FILE_EXT);
+        Path sstablePathOld = previousState.save(config, entries);
         Path sstablePathNew = config.basePath().resolve(FILE_NAME + LOW_PRIORITY_FILE + FILE_EXT);
 
         try (Stream<Path> listFiles = Files.list(config.basePath())) {
@@ -100,18 +177,50 @@ final class Storage implements Closeable {
 
         }
 
+        // everything is deleted
+        if (sstablePathOld == null) {
+            return new Storage(previousState.scope, List.of(), previousState.maxPriorityFile);
+        }
         Files.move(sstablePathOld, sstablePathNew, StandardCopyOption.ATOMIC_MOVE);
+        return new Storage(previousState.scope, List.of(
+                Table.of(sstablePathNew, mapForRead(previousState.scope, sstablePathNew), LOW_PRIORITY_FILE, 0)),
+                previousState.maxPriorityFile);
     }
 
-    // it is supposed that entries can not be changed externally during this method call
-    static void save(
+    Path save(
             Config config,
             Collection<Entry<MemorySegment>> entries) throws IOException {
-        if (entries.isEmpty()) {
-            return;
+        return save(config, entries, RangeTombstones.EMPTY);
+    }
+
+    // it is supposed that entries can not be changed externally during this method call
+    // returns path of the new sstable or null if there is nothing to save
+    Path save(
+            Config config,
+            Collection<Entry<MemorySegment>> entries,
+            RangeTombstones tombstones) throws IOException {
+        return save(config, entries, tombstones, FILE_EXT);
+    }
+
+    // saved table is ignored by load until it is committed by withCompacted
+    Path saveCompacted(
+            Config config,
+            Collection<Entry<MemorySegment>> entries,
+            RangeTombstones tombstones) throws IOException {
+        return save(config, entries, tombstones, FILE_EXT_COMPACTED);
+    }
+
+    private Path save(
+            Config config,
+            Collection<Entry<MemorySegment>> entries,
+            RangeTombstones tombstones,
+            String extension) throws IOException {
+        if (entries.isEmpty() && tombstones.isEmpty()) {
+            return null;
         }
 
-        int nextSSTableIndex = maxPriorityFile + 1;
+        // flush and compaction run on one thread, the number is taken anyway so that they never collide
+        int nextSSTableIndex = maxPriorityFile.incrementAndGet();
         long entriesCount = entries.size();
         long dataStart = INDEX_HEADER_SIZE + INDEX_RECORD_SIZE * entriesCount;
 
@@ -123,17 +232,14 @@ final class Storage implements Closeable {
         try (ResourceScope writeScope = ResourceScope.newConfinedScope()) {
             long size = 0;
             for (Entry<MemorySegment> entry : entries) {
-                if (entry.value() == null) {
-                    size += Long.BYTES + entry.key().byteSize() + Long.BYTES;
-                } else {
-                    size += Long.BYTES + entry.value().byteSize() + entry.key().byteSize() + Long.BYTES;
-                }
+                size += sizeOf(entry);
             }
+            long rangesSize = tombstones.isEmpty() ? 0 : sizeOf(tombstones);
 
             MemorySegment nextSSTable = MemorySegment.mapFile(
                     sstableTmpPath,
                     0,
-                    dataStart + size,
+                    dataStart + size + rangesSize,
                     FileChannel.MapMode.READ_WRITE,
                     writeScope
             );
@@ -149,14 +255,66 @@ final class Storage implements Closeable {
                 index++;
             }
 
-            MemoryAccess.setLongAtOffset(nextSSTable, 0, VERSION);
+            if (!tombstones.isEmpty()) {
+                writeRanges(nextSSTable, offset, tombstones);
+            }
+
+            MemoryAccess.setLongAtOffset(nextSSTable, 0, tombstones.isEmpty() ? VERSION : VERSION_WITH_RANGES);
             MemoryAccess.setLongAtOffset(nextSSTable, Long.BYTES, entriesCount);
 
             nextSSTable.force();
         }
-        Path sstablePath = config.basePath().resolve(FILE_NAME + nextSSTableIndex + FILE_EXT);
+        Path sstablePath = config.basePath().resolve(FILE_NAME + nextSSTableIndex + extension);
         Files.move(sstableTmpPath, sstablePath, StandardCopyOption.ATOMIC_MOVE);
-        maxPriorityFile++;
+        return sstablePath;
+    }
+
+    static long sizeOf(Entry<MemorySegment> entry) {
+        if (entry.value() == null) {
+            return Long.BYTES + entry.key().byteSize() + Long.BYTES;
+        }
+        return Long.BYTES + entry.value().byteSize() + entry.key().byteSize() + Long.BYTES;
+    }
+
+    // (rangesCount)((fromSize/from/toSize/to)...)(rangesOffset), toSize is -1 for range without upper bound
+    private static long sizeOf(RangeTombstones tombstones) {
+        long size = Long.BYTES * 2L;
+        for (int i = 0; i < tombstones.size(); i++) {
+            MemorySegment to = tombstones.to(i);
+            size += Long.BYTES * 2L + tombstones.from(i).byteSize() + (to == null ? 0 : to.byteSize());
+        }
+        return size;
+    }
+
+    private static void writeRanges(MemorySegment nextSSTable, long rangesOffset, RangeTombstones tombstones) {
+        long offset = rangesOffset;
+        MemoryAccess.setLongAtOffset(nextSSTable, offset, tombstones.size());
+        offset += Long.BYTES;
+        for (int i = 0; i < tombstones.size(); i++) {
+            offset += writeRecord(nextSSTable, offset, tombstones.from(i));
+            offset += writeRecord(nextSSTable, offset, tombstones.to(i));
+        }
+        MemoryAccess.setLongAtOffset(nextSSTable, offset, rangesOffset);
+    }
+
+    private static RangeTombstones readRanges(MemorySegment sstable) {
+        if (MemoryAccess.getLongAtOffset(sstable, 0) != VERSION_WITH_RANGES) {
+            return RangeTombstones.EMPTY;
+        }
+        long offset = MemoryAccess.getLongAtOffset(sstable, sstable.byteSize() - Long.BYTES);
+        int count = (int) MemoryAccess.getLongAtOffset(sstable, offset);
+        offset += Long.BYTES;
+        MemorySegment[] froms = new MemorySegment[count];
+        MemorySegment[] tos = new MemorySegment[count];
+        for (int i = 0; i < count; i++) {
+            long fromSize = MemoryAccess.getLongAtOffset(sstable, offset);
+            froms[i] = sstable.asSlice(offset + Long.BYTES, fromSize);
+            offset += Long.BYTES + fromSize;
+            long toSize = MemoryAccess.getLongAtOffset(sstable, offset);
+            tos[i] = toSize == -1 ? null : sstable.asSlice(offset + Long.BYTES, toSize);
+            offset += Long.BYTES + Math.max(toSize, 0);
+        }
+        return new RangeTombstones(froms, tos);
     }
 
     private static long writeRecord(MemorySegment nextSSTable, long offset, MemorySegment record) {
@@ -181,15 +339,63 @@ final class Storage implements Closeable {
         String file = path.getFileName().toString();
         return Integer.parseInt(file.substring(
                 FILE_NAME.length(),
-                file.length() - FILE_EXT.length()));
+                file.lastIndexOf('.')));
     }
 
-    private Storage(ResourceScope scope, List<MemorySegment> sstables) {
+    private static Path withExtension(Path path, String extension) {
+        String file = path.getFileName().toString();
+        return path.resolveSibling(file.substring(0, file.lastIndexOf('.')) + extension);
+    }
+
+    private Storage(ResourceScope scope, List<Table> sstables, AtomicInteger maxPriorityFile) {
         this.scope = scope;
         this.sstables = sstables;
+        this.maxPriorityFile = maxPriorityFile;
     }
 
-    private long greaterOrEqualEntryIndex(MemorySegment sstable, MemorySegment key) {
+    // maps just saved sstable into the same scope, it becomes the newest one
+    Storage withNewest(Path sstablePath) throws IOException {
+        List<Table> tables = new ArrayList<>(sstables.size() + 1);
+        tables.add(Table.of(sstablePath, mapForRead(scope, sstablePath), getPriorityFile(sstablePath), 0));
+        tables.addAll(sstables);
+        return new Storage(scope, tables, maxPriorityFile);
+    }
+
+    List<Table> tables() {
+        return sstables;
+    }
+
+    // replaces removed tables with ones saved by saveCompacted on the given level;
+    // writing of levels file commits the replacement, files are renamed and deleted only after that
+    Storage withCompacted(Config config, List<Table> removed, List<Path> added, int level) throws IOException {
+        List<Table> tables = new ArrayList<>(sstables);
+        tables.removeAll(removed);
+        for (Path path : added) {
+            Path committed = withExtension(path, FILE_EXT);
+            tables.add(Table.of(committed, mapForRead(scope, path), getPriorityFile(path), level));
+        }
+        tables.sort(readOrder);
+        writeLevels(config.basePath(), tables);
+        for (Path path : added) {
+            Files.move(path, withExtension(path, FILE_EXT), StandardCopyOption.ATOMIC_MOVE);
+        }
+        for (Table table : removed) {
+            Files.deleteIfExists(table.path());
+        }
+        return new Storage(scope, tables, maxPriorityFile);
+    }
+
+    // moves table to another level without rewriting it
+    Storage withMoved(Config config, Table table, int level) throws IOException {
+        List<Table> tables = new ArrayList<>(sstables);
+        tables.remove(table);
+        tables.add(new Table(table.path(), table.segment(), table.priority(), level, table.tombstones()));
+        tables.sort(readOrder);
+        writeLevels(config.basePath(), tables);
+        return new Storage(scope, tables, maxPriorityFile);
+    }
+
+    private static long greaterOrEqualEntryIndex(MemorySegment sstable, MemorySegment key) {
         long index = entryIndex(sstable, key);
         if (index < 0) {
             return ~index;
@@ -198,10 +404,10 @@ final class Storage implements Closeable {
     }
 
     // file structure:
-    // (fileVersion)(entryCount)((entryPosition)...)|((keySize/key/valueSize/value)...)
-    private long entryIndex(MemorySegment sstable, MemorySegment key) {
+    // (fileVersion)(entryCount)((entryPosition)...)|((keySize/key/valueSize/value)...)|(range deletion block)
+    private static long entryIndex(MemorySegment sstable, MemorySegment key) {
         long fileVersion = MemoryAccess.getLongAtOffset(sstable, 0);
-        if (fileVersion != 0) {
+        if (fileVersion != VERSION && fileVersion != VERSION_WITH_RANGES) {
             throw new IllegalStateException("Unknown file version: " + fileVersion);
         }
         long recordsCount = MemoryAccess.getLongAtOffset(sstable, 8);
@@ -232,7 +438,7 @@ final class Storage implements Closeable {
         return ~left;
     }
 
-    private Entry<MemorySegment> entryAt(MemorySegment sstable, long keyIndex) {
+    private static Entry<MemorySegment> entryAt(MemorySegment sstable, long keyIndex) {
         long offset = MemoryAccess.getLongAtOffset(sstable, INDEX_HEADER_SIZE + keyIndex * INDEX_RECORD_SIZE);
         long keySize = MemoryAccess.getLongAtOffset(sstable, offset);
         long valueOffset = offset + Long.BYTES + keySize;
@@ -243,7 +449,7 @@ final class Storage implements Closeable {
         );
     }
 
-    private Iterator<Entry<MemorySegment>> iterate(MemorySegment sstable, MemorySegment keyFrom, MemorySegment keyTo) {
+    static Iterator<Entry<MemorySegment>> iterate(MemorySegment sstable, MemorySegment keyFrom, MemorySegment keyTo) {
         long keyFromPos = greaterOrEqualEntryIndex(sstable, keyFrom);
         long keyToPos = greaterOrEqualEntryIndex(sstable, keyTo);
 
@@ -264,21 +470,35 @@ final class Storage implements Closeable {
         };
     }
 
+    // null if there is no such key or it is deleted by range
     public Entry<MemorySegment> get(MemorySegment key) {
         long keyFromPos;
-        for (MemorySegment sstable : sstables) {
-            keyFromPos = entryIndex(sstable, key);
+        for (Table sstable : sstables) {
+            if (sstable.level() > 0 && !sstable.overlaps(key, key)) {
+                continue;
+            }
+            keyFromPos = entryIndex(sstable.segment(), key);
             if (keyFromPos >= 0) {
-                return entryAt(sstable, keyFromPos);
+                return entryAt(sstable.segment(), keyFromPos);
+            }
+            if (sstable.tombstones().covers(key)) {
+                return null;
             }
         }
         return null;
     }
 
-    public List<Iterator<Entry<MemorySegment>>> iterate(MemorySegment keyFrom, MemorySegment keyTo) {
+    /**
+     * Returns iterators of tables from the newest one, entries deleted by ranges of newer tables are skipped.
+     * @param newer ranges deleted in memory, they hide entries of all tables
+     */
+    public List<Iterator<Entry<MemorySegment>>> iterate(MemorySegment keyFrom, MemorySegment keyTo,
+                                                        RangeTombstones newer) {
         List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(sstables.size());
-        for (MemorySegment sstable : sstables) {
-            iterators.add(iterate(sstable, keyFrom, keyTo));
+        RangeTombstones deleted = newer;
+        for (Table sstable : sstables) {
+            iterators.add(RangeFilteringIterator.of(from -> iterate(sstable.segment(), from, keyTo), keyFrom, deleted));
+            deleted = deleted.union(sstable.tombstones());
         }
         return iterators;
     }
@@ -294,4 +514,53 @@ final class Storage implements Closeable {
         return !scope.isAlive();
     }
 
+    // content of the levels file, lastPriority is less than any priority if there is no such file
+    private record Levels(int lastPriority, Map<String, Integer> byFile) {
+    }
+
+    // key range of the table covers its entries and deleted ranges
+    record Table(Path path, MemorySegment segment, int priority, int level, RangeTombstones tombstones) {
+
+        static Table of(Path path, MemorySegment segment, int priority, int level) {
+            return new Table(path, segment, priority, level, readRanges(segment));
+        }
+
+        long size() {
+            return segment.byteSize();
+        }
+
+        long entriesCount() {
+            return MemoryAccess.getLongAtOffset(segment, Long.BYTES);
+        }
+
+        MemorySegment minKey() {
+            if (entriesCount() == 0) {
+                return tombstones.minKey();
+            }
+            MemorySegment minKey = entryAt(segment, 0).key();
+            if (!tombstones.isEmpty() && MemorySegmentComparator.INSTANCE.compare(tombstones.minKey(), minKey) < 0) {
+                return tombstones.minKey();
+            }
+            return minKey;
+        }
+
+        // null if deleted range has no upper bound, it is treated as inclusive
+        MemorySegment maxKey() {
+            if (entriesCount() == 0) {
+                return tombstones.maxKey();
+            }
+            MemorySegment maxKey = entryAt(segment, entriesCount() - 1).key();
+            if (!tombstones.isEmpty() && RangeTombstones.compareEnds(tombstones.maxKey(), maxKey) > 0) {
+                return tombstones.maxKey();
+            }
+            return maxKey;
+        }
+
+        // both bounds are inclusive, null to means no upper bound
+        boolean overlaps(MemorySegment from, MemorySegment to) {
+            return RangeTombstones.compareEnds(from, maxKey()) <= 0
+                    && RangeTombstones.compareEnds(to, minKey()) >= 0;
+        }
+    }
+
 }
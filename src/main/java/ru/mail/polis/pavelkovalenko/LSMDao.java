@@ -5,14 +5,17 @@ import ru.mail.polis.Dao;
 import ru.mail.polis.Entry;
 import ru.mail.polis.pavelkovalenko.dto.PairedFiles;
 import ru.mail.polis.pavelkovalenko.iterators.MergeIterator;
-import ru.mail.polis.pavelkovalenko.visitors.CompactVisitor;
+import ru.mail.polis.pavelkovalenko.utils.Utils;
 import ru.mail.polis.pavelkovalenko.visitors.ConfigVisitor;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -22,16 +25,26 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class LSMDao implements Dao<ByteBuffer, Entry<ByteBuffer>> {
 
     private final ConcurrentNavigableMap<ByteBuffer, Entry<ByteBuffer>> memorySSTable = new ConcurrentSkipListMap<>();
-    private final NavigableMap<Integer /*priority*/, PairedFiles> sstables = new TreeMap<>();
+    private final NavigableMap<Integer /*table number, greater is newer*/, PairedFiles> sstables = new TreeMap<>();
     private final Config config;
     private final Serializer serializer;
+    private final Manifest manifest;
     private final ReadWriteLock rwlock = new ReentrantReadWriteLock();
 
     public LSMDao(Config config) throws IOException {
         try {
             this.config = config;
             this.serializer = new Serializer(sstables, config);
-            Files.walkFileTree(config.basePath(), new ConfigVisitor(sstables, serializer));
+            this.manifest = new Manifest(config.basePath());
+            if (manifest.exists()) {
+                openTables();
+            } else {
+                // data written before manifest was introduced, directory is scanned only once
+                Files.walkFileTree(config.basePath(), new ConfigVisitor(sstables, serializer));
+                if (!sstables.isEmpty()) {
+                    manifest.commit(sstables.keySet(), Set.of());
+                }
+            }
         } catch (ReflectiveOperationException ex) {
             throw new RuntimeException(ex);
         }
@@ -58,7 +71,13 @@ public class LSMDao implements Dao<ByteBuffer, Entry<ByteBuffer>> {
     public void flush() throws IOException {
         rwlock.writeLock().lock();
         try {
-            serializer.write(memorySSTable.values().iterator());
+            int number = manifest.nextTableNumber();
+            PairedFiles table = serializer.write(memorySSTable.values().iterator(), number);
+            if (table == null) {
+                return;
+            }
+            manifest.commit(List.of(number), Set.of());
+            sstables.put(number, table);
         } finally {
             rwlock.writeLock().unlock();
         }
@@ -68,12 +87,12 @@ public class LSMDao implements Dao<ByteBuffer, Entry<ByteBuffer>> {
     public void close() throws IOException {
         rwlock.writeLock().lock();
         try {
-            if (memorySSTable.isEmpty()) {
-                return;
+            if (!memorySSTable.isEmpty()) {
+                flush();
+                memorySSTable.clear();
             }
-            flush();
-            memorySSTable.clear();
         } finally {
+            manifest.close();
             rwlock.writeLock().unlock();
         }
     }
@@ -86,17 +105,40 @@ public class LSMDao implements Dao<ByteBuffer, Entry<ByteBuffer>> {
                 return;
             }
 
-            Iterator<Entry<ByteBuffer>> mergeIterator = get(null, null);
-            if (!mergeIterator.hasNext()) {
-                return;
+            int number = manifest.nextTableNumber();
+            PairedFiles compacted = serializer.write(get(null, null), number);
+            List<PairedFiles> obsolete = new ArrayList<>(sstables.values());
+            // single edit replaces all tables, after crash before it old tables are still in place
+            manifest.commit(compacted == null ? List.of() : List.of(number), List.copyOf(sstables.keySet()));
+            sstables.clear();
+            if (compacted != null) {
+                sstables.put(number, compacted);
             }
-
-            serializer.write(mergeIterator);
-            Files.walkFileTree(config.basePath(), new CompactVisitor(sstables.lastEntry().getValue(), config));
             memorySSTable.clear();
+
+            for (PairedFiles table : obsolete) {
+                deleteTable(table);
+            }
         } finally {
             rwlock.writeLock().unlock();
         }
     }
 
+    private void openTables() throws IOException {
+        // files of removed tables are left if crash happened right after the edit
+        for (int number : manifest.removedTables()) {
+            deleteTable(Utils.getPairedFiles(config.basePath(), number));
+        }
+        manifest.rewrite();
+
+        for (int number : manifest.tables()) {
+            sstables.put(number, Utils.getPairedFiles(config.basePath(), number));
+        }
+    }
+
+    private static void deleteTable(PairedFiles table) throws IOException {
+        Files.deleteIfExists(table.dataFile());
+        Files.deleteIfExists(table.indexesFile());
+    }
+
 }
@@ -0,0 +1,210 @@
+package ru.mail.polis.pavelkovalenko;
+
+import ru.mail.polis.pavelkovalenko.utils.Utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of changes of the sstables set, replayed on open instead of walking the directory.
+ * Each flush and compaction is one edit forced to disk before it is applied, so tables not added
+ * by a complete edit are never visible. Tables are named by numbers which are never reused,
+ * greater number is newer table.
+ */
+public final class Manifest implements Closeable {
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    private final Path file;
+    private final boolean exists;
+    private final NavigableSet<Integer> tables = new TreeSet<>();
+    private final Set<Integer> removedTables = new HashSet<>();
+    private long version;
+    private int nextNumber = 1;
+    private int edits;
+    private FileChannel channel;
+
+    public Manifest(Path basePath) throws IOException {
+        this.file = basePath.resolve(Utils.MANIFEST_FILENAME);
+        this.exists = Files.exists(file);
+        if (exists) {
+            replay();
+        }
+    }
+
+    /**
+     * Whether manifest was found on open, data written before manifest was introduced has none.
+     */
+    public boolean exists() {
+        return exists;
+    }
+
+    public NavigableSet<Integer> tables() {
+        return Collections.unmodifiableNavigableSet(tables);
+    }
+
+    /**
+     * Tables removed by edits since last {@link #rewrite()}, their files may be left after crash.
+     */
+    public Set<Integer> removedTables() {
+        return Collections.unmodifiableSet(removedTables);
+    }
+
+    public int nextTableNumber() {
+        return nextNumber++;
+    }
+
+    public void commit(Collection<Integer> added, Collection<Integer> removed) throws IOException {
+        for (int number : added) {
+            nextNumber = Math.max(nextNumber, number + 1);
+        }
+        if (channel == null) {
+            channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        writeFully(channel, encode(version + 1, added, removed));
+        channel.force(false);
+        apply(version + 1, added, removed);
+    }
+
+    /**
+     * Replaces the log with one edit adding all live tables, so replay stays O(tables).
+     */
+    public void rewrite() throws IOException {
+        if (edits <= 1) {
+            return;
+        }
+
+        Path tmpFile = file.resolveSibling(Utils.MANIFEST_FILENAME + Utils.TMP_EXTENSION);
+        try (FileChannel tmpChannel = FileChannel.open(tmpFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(tmpChannel, encode(version, tables, List.of()));
+            tmpChannel.force(false);
+        }
+        close();
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        removedTables.clear();
+        edits = 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /*
+     * Replays edits in format:
+     * ┌─────────────┬────────────┬───────────────────────┐
+     * │ length: int │ crc32: int │ payload: byte[length] │
+     * └─────────────┴────────────┴───────────────────────┘
+     * where payload is:
+     * ┌───────────────┬────────────────────────┬────────────┬────────────┬──────────────┬──────────────┐
+     * │ version: long │ next table number: int │ added: int │ int[added] │ removed: int │ int[removed] │
+     * └───────────────┴────────────────────────┴────────────┴────────────┴──────────────┴──────────────┘
+     * Torn edit at the end is left by crash during commit, it was never applied and is cut off.
+     */
+    private void replay() throws IOException {
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(file));
+        int validSize = 0;
+        while (log.remaining() >= HEADER_SIZE) {
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length < 0 || length > log.remaining()) {
+                break;
+            }
+
+            ByteBuffer payload = log.slice(log.position(), length);
+            if (checksum != checksum(payload)) {
+                break;
+            }
+            applyPayload(payload);
+            log.position(log.position() + length);
+            validSize = log.position();
+        }
+
+        if (validSize < log.capacity()) {
+            try (FileChannel truncated = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncated.truncate(validSize);
+                truncated.force(false);
+            }
+        }
+    }
+
+    private void applyPayload(ByteBuffer payload) {
+        long editVersion = payload.getLong();
+        nextNumber = Math.max(nextNumber, payload.getInt());
+        List<Integer> added = readNumbers(payload);
+        List<Integer> removed = readNumbers(payload);
+        if (editVersion <= version) {
+            throw new IllegalStateException("Manifest edits are out of order");
+        }
+        apply(editVersion, added, removed);
+    }
+
+    private void apply(long editVersion, Collection<Integer> added, Collection<Integer> removed) {
+        tables.addAll(added);
+        tables.removeAll(removed);
+        removedTables.addAll(removed);
+        version = editVersion;
+        ++edits;
+    }
+
+    private ByteBuffer encode(long editVersion, Collection<Integer> added, Collection<Integer> removed) {
+        int length = Long.BYTES + Integer.BYTES * (3 + added.size() + removed.size());
+        ByteBuffer edit = ByteBuffer.allocate(HEADER_SIZE + length);
+        edit.putInt(length);
+        edit.position(HEADER_SIZE);
+        edit.putLong(editVersion);
+        edit.putInt(nextNumber);
+        writeNumbers(added, edit);
+        writeNumbers(removed, edit);
+        edit.putInt(Integer.BYTES, checksum(edit.slice(HEADER_SIZE, length)));
+        return edit.rewind();
+    }
+
+    private static List<Integer> readNumbers(ByteBuffer payload) {
+        int count = payload.getInt();
+        Integer[] numbers = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            numbers[i] = payload.getInt();
+        }
+        return List.of(numbers);
+    }
+
+    private static void writeNumbers(Collection<Integer> numbers, ByteBuffer edit) {
+        edit.putInt(numbers.size());
+        for (int number : numbers) {
+            edit.putInt(number);
+        }
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
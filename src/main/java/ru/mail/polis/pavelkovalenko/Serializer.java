@@ -19,12 +19,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
 
 public final class Serializer {
 
     private final NavigableMap<Integer, PairedFiles> sstables;
     private final NavigableMap<Integer, MappedPairedFiles> mappedSSTables = new TreeMap<>();
+    private Set<Integer> mappedNumbers = Set.of();
     private final Config config;
     private static final Method unmap;
     private static final Object unsafe;
@@ -58,13 +60,17 @@ public final class Serializer {
         return new BaseEntry<>(key, value);
     }
 
-    public void write(Iterator<Entry<ByteBuffer>> sstable)
+    /**
+     * Writes table with given number and forces it to disk, it becomes visible only when added to manifest.
+     * @return written files or null if there is nothing to write
+     */
+    public PairedFiles write(Iterator<Entry<ByteBuffer>> sstable, int number)
             throws IOException {
         if (!sstable.hasNext()) {
-            return;
+            return null;
         }
 
-        PairedFiles lastPairedFiles = addPairedFiles();
+        PairedFiles lastPairedFiles = addPairedFiles(number);
         try (RandomAccessFile dataFile = new RandomAccessFile(lastPairedFiles.dataFile().toString(), "rw");
              RandomAccessFile indexesFile = new RandomAccessFile(lastPairedFiles.indexesFile().toString(), "rw")) {
             writeMeta(new FileMeta(FileMeta.unfinishedWrite), dataFile);
@@ -79,6 +85,8 @@ public final class Serializer {
             }
 
             writeMeta(new FileMeta(FileMeta.finishedWrite), dataFile);
+            dataFile.getChannel().force(false);
+            indexesFile.getChannel().force(false);
         } catch (Exception ex) {
             if (lastPairedFiles != null) {
                 Files.deleteIfExists(lastPairedFiles.dataFile());
@@ -86,11 +94,12 @@ public final class Serializer {
             }
             throw new RuntimeException(ex);
         }
+        return lastPairedFiles;
     }
 
     public MappedPairedFiles get(int priority)
             throws IOException, ReflectiveOperationException {
-        if (sstables.size() != mappedSSTables.size()) {
+        if (!mappedNumbers.equals(sstables.keySet())) {
             mapSSTables();
         }
         return mappedSSTables.get(priority);
@@ -132,6 +141,7 @@ public final class Serializer {
             unmap(mappedPairedFile.dataFile());
             unmap(mappedPairedFile.indexesFile());
         }
+        mappedSSTables.clear();
 
         for (PairedFiles filePair : sstables.values()) {
             try (FileChannel dataChannel = FileChannel.open(filePair.dataFile());
@@ -145,6 +155,7 @@ public final class Serializer {
                 mappedSSTables.put(priority++, new MappedPairedFiles(mappedDataFile, mappedIndexesFile));
             }
         }
+        mappedNumbers = Set.copyOf(sstables.keySet());
     }
 
     private byte readByte(MappedByteBuffer dataFile, int dataPos) {
@@ -195,39 +206,24 @@ public final class Serializer {
         return bbSize;
     }
 
-    private PairedFiles addPairedFiles() throws IOException {
-        Path dataFile = null;
-        Path indexesFile = null;
-        PairedFiles pairedFiles;
+    private PairedFiles addPairedFiles(int number) throws IOException {
+        PairedFiles pairedFiles = Utils.getPairedFiles(config.basePath(), number);
         try {
-            final int priority = sstables.size() + 1;
-
-            dataFile = config.basePath().resolve(
-                    Path.of(Utils.DATA_FILENAME + priority + Utils.FILE_EXTENSION));
-            addFile(dataFile);
-            indexesFile = config.basePath().resolve(
-                    Path.of(Utils.INDEXES_FILENAME + priority + Utils.FILE_EXTENSION));
-            addFile(indexesFile);
-
-            pairedFiles = new PairedFiles(dataFile, indexesFile);
-            sstables.put(priority, pairedFiles);
+            addFile(pairedFiles.dataFile());
+            addFile(pairedFiles.indexesFile());
         } catch (Exception ex) {
-            if (dataFile != null) {
-                Files.deleteIfExists(dataFile);
-            }
-            if (indexesFile != null) {
-                Files.deleteIfExists(indexesFile);
-            }
+            Files.deleteIfExists(pairedFiles.dataFile());
+            Files.deleteIfExists(pairedFiles.indexesFile());
             throw new RuntimeException(ex);
         }
 
         return pairedFiles;
     }
 
+    // files with this number may be left by write which was not committed to manifest
     private void addFile(Path file) throws IOException {
-        if (!Files.exists(file)) {
-            Files.createFile(file);
-        }
+        Files.deleteIfExists(file);
+        Files.createFile(file);
     }
 
     private void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException {
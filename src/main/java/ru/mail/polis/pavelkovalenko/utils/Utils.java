@@ -2,6 +2,7 @@ package ru.mail.polis.pavelkovalenko.utils;
 
 import ru.mail.polis.Entry;
 import ru.mail.polis.pavelkovalenko.comparators.EntryComparator;
+import ru.mail.polis.pavelkovalenko.dto.PairedFiles;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
@@ -15,6 +16,8 @@ public final class Utils {
     public static final String DATA_FILENAME = "data";
     public static final String INDEXES_FILENAME = "indexes";
     public static final String FILE_EXTENSION = ".txt";
+    public static final String MANIFEST_FILENAME = "MANIFEST";
+    public static final String TMP_EXTENSION = ".tmp";
     public static final Byte NORMAL_VALUE = 1;
     public static final Byte TOMBSTONE_VALUE = -1;
     public static final EntryComparator entryComparator = EntryComparator.INSTANSE;
@@ -45,6 +48,13 @@ public final class Utils {
         return file.getFileName().toString().startsWith(INDEXES_FILENAME);
     }
 
+    public static PairedFiles getPairedFiles(Path basePath, int number) {
+        return new PairedFiles(
+                basePath.resolve(Path.of(DATA_FILENAME + number + FILE_EXTENSION)),
+                basePath.resolve(Path.of(INDEXES_FILENAME + number + FILE_EXTENSION))
+        );
+    }
+
     public static Integer getFileNumber(Path file) {
         Matcher matcher = PATTERN.matcher(file.getFileName().toString());
         return Integer.parseInt(matcher.replaceAll(REPLACEMENT));
@@ -2,48 +2,127 @@ package ru.mail.polis.stepanponomarev;
 
 import jdk.incubator.foreign.MemorySegment;
 import ru.mail.polis.Dao;
+import ru.mail.polis.RangeSpliterator;
+import ru.mail.polis.metrics.DaoMetrics;
+import ru.mail.polis.metrics.MeteredIterator;
+import ru.mail.polis.WriteBatch;
 import ru.mail.polis.stepanponomarev.store.Storage;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
 
 public class LSMDao implements Dao<MemorySegment, TimestampEntry> {
     private final Storage storage;
+    private final DaoMetrics metrics;
+    // wall clock for timestamps of flush and compaction and for expiration checks
+    private final LongSupplier clock;
 
     public LSMDao(Path path) throws IOException {
+        this(path, DaoMetrics.NONE);
+    }
+
+    public LSMDao(Path path, DaoMetrics metrics) throws IOException {
+        this(path, metrics, System::currentTimeMillis);
+    }
+
+    public LSMDao(Path path, DaoMetrics metrics, LongSupplier clock) throws IOException {
         if (Files.notExists(path)) {
             throw new IllegalArgumentException("Path: " + path + " is not exist");
         }
 
-        storage = new Storage(path);
+        this.metrics = metrics;
+        this.clock = clock;
+        storage = new Storage(path, metrics);
     }
 
     @Override
     public Iterator<TimestampEntry> get(MemorySegment from, MemorySegment to) throws IOException {
-        return new TombstoneSkipIterator<>(storage.get(from, to));
+        final long now = clock.getAsLong();
+        return MeteredIterator.of(
+                new TombstoneSkipIterator<>(storage.get(from, to, Storage.LATEST), e -> e.isRemoved(now)),
+                TimestampEntry::getSizeBytes,
+                metrics
+        );
+    }
+
+    /**
+     * Parts of the range are split by sstable blocks and read data as it is when part starts,
+     * use {@link Snapshot#stream} for a consistent scan.
+     */
+    @Override
+    public Stream<TimestampEntry> stream(MemorySegment from, MemorySegment to) {
+        return RangeSpliterator.stream(rangeSource(storage, Storage.LATEST, clock), from, to, false);
+    }
+
+    static RangeSpliterator.Source<MemorySegment, TimestampEntry> rangeSource(Storage storage,
+                                                                              long timestamp,
+                                                                              LongSupplier clock) {
+        return new RangeSpliterator.Source<>() {
+            @Override
+            public Iterator<TimestampEntry> get(MemorySegment from, MemorySegment to) {
+                final long now = clock.getAsLong();
+                return new TombstoneSkipIterator<>(storage.get(from, to, timestamp), e -> e.isRemoved(now));
+            }
+
+            @Override
+            public MemorySegment splitKey(MemorySegment from, MemorySegment to) {
+                return storage.splitKey(from, to);
+            }
+        };
     }
 
     @Override
     public TimestampEntry get(MemorySegment key) throws IOException {
-        return storage.get(key);
+        return visible(storage.get(key, Storage.LATEST), clock.getAsLong());
     }
 
+    // expired version is not replaced by older ones: it hides them as a tombstone does
+    static TimestampEntry visible(TimestampEntry entry, long now) {
+        return entry == null || entry.isExpired(now) ? null : entry;
+    }
+
+    /**
+     * Entry may have time-to-live, see {@link TimestampEntry#TimestampEntry(ru.mail.polis.Entry, java.time.Duration)}.
+     * Entries must be stamped with the clock of the dao.
+     * Expired entries are read as removed and dropped by compaction.
+     */
     @Override
     public void upsert(TimestampEntry entry) {
         storage.put(entry);
     }
 
+    // all entries of the batch get one timestamp, so snapshots see all of them or none
+    @Override
+    public void write(WriteBatch<MemorySegment, TimestampEntry> batch) {
+        storage.put(batch.entries());
+    }
+
+    /**
+     * Opens consistent read-only view of current data which later upserts do not change.
+     * Versions seen by the snapshot are kept until it is closed.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(storage, clock);
+    }
+
     @Override
     public void close() throws IOException {
-        flush();
-        storage.close();
+        storage.close(clock.getAsLong());
     }
 
     @Override
     public void flush() throws IOException {
-        final long timestamp = System.currentTimeMillis();
+        final long timestamp = clock.getAsLong();
         storage.flush(timestamp);
     }
+
+    @Override
+    public void compact() throws IOException {
+        final long timestamp = clock.getAsLong();
+        storage.compact(timestamp);
+    }
 }
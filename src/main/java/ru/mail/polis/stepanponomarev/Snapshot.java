@@ -0,0 +1,65 @@
+package ru.mail.polis.stepanponomarev;
+
+import jdk.incubator.foreign.MemorySegment;
+import ru.mail.polis.RangeSpliterator;
+import ru.mail.polis.stepanponomarev.store.Storage;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Read-only view of data as of {@link LSMDao#snapshot()} call.
+ * Must be closed, otherwise versions it sees are never dropped.
+ * Expiration is checked at read time, so entries expire in the snapshot as well.
+ */
+public final class Snapshot implements Closeable {
+    private final Storage storage;
+    private final long timestamp;
+    private final LongSupplier clock;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    Snapshot(Storage storage, LongSupplier clock) {
+        this.storage = storage;
+        this.clock = clock;
+        this.timestamp = storage.openSnapshot();
+    }
+
+    public TimestampEntry get(MemorySegment key) {
+        checkOpen();
+        return LSMDao.visible(storage.get(key, timestamp), clock.getAsLong());
+    }
+
+    public Iterator<TimestampEntry> get(MemorySegment from, MemorySegment to) {
+        checkOpen();
+        final long now = clock.getAsLong();
+        return new TombstoneSkipIterator<>(storage.get(from, to, timestamp), e -> e.isRemoved(now));
+    }
+
+    /**
+     * Splittable stream of the range, all parts see the snapshot, so it must stay open until the stream is consumed.
+     */
+    public Stream<TimestampEntry> stream(MemorySegment from, MemorySegment to) {
+        checkOpen();
+        return RangeSpliterator.stream(LSMDao.rangeSource(storage, timestamp, clock), from, to, false);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            storage.releaseSnapshot(timestamp);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("Snapshot is closed");
+        }
+    }
+}
@@ -4,32 +4,95 @@ import jdk.incubator.foreign.MemorySegment;
 import ru.mail.polis.BaseEntry;
 import ru.mail.polis.Entry;
 
-//TODO: Задел на будущее
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
 public final class TimestampEntry implements Entry<MemorySegment> {
+    public static final long NO_EXPIRATION = Long.MAX_VALUE;
+
     private final Entry<MemorySegment> entry;
     private final long timestamp;
+    private final long expiresAt;
 
     public TimestampEntry(Entry<MemorySegment> entry) {
+        this(entry, System::currentTimeMillis);
+    }
+
+    /**
+     * Entry stamped with the given wall clock, it must be the clock of the dao the entry goes to.
+     */
+    public TimestampEntry(Entry<MemorySegment> entry, LongSupplier clock) {
+        this.entry = entry;
+        this.timestamp = clock.getAsLong();
+        this.expiresAt = NO_EXPIRATION;
+    }
+
+    /**
+     * Entry which is read as removed once ttl passes, tombstones never expire.
+     */
+    public TimestampEntry(Entry<MemorySegment> entry, Duration ttl) {
+        this(entry, ttl, System::currentTimeMillis);
+    }
+
+    public TimestampEntry(Entry<MemorySegment> entry, Duration ttl, LongSupplier clock) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL must be positive: " + ttl);
+        }
+
         this.entry = entry;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = clock.getAsLong();
+        this.expiresAt = entry.value() == null ? NO_EXPIRATION : saturatedAdd(timestamp, ttl.toMillis());
     }
 
     public TimestampEntry(MemorySegment key, MemorySegment value, long timestamp) {
+        this(key, value, timestamp, NO_EXPIRATION);
+    }
+
+    public TimestampEntry(MemorySegment key, MemorySegment value, long timestamp, long expiresAt) {
         this.entry = new BaseEntry<>(key, value);
         this.timestamp = timestamp;
+        this.expiresAt = value == null ? NO_EXPIRATION : expiresAt;
     }
-    
+
     public long getSizeBytes() {
         final MemorySegment key = entry.key();
         final MemorySegment value = entry.value();
 
-        return key.byteSize() + (value == null ? 0 : value.byteSize()) + Long.BYTES;
+        final long sizeBytes = key.byteSize() + (value == null ? 0 : value.byteSize()) + Long.BYTES;
+        return hasExpiration() ? sizeBytes + Long.BYTES : sizeBytes;
     }
 
     public long getTimestamp() {
         return timestamp;
     }
 
+    /**
+     * Wall clock time in millis since which the entry is read as removed.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean hasExpiration() {
+        return expiresAt != NO_EXPIRATION;
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+
+    /**
+     * Tombstone or entry expired by the given wall clock time.
+     */
+    public boolean isRemoved(long now) {
+        return entry.value() == null || isExpired(now);
+    }
+
+    private static long saturatedAdd(long timestamp, long ttl) {
+        final long expiresAt = timestamp + ttl;
+        return expiresAt < timestamp ? NO_EXPIRATION : expiresAt;
+    }
+
     @Override
     public MemorySegment key() {
         return entry.key();
@@ -4,13 +4,23 @@ import ru.mail.polis.Entry;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.function.Predicate;
 
 public class TombstoneSkipIterator<T, E extends Entry<T>> implements Iterator<E> {
     private final Iterator<E> delegate;
+    private final Predicate<? super E> removed;
     private E current;
 
     public TombstoneSkipIterator(Iterator<E> delegate) {
+        this(delegate, entry -> entry.value() == null);
+    }
+
+    /**
+     * @param removed tells which entries are read as tombstones, e.g. expired ones
+     */
+    public TombstoneSkipIterator(Iterator<E> delegate, Predicate<? super E> removed) {
         this.delegate = delegate;
+        this.removed = removed;
         this.current = getNext(delegate);
     }
 
@@ -34,7 +44,7 @@ public class TombstoneSkipIterator<T, E extends Entry<T>> implements Iterator<E>
     private E getNext(Iterator<E> iterator) {
         while (iterator.hasNext()) {
             final E entry = iterator.next();
-            if (entry.value() != null) {
+            if (!removed.test(entry)) {
                 return entry;
             }
         }
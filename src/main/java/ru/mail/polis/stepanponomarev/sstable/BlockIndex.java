@@ -0,0 +1,157 @@
+package ru.mail.polis.stepanponomarev.sstable;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import ru.mail.polis.stepanponomarev.Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sparse index: offset and first key of every data block.
+ * File layout: {@code (offset, keySize, key)*, maxTimestamp, blockCount, version}.
+ * Version 2 has no maxTimestamp, tables of versions 2 and 3 have no entries with expiration.
+ */
+final class BlockIndex {
+    static final long BLOCK_SIZE_BYTES = 4 * 1024;
+    static final long FORMAT_VERSION = 4;
+    static final long UNKNOWN_TIMESTAMP = Long.MIN_VALUE;
+    private static final long NO_EXPIRATION_FORMAT_VERSION = 3;
+    private static final long NO_TIMESTAMP_FORMAT_VERSION = 2;
+    private static final long FOOTER_SIZE_BYTES = Long.BYTES * 3;
+
+    private final long[] offsets;
+    private final MemorySegment[] firstKeys;
+    private final long maxTimestamp;
+
+    private BlockIndex(long[] offsets, MemorySegment[] firstKeys, long maxTimestamp) {
+        this.offsets = offsets;
+        this.firstKeys = firstKeys;
+        this.maxTimestamp = maxTimestamp;
+    }
+
+    static BlockIndex read(MemorySegment index) {
+        final long version = MemoryAccess.getLongAtOffset(index, index.byteSize() - Long.BYTES);
+        if (version != FORMAT_VERSION && version != NO_EXPIRATION_FORMAT_VERSION
+                && version != NO_TIMESTAMP_FORMAT_VERSION) {
+            throw new IllegalStateException("Unknown sstable format version: " + version);
+        }
+
+        final long blockCountOffset = index.byteSize() - Long.BYTES * 2;
+        final long maxTimestamp = version != NO_TIMESTAMP_FORMAT_VERSION
+                ? MemoryAccess.getLongAtOffset(index, blockCountOffset - Long.BYTES)
+                : UNKNOWN_TIMESTAMP;
+        final int blockCount = (int) MemoryAccess.getLongAtOffset(index, blockCountOffset);
+        final long[] offsets = new long[blockCount];
+        final MemorySegment[] firstKeys = new MemorySegment[blockCount];
+
+        long position = 0;
+        for (int i = 0; i < blockCount; i++) {
+            offsets[i] = MemoryAccess.getLongAtOffset(index, position);
+            position += Long.BYTES;
+
+            final long keySize = MemoryAccess.getLongAtOffset(index, position);
+            position += Long.BYTES;
+
+            firstKeys[i] = index.asSlice(position, keySize);
+            position += keySize;
+        }
+
+        return new BlockIndex(offsets, firstKeys, maxTimestamp);
+    }
+
+    /**
+     * Builds sparse index over table written with dense index of one offset per entry.
+     */
+    static BlockIndex fromDense(MemorySegment denseIndex, MemorySegment table) {
+        final long count = denseIndex.byteSize() / Long.BYTES;
+        final List<Long> offsets = new ArrayList<>();
+        final List<MemorySegment> firstKeys = new ArrayList<>();
+
+        long blockStart = -BLOCK_SIZE_BYTES;
+        for (long i = 0; i < count; i++) {
+            final long offset = MemoryAccess.getLongAtIndex(denseIndex, i);
+            if (offset - blockStart >= BLOCK_SIZE_BYTES) {
+                blockStart = offset;
+                offsets.add(offset);
+                firstKeys.add(MappedIterator.keyAt(table, offset));
+            }
+        }
+
+        return new BlockIndex(
+                offsets.stream().mapToLong(Long::longValue).toArray(),
+                firstKeys.toArray(new MemorySegment[0]),
+                UNKNOWN_TIMESTAMP
+        );
+    }
+
+    static long sizeBytes(List<MemorySegment> firstKeys) {
+        long size = FOOTER_SIZE_BYTES;
+        for (MemorySegment key : firstKeys) {
+            size += Long.BYTES * 2 + key.byteSize();
+        }
+
+        return size;
+    }
+
+    static void write(MemorySegment index, List<Long> offsets, List<MemorySegment> firstKeys, long maxTimestamp) {
+        long position = 0;
+        for (int i = 0; i < offsets.size(); i++) {
+            MemoryAccess.setLongAtOffset(index, position, offsets.get(i));
+            position += Long.BYTES;
+
+            final MemorySegment key = firstKeys.get(i);
+            MemoryAccess.setLongAtOffset(index, position, key.byteSize());
+            position += Long.BYTES;
+
+            index.asSlice(position, key.byteSize()).copyFrom(key);
+            position += key.byteSize();
+        }
+
+        MemoryAccess.setLongAtOffset(index, position, maxTimestamp);
+        MemoryAccess.setLongAtOffset(index, position + Long.BYTES, offsets.size());
+        MemoryAccess.setLongAtOffset(index, position + Long.BYTES * 2, FORMAT_VERSION);
+    }
+
+    /**
+     * Returns the greatest entry timestamp or {@link #UNKNOWN_TIMESTAMP} for tables written without it.
+     */
+    long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    int size() {
+        return offsets.length;
+    }
+
+    long offset(int block) {
+        return offsets[block];
+    }
+
+    MemorySegment firstKey(int block) {
+        return firstKeys[block];
+    }
+
+    /**
+     * Returns last block whose first key is not greater than the key, or -1 if key precedes all blocks.
+     */
+    int findBlock(MemorySegment key) {
+        int low = 0;
+        int high = offsets.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+
+            final int compareResult = Utils.compare(firstKeys[mid], key);
+            if (compareResult < 0) {
+                low = mid + 1;
+            } else if (compareResult > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return low - 1;
+    }
+}
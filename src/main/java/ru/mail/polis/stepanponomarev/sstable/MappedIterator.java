@@ -43,9 +43,42 @@ final class MappedIterator implements Iterator<TimestampEntry> {
             return new TimestampEntry(key, null, timestamp);
         }
 
-        MemorySegment value = memorySegment.asSlice(position, valueSize);
-        position += valueSize;
+        if (valueSize > SSTable.TOMBSTONE_TAG) {
+            final MemorySegment value = memorySegment.asSlice(position, valueSize);
+            position += valueSize;
 
-        return new TimestampEntry(key, value, timestamp);
+            return new TimestampEntry(key, value, timestamp);
+        }
+
+        final long expiresAt = MemoryAccess.getLongAtOffset(memorySegment, position);
+        position += Long.BYTES;
+
+        final long expiringValueSize = SSTable.EXPIRING_TAG - valueSize;
+        final MemorySegment value = memorySegment.asSlice(position, expiringValueSize);
+        position += expiringValueSize;
+
+        return new TimestampEntry(key, value, timestamp, expiresAt);
+    }
+
+    static MemorySegment keyAt(MemorySegment segment, long offset) {
+        final long keySize = MemoryAccess.getLongAtOffset(segment, offset);
+        return segment.asSlice(offset + Long.BYTES, keySize);
+    }
+
+    static long nextOffset(MemorySegment segment, long offset) {
+        long position = offset;
+        position += Long.BYTES + MemoryAccess.getLongAtOffset(segment, position);
+        position += Long.BYTES;
+
+        final long valueSize = MemoryAccess.getLongAtOffset(segment, position);
+        position += Long.BYTES;
+
+        if (valueSize == SSTable.TOMBSTONE_TAG) {
+            return position;
+        }
+
+        return valueSize > SSTable.TOMBSTONE_TAG
+                ? position + valueSize
+                : position + Long.BYTES + SSTable.EXPIRING_TAG - valueSize;
     }
 }
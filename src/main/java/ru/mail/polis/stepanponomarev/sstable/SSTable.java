@@ -11,20 +11,36 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
+/**
+ * Entry layout: {@code keySize, key, timestamp, valueSize, value}.
+ * valueSize is {@link #TOMBSTONE_TAG} for tombstones and there is no value. For entries with expiration
+ * it is {@code EXPIRING_TAG - valueSize} followed by expiresAt, so entries without it take no extra space.
+ */
 public final class SSTable implements Closeable {
     public static final long TOMBSTONE_TAG = -1;
+    static final long EXPIRING_TAG = -2;
     private static final String SSTABLE_FILE_NAME = "sstable.data";
+    private static final String BLOCK_INDEX_FILE_NAME = "sstable.blocks";
+    // dense index of tables written before block format
     private static final String INDEX_FILE_NAME = "sstable.index";
 
     private final MemorySegment indexMemorySegment;
     private final MemorySegment tableMemorySegment;
+    private final BlockIndex blockIndex;
+    private final long maxTimestamp;
 
-    private SSTable(MemorySegment indexMemorySegment, MemorySegment tableMemorySegment) {
+    private SSTable(MemorySegment indexMemorySegment, MemorySegment tableMemorySegment, BlockIndex blockIndex) {
         this.indexMemorySegment = indexMemorySegment;
         this.tableMemorySegment = tableMemorySegment;
+        this.blockIndex = blockIndex;
+        this.maxTimestamp = blockIndex.maxTimestamp() == BlockIndex.UNKNOWN_TIMESTAMP
+                ? scanMaxTimestamp(tableMemorySegment)
+                : blockIndex.maxTimestamp();
     }
 
     public static SSTable createInstance(
@@ -45,26 +61,30 @@ public final class SSTable implements Closeable {
                 ResourceScope.newSharedScope()
         );
 
-        final Path indexFile = path.resolve(INDEX_FILE_NAME);
+        final List<Long> blockOffsets = new ArrayList<>();
+        final List<MemorySegment> firstKeys = new ArrayList<>();
+        final long maxTimestamp = flush(data, mappedSsTable, blockOffsets, firstKeys);
+
+        final Path indexFile = path.resolve(BLOCK_INDEX_FILE_NAME);
         Files.createFile(indexFile);
 
-        final long indexSizeBytes = (long) Long.BYTES * count;
         final MemorySegment mappedIndex = MemorySegment.mapFile(
                 indexFile,
                 0,
-                indexSizeBytes,
+                BlockIndex.sizeBytes(firstKeys),
                 FileChannel.MapMode.READ_WRITE,
                 ResourceScope.newSharedScope()
         );
+        BlockIndex.write(mappedIndex, blockOffsets, firstKeys, maxTimestamp);
 
-        flush(data, mappedSsTable, mappedIndex);
-
-        return new SSTable(mappedIndex.asReadOnly(), mappedSsTable.asReadOnly());
+        final MemorySegment index = mappedIndex.asReadOnly();
+        return new SSTable(index, mappedSsTable.asReadOnly(), BlockIndex.read(index));
     }
 
     public static SSTable upInstance(Path path) throws IOException {
         final Path sstableFile = path.resolve(SSTABLE_FILE_NAME);
-        final Path indexFile = path.resolve(INDEX_FILE_NAME);
+        final boolean dense = Files.notExists(path.resolve(BLOCK_INDEX_FILE_NAME));
+        final Path indexFile = path.resolve(dense ? INDEX_FILE_NAME : BLOCK_INDEX_FILE_NAME);
         if (Files.notExists(path) || Files.notExists(indexFile)) {
             throw new IllegalArgumentException("Files must exist.");
         }
@@ -85,19 +105,56 @@ public final class SSTable implements Closeable {
                 ResourceScope.newSharedScope()
         );
 
-        return new SSTable(mappedIndex, mappedSsTable);
+        final BlockIndex blockIndex = dense
+                ? BlockIndex.fromDense(mappedIndex, mappedSsTable)
+                : BlockIndex.read(mappedIndex);
+
+        return new SSTable(mappedIndex, mappedSsTable, blockIndex);
     }
 
-    private static void flush(Iterator<TimestampEntry> data, MemorySegment sstable, MemorySegment index) {
-        long indexOffset = 0;
+    /**
+     * Writes entries ordered by key and by timestamp descending, returns the greatest timestamp.
+     */
+    private static long flush(
+            Iterator<TimestampEntry> data,
+            MemorySegment sstable,
+            List<Long> blockOffsets,
+            List<MemorySegment> firstKeys
+    ) {
+        long blockOffset = -BlockIndex.BLOCK_SIZE_BYTES;
         long sstableOffset = 0;
+        long maxTimestamp = BlockIndex.UNKNOWN_TIMESTAMP;
+        MemorySegment previousKey = null;
         while (data.hasNext()) {
-            MemoryAccess.setLongAtOffset(index, indexOffset, sstableOffset);
-            indexOffset += Long.BYTES;
-
             final TimestampEntry entry = data.next();
+            // entry starts new block once current block is full, versions of one key stay in one block
+            final boolean sameKey = previousKey != null && Utils.compare(previousKey, entry.key()) == 0;
+            if (!sameKey && sstableOffset - blockOffset >= BlockIndex.BLOCK_SIZE_BYTES) {
+                blockOffset = sstableOffset;
+                blockOffsets.add(sstableOffset);
+                firstKeys.add(entry.key());
+            }
+
+            previousKey = entry.key();
+            maxTimestamp = Math.max(maxTimestamp, entry.getTimestamp());
             sstableOffset += flush(entry, sstable, sstableOffset);
         }
+
+        return maxTimestamp;
+    }
+
+    private static long scanMaxTimestamp(MemorySegment table) {
+        long maxTimestamp = BlockIndex.UNKNOWN_TIMESTAMP;
+        final Iterator<TimestampEntry> entries = new MappedIterator(table);
+        while (entries.hasNext()) {
+            maxTimestamp = Math.max(maxTimestamp, entries.next().getTimestamp());
+        }
+
+        return maxTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+        return maxTimestamp;
     }
 
     @Override
@@ -116,44 +173,62 @@ public final class SSTable implements Closeable {
             return new MappedIterator(tableMemorySegment);
         }
 
-        final int max = (int) (indexMemorySegment.byteSize() / Long.BYTES) - 1;
-        final int fromIndex = from == null ? 0 : Math.abs(findIndexOfKey(from));
-
-        if (fromIndex > max) {
+        final long fromPosition = from == null ? 0 : findPositionOfKey(from);
+        final long toPosition = to == null ? size : findPositionOfKey(to);
+        if (fromPosition >= toPosition) {
             return Collections.emptyIterator();
         }
 
-        final int toIndex = to == null ? max + 1 : Math.abs(findIndexOfKey(to));
-        final long fromPosition = MemoryAccess.getLongAtIndex(indexMemorySegment, fromIndex);
-        final long toPosition = toIndex > max ? size : MemoryAccess.getLongAtIndex(indexMemorySegment, toIndex);
-
         return new MappedIterator(tableMemorySegment.asSlice(fromPosition, toPosition - fromPosition));
     }
 
-    private int findIndexOfKey(MemorySegment key) {
-        int low = 0;
-        int high = (int) (indexMemorySegment.byteSize() / Long.BYTES) - 1;
+    public long sizeBytes() {
+        return tableMemorySegment.byteSize();
+    }
 
-        while (low <= high) {
-            int mid = (low + high) >>> 1;
+    /**
+     * Returns first key of the middle block among blocks starting strictly inside (from, to),
+     * all versions of a key are in one block, so parts split by it do not share keys.
+     * @return split key or null if there are less than minBlocks such blocks
+     */
+    public MemorySegment splitKey(MemorySegment from, MemorySegment to, int minBlocks) {
+        final int firstBlock = from == null ? 0 : blockIndex.findBlock(from) + 1;
+        int endBlock = to == null ? blockIndex.size() : blockIndex.findBlock(to) + 1;
+        if (to != null && endBlock > firstBlock && Utils.compare(blockIndex.firstKey(endBlock - 1), to) == 0) {
+            endBlock--;
+        }
 
-            final long keyPosition = MemoryAccess.getLongAtIndex(indexMemorySegment, mid);
-            final long keySize = MemoryAccess.getLongAtOffset(tableMemorySegment, keyPosition);
-            final MemorySegment current = tableMemorySegment.asSlice(keyPosition + Long.BYTES, keySize);
+        if (endBlock - firstBlock < Math.max(1, minBlocks)) {
+            return null;
+        }
+
+        return blockIndex.firstKey((firstBlock + endBlock) >>> 1);
+    }
 
-            final int compareResult = Utils.compare(current, key);
-            if (compareResult < 0) {
-                low = mid + 1;
-            } else if (compareResult > 0) {
-                high = mid - 1;
-            } else {
-                return mid;
+    /**
+     * Offset of the first entry with key not less than given, found in a single block.
+     */
+    private long findPositionOfKey(MemorySegment key) {
+        final int block = blockIndex.findBlock(key);
+        if (block < 0) {
+            return 0;
+        }
+
+        final long blockEnd = block + 1 < blockIndex.size()
+                ? blockIndex.offset(block + 1)
+                : tableMemorySegment.byteSize();
+
+        long position = blockIndex.offset(block);
+        while (position < blockEnd) {
+            if (Utils.compare(MappedIterator.keyAt(tableMemorySegment, position), key) >= 0) {
+                return position;
             }
+            position = MappedIterator.nextOffset(tableMemorySegment, position);
         }
 
-        return -low;
+        return blockEnd;
     }
-    
+
     private static long flush(TimestampEntry entry, MemorySegment memorySegment, long offset) {
         final MemorySegment key = entry.key();
         final long keySize = key.byteSize();
@@ -175,7 +250,14 @@ public final class SSTable implements Closeable {
         }
 
         final long valueSize = value.byteSize();
-        MemoryAccess.setLongAtOffset(memorySegment, writeOffset, valueSize);
+        if (entry.hasExpiration()) {
+            MemoryAccess.setLongAtOffset(memorySegment, writeOffset, EXPIRING_TAG - valueSize);
+            writeOffset += Long.BYTES;
+
+            MemoryAccess.setLongAtOffset(memorySegment, writeOffset, entry.getExpiresAt());
+        } else {
+            MemoryAccess.setLongAtOffset(memorySegment, writeOffset, valueSize);
+        }
         writeOffset += Long.BYTES;
 
         memorySegment.asSlice(writeOffset, valueSize).copyFrom(value);
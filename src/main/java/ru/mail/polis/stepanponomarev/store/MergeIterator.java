@@ -1,6 +1,7 @@
 package ru.mail.polis.stepanponomarev.store;
 
-import ru.mail.polis.Entry;
+import jdk.incubator.foreign.MemorySegment;
+import ru.mail.polis.stepanponomarev.TimestampEntry;
 
 import java.util.Collections;
 import java.util.Comparator;
@@ -8,15 +9,19 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
-final class MergeIterator<T, E extends Entry<T>> implements Iterator<E> {
+/**
+ * Merges sources ordered by key and timestamp descending, all versions are kept.
+ * Entry with the same key and timestamp is taken only from the newer source.
+ */
+final class MergeIterator<E extends TimestampEntry> implements Iterator<E> {
     private final Iterator<E> oldDataIterator;
     private final Iterator<E> newDataIterator;
-    private final Comparator<T> comparator;
+    private final Comparator<MemorySegment> comparator;
 
     private E oldEntry;
     private E newEntry;
 
-    private MergeIterator(final Iterator<E> left, final Iterator<E> right, Comparator<T> comparator) {
+    private MergeIterator(final Iterator<E> left, final Iterator<E> right, Comparator<MemorySegment> comparator) {
         this.oldDataIterator = left;
         this.newDataIterator = right;
         this.comparator = comparator;
@@ -25,7 +30,10 @@ final class MergeIterator<T, E extends Entry<T>> implements Iterator<E> {
         this.newEntry = getElement(newDataIterator);
     }
 
-    public static <T, E extends Entry<T>> Iterator<E> of(List<Iterator<E>> iterators, Comparator<T> comparator) {
+    public static <E extends TimestampEntry> Iterator<E> of(
+            List<Iterator<E>> iterators,
+            Comparator<MemorySegment> comparator
+    ) {
         if (iterators.isEmpty()) {
             return Collections.emptyIterator();
         }
@@ -35,7 +43,7 @@ final class MergeIterator<T, E extends Entry<T>> implements Iterator<E> {
             return iterators.get(0);
         }
 
-        return new MergeIterator<>(
+        return new MergeIterator<E>(
                 of(iterators.subList(0, size / 2), comparator),
                 of(iterators.subList(size / 2, size), comparator),
                 comparator
@@ -85,7 +93,12 @@ final class MergeIterator<T, E extends Entry<T>> implements Iterator<E> {
             return -1;
         }
 
-        return comparator.compare(r1.key(), r2.key());
+        final int compareResult = comparator.compare(r1.key(), r2.key());
+        if (compareResult != 0) {
+            return compareResult;
+        }
+
+        return Long.compare(r2.getTimestamp(), r1.getTimestamp());
     }
 
     private E getElement(final Iterator<E> iter) {
@@ -0,0 +1,61 @@
+package ru.mail.polis.stepanponomarev.store;
+
+import ru.mail.polis.stepanponomarev.TimestampEntry;
+import ru.mail.polis.stepanponomarev.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Drops versions no live snapshot can see, see {@link Versions#prune}.
+ * Expired versions are turned into tombstones first: expiration is checked at read time,
+ * so no reader sees them anymore and they hide older versions the same way.
+ * Source is ordered by key and timestamp descending.
+ */
+final class PruningIterator implements Iterator<TimestampEntry> {
+    private final Iterator<TimestampEntry> delegate;
+    private final long[] snapshots;
+    private final long now;
+    private final boolean dropTombstones;
+
+    private TimestampEntry pending;
+    private Iterator<TimestampEntry> kept = Collections.emptyIterator();
+
+    PruningIterator(Iterator<TimestampEntry> delegate, long[] snapshots, long now, boolean dropTombstones) {
+        this.delegate = delegate;
+        this.snapshots = snapshots;
+        this.now = now;
+        this.dropTombstones = dropTombstones;
+        this.pending = delegate.hasNext() ? delegate.next() : null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!kept.hasNext() && pending != null) {
+            final List<TimestampEntry> versions = new ArrayList<>();
+            final TimestampEntry first = pending;
+            while (pending != null && Utils.compare(first.key(), pending.key()) == 0) {
+                versions.add(pending.isExpired(now)
+                        ? new TimestampEntry(pending.key(), null, pending.getTimestamp())
+                        : pending);
+                pending = delegate.hasNext() ? delegate.next() : null;
+            }
+
+            kept = Versions.prune(versions, snapshots, dropTombstones).iterator();
+        }
+
+        return kept.hasNext();
+    }
+
+    @Override
+    public TimestampEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return kept.next();
+    }
+}
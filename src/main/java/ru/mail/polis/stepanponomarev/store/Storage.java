@@ -1,6 +1,7 @@
 package ru.mail.polis.stepanponomarev.store;
 
 import jdk.incubator.foreign.MemorySegment;
+import ru.mail.polis.metrics.DaoMetrics;
 import ru.mail.polis.stepanponomarev.TimestampEntry;
 import ru.mail.polis.stepanponomarev.Utils;
 import ru.mail.polis.stepanponomarev.sstable.SSTable;
@@ -10,55 +11,325 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
+/**
+ * Multi-version storage. Every put gets timestamp from monotonic clock, so newer versions of a key
+ * always have greater timestamps: in memTable, frozen memTable and sstables alike.
+ * Readers see the newest version with timestamp not greater than their snapshot one,
+ * versions no live snapshot can see are dropped on put, flush and compaction.
+ * Expired versions are written as tombstones on flush and dropped with versions they shadow on compaction.
+ */
 public final class Storage implements Closeable {
+    public static final long LATEST = Long.MAX_VALUE;
     private static final String SSTABLE_DIR_NAME = "SSTable_";
+    private static final String COMPACTION_DIR_NAME = "Compacting_";
+    private static final int MIN_BLOCKS_PER_SPLIT = 8;
 
     private final Path path;
-    private final CopyOnWriteArrayList<SSTable> ssTables;
-    private final SortedMap<MemorySegment, TimestampEntry> memTable;
+    private final DaoMetrics metrics;
+    private final ReadWriteLock upsertLock = new ReentrantReadWriteLock();
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "stepanponomarev-flusher")
+    );
+    private final AtomicLong clock;
+    // taken before this: one compaction at a time, close waits for it to stop reading tables
+    private final Lock compactionLock = new ReentrantLock();
+
+    // Guarded by this: only one frozen memTable may be in flight
+    private Future<?> flushTask = CompletableFuture.completedFuture(null);
+    // Guarded by this: expiry time the frozen memTable is written with, kept for retries
+    private long frozenAt;
+    private boolean closed;
+    // Guarded by this: compacted tables may still be read by iterators, so they are closed with storage
+    private final List<SSTable> retiredSSTables = new ArrayList<>();
+
+    // Guarded by itself: number of open snapshots per timestamp
+    private final SortedMap<Long, Integer> snapshotCounts = new TreeMap<>();
+    private volatile long[] liveSnapshots = Versions.NO_SNAPSHOTS;
+
+    private volatile State state;
 
     public Storage(Path path) throws IOException {
+        this(path, DaoMetrics.NONE);
+    }
+
+    public Storage(Path path, DaoMetrics metrics) throws IOException {
         this.path = path;
-        this.ssTables = wakeUpSSTables(path);
-        this.memTable = new ConcurrentSkipListMap<>(Utils.COMPARATOR);
+        this.metrics = metrics;
+        removeUnfinishedCompaction(path);
+        this.state = new State(createMemTable(), createMemTable(), wakeUpSSTables(path));
+
+        long maxTimestamp = Long.MIN_VALUE;
+        for (SSTable ssTable : state.ssTables) {
+            maxTimestamp = Math.max(maxTimestamp, ssTable.getMaxTimestamp());
+        }
+        this.clock = new AtomicLong(maxTimestamp);
     }
 
     @Override
-    public void close() {
-        for (SSTable ssTable : ssTables) {
-            ssTable.close();
+    public void close() throws IOException {
+        close(System.currentTimeMillis());
+    }
+
+    /**
+     * Writes frozen and active memTables and closes sstables. Failed flush is written once more here,
+     * its failure is thrown after the data is saved. Flusher thread is stopped even if writing fails.
+     * @param timestamp wall clock time, versions expired by it lose their values
+     */
+    public void close(long timestamp) throws IOException {
+        compactionLock.lock();
+        try {
+            synchronized (this) {
+                closeFlushed(timestamp);
+            }
+        } finally {
+            compactionLock.unlock();
         }
     }
 
-    public void flush(long timestamp) throws IOException {
-        if (memTable.isEmpty()) {
+    private void closeFlushed(long timestamp) throws IOException {
+        if (closed) {
             return;
         }
 
-        final long sizeBytes = memTable.values()
-                .stream()
-                .mapToLong(TimestampEntry::getSizeBytes)
-                .sum();
+        closed = true;
+        IOException failure = null;
+        try {
+            try {
+                awaitFlush();
+            } catch (IOException e) {
+                failure = e;
+                awaitFlush();
+            }
+            startFlush(timestamp);
+            awaitFlush();
+        } catch (IOException e) {
+            if (failure != null) {
+                e.addSuppressed(failure);
+            }
+            throw e;
+        } finally {
+            flushExecutor.shutdown();
+            for (SSTable ssTable : state.ssTables) {
+                ssTable.close();
+            }
+            for (SSTable ssTable : retiredSSTables) {
+                ssTable.close();
+            }
+            retiredSSTables.clear();
+        }
 
-        final Path sstableDir = path.resolve(SSTABLE_DIR_NAME + getHash(timestamp));
-        Files.createDirectory(sstableDir);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Freezes active memTable and writes it to disk in background.
+     * Blocks only while previous flush is still in progress, its failure is thrown once.
+     * @param timestamp wall clock time, versions expired by it lose their values
+     */
+    public synchronized void flush(long timestamp) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Storage is closed");
+        }
+
+        final boolean stalled = !flushTask.isDone();
+        final long stallStart = System.nanoTime();
+        try {
+            awaitFlush();
+        } finally {
+            if (stalled) {
+                metrics.onFlushStall(System.nanoTime() - stallStart);
+            }
+        }
+
+        startFlush(timestamp);
+    }
+
+    // previous flush is complete here
+    private void startFlush(long timestamp) {
+        final ConcurrentNavigableMap<MemorySegment, Versions> frozen;
+        upsertLock.writeLock().lock();
+        try {
+            final State current = state;
+            if (current.memTable.isEmpty()) {
+                return;
+            }
+
+            frozen = current.memTable;
+            state = new State(createMemTable(), frozen, current.ssTables);
+        } finally {
+            upsertLock.writeLock().unlock();
+        }
+
+        frozenAt = timestamp;
+        flushTask = submitFlush(frozen, timestamp);
+    }
+
+    private Future<?> submitFlush(ConcurrentNavigableMap<MemorySegment, Versions> frozen, long timestamp) {
+        return flushExecutor.submit(() -> {
+            final long start = System.nanoTime();
+            final long[] snapshots = liveSnapshots;
+            final SSTable ssTable = writeSSTable(
+                    () -> new PruningIterator(
+                            Versions.entries(frozen.values().iterator()), snapshots, timestamp, false),
+                    SSTABLE_DIR_NAME + getHash(timestamp)
+            );
+            metrics.onFlush(frozen.size(), sizeBytes(ssTable), System.nanoTime() - start);
+            upsertLock.writeLock().lock();
+            try {
+                state = state.afterFlush(ssTable);
+            } finally {
+                upsertLock.writeLock().unlock();
+            }
 
-        final SSTable ssTable = SSTable.createInstance(
-                sstableDir,
-                memTable.values().iterator(),
-                sizeBytes,
-                memTable.size()
+            return null;
+        });
+    }
+
+    // failure is thrown once, frozen memTable stays readable and is written again by the next wait
+    private void awaitFlush() throws IOException {
+        try {
+            flushTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for flush", e);
+        } catch (ExecutionException e) {
+            flushTask = CompletableFuture.completedFuture(null);
+            throw new IOException("Background flush failed", e.getCause());
+        }
+
+        final ConcurrentNavigableMap<MemorySegment, Versions> frozen = state.flushingTable;
+        if (!frozen.isEmpty()) {
+            flushTask = submitFlush(frozen, frozenAt);
+            awaitFlush();
+        }
+    }
+
+    /**
+     * Merges all sstables into one, keeping only versions seen by the latest view or live snapshots.
+     * Active memTable is flushed first. Nothing older remains, so tombstones are dropped as well.
+     * Merge runs outside of storage monitor, so flushes go on meanwhile: their tables stay on top of the result.
+     * @param timestamp wall clock time, versions expired by it are dropped
+     */
+    public void compact(long timestamp) throws IOException {
+        compactionLock.lock();
+        try {
+            compactFlushed(timestamp);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private void compactFlushed(long timestamp) throws IOException {
+        final List<SSTable> ssTables;
+        final List<Path> ssTableDirs;
+        synchronized (this) {
+            flush(timestamp);
+            awaitFlush();
+
+            // no flush is in flight here, so directories are exactly the ones of the tables
+            ssTables = state.ssTables;
+            ssTableDirs = listDirs(path, SSTABLE_DIR_NAME);
+        }
+        if (ssTables.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final long[] snapshots = liveSnapshots;
+        final String name = getHash(timestamp);
+        final SSTable compacted = writeSSTable(
+                () -> new PruningIterator(get(ssTables, null, null), snapshots, timestamp, true),
+                COMPACTION_DIR_NAME + name
         );
+        long inputBytes = 0;
+        for (SSTable ssTable : ssTables) {
+            inputBytes += ssTable.sizeBytes();
+        }
+        metrics.onCompaction(inputBytes, sizeBytes(compacted), System.nanoTime() - start);
+        if (compacted != null) {
+            Files.move(path.resolve(COMPACTION_DIR_NAME + name), path.resolve(SSTABLE_DIR_NAME + name));
+        }
 
-        ssTables.add(ssTable);
+        synchronized (this) {
+            upsertLock.writeLock().lock();
+            try {
+                state = state.afterCompaction(ssTables, compacted);
+            } finally {
+                upsertLock.writeLock().unlock();
+            }
+
+            // mapped files stay readable after removal until tables are closed
+            retiredSSTables.addAll(ssTables);
+        }
+        for (Path dir : ssTableDirs) {
+            removeDir(dir);
+        }
+    }
+
+    /**
+     * Writes entries to new sstable directory, returns null if there are no entries.
+     * @param data gives the same entries on every call: they are counted first and then written
+     */
+    private SSTable writeSSTable(Supplier<Iterator<TimestampEntry>> data, String dirName) throws IOException {
+        long sizeBytes = 0;
+        int count = 0;
+        final Iterator<TimestampEntry> entries = data.get();
+        while (entries.hasNext()) {
+            sizeBytes += entries.next().getSizeBytes();
+            count++;
+        }
+
+        if (count == 0) {
+            return null;
+        }
+
+        final Path sstableDir = path.resolve(dirName);
+        Files.createDirectory(sstableDir);
+
+        try {
+            return SSTable.createInstance(
+                    sstableDir,
+                    data.get(),
+                    sizeBytes,
+                    count
+            );
+        } catch (IOException | RuntimeException e) {
+            // partly written table would be woken up on restart
+            try {
+                removeDir(sstableDir);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private static long sizeBytes(SSTable ssTable) {
+        return ssTable == null ? 0 : ssTable.sizeBytes();
     }
 
     private static String getHash(long timestamp) {
@@ -72,46 +343,78 @@ public final class Storage implements Closeable {
         return hash.substring(0, HASH_SIZE);
     }
 
-    public TimestampEntry get(MemorySegment key) {
-        final TimestampEntry memoryEntry = memTable.get(key);
-        if (memoryEntry != null) {
-            return memoryEntry.value() == null ? null : memoryEntry;
+    /**
+     * Returns version of the key seen at timestamp, null for absent or removed key.
+     */
+    public TimestampEntry get(MemorySegment key, long timestamp) {
+        final State current = state;
+        TimestampEntry entry = visible(current.memTable.get(key), timestamp);
+        if (entry == null) {
+            entry = visible(current.flushingTable.get(key), timestamp);
         }
 
-        final Iterator<TimestampEntry> data = get(key, null);
-        if (!data.hasNext()) {
-            return null;
+        int tablesProbed = 0;
+        if (entry == null) {
+            tablesProbed = current.ssTables.size();
+            final Iterator<TimestampEntry> data = new VisibleIterator(get(current.ssTables, key, null), timestamp);
+            if (data.hasNext()) {
+                final TimestampEntry next = data.next();
+                entry = Utils.compare(key, next.key()) == 0 ? next : null;
+            }
         }
+        metrics.onGet(tablesProbed);
 
-        while (data.hasNext()) {
-            final TimestampEntry entry = data.next();
+        return entry == null || entry.value() == null ? null : entry;
+    }
 
-            final int compareResult = Utils.compare(key, entry.key());
-            if (compareResult < 0) {
-                return null;
-            }
+    /**
+     * Returns versions seen at timestamp including tombstones.
+     */
+    public Iterator<TimestampEntry> get(MemorySegment from, MemorySegment to, long timestamp) {
+        final State current = state;
+        final List<Iterator<TimestampEntry>> entries = new ArrayList<>(current.ssTables.size() + 2);
+        for (SSTable ssTable : current.ssTables) {
+            entries.add(ssTable.get(from, to));
+        }
+
+        entries.add(slice(current.flushingTable, from, to));
+        entries.add(slice(current.memTable, from, to));
+
+        return new VisibleIterator(MergeIterator.of(entries, Utils.COMPARATOR), timestamp);
+    }
 
-            if (compareResult == 0) {
-                return entry.value() == null ? null : entry;
+    /**
+     * Returns key strictly inside (from, to) splitting the range by blocks of the largest sstable,
+     * or null if no sstable has enough blocks there.
+     */
+    public MemorySegment splitKey(MemorySegment from, MemorySegment to) {
+        final List<SSTable> bySize = new ArrayList<>(state.ssTables);
+        bySize.sort(Comparator.comparingLong(SSTable::sizeBytes).reversed());
+        for (SSTable ssTable : bySize) {
+            final MemorySegment key = ssTable.splitKey(from, to, MIN_BLOCKS_PER_SPLIT);
+            if (key != null) {
+                return key;
             }
         }
 
         return null;
     }
 
-    public Iterator<TimestampEntry> get(MemorySegment from, MemorySegment to) {
-        final List<Iterator<TimestampEntry>> entries = new ArrayList<>(ssTables.size() + 2);
+    private static TimestampEntry visible(Versions versions, long timestamp) {
+        return versions == null ? null : versions.visible(timestamp);
+    }
+
+    private static Iterator<TimestampEntry> get(List<SSTable> ssTables, MemorySegment from, MemorySegment to) {
+        final List<Iterator<TimestampEntry>> entries = new ArrayList<>(ssTables.size());
         for (SSTable ssTable : ssTables) {
             entries.add(ssTable.get(from, to));
         }
 
-        entries.add(slice(memTable, from, to));
-
         return MergeIterator.of(entries, Utils.COMPARATOR);
     }
 
     private static Iterator<TimestampEntry> slice(
-            SortedMap<MemorySegment, TimestampEntry> store,
+            ConcurrentNavigableMap<MemorySegment, Versions> store,
             MemorySegment from,
             MemorySegment to
     ) {
@@ -120,25 +423,116 @@ public final class Storage implements Closeable {
         }
 
         if (from == null && to == null) {
-            return store.values().iterator();
+            return Versions.entries(store.values().iterator());
         }
 
         if (from == null) {
-            return store.headMap(to).values().iterator();
+            return Versions.entries(store.headMap(to).values().iterator());
         }
 
         if (to == null) {
-            return store.tailMap(from).values().iterator();
+            return Versions.entries(store.tailMap(from).values().iterator());
         }
 
-        return store.subMap(from, to).values().iterator();
+        return Versions.entries(store.subMap(from, to).values().iterator());
     }
 
+    /**
+     * Stores entry as a new version, timestamp of the entry is raised if clock is already past it.
+     */
     public void put(TimestampEntry entry) {
-        memTable.put(entry.key(), entry);
+        upsertLock.readLock().lock();
+        try {
+            final long timestamp = clock.updateAndGet(c -> Math.max(c + 1, entry.getTimestamp()));
+            putVersion(new TimestampEntry(entry.key(), entry.value(), timestamp, entry.getExpiresAt()));
+        } finally {
+            upsertLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores all entries as versions with one timestamp, so snapshots see all of them or none.
+     */
+    public void put(Collection<TimestampEntry> entries) {
+        long maxTimestamp = Long.MIN_VALUE;
+        for (TimestampEntry entry : entries) {
+            maxTimestamp = Math.max(maxTimestamp, entry.getTimestamp());
+        }
+
+        final long entriesTimestamp = maxTimestamp;
+        upsertLock.readLock().lock();
+        try {
+            final long timestamp = clock.updateAndGet(c -> Math.max(c + 1, entriesTimestamp));
+            for (TimestampEntry entry : entries) {
+                putVersion(new TimestampEntry(entry.key(), entry.value(), timestamp, entry.getExpiresAt()));
+            }
+        } finally {
+            upsertLock.readLock().unlock();
+        }
+    }
+
+    private void putVersion(TimestampEntry version) {
+        final long[] snapshots = liveSnapshots;
+        state.memTable.compute(version.key(), (key, versions) -> Versions.add(versions, version, snapshots));
+    }
+
+    /**
+     * Registers snapshot which sees all puts completed before this call and none of later ones.
+     * @return snapshot timestamp to read with and to pass to {@link #releaseSnapshot(long)}
+     */
+    public long openSnapshot() {
+        // puts take timestamp and store the version under read lock
+        upsertLock.writeLock().lock();
+        try {
+            final long timestamp = clock.get();
+            synchronized (snapshotCounts) {
+                snapshotCounts.merge(timestamp, 1, Integer::sum);
+                updateLiveSnapshots();
+            }
+
+            return timestamp;
+        } finally {
+            upsertLock.writeLock().unlock();
+        }
+    }
+
+    public void releaseSnapshot(long timestamp) {
+        synchronized (snapshotCounts) {
+            snapshotCounts.computeIfPresent(timestamp, (t, count) -> count == 1 ? null : count - 1);
+            updateLiveSnapshots();
+        }
+    }
+
+    private void updateLiveSnapshots() {
+        liveSnapshots = snapshotCounts.keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static ConcurrentNavigableMap<MemorySegment, Versions> createMemTable() {
+        return new ConcurrentSkipListMap<>(Utils.COMPARATOR);
+    }
+
+    private static void removeUnfinishedCompaction(Path path) throws IOException {
+        for (Path dir : listDirs(path, COMPACTION_DIR_NAME)) {
+            removeDir(dir);
+        }
+    }
+
+    private static List<Path> listDirs(Path path, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(f -> f.getFileName().toString().contains(prefix)).toList();
+        }
+    }
+
+    private static void removeDir(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
     }
 
-    private static CopyOnWriteArrayList<SSTable> wakeUpSSTables(Path path) throws IOException {
+    private static List<SSTable> wakeUpSSTables(Path path) throws IOException {
         try (Stream<Path> files = Files.list(path)) {
             final List<String> tableDirNames = files
                     .map(f -> f.getFileName().toString())
@@ -146,12 +540,51 @@ public final class Storage implements Closeable {
                     .sorted()
                     .toList();
 
-            final CopyOnWriteArrayList<SSTable> tables = new CopyOnWriteArrayList<>();
+            final List<SSTable> tables = new ArrayList<>(tableDirNames.size());
             for (String name : tableDirNames) {
                 tables.add(SSTable.upInstance(path.resolve(name)));
             }
 
-            return tables;
+            return Collections.unmodifiableList(tables);
+        }
+    }
+
+    /**
+     * Immutable view of storage: active memTable, memTable being flushed and on-disk tables.
+     * Replaced as a whole, so readers always see every entry exactly in one of the parts.
+     */
+    private static final class State {
+        final ConcurrentNavigableMap<MemorySegment, Versions> memTable;
+        final ConcurrentNavigableMap<MemorySegment, Versions> flushingTable;
+        final List<SSTable> ssTables;
+
+        State(
+                ConcurrentNavigableMap<MemorySegment, Versions> memTable,
+                ConcurrentNavigableMap<MemorySegment, Versions> flushingTable,
+                List<SSTable> ssTables
+        ) {
+            this.memTable = memTable;
+            this.flushingTable = flushingTable;
+            this.ssTables = ssTables;
+        }
+
+        State afterFlush(SSTable ssTable) {
+            final List<SSTable> tables = new ArrayList<>(ssTables.size() + 1);
+            tables.addAll(ssTables);
+            tables.add(ssTable);
+
+            return new State(memTable, createMemTable(), Collections.unmodifiableList(tables));
+        }
+
+        // tables flushed during compaction follow the compacted ones, they stay newer than the result
+        State afterCompaction(List<SSTable> compactedTables, SSTable compacted) {
+            final List<SSTable> tables = new ArrayList<>(ssTables.size() - compactedTables.size() + 1);
+            if (compacted != null) {
+                tables.add(compacted);
+            }
+            tables.addAll(ssTables.subList(compactedTables.size(), ssTables.size()));
+
+            return new State(memTable, flushingTable, Collections.unmodifiableList(tables));
         }
     }
 }
@@ -0,0 +1,144 @@
+package ru.mail.polis.stepanponomarev.store;
+
+import ru.mail.polis.stepanponomarev.TimestampEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable chain of versions of one key in memTable, newest first.
+ * Version is kept while it is the newest one or some live snapshot sees it:
+ * snapshot at timestamp s sees the newest version with timestamp not greater than s.
+ */
+final class Versions {
+    static final long[] NO_SNAPSHOTS = new long[0];
+
+    final TimestampEntry entry;
+    final Versions older;
+
+    private Versions(TimestampEntry entry, Versions older) {
+        this.entry = entry;
+        this.older = older;
+    }
+
+    /**
+     * Adds version to the chain, version with equal timestamp is replaced.
+     * @param snapshots timestamps of live snapshots in ascending order
+     */
+    static Versions add(Versions current, TimestampEntry entry, long[] snapshots) {
+        final long timestamp = entry.getTimestamp();
+        if (snapshots.length == 0) {
+            if (current != null && current.entry.getTimestamp() > timestamp) {
+                return current.older == null ? current : new Versions(current.entry, null);
+            }
+
+            return new Versions(entry, null);
+        }
+
+        final List<TimestampEntry> versions = new ArrayList<>();
+        boolean added = false;
+        for (Versions version = current; version != null; version = version.older) {
+            final long versionTimestamp = version.entry.getTimestamp();
+            if (!added && versionTimestamp <= timestamp) {
+                versions.add(entry);
+                added = true;
+            }
+            if (versionTimestamp != timestamp) {
+                versions.add(version.entry);
+            }
+        }
+        if (!added) {
+            versions.add(entry);
+        }
+
+        final List<TimestampEntry> kept = prune(versions, snapshots, false);
+        Versions result = null;
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            result = new Versions(kept.get(i), result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the newest version with timestamp not greater than given or null.
+     */
+    TimestampEntry visible(long timestamp) {
+        for (Versions version = this; version != null; version = version.older) {
+            if (version.entry.getTimestamp() <= timestamp) {
+                return version.entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Keeps versions which are the newest or seen by some snapshot.
+     * Tombstones left without older versions are dropped too if there is no older data to hide.
+     * @param versions versions of one key, newest first
+     * @param snapshots timestamps of live snapshots in ascending order
+     */
+    static List<TimestampEntry> prune(List<TimestampEntry> versions, long[] snapshots, boolean dropTombstones) {
+        final List<TimestampEntry> kept = new ArrayList<>(versions.size());
+        long newerTimestamp = Long.MAX_VALUE;
+        for (TimestampEntry version : versions) {
+            final long timestamp = version.getTimestamp();
+            if (kept.isEmpty() || isSeen(timestamp, newerTimestamp, snapshots)) {
+                kept.add(version);
+            }
+            newerTimestamp = timestamp;
+        }
+
+        if (dropTombstones) {
+            while (!kept.isEmpty() && kept.get(kept.size() - 1).value() == null) {
+                kept.remove(kept.size() - 1);
+            }
+        }
+
+        return kept;
+    }
+
+    // some snapshot is in [timestamp, newerTimestamp)
+    private static boolean isSeen(long timestamp, long newerTimestamp, long[] snapshots) {
+        int position = Arrays.binarySearch(snapshots, timestamp);
+        if (position < 0) {
+            position = -position - 1;
+        }
+
+        return position < snapshots.length && snapshots[position] < newerTimestamp;
+    }
+
+    /**
+     * All versions of all chains: by key, newest first.
+     */
+    static Iterator<TimestampEntry> entries(Iterator<Versions> chains) {
+        if (!chains.hasNext()) {
+            return Collections.emptyIterator();
+        }
+
+        return new Iterator<>() {
+            private Versions next = chains.next();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public TimestampEntry next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+
+                final TimestampEntry entry = next.entry;
+                next = next.older != null ? next.older : chains.hasNext() ? chains.next() : null;
+                return entry;
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+package ru.mail.polis.stepanponomarev.store;
+
+import ru.mail.polis.stepanponomarev.TimestampEntry;
+import ru.mail.polis.stepanponomarev.Utils;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * For every key takes the newest version with timestamp not greater than the snapshot one.
+ * Source is ordered by key and timestamp descending.
+ */
+final class VisibleIterator implements Iterator<TimestampEntry> {
+    private final Iterator<TimestampEntry> delegate;
+    private final long timestamp;
+
+    private TimestampEntry pending;
+    private TimestampEntry current;
+
+    VisibleIterator(Iterator<TimestampEntry> delegate, long timestamp) {
+        this.delegate = delegate;
+        this.timestamp = timestamp;
+        this.pending = delegate.hasNext() ? delegate.next() : null;
+        this.current = getNext();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return current != null;
+    }
+
+    @Override
+    public TimestampEntry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final TimestampEntry next = current;
+        current = getNext();
+
+        return next;
+    }
+
+    private TimestampEntry getNext() {
+        while (pending != null) {
+            TimestampEntry visible = null;
+            final TimestampEntry first = pending;
+            while (pending != null && Utils.compare(first.key(), pending.key()) == 0) {
+                if (visible == null && pending.getTimestamp() <= timestamp) {
+                    visible = pending;
+                }
+                pending = delegate.hasNext() ? delegate.next() : null;
+            }
+
+            if (visible != null) {
+                return visible;
+            }
+        }
+
+        return null;
+    }
+}
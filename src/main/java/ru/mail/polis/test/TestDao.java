@@ -4,12 +4,14 @@ import ru.mail.polis.BaseEntry;
 import ru.mail.polis.Config;
 import ru.mail.polis.Dao;
 import ru.mail.polis.Entry;
+import ru.mail.polis.WriteBatch;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 class TestDao<D, E extends Entry<D>> implements Dao<String, Entry<String>> {
 
@@ -76,6 +78,12 @@ class TestDao<D, E extends Entry<D>> implements Dao<String, Entry<String>> {
         };
     }
 
+    @Override
+    public Stream<Entry<String>> stream(String from, String to) throws IOException {
+        return delegate.stream(factory.fromString(from), factory.fromString(to))
+                .map(next -> new BaseEntry<>(factory.toString(next.key()), factory.toString(next.value())));
+    }
+
     @Override
     public void upsert(Entry<String> entry) {
         BaseEntry<D> e = new BaseEntry<>(
@@ -85,6 +93,24 @@ class TestDao<D, E extends Entry<D>> implements Dao<String, Entry<String>> {
         delegate.upsert(factory.fromBaseEntry(e));
     }
 
+    @Override
+    public void write(WriteBatch<String, Entry<String>> batch) {
+        WriteBatch.Builder<D, E> builder = WriteBatch.builder();
+        for (Entry<String> entry : batch) {
+            BaseEntry<D> e = new BaseEntry<>(
+                    factory.fromString(entry.key()),
+                    factory.fromString(entry.value())
+            );
+            builder.upsert(factory.fromBaseEntry(e));
+        }
+        delegate.write(builder.build());
+    }
+
+    @Override
+    public void deleteRange(String from, String to) {
+        delegate.deleteRange(factory.fromString(from), factory.fromString(to));
+    }
+
     @Override
     public void flush() throws IOException {
         delegate.flush();
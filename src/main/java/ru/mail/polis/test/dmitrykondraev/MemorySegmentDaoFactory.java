@@ -16,10 +16,12 @@ import java.io.IOException;
 
 @DaoFactory(stage = 3, week = 3)
 public class MemorySegmentDaoFactory implements DaoFactory.Factory<MemorySegment, MemorySegmentEntry> {
+    // every 16th key of table is stored in full, the rest share prefix with previous key
+    public static final int RESTART_INTERVAL = 16;
 
     @Override
     public Dao<MemorySegment, MemorySegmentEntry> createDao(Config config) throws IOException {
-        return new FilesBackedDao(config);
+        return new FilesBackedDao(config, RESTART_INTERVAL);
     }
 
     @Override
@@ -4,6 +4,7 @@ import ru.mail.polis.BaseEntry;
 import ru.mail.polis.Config;
 import ru.mail.polis.Dao;
 import ru.mail.polis.Entry;
+import ru.mail.polis.kirillpobedonostsev.BlockCodec;
 import ru.mail.polis.kirillpobedonostsev.PersistenceDao;
 import ru.mail.polis.test.DaoFactory;
 
@@ -16,7 +17,7 @@ public class ByteBufferDaoFactory implements DaoFactory.Factory<ByteBuffer, Base
 
     @Override
     public Dao<ByteBuffer, BaseEntry<ByteBuffer>> createDao(Config config) throws IOException {
-        return new PersistenceDao(config);
+        return new PersistenceDao(config, BlockCodec.LZ4);
     }
 
     @Override
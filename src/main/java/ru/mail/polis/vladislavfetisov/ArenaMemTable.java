@@ -0,0 +1,302 @@
+package ru.mail.polis.vladislavfetisov;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemoryLayout;
+import jdk.incubator.foreign.MemoryLayouts;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.Entry;
+
+import java.lang.invoke.VarHandle;
+import java.lang.ref.Cleaner;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Memory table which keeps keys, values and skip list nodes in off-heap slabs.
+ * Nodes link each other by references: slab number in high half and offset in slab in low half.
+ * Node: value reference, key size, height, references to next nodes for every level, key.
+ * Value: size ({@link SSTable#NULL_VALUE} for tombstone), bytes.
+ * Writers are serialized, readers go without locks and see nodes published by volatile writes.
+ * Slabs are freed at once when the owner and every open iterator have released the table:
+ * owner releases it after flush, iterator releases it at the end or, if dropped before, by cleaner.
+ * Entries given out are copied to heap, so they outlive the table.
+ */
+final class ArenaMemTable {
+    private static final long FIRST_SLAB_SIZE = 1024 * 1024;
+    private static final long MAX_SLAB_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_HEIGHT = 12;
+    private static final long NULL_REF = 0;
+    // head node is the first allocation
+    private static final long HEAD = 0;
+    private static final long VALUE_REF_OFFSET = 0;
+    private static final long KEY_SIZE_OFFSET = Long.BYTES;
+    private static final long HEIGHT_OFFSET = KEY_SIZE_OFFSET + Integer.BYTES;
+    private static final long NEXT_OFFSET = HEIGHT_OFFSET + Integer.BYTES;
+    private static final VarHandle LONGS = MemoryLayout.sequenceLayout(MemoryLayouts.JAVA_LONG)
+            .varHandle(long.class, MemoryLayout.PathElement.sequenceElement());
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final ResourceScope scope = ResourceScope.newSharedScope();
+    // owner reference and one for every open iterator
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final Lock writeLock = new ReentrantLock();
+    private volatile MemorySegment[] slabs = new MemorySegment[0];
+    private long slabPosition; // guarded by writeLock
+
+    ArenaMemTable() {
+        writeLock.lock();
+        try {
+            allocateNode(0, MAX_HEIGHT);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Keeps slabs alive until {@link #release()}, table must not be released already.
+     */
+    void acquire() {
+        int count;
+        do {
+            count = references.get();
+            if (count == 0) {
+                throw new IllegalStateException("Memory table is released");
+            }
+        } while (!references.compareAndSet(count, count + 1));
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            scope.close();
+        }
+    }
+
+    /**
+     * Releases reference acquired for holder once holder becomes unreachable.
+     */
+    void releaseWhenUnreachable(Object holder) {
+        CLEANER.register(holder, this::release);
+    }
+
+    boolean isEmpty() {
+        return next(HEAD, 0) == NULL_REF;
+    }
+
+    void put(Entry<MemorySegment> entry) {
+        MemorySegment key = entry.key();
+        writeLock.lock();
+        try {
+            long[] previous = new long[MAX_HEIGHT];
+            long node = HEAD;
+            for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+                long next = next(node, level);
+                while (next != NULL_REF && Utils.compareMemorySegments(key(next), key) < 0) {
+                    node = next;
+                    next = next(node, level);
+                }
+                previous[level] = node;
+            }
+            long valueRef = allocateValue(entry.value());
+            long found = next(previous[0], 0);
+            if (found != NULL_REF && Utils.compareMemorySegments(key(found), key) == 0) {
+                setVolatile(found, VALUE_REF_OFFSET, valueRef);
+                return;
+            }
+
+            int height = randomHeight();
+            long created = allocateNode(key.byteSize(), height);
+            MemorySegment slab = slab(created);
+            long offset = offset(created);
+            MemoryAccess.setLongAtOffset(slab, offset + VALUE_REF_OFFSET, valueRef);
+            slab.asSlice(offset + NEXT_OFFSET + (long) height * Long.BYTES, key.byteSize()).copyFrom(key);
+            for (int level = 0; level < height; level++) {
+                MemoryAccess.setLongAtOffset(slab, nextOffset(offset, level), next(previous[level], level));
+            }
+            // node becomes visible to readers from the lowest level
+            for (int level = 0; level < height; level++) {
+                setVolatile(previous[level], nextOffset(0, level), created);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Caller must hold a reference.
+     */
+    Entry<MemorySegment> get(MemorySegment key) {
+        long node = ceiling(key);
+        if (node == NULL_REF || Utils.compareMemorySegments(key(node), key) != 0) {
+            return null;
+        }
+        return copy(entry(node));
+    }
+
+    /**
+     * Entries with keys from inclusive to exclusive, null bound means no bound.
+     * Caller must hold a reference while iterator is created.
+     */
+    Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
+        return new RangeIterator(from, to, true);
+    }
+
+    /**
+     * All entries without copying, they are valid only while owner keeps the table.
+     */
+    Iterator<Entry<MemorySegment>> entries() {
+        return new RangeIterator(null, null, false);
+    }
+
+    private static Entry<MemorySegment> copy(Entry<MemorySegment> entry) {
+        MemorySegment value = entry.value() == null ? null : MemorySegment.ofArray(entry.value().toByteArray());
+        return new BaseEntry<>(MemorySegment.ofArray(entry.key().toByteArray()), value);
+    }
+
+    private final class RangeIterator implements Iterator<Entry<MemorySegment>> {
+        private final MemorySegment to;
+        private final boolean copy;
+        private final Cleaner.Cleanable reference;
+        private long node;
+
+        RangeIterator(MemorySegment from, MemorySegment to, boolean copy) {
+            acquire();
+            // must not capture the iterator, otherwise it is never cleaned
+            this.reference = CLEANER.register(this, ArenaMemTable.this::release);
+            this.to = to;
+            this.copy = copy;
+            this.node = from == null ? ArenaMemTable.this.next(HEAD, 0) : ceiling(from);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (node != NULL_REF && (to == null || Utils.compareMemorySegments(key(node), to) < 0)) {
+                return true;
+            }
+            node = NULL_REF;
+            reference.clean();
+            return false;
+        }
+
+        @Override
+        public Entry<MemorySegment> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<MemorySegment> entry = entry(node);
+            node = ArenaMemTable.this.next(node, 0);
+            return copy ? copy(entry) : entry;
+        }
+    }
+
+    private long ceiling(MemorySegment key) {
+        long node = HEAD;
+        long next = NULL_REF;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            next = next(node, level);
+            while (next != NULL_REF && Utils.compareMemorySegments(key(next), key) < 0) {
+                node = next;
+                next = next(node, level);
+            }
+        }
+        return next;
+    }
+
+    private Entry<MemorySegment> entry(long node) {
+        long valueRef = getVolatile(node, VALUE_REF_OFFSET);
+        MemorySegment slab = slab(valueRef);
+        long offset = offset(valueRef);
+        long valueSize = MemoryAccess.getLongAtOffset(slab, offset);
+        MemorySegment value = valueSize == SSTable.NULL_VALUE ? null : slab.asSlice(offset + Long.BYTES, valueSize);
+        return new BaseEntry<>(key(node), value);
+    }
+
+    private MemorySegment key(long node) {
+        MemorySegment slab = slab(node);
+        long offset = offset(node);
+        int keySize = MemoryAccess.getIntAtOffset(slab, offset + KEY_SIZE_OFFSET);
+        int height = MemoryAccess.getIntAtOffset(slab, offset + HEIGHT_OFFSET);
+        return slab.asSlice(offset + NEXT_OFFSET + (long) height * Long.BYTES, keySize);
+    }
+
+    private long next(long node, int level) {
+        return getVolatile(node, nextOffset(0, level));
+    }
+
+    private static long nextOffset(long nodeOffset, int level) {
+        return nodeOffset + NEXT_OFFSET + (long) level * Long.BYTES;
+    }
+
+    private long getVolatile(long ref, long fieldOffset) {
+        return (long) LONGS.getVolatile(slab(ref), (offset(ref) + fieldOffset) / Long.BYTES);
+    }
+
+    private void setVolatile(long ref, long fieldOffset, long value) {
+        LONGS.setVolatile(slab(ref), (offset(ref) + fieldOffset) / Long.BYTES, value);
+    }
+
+    private long allocateNode(long keySize, int height) {
+        long ref = allocate(NEXT_OFFSET + (long) height * Long.BYTES + keySize);
+        MemorySegment slab = slab(ref);
+        long offset = offset(ref);
+        MemoryAccess.setIntAtOffset(slab, offset + KEY_SIZE_OFFSET, (int) keySize);
+        MemoryAccess.setIntAtOffset(slab, offset + HEIGHT_OFFSET, height);
+        return ref;
+    }
+
+    private long allocateValue(MemorySegment value) {
+        if (value == null) {
+            long ref = allocate(Long.BYTES);
+            MemoryAccess.setLongAtOffset(slab(ref), offset(ref), SSTable.NULL_VALUE);
+            return ref;
+        }
+        long ref = allocate(Long.BYTES + value.byteSize());
+        MemorySegment slab = slab(ref);
+        long offset = offset(ref);
+        MemoryAccess.setLongAtOffset(slab, offset, value.byteSize());
+        slab.asSlice(offset + Long.BYTES, value.byteSize()).copyFrom(value);
+        return ref;
+    }
+
+    // 8-aligned bump allocation, slabs grow twice up to MAX_SLAB_SIZE
+    private long allocate(long size) {
+        long aligned = (size + Long.BYTES - 1) & -Long.BYTES;
+        MemorySegment[] current = slabs;
+        if (current.length == 0 || slabPosition + aligned > current[current.length - 1].byteSize()) {
+            long slabSize = current.length == 0
+                    ? FIRST_SLAB_SIZE
+                    : Math.min(MAX_SLAB_SIZE, current[current.length - 1].byteSize() * 2);
+            MemorySegment[] grown = new MemorySegment[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            grown[current.length] = MemorySegment.allocateNative(Math.max(slabSize, aligned), Long.BYTES, scope);
+            slabs = grown;
+            current = grown;
+            slabPosition = 0;
+        }
+        long ref = ((long) (current.length - 1) << Integer.SIZE) | slabPosition;
+        slabPosition += aligned;
+        return ref;
+    }
+
+    private MemorySegment slab(long ref) {
+        return slabs[(int) (ref >>> Integer.SIZE)];
+    }
+
+    private static long offset(long ref) {
+        return ref & 0xFFFFFFFFL;
+    }
+
+    private static int randomHeight() {
+        int height = 1;
+        while (height < MAX_HEIGHT && ThreadLocalRandom.current().nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+}
@@ -0,0 +1,112 @@
+package ru.mail.polis.vladislavfetisov;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Bloom filter over keys of one SSTable.
+ * File layout: hashCount(long), bitsCount(long), bits(long[]).
+ * Hashing, header and bits are little endian whatever the platform is, so the file can be read on any one.
+ */
+public final class BloomFilter {
+    private static final long HEADER_SIZE = 2L * Long.BYTES;
+    private static final long MULTIPLIER = 0xc6a4a7935bd1e995L;
+    private static final double LN2 = Math.log(2);
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final MemorySegment segment;
+    private final long hashCount;
+    private final long bitsCount;
+
+    private BloomFilter(MemorySegment segment) {
+        this.segment = segment;
+        this.hashCount = MemoryAccess.getLongAtOffset(segment, 0, ORDER);
+        this.bitsCount = MemoryAccess.getLongAtOffset(segment, Long.BYTES, ORDER);
+    }
+
+    /**
+     * Creates empty on-heap filter.
+     *
+     * @param expectedKeys      number of keys which will be added
+     * @param falsePositiveRate desired probability of false positive, in (0, 1)
+     */
+    public static BloomFilter create(long expectedKeys, double falsePositiveRate) {
+        long keys = Math.max(1, expectedKeys);
+        long bits = (long) Math.ceil(-keys * Math.log(falsePositiveRate) / (LN2 * LN2));
+        long words = Math.max(1, (bits + Long.SIZE - 1) / Long.SIZE);
+        long hashes = Math.max(1, Math.round((double) words * Long.SIZE / keys * LN2));
+
+        MemorySegment segment = MemorySegment.ofArray(new long[Math.toIntExact(words + 2)]);
+        MemoryAccess.setLongAtOffset(segment, 0, ORDER, hashes);
+        MemoryAccess.setLongAtOffset(segment, Long.BYTES, ORDER, words * Long.SIZE);
+        return new BloomFilter(segment);
+    }
+
+    public static BloomFilter load(Path file, ResourceScope scope) throws IOException {
+        return new BloomFilter(Utils.map(file, Files.size(file), FileChannel.MapMode.READ_ONLY, scope));
+    }
+
+    public void add(MemorySegment key) {
+        long h1 = hash(key);
+        long h2 = mix(h1);
+        for (long i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitsCount);
+            long offset = HEADER_SIZE + (bit >>> 6) * Long.BYTES;
+            long word = MemoryAccess.getLongAtOffset(segment, offset, ORDER);
+            MemoryAccess.setLongAtOffset(segment, offset, ORDER, word | (1L << bit));
+        }
+    }
+
+    /**
+     * Returns false if key is definitely absent, true if it may be present.
+     */
+    public boolean mightContain(MemorySegment key) {
+        long h1 = hash(key);
+        long h2 = mix(h1);
+        for (long i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitsCount);
+            long word = MemoryAccess.getLongAtOffset(segment, HEADER_SIZE + (bit >>> 6) * Long.BYTES, ORDER);
+            if ((word & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void write(Path file) throws IOException {
+        try (ResourceScope writingScope = ResourceScope.newConfinedScope()) {
+            MemorySegment fileMap = Utils.map(file, segment.byteSize(), FileChannel.MapMode.READ_WRITE, writingScope);
+            fileMap.copyFrom(segment);
+        }
+    }
+
+    private static long hash(MemorySegment key) {
+        long size = key.byteSize();
+        long h = size * MULTIPLIER;
+        long offset = 0;
+        for (; offset + Long.BYTES <= size; offset += Long.BYTES) {
+            h = (h ^ mix(MemoryAccess.getLongAtOffset(key, offset, ORDER))) * MULTIPLIER;
+        }
+        for (; offset < size; offset++) {
+            h = (h ^ MemoryAccess.getByteAtOffset(key, offset)) * MULTIPLIER;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -6,28 +6,80 @@ import org.slf4j.LoggerFactory;
 import ru.mail.polis.Config;
 import ru.mail.polis.Dao;
 import ru.mail.polis.Entry;
+import ru.mail.polis.RangeSpliterator;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NavigableMap;
-import java.util.SortedMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
 
 public class LsmDao implements Dao<MemorySegment, Entry<MemorySegment>> {
+    private static final long MIN_ENTRIES_PER_PART = 1 << 14;
+    private static final int SAMPLES_PER_PART = 8;
+    private static final long MIN_ENTRIES_PER_SPLIT = 1 << 10;
     private final Config config;
-    private List<SSTable> tables;
+    private final double bloomFalsePositiveRate;
     private final AtomicLong ssTableNum;
-    private NavigableMap<MemorySegment, Entry<MemorySegment>> storage = getNewStorage();
+    private final LongAdder storageSize = new LongAdder();
+    private final ReadWriteLock upsertLock = new ReentrantReadWriteLock();
+    // guards flushTask and storage swap, not held by compaction, so writers never wait for it
+    private final Lock flushLock = new ReentrantLock();
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "vladislavfetisov-flush"));
+    private final ForkJoinPool compactionPool;
+    private Future<?> flushTask = CompletableFuture.completedFuture(null); //guarded by flushLock
+    private volatile State state;
     public static final Logger logger = LoggerFactory.getLogger(LsmDao.class);
 
     public LsmDao(Config config) {
+        this(config, SSTable.DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * Creates dao.
+     *
+     * @param bloomFalsePositiveRate false positive rate of bloom filters in new SSTables, in (0, 1)
+     */
+    public LsmDao(Config config, double bloomFalsePositiveRate) {
+        this(config, bloomFalsePositiveRate, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates dao.
+     *
+     * @param bloomFalsePositiveRate false positive rate of bloom filters in new SSTables, in (0, 1)
+     * @param compactionParallelism max number of key ranges compacted at once
+     */
+    public LsmDao(Config config, double bloomFalsePositiveRate, int compactionParallelism) {
+        if (compactionParallelism < 1) {
+            throw new IllegalArgumentException("Compaction parallelism must be positive: " + compactionParallelism);
+        }
+        if (!(bloomFalsePositiveRate > 0 && bloomFalsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be in (0, 1): " + bloomFalsePositiveRate);
+        }
         this.config = config;
+        this.bloomFalsePositiveRate = bloomFalsePositiveRate;
+        this.compactionPool = new ForkJoinPool(compactionParallelism);
         List<SSTable> fromDisc = SSTable.getAllTables(config.basePath());
-        this.tables = fromDisc;
+        this.state = new State(getNewStorage(), getNewStorage(), fromDisc);
         if (fromDisc.isEmpty()) {
             ssTableNum = new AtomicLong(0);
             return;
@@ -38,22 +90,65 @@ public class LsmDao implements Dao<MemorySegment, Entry<MemorySegment>> {
 
     @Override
     public Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to) {
-        return get(from, to, storage, tables);
+        // memory tables are released after swap under write lock, so iterators get them alive
+        upsertLock.readLock().lock();
+        try {
+            return get(from, to, state);
+        } finally {
+            upsertLock.readLock().unlock();
+        }
     }
 
-    private Iterator<Entry<MemorySegment>> get(MemorySegment from,
-                                               MemorySegment to,
-                                               NavigableMap<MemorySegment, Entry<MemorySegment>> storage,
-                                               List<SSTable> tables) {
+    private Iterator<Entry<MemorySegment>> get(MemorySegment from, MemorySegment to, State fixed) {
+        Iterator<Entry<MemorySegment>> memory = fromMemory(from, to, fixed.storage());
+        Iterator<Entry<MemorySegment>> flushing = fromMemory(from, to, fixed.flushing());
+        Iterator<Entry<MemorySegment>> disc = tablesRange(from, to, fixed.tables());
 
-        Iterator<Entry<MemorySegment>> memory = fromMemory(from, to, storage);
-        Iterator<Entry<MemorySegment>> disc = tablesRange(from, to, tables);
-
-        PeekingIterator<Entry<MemorySegment>> merged = CustomIterators.mergeTwo(new PeekingIterator<>(disc),
+        PeekingIterator<Entry<MemorySegment>> merged = CustomIterators.mergeTwo(
+                CustomIterators.mergeTwo(new PeekingIterator<>(disc), new PeekingIterator<>(flushing)),
                 new PeekingIterator<>(memory));
         return CustomIterators.skipTombstones(merged);
     }
 
+    /**
+     * Stream over tables fixed at the call, parts of the range are split by keys of the largest table.
+     * Memory is read as it is when part starts, memory tables are kept until the stream is unreachable.
+     */
+    @Override
+    public Stream<Entry<MemorySegment>> stream(MemorySegment from, MemorySegment to) {
+        State fixed;
+        upsertLock.readLock().lock();
+        try {
+            fixed = state;
+            fixed.storage().acquire();
+            fixed.flushing().acquire();
+        } finally {
+            upsertLock.readLock().unlock();
+        }
+        List<SSTable> bySize = new ArrayList<>(fixed.tables());
+        bySize.sort(Comparator.comparingLong(SSTable::entriesCount).reversed());
+        RangeSpliterator.Source<MemorySegment, Entry<MemorySegment>> source = new RangeSpliterator.Source<>() {
+            @Override
+            public Iterator<Entry<MemorySegment>> get(MemorySegment lower, MemorySegment upper) {
+                return LsmDao.this.get(lower, upper, fixed);
+            }
+
+            @Override
+            public MemorySegment splitKey(MemorySegment lower, MemorySegment upper) {
+                for (SSTable table : bySize) {
+                    MemorySegment key = table.splitKey(lower, upper, MIN_ENTRIES_PER_SPLIT);
+                    if (key != null) {
+                        return key;
+                    }
+                }
+                return null;
+            }
+        };
+        fixed.storage().releaseWhenUnreachable(source);
+        fixed.flushing().releaseWhenUnreachable(source);
+        return RangeSpliterator.stream(source, from, to, false);
+    }
+
     private Iterator<Entry<MemorySegment>> tablesRange(MemorySegment from, MemorySegment to, List<SSTable> tables) {
         List<Iterator<Entry<MemorySegment>>> iterators = new ArrayList<>(tables.size());
         for (SSTable table : tables) {
@@ -62,56 +157,173 @@ public class LsmDao implements Dao<MemorySegment, Entry<MemorySegment>> {
         return CustomIterators.merge(iterators);
     }
 
-    private Iterator<Entry<MemorySegment>> fromMemory(MemorySegment from,
-                                                      MemorySegment to,
-                                                      NavigableMap<MemorySegment, Entry<MemorySegment>> storage) {
-        if (from == null && to == null) {
-            return storage.values().iterator();
-        }
-        return subMap(from, to).values().iterator();
+    private static Iterator<Entry<MemorySegment>> fromMemory(
+            MemorySegment from,
+            MemorySegment to,
+            ArenaMemTable storage) {
+        return storage.get(from, to);
     }
 
-    private SortedMap<MemorySegment, Entry<MemorySegment>> subMap(MemorySegment from, MemorySegment to) {
-        if (from == null) {
-            return storage.headMap(to);
+    /**
+     * Compact all SSTables.
+     * Memory is flushed first, entries upserted during compaction stay in memory.
+     * Key space is split by keys sampled from tables indexes, every range is merged
+     * to its own table in compaction pool, so result is a run of non-overlapping tables
+     * which replaces old tables at once. Tables flushed meanwhile are newer and stay on top of them.
+     */
+    @Override
+    public synchronized void compact() throws IOException {
+        flush();
+        List<SSTable> fixed = state.tables();
+        if (fixed.size() <= 1) {
+            return;
+        }
+        List<MemorySegment> splitKeys = splitKeys(fixed, partsCount(fixed));
+        long firstTableNum = ssTableNum.getAndAdd(splitKeys.size() + 1L);
+        List<Callable<SSTable>> parts = new ArrayList<>(splitKeys.size() + 1);
+        for (int i = 0; i <= splitKeys.size(); i++) {
+            MemorySegment from = i == 0 ? null : splitKeys.get(i - 1);
+            MemorySegment to = i == splitKeys.size() ? null : splitKeys.get(i);
+            Path tableName = config.basePath().resolve(String.valueOf(firstTableNum + i));
+            parts.add(() -> compactRange(fixed, from, to, tableName));
+        }
+        List<SSTable> compacted = awaitParts(compactionPool.invokeAll(parts));
+
+        upsertLock.writeLock().lock();
+        try {
+            state = state.afterCompaction(fixed, compacted); //immutable
+        } finally {
+            upsertLock.writeLock().unlock();
         }
-        if (to == null) {
-            return storage.tailMap(from);
+        Utils.deleteTables(fixed);
+    }
+
+    private int partsCount(List<SSTable> tables) {
+        long entries = 0;
+        for (SSTable table : tables) {
+            entries += table.entriesCount();
         }
-        return storage.subMap(from, to);
+        return (int) Math.max(1, Math.min(compactionPool.getParallelism(), entries / MIN_ENTRIES_PER_PART));
     }
 
     /**
-     * Compact all SSTables.
-     * It will work properly only if {@link #flush()} will be called after this method.
+     * Picks {@code parts - 1} distinct keys splitting sampled keys of all tables into equal ranges.
      */
-    @Override
-    public void compact() throws IOException {
-        List<SSTable> fixed = this.tables;
-        NavigableMap<MemorySegment, Entry<MemorySegment>> readOnlyStorage = this.storage;
-        Iterator<Entry<MemorySegment>> forSize = get(null, null, readOnlyStorage, fixed);
-        Iterator<Entry<MemorySegment>> forWrite = get(null, null, readOnlyStorage, fixed);
+    private static List<MemorySegment> splitKeys(List<SSTable> tables, int parts) {
+        if (parts == 1) {
+            return List.of();
+        }
+        List<MemorySegment> samples = new ArrayList<>();
+        for (SSTable table : tables) {
+            long count = table.entriesCount();
+            long samplesCount = Math.min(count, (long) parts * SAMPLES_PER_PART);
+            for (long i = 0; i < samplesCount; i++) {
+                samples.add(table.keyAt(i * count / samplesCount));
+            }
+        }
+        samples.sort(Utils::compareMemorySegments);
+        List<MemorySegment> splitKeys = new ArrayList<>(parts - 1);
+        for (int i = 1; i < parts; i++) {
+            MemorySegment key = samples.get((int) ((long) i * samples.size() / parts));
+            if (splitKeys.isEmpty() || Utils.compareMemorySegments(splitKeys.get(splitKeys.size() - 1), key) < 0) {
+                splitKeys.add(key);
+            }
+        }
+        return splitKeys;
+    }
 
-        SSTable.Sizes sizes = Utils.getSizes(forSize);
+    /**
+     * Writes live entries of [from, to) to new table.
+     *
+     * @return table or null if range has no live entries
+     */
+    private SSTable compactRange(List<SSTable> tables,
+                                 MemorySegment from,
+                                 MemorySegment to,
+                                 Path tableName) throws IOException {
+        Iterator<Entry<MemorySegment>> forSize = tablesRange(from, to, tables);
+        SSTable.Sizes sizes = Utils.getSizes(CustomIterators.skipTombstones(new PeekingIterator<>(forSize)));
+        if (sizes.indexSize() == 0) {
+            return null;
+        }
+        Iterator<Entry<MemorySegment>> forWrite = tablesRange(from, to, tables);
+        return SSTable.writeTable(tableName,
+                CustomIterators.skipTombstones(new PeekingIterator<>(forWrite)),
+                sizes.tableSize(),
+                sizes.indexSize(),
+                bloomFalsePositiveRate);
+    }
 
-        this.tables = List.of(writeSSTable(forWrite, sizes.tableSize(), sizes.indexSize())); //immutable
-        this.storage = getNewStorage();
-        Utils.deleteTables(fixed);
+    /**
+     * Collects written tables in key order, if some range failed the others are removed.
+     */
+    private static List<SSTable> awaitParts(List<Future<SSTable>> parts) throws IOException {
+        List<SSTable> tables = new ArrayList<>(parts.size());
+        Throwable failure = null;
+        for (Future<SSTable> part : parts) {
+            try {
+                SSTable table = part.get();
+                if (table != null) {
+                    tables.add(table);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new InterruptedIOException("Interrupted while waiting for compaction");
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            }
+        }
+        if (failure == null) {
+            return tables;
+        }
+        for (SSTable table : tables) {
+            table.close();
+        }
+        Utils.deleteTables(tables);
+        throw new IOException("Compaction failed", failure);
     }
 
     @Override
     public void upsert(Entry<MemorySegment> entry) {
-        storage.put(entry.key(), entry);
+        upsertLock.readLock().lock();
+        try {
+            state.storage().put(entry);
+            storageSize.add(Utils.sizeOfEntry(entry));
+        } finally {
+            upsertLock.readLock().unlock();
+        }
+        if (storageSize.sum() >= config.flushThresholdBytes()) {
+            try {
+                scheduleFlush(true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
+    /**
+     * Looks up memory, then tables from newest to oldest, stops at first hit.
+     * Tables which bloom filter rejects the key are not touched.
+     */
     @Override
     public Entry<MemorySegment> get(MemorySegment key) {
-        Iterator<Entry<MemorySegment>> singleIterator = get(key, null);
-        if (!singleIterator.hasNext()) {
-            return null;
+        State fixed;
+        Entry<MemorySegment> desired;
+        upsertLock.readLock().lock();
+        try {
+            fixed = state;
+            desired = fixed.storage().get(key);
+            if (desired == null) {
+                desired = fixed.flushing().get(key);
+            }
+        } finally {
+            upsertLock.readLock().unlock();
         }
-        Entry<MemorySegment> desired = singleIterator.next();
-        if (Utils.compareMemorySegments(desired.key(), key) != 0) {
+        List<SSTable> tables = fixed.tables();
+        for (int i = tables.size() - 1; desired == null && i >= 0; i--) {
+            desired = tables.get(i).get(key);
+        }
+        if (desired == null || Utils.isTombstone(desired)) {
             return null;
         }
         return desired;
@@ -119,30 +331,95 @@ public class LsmDao implements Dao<MemorySegment, Entry<MemorySegment>> {
 
     @Override
     public void flush() throws IOException {
-        if (storage.isEmpty()) {
-            return;
+        flushLock.lock();
+        try {
+            scheduleFlush(false);
+            awaitFlush();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Freezes current storage and writes it to disk in background.
+     * Writers wait here only if previous storage is still being written,
+     * i.e. both storages are full.
+     *
+     * @param onThreshold flush only if storage is still above threshold (it may be already flushed by other writer)
+     */
+    private void scheduleFlush(boolean onThreshold) throws IOException {
+        flushLock.lock();
+        try {
+            awaitFlush();
+            ArenaMemTable frozen;
+            ArenaMemTable flushed;
+            upsertLock.writeLock().lock();
+            try {
+                frozen = state.storage();
+                if (frozen.isEmpty() || (onThreshold && storageSize.sum() < config.flushThresholdBytes())) {
+                    return;
+                }
+                flushed = state.flushing();
+                state = state.beforeFlush(getNewStorage());
+                storageSize.reset();
+            } finally {
+                upsertLock.writeLock().unlock();
+            }
+            flushed.release();
+            flushTask = submitFlush(frozen);
+        } finally {
+            flushLock.unlock();
         }
-        NavigableMap<MemorySegment, Entry<MemorySegment>> readOnlyStorage = this.storage;
-        SSTable.Sizes sizes = Utils.getSizes(readOnlyStorage.values().iterator());
-        SSTable table = writeSSTable(readOnlyStorage.values().iterator(), sizes.tableSize(), sizes.indexSize());
+    }
 
-        tablesAtomicAdd(table); //need for concurrent get
-        this.storage = getNewStorage();
+    private Future<?> submitFlush(ArenaMemTable frozen) {
+        return flushExecutor.submit(() -> {
+            SSTable.Sizes sizes = Utils.getSizes(frozen.entries());
+            SSTable table = writeSSTable(frozen.entries(), sizes.tableSize(), sizes.indexSize());
+            upsertLock.writeLock().lock();
+            try {
+                state = state.afterFlush(table, getNewStorage()); //need for concurrent get
+            } finally {
+                upsertLock.writeLock().unlock();
+            }
+            // readers of frozen storage hold their own references
+            frozen.release();
+            return null;
+        });
     }
 
-    private void tablesAtomicAdd(SSTable table) {
-        ArrayList<SSTable> newTables = new ArrayList<>(tables.size() + 1);
-        newTables.addAll(tables);
-        newTables.add(table);
-        tables = newTables;
+    /**
+     * Failure is thrown once, frozen storage stays readable and is written again by the next flush.
+     */
+    private void awaitFlush() throws IOException {
+        try {
+            flushTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for flush");
+        } catch (ExecutionException e) {
+            flushTask = CompletableFuture.completedFuture(null);
+            throw new IOException("Flush failed", e.getCause());
+        }
+        if (!state.flushing().isEmpty()) {
+            flushTask = submitFlush(state.flushing());
+            awaitFlush();
+        }
     }
 
     @Override
-    public void close() throws IOException {
-        flush();
-        for (SSTable table : tables) {
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            flushExecutor.shutdown();
+            compactionPool.shutdown();
+        }
+        for (SSTable table : state.tables()) {
             table.close();
         }
+        state.storage().release();
+        state.flushing().release();
     }
 
     private SSTable writeSSTable(Iterator<Entry<MemorySegment>> iterator,
@@ -150,14 +427,44 @@ public class LsmDao implements Dao<MemorySegment, Entry<MemorySegment>> {
                                  long indexSize) throws IOException {
 
         Path tableName = nextTableName();
-        return SSTable.writeTable(tableName, iterator, tableSize, indexSize);
+        return SSTable.writeTable(tableName, iterator, tableSize, indexSize, bloomFalsePositiveRate);
     }
 
     private Path nextTableName() {
         return config.basePath().resolve(String.valueOf(ssTableNum.getAndIncrement()));
     }
 
-    private static ConcurrentSkipListMap<MemorySegment, Entry<MemorySegment>> getNewStorage() {
-        return new ConcurrentSkipListMap<>(Utils::compareMemorySegments);
+    private static ArenaMemTable getNewStorage() {
+        return new ArenaMemTable();
+    }
+
+    /**
+     * record State contains storage-memory table for upserts,
+     * flushing-frozen memory table which is being written to disc,
+     * tables-SSTables from oldest to newest.
+     */
+    private record State(ArenaMemTable storage,
+                         ArenaMemTable flushing,
+                         List<SSTable> tables) {
+
+        State beforeFlush(ArenaMemTable newStorage) {
+            return new State(newStorage, storage, tables);
+        }
+
+        State afterFlush(SSTable table, ArenaMemTable newFlushing) {
+            List<SSTable> newTables = new ArrayList<>(tables.size() + 1);
+            newTables.addAll(tables);
+            newTables.add(table);
+            return new State(storage, newFlushing, newTables);
+        }
+
+        /**
+         * Replaces compacted tables, which are the oldest ones, tables flushed after them are kept.
+         */
+        State afterCompaction(List<SSTable> compactedTables, List<SSTable> result) {
+            List<SSTable> newTables = new ArrayList<>(result);
+            newTables.addAll(tables.subList(compactedTables.size(), tables.size()));
+            return new State(storage, flushing, newTables);
+        }
     }
 }
@@ -12,6 +12,7 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -24,10 +25,14 @@ public final class SSTable implements Closeable {
     public static final int NULL_VALUE = -1;
     public static final String TEMP = "_tmp";
     public static final String INDEX = "_i";
+    public static final String BLOOM = "_b";
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
     private final MemorySegment mapFile;
     private final MemorySegment mapIndex;
+    private final BloomFilter bloomFilter; //null for tables written without filter
     private final Path tableName;
     private final Path indexName;
+    private final Path bloomName;
     private final ResourceScope sharedScope;
 
     public Path getTableName() {
@@ -38,12 +43,18 @@ public final class SSTable implements Closeable {
         return indexName;
     }
 
+    public Path getBloomName() {
+        return bloomName;
+    }
+
     private SSTable(Path tableName, Path indexName, long tableSize, long indexSize) throws IOException {
         sharedScope = ResourceScope.newSharedScope();
         mapFile = Utils.map(tableName, tableSize, FileChannel.MapMode.READ_ONLY, sharedScope);
         this.tableName = tableName;
         mapIndex = Utils.map(indexName, indexSize, FileChannel.MapMode.READ_ONLY, sharedScope);
         this.indexName = indexName;
+        bloomName = Utils.withSuffix(tableName, BLOOM);
+        bloomFilter = Files.exists(bloomName) ? BloomFilter.load(bloomName, sharedScope) : null;
     }
 
     public static List<SSTable> getAllTables(Path dir) {
@@ -51,7 +62,7 @@ public final class SSTable implements Closeable {
             return files
                     .filter(path -> {
                         String s = path.toString();
-                        return !(s.endsWith(INDEX) || s.endsWith(TEMP));
+                        return !(s.endsWith(INDEX) || s.endsWith(BLOOM) || s.endsWith(TEMP));
                     })
                     .mapToInt(path -> Integer.parseInt(path.getFileName().toString()))
                     .sorted()
@@ -75,15 +86,48 @@ public final class SSTable implements Closeable {
     public static SSTable writeTable(Path table,
                                      Iterator<Entry<MemorySegment>> values,
                                      long tableSize,
-                                     long indexSize) throws IOException {
+                                     long indexSize,
+                                     double falsePositiveRate) throws IOException {
         Path tableTemp = Utils.withSuffix(table, TEMP);
 
         Path index = table.resolveSibling(table + INDEX);
         Path indexTemp = Utils.withSuffix(index, TEMP);
 
-        newFile(tableTemp);
-        newFile(indexTemp);
+        Path bloom = Utils.withSuffix(table, BLOOM);
+        Path bloomTemp = Utils.withSuffix(bloom, TEMP);
+        BloomFilter filter = BloomFilter.create(indexSize / Long.BYTES, falsePositiveRate);
 
+        List<Path> created = new ArrayList<>(3);
+        try {
+            for (Path temp : List.of(tableTemp, indexTemp, bloomTemp)) {
+                newFile(temp);
+                created.add(temp);
+            }
+            writeTemps(values, tableTemp, tableSize, indexTemp, indexSize, filter);
+            filter.write(bloomTemp);
+            Utils.rename(bloomTemp, bloom);
+            Utils.rename(indexTemp, index);
+            Utils.rename(tableTemp, table);
+        } catch (IOException | RuntimeException e) {
+            // temp files of other writers are not touched
+            for (Path temp : created) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        return new SSTable(table, index, tableSize, indexSize);
+    }
+
+    private static void writeTemps(Iterator<Entry<MemorySegment>> values,
+                                   Path tableTemp,
+                                   long tableSize,
+                                   Path indexTemp,
+                                   long indexSize,
+                                   BloomFilter filter) throws IOException {
         try (ResourceScope writingScope = ResourceScope.newSharedScope()) {
             MemorySegment fileMap = Utils.map(tableTemp, tableSize, FileChannel.MapMode.READ_WRITE, writingScope);
             MemorySegment indexMap = Utils.map(indexTemp, indexSize, FileChannel.MapMode.READ_WRITE, writingScope);
@@ -97,6 +141,7 @@ public final class SSTable implements Closeable {
                 indexOffset += Long.BYTES;
 
                 fileOffset += Utils.writeSegment(entry.key(), fileMap, fileOffset);
+                filter.add(entry.key());
 
                 if (entry.value() == null) {
                     MemoryAccess.setLongAtOffset(fileMap, fileOffset, NULL_VALUE);
@@ -105,10 +150,7 @@ public final class SSTable implements Closeable {
                 }
                 fileOffset += Utils.writeSegment(entry.value(), fileMap, fileOffset);
             }
-            Utils.rename(indexTemp, index);
-            Utils.rename(tableTemp, table);
         }
-        return new SSTable(table, index, tableSize, indexSize);
     }
 
     private static void newFile(Path tableTemp) throws IOException {
@@ -118,26 +160,40 @@ public final class SSTable implements Closeable {
                 StandardOpenOption.TRUNCATE_EXISTING);
     }
 
-    public Iterator<Entry<MemorySegment>> range(MemorySegment from, MemorySegment to) {
-        long li = 0;
-        long ri = mapIndex.byteSize() / Long.BYTES;
-        if (from != null) {
-            li = Utils.binarySearch(from, mapFile, mapIndex);
-            if (li == -1) {
-                li = 0;
-            }
-            if (li == ri) {
-                return Collections.emptyIterator();
-            }
+    /**
+     * Point lookup, bloom filter is consulted before touching the table.
+     *
+     * @return entry with {@code key} (may be tombstone) or null if table doesn't contain it
+     */
+    public Entry<MemorySegment> get(MemorySegment key) {
+        if (bloomFilter != null && !bloomFilter.mightContain(key)) {
+            return null;
         }
-        if (to != null) {
-            ri = Utils.binarySearch(to, mapFile, mapIndex);
-            if (ri == -1) {
-                return Collections.emptyIterator();
-            }
+        long index = Utils.binarySearch(key, mapFile, mapIndex);
+        if (index < 0 || index >= mapIndex.byteSize() / Long.BYTES) {
+            return null;
+        }
+        Entry<MemorySegment> entry = Utils.getByIndex(mapFile, mapIndex, index);
+        if (Utils.compareMemorySegments(entry.key(), key) != 0) {
+            return null;
+        }
+        return entry;
+    }
+
+    public long entriesCount() {
+        return mapIndex.byteSize() / Long.BYTES;
+    }
+
+    public MemorySegment keyAt(long index) {
+        return Utils.getByIndex(mapFile, mapIndex, index).key();
+    }
+
+    public Iterator<Entry<MemorySegment>> range(MemorySegment from, MemorySegment to) {
+        long finalLi = lowerIndex(from);
+        long finalRi = upperIndex(to);
+        if (finalLi >= finalRi) {
+            return Collections.emptyIterator();
         }
-        long finalLi = li;
-        long finalRi = ri;
         return new Iterator<>() {
             long pos = finalLi;
 
@@ -158,6 +214,36 @@ public final class SSTable implements Closeable {
         };
     }
 
+    /**
+     * Key in the middle of entries of [from, to).
+     *
+     * @return key strictly between from and to or null if range has less than {@code minEntries} entries
+     */
+    public MemorySegment splitKey(MemorySegment from, MemorySegment to, long minEntries) {
+        long li = lowerIndex(from);
+        long ri = upperIndex(to);
+        if (ri - li < Math.max(2, minEntries)) {
+            return null;
+        }
+        return keyAt((li + ri) >>> 1);
+    }
+
+    // index of the first entry with key >= from
+    private long lowerIndex(MemorySegment from) {
+        if (from == null) {
+            return 0;
+        }
+        return Math.max(0, Utils.binarySearch(from, mapFile, mapIndex));
+    }
+
+    // index of the first entry with key >= to
+    private long upperIndex(MemorySegment to) {
+        if (to == null) {
+            return entriesCount();
+        }
+        return Math.max(0, Utils.binarySearch(to, mapFile, mapIndex));
+    }
+
     @Override
     public void close() throws IOException {
         sharedScope.close();
@@ -22,7 +22,7 @@ public final class Utils {
 
     }
 
-    private static long sizeOfEntry(Entry<MemorySegment> entry) {
+    static long sizeOfEntry(Entry<MemorySegment> entry) {
         long valueSize = (entry.value() == null) ? 0 : entry.value().byteSize();
         return 2L * Long.BYTES + entry.key().byteSize() + valueSize;
     }
@@ -121,6 +121,7 @@ public final class Utils {
         for (SSTable table : tableList) {
             Files.deleteIfExists(table.getTableName());
             Files.deleteIfExists(table.getIndexName());
+            Files.deleteIfExists(table.getBloomName());
         }
     }
 
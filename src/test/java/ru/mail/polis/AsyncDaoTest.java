@@ -0,0 +1,347 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import ru.mail.polis.test.DaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parameterized tests run over engines which flush and compact in background,
+ * so requests of {@link AsyncDao} overlap with changes of the tables they read.
+ */
+public class AsyncDaoTest extends BaseTest {
+    private static final int COUNT = 1_000;
+    private static final long THRESHOLD = 1 << 10;
+
+    @DaoTest(stage = 1)
+    void upsertAndGet(Dao<String, Entry<String>> dao) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao, executor);
+            List<Entry<String>> entries = entries(1000);
+            CompletableFuture.allOf(entries.stream()
+                    .map(asyncDao::upsertAsync)
+                    .toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+            assertSame(asyncDao.getAsync(keyAt(42)).get(10, TimeUnit.SECONDS), entryAt(42));
+            Assertions.assertNull(asyncDao.getAsync(keyAt(1000)).get(10, TimeUnit.SECONDS));
+            assertSame(dao.all(), entries);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @DaoTest(stage = 1)
+    void rangeWithBackpressure(Dao<String, Entry<String>> dao) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Entry<String>> entries = entries(100);
+            entries.forEach(dao::upsert);
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao, executor);
+
+            RecordingSubscriber subscriber = new RecordingSubscriber(1, Integer.MAX_VALUE);
+            asyncDao.rangeAsync(keyAt(10), keyAt(20)).subscribe(subscriber);
+            Assertions.assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+
+            Assertions.assertNull(subscriber.error);
+            assertSame(subscriber.received.iterator(), entries.subList(10, 20));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @DaoTest(stage = 2)
+    void flushAsync(Dao<String, Entry<String>> dao) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao, executor);
+            asyncDao.upsertAsync(entryAt(1)).get(10, TimeUnit.SECONDS);
+            asyncDao.flushAsync().get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        assertSame(dao.all(), entryAt(1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory.class
+    })
+    void concurrentUpsertsWithBackgroundFlushes(Class<?> factory, @TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(factory, dir, THRESHOLD);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao, executor);
+            CompletableFuture.allOf(entries(COUNT).stream()
+                    .map(asyncDao::upsertAsync)
+                    .toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+            assertSame(asyncDao.getAsync(keyAt(42)).get(10, TimeUnit.SECONDS), entryAt(42));
+            // one by one, so entries are pulled from memory and flushed tables between requests
+            RecordingSubscriber subscriber = new RecordingSubscriber(1, Integer.MAX_VALUE);
+            asyncDao.rangeAsync(null, null).subscribe(subscriber);
+            Assertions.assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+            Assertions.assertNull(subscriber.error);
+            assertSame(subscriber.received.iterator(), entries(COUNT));
+        } finally {
+            executor.shutdownNow();
+        }
+        dao.close();
+
+        Dao<String, Entry<String>> reopened = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(reopened.all(), entries(COUNT));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory.class
+    })
+    void failedFlushFailsFuture(Class<?> factory, @TempDir Path dir) throws Exception {
+        Path data = Files.createDirectory(dir.resolve("data"));
+        Dao<String, Entry<String>> dao = createDao(factory, data, THRESHOLD);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao, executor);
+            asyncDao.upsertAsync(entryAt(1)).get(10, TimeUnit.SECONDS);
+
+            Path moved = Files.move(data, dir.resolve("moved"));
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                    () -> asyncDao.flushAsync().get(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(e.getCause() instanceof IOException);
+
+            // memory which failed to flush is readable and saved by the next flush
+            assertSame(asyncDao.getAsync(keyAt(1)).get(10, TimeUnit.SECONDS), entryAt(1));
+            Files.move(moved, data);
+            asyncDao.flushAsync().get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        dao.close();
+
+        Dao<String, Entry<String>> reopened = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(reopened.all(), entryAt(1));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory.class
+    })
+    void cancelStopsRange(Class<?> factory, @TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(factory, dir, THRESHOLD);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            entries(COUNT).forEach(dao::upsert);
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao, executor);
+
+            RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE, 5);
+            asyncDao.rangeAsync(null, null).subscribe(subscriber);
+            // range is drained on the only executor thread, so it is over when the next task runs
+            executor.submit(() -> null).get(10, TimeUnit.SECONDS);
+
+            Assertions.assertEquals(1, subscriber.done.getCount());
+            assertSame(subscriber.received.iterator(), entries(5));
+        } finally {
+            executor.shutdownNow();
+            dao.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory.class
+    })
+    void nonPositiveRequestFailsRange(Class<?> factory, @TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(factory, dir, THRESHOLD);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            dao.upsert(entryAt(1));
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao, executor);
+
+            RecordingSubscriber subscriber = new RecordingSubscriber(0, Integer.MAX_VALUE);
+            asyncDao.rangeAsync(null, null).subscribe(subscriber);
+            Assertions.assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(subscriber.error instanceof IllegalArgumentException);
+            Assertions.assertTrue(subscriber.received.isEmpty());
+        } finally {
+            executor.shutdownNow();
+            dao.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory.class
+    })
+    void rejectedCallFailsFuture(Class<?> factory, @TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(factory, dir, THRESHOLD);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        try {
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao, executor);
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                    () -> asyncDao.upsertAsync(entryAt(1)).get(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            Assertions.assertNull(dao.get(keyAt(1)));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory.class
+    })
+    void rangeOutlivesFlushAndCompaction(Class<?> factory, @TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(factory, dir, 1 << 20);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AsyncDao<String, Entry<String>> asyncDao = new AsyncDao<>(dao, executor);
+            for (Entry<String> entry : entries(COUNT)) {
+                asyncDao.upsertAsync(entry).get(10, TimeUnit.SECONDS);
+            }
+
+            QueueSubscriber subscriber = new QueueSubscriber();
+            asyncDao.rangeAsync(null, null).subscribe(subscriber);
+            List<Entry<String>> received = new ArrayList<>();
+            received.add(subscriber.next());
+
+            // range is opened over memory table, which is flushed and then replaced by compaction
+            asyncDao.flushAsync().get(10, TimeUnit.SECONDS);
+            for (int i = 0; i < COUNT; i++) {
+                asyncDao.upsertAsync(entry(keyAt(i), "new")).get(10, TimeUnit.SECONDS);
+            }
+            dao.compact();
+            System.gc();
+
+            for (int i = 1; i < COUNT; i++) {
+                received.add(subscriber.next());
+            }
+            Assertions.assertEquals(QueueSubscriber.COMPLETE, subscriber.next());
+            assertSame(received.iterator(), entries(COUNT));
+        } finally {
+            executor.shutdownNow();
+            dao.close();
+        }
+    }
+
+    private static Dao<String, Entry<String>> createDao(Class<?> factory, Path dir, long threshold) throws Exception {
+        DaoFactory.Factory<?, ?> f = (DaoFactory.Factory<?, ?>) factory.getDeclaredConstructor().newInstance();
+        return f.createStringDao(new Config(dir, threshold));
+    }
+
+    /**
+     * Requests {@code batch} entries at once and again after each batch, cancels after {@code limit} entries.
+     */
+    private static class RecordingSubscriber implements Flow.Subscriber<Entry<String>> {
+        private final List<Entry<String>> received = new CopyOnWriteArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long batch;
+        private final int limit;
+        private volatile Throwable error;
+        private Flow.Subscription subscription;
+
+        RecordingSubscriber(long batch, int limit) {
+            this.batch = batch;
+            this.limit = limit;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(batch);
+        }
+
+        @Override
+        public void onNext(Entry<String> item) {
+            received.add(item);
+            if (received.size() == limit) {
+                subscription.cancel();
+            } else if (received.size() % batch == 0) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Requests the next entry only when the previous one is taken from the queue.
+     */
+    private static class QueueSubscriber implements Flow.Subscriber<Entry<String>> {
+        private static final Entry<String> COMPLETE = new BaseEntry<>("complete", null);
+
+        private final BlockingQueue<Entry<String>> queue = new LinkedBlockingQueue<>();
+        private Flow.Subscription subscription;
+
+        Entry<String> next() throws InterruptedException {
+            subscription.request(1);
+            Entry<String> next = queue.poll(10, TimeUnit.SECONDS);
+            Assertions.assertNotNull(next, "No entry is published");
+            return next;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Entry<String> item) {
+            queue.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            queue.add(new BaseEntry<>("error", throwable.toString()));
+        }
+
+        @Override
+        public void onComplete() {
+            queue.add(COMPLETE);
+        }
+    }
+}
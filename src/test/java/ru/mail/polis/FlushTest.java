@@ -0,0 +1,92 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import ru.mail.polis.test.DaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Memory is flushed in background once it reaches {@link Config#flushThresholdBytes()},
+ * failed flush is written again by the next one.
+ * Runs over engines with background flush only, so it is not a {@link DaoTest}.
+ */
+public class FlushTest extends BaseTest {
+    private static final int COUNT = 1_000;
+    private static final long THRESHOLD = 1 << 10;
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.dmitrykondraev.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory.class
+    })
+    void flushOnThreshold(Class<?> factory, @TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(factory, dir);
+        Assertions.assertEquals(0, filesCount(dir));
+        for (int i = 0; i < COUNT; i++) {
+            dao.upsert(entryAt(i));
+        }
+        // threshold is crossed many times, every flush waits for the previous one
+        Assertions.assertTrue(filesCount(dir) > 0);
+        assertSame(dao.all(), entries(COUNT));
+        dao.close();
+
+        assertReopened(dao);
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.dmitrykondraev.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory.class
+    })
+    void failedFlushIsWrittenAgain(Class<?> factory, @TempDir Path root) throws Exception {
+        Path dir = Files.createDirectory(root.resolve("dao"));
+        Path aside = root.resolve("aside");
+        Dao<String, Entry<String>> dao = createDao(factory, dir);
+        for (int i = 0; i < COUNT / 2; i++) {
+            dao.upsert(entryAt(i));
+        }
+
+        Files.move(dir, aside);
+        Assertions.assertThrows(IOException.class, dao::flush);
+        Files.move(aside, dir);
+        // frozen memory is still read
+        assertSame(dao.all(), entries(COUNT / 2));
+
+        for (int i = COUNT / 2; i < COUNT; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.flush();
+        assertSame(dao.all(), entries(COUNT));
+        dao.close();
+
+        assertReopened(dao);
+    }
+
+    private void assertReopened(Dao<String, Entry<String>> dao) throws IOException {
+        Dao<String, Entry<String>> reopened = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(reopened.all(), entries(COUNT));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static long filesCount(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static Dao<String, Entry<String>> createDao(Class<?> factory, Path dir) throws Exception {
+        DaoFactory.Factory<?, ?> f = (DaoFactory.Factory<?, ?>) factory.getDeclaredConstructor().newInstance();
+        return f.createStringDao(new Config(dir, THRESHOLD));
+    }
+}
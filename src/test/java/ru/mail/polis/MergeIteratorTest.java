@@ -0,0 +1,113 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class MergeIteratorTest {
+    private static final Comparator<Item> BY_KEY = Comparator.comparingInt(Item::key);
+
+    @Test
+    void lowerIndexWinsOnEqualKeys() {
+        List<Iterator<Item>> sources = List.of(
+                items(new Item(1, "newest"), new Item(3, "newest")),
+                items(new Item(1, "middle"), new Item(2, "middle")),
+                items(new Item(1, "oldest"), new Item(2, "oldest"), new Item(3, "oldest"))
+        );
+
+        Assertions.assertEquals(
+                List.of(new Item(1, "newest"), new Item(2, "middle"), new Item(3, "newest")),
+                drain(MergeIterator.of(sources, BY_KEY)));
+    }
+
+    @Test
+    void tombstonesShadowOlderAndAreSkipped() {
+        List<Iterator<Item>> sources = List.of(
+                items(new Item(1, null), new Item(4, "newest")),
+                items(new Item(1, "oldest"), new Item(2, null), new Item(3, "oldest"))
+        );
+
+        Assertions.assertEquals(
+                List.of(new Item(3, "oldest"), new Item(4, "newest")),
+                drain(MergeIterator.of(sources, BY_KEY, Item::isTombstone)));
+    }
+
+    @Test
+    void tombstonesAreKeptWithoutSkip() {
+        List<Iterator<Item>> sources = List.of(
+                items(new Item(1, null)),
+                items(new Item(1, "oldest"))
+        );
+
+        Assertions.assertEquals(List.of(new Item(1, null)), drain(MergeIterator.of(sources, BY_KEY)));
+    }
+
+    @Test
+    void nonPowerOfTwoSources() {
+        Random random = new Random(42);
+        for (int count : new int[]{3, 5, 6, 7, 9, 13}) {
+            List<Iterator<Item>> sources = new ArrayList<>(count);
+            Map<Integer, Item> expected = new TreeMap<>();
+            // sources are filled from newest, so the first item of a key is the expected one
+            for (int source = 0; source < count; source++) {
+                List<Item> items = new ArrayList<>();
+                for (int key = 0; key < 200; key++) {
+                    if (random.nextInt(3) == 0) {
+                        Item item = new Item(key, "source" + source);
+                        items.add(item);
+                        expected.putIfAbsent(key, item);
+                    }
+                }
+                sources.add(items.iterator());
+            }
+
+            Assertions.assertEquals(List.copyOf(expected.values()), drain(MergeIterator.of(sources, BY_KEY)));
+        }
+    }
+
+    @Test
+    void emptySources() {
+        Assertions.assertFalse(MergeIterator.of(List.<Iterator<Item>>of(), BY_KEY).hasNext());
+        Assertions.assertFalse(MergeIterator.of(List.<Iterator<Item>>of(), BY_KEY, Item::isTombstone).hasNext());
+        Assertions.assertFalse(MergeIterator.of(List.of(items(), items(), items()), BY_KEY).hasNext());
+
+        List<Iterator<Item>> sources = List.of(
+                items(), items(new Item(2, "b")), items(), items(new Item(1, "a")), items());
+        Iterator<Item> merged = MergeIterator.of(sources, BY_KEY, Item::isTombstone);
+        Assertions.assertEquals(List.of(new Item(1, "a"), new Item(2, "b")), drain(merged));
+        Assertions.assertThrows(NoSuchElementException.class, merged::next);
+    }
+
+    @Test
+    void onlyTombstones() {
+        List<Iterator<Item>> sources = List.of(items(new Item(1, null)), items(new Item(2, null)));
+
+        Assertions.assertFalse(MergeIterator.of(sources, BY_KEY, Item::isTombstone).hasNext());
+    }
+
+    private static Iterator<Item> items(Item... items) {
+        return List.of(items).iterator();
+    }
+
+    private static List<Item> drain(Iterator<Item> iterator) {
+        List<Item> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    private record Item(int key, String value) {
+        boolean isTombstone() {
+            return value == null;
+        }
+    }
+}
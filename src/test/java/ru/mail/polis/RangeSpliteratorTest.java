@@ -0,0 +1,140 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class RangeSpliteratorTest extends BaseTest {
+    private static final int COUNT = 10_000;
+
+    @Test
+    void splitGivesAwayPrefix() {
+        MapSource source = new MapSource(entries(COUNT), 2);
+        Spliterator<Entry<String>> suffix = new RangeSpliterator<>(source, keyAt(100), keyAt(200));
+        Spliterator<Entry<String>> prefix = suffix.trySplit();
+        Assertions.assertNotNull(prefix);
+
+        // split key is the middle one and belongs to the suffix
+        assertSame(drain(prefix).iterator(), entries(COUNT).subList(100, 150));
+        assertSame(drain(suffix).iterator(), entries(COUNT).subList(150, 200));
+    }
+
+    @Test
+    void splitStopsAtSmallRange() {
+        MapSource source = new MapSource(entries(COUNT), 20);
+        Spliterator<Entry<String>> spliterator = new RangeSpliterator<>(source, keyAt(0), keyAt(40));
+        List<Spliterator<Entry<String>>> parts = new ArrayList<>();
+        for (Spliterator<Entry<String>> part = spliterator.trySplit(); part != null; part = spliterator.trySplit()) {
+            parts.add(part);
+        }
+        // 40 -> 20 -> 10, ranges of less than 20 entries are not split
+        Assertions.assertEquals(2, parts.size());
+        parts.add(spliterator);
+
+        List<Entry<String>> all = new ArrayList<>();
+        for (Spliterator<Entry<String>> part : parts) {
+            all.addAll(drain(part));
+        }
+        all.sort((a, b) -> a.key().compareTo(b.key()));
+        assertSame(all.iterator(), entries(40));
+    }
+
+    @Test
+    void noSplitAfterTraversalStarted() {
+        MapSource source = new MapSource(entries(COUNT), 2);
+        Spliterator<Entry<String>> spliterator = new RangeSpliterator<>(source, null, null);
+        Assertions.assertTrue(spliterator.tryAdvance(entry -> assertSame(entry, entryAt(0))));
+
+        Assertions.assertNull(spliterator.trySplit());
+        Assertions.assertEquals(1, source.opened.get());
+        assertSame(drain(spliterator).iterator(), entries(COUNT).subList(1, COUNT));
+    }
+
+    @Test
+    void parallelSameAsSequential() {
+        List<Entry<String>> entries = entries(COUNT);
+        MapSource source = new MapSource(entries, 16);
+        List<Entry<String>> sequential = RangeSpliterator.stream(source, keyAt(10), keyAt(COUNT - 10), false)
+                .collect(Collectors.toList());
+        Assertions.assertEquals(1, source.opened.get());
+
+        List<Entry<String>> parallel = RangeSpliterator.stream(source, keyAt(10), keyAt(COUNT - 10), true)
+                .collect(Collectors.toList());
+        Assertions.assertTrue(source.opened.get() > 2, "Range is not split");
+        Assertions.assertEquals(sequential, parallel);
+        assertSame(parallel.iterator(), entries.subList(10, COUNT - 10));
+
+        Assertions.assertEquals(entries.size(), RangeSpliterator.stream(source, null, null, true).count());
+    }
+
+    @Test
+    void sourceFailureIsUnchecked() {
+        RangeSpliterator.Source<String, Entry<String>> failing = new RangeSpliterator.Source<>() {
+            @Override
+            public Iterator<Entry<String>> get(String from, String to) throws IOException {
+                throw new IOException("Broken");
+            }
+
+            @Override
+            public String splitKey(String from, String to) {
+                return null;
+            }
+        };
+        Assertions.assertThrows(UncheckedIOException.class,
+                () -> RangeSpliterator.stream(failing, null, null, false).count());
+    }
+
+    private static List<Entry<String>> drain(Spliterator<Entry<String>> spliterator) {
+        List<Entry<String>> result = new ArrayList<>();
+        spliterator.forEachRemaining(result::add);
+        return result;
+    }
+
+    /**
+     * Splits at the middle key of the range if it has at least {@code minEntries} entries.
+     */
+    private static class MapSource implements RangeSpliterator.Source<String, Entry<String>> {
+        private final NavigableMap<String, Entry<String>> data = new TreeMap<>();
+        private final int minEntries;
+        private final AtomicInteger opened = new AtomicInteger();
+
+        MapSource(List<Entry<String>> entries, int minEntries) {
+            for (Entry<String> entry : entries) {
+                data.put(entry.key(), entry);
+            }
+            this.minEntries = minEntries;
+        }
+
+        @Override
+        public Iterator<Entry<String>> get(String from, String to) {
+            opened.incrementAndGet();
+            return range(from, to).values().iterator();
+        }
+
+        @Override
+        public String splitKey(String from, String to) {
+            NavigableMap<String, Entry<String>> range = range(from, to);
+            if (range.size() < minEntries) {
+                return null;
+            }
+            return new ArrayList<>(range.keySet()).get(range.size() / 2);
+        }
+
+        private NavigableMap<String, Entry<String>> range(String from, String to) {
+            if (from == null) {
+                from = data.isEmpty() ? "" : data.firstKey();
+            }
+            return to == null ? data.tailMap(from, true) : data.subMap(from, true, to, false);
+        }
+    }
+}
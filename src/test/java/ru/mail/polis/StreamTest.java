@@ -0,0 +1,36 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Assertions;
+import ru.mail.polis.test.DaoFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class StreamTest extends BaseTest {
+
+    @DaoTest(stage = 1)
+    void streamRange(Dao<String, Entry<String>> dao) throws IOException {
+        List<Entry<String>> entries = entries(1000);
+        entries.forEach(dao::upsert);
+        dao.upsert(entry(keyAt(500), null));
+
+        List<Entry<String>> expected = entries.stream()
+                .filter(entry -> !entry.key().equals(keyAt(500)))
+                .collect(Collectors.toList())
+                .subList(100, 899);
+        assertSame(dao.stream(keyAt(100), keyAt(900)).iterator(), expected);
+    }
+
+    @DaoTest(stage = 2)
+    void parallelStreamKeepsOrder(Dao<String, Entry<String>> dao) throws IOException {
+        List<Entry<String>> entries = entries(10_000);
+        entries.forEach(dao::upsert);
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        List<Entry<String>> streamed = dao.stream(null, null).parallel().collect(Collectors.toList());
+        Assertions.assertEquals(entries, streamed);
+        Assertions.assertEquals(entries.size(), dao.stream(null, null).parallel().count());
+    }
+}
@@ -0,0 +1,148 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import ru.mail.polis.test.DaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class WriteBatchTest extends BaseTest {
+    private static final int COUNT = 1_000;
+    private static final long THRESHOLD = 1 << 10;
+
+    @DaoTest(stage = 1)
+    void batch(Dao<String, Entry<String>> dao) throws IOException {
+        List<Entry<String>> entries = entries(1000);
+        WriteBatch.Builder<String, Entry<String>> builder = WriteBatch.builder();
+        for (Entry<String> entry : entries) {
+            builder.upsert(entry);
+        }
+        dao.write(builder.build());
+
+        assertSame(dao.all(), entries);
+    }
+
+    @DaoTest(stage = 1)
+    void laterEntryWins(Dao<String, Entry<String>> dao) throws IOException {
+        dao.upsert(entryAt(3));
+        dao.write(WriteBatch.<String, Entry<String>>builder()
+                .upsert(entry(keyAt(1), "old"))
+                .upsert(entryAt(2))
+                .upsert(entryAt(1))
+                .upsert(entry(keyAt(3), null))
+                .build());
+
+        assertSame(dao.all(), entryAt(1), entryAt(2));
+    }
+
+    @DaoTest(stage = 2)
+    void persistentBatch(Dao<String, Entry<String>> dao) throws IOException {
+        dao.write(WriteBatch.<String, Entry<String>>builder()
+                .upsert(entryAt(1))
+                .upsert(entryAt(2))
+                .build());
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        assertSame(dao.all(), entryAt(1), entryAt(2));
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.dmitreemaximenko.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class
+    })
+    void laterEntryWinsOverPersisted(Class<?> factory, @TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(factory, dir, 1 << 20);
+        dao.upsert(entryAt(3));
+        dao.upsert(entry(keyAt(1), "persisted"));
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            dao.write(batch(List.of(entry(keyAt(1), "old"), entryAt(2), entryAt(1), entry(keyAt(3), null))));
+
+            assertSame(dao.all(), entryAt(1), entryAt(2));
+            Assertions.assertNull(dao.get(keyAt(3)));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.dmitreemaximenko.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class
+    })
+    void batchOverThresholdIsPersisted(Class<?> factory, @TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(factory, dir, THRESHOLD);
+        dao.write(batch(entries(COUNT)));
+        assertSame(dao.all(), entries(COUNT));
+        dao.close();
+
+        Dao<String, Entry<String>> reopened = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(reopened.all(), entries(COUNT));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    // batches of one writer are interleaved with batches of others and with flushes
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ru.mail.polis.test.dmitreemaximenko.MemorySegmentDaoFactory.class,
+            ru.mail.polis.test.nikitadergunov.MemorySegmentDaoFactory.class
+    })
+    void concurrentBatches(Class<?> factory, @TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(factory, dir, THRESHOLD);
+        int writers = 4;
+        int batchSize = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int writer = 0; writer < writers; writer++) {
+                int first = writer * batchSize;
+                futures.add(executor.submit(() -> {
+                    for (int start = first; start < COUNT; start += writers * batchSize) {
+                        List<Entry<String>> entries = new ArrayList<>(batchSize);
+                        for (int i = start; i < start + batchSize; i++) {
+                            entries.add(entryAt(i));
+                        }
+                        dao.write(batch(entries));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertSame(dao.all(), entries(COUNT));
+        dao.close();
+    }
+
+    private static WriteBatch<String, Entry<String>> batch(List<Entry<String>> entries) {
+        WriteBatch.Builder<String, Entry<String>> builder = WriteBatch.builder();
+        for (Entry<String> entry : entries) {
+            builder.upsert(entry);
+        }
+        return builder.build();
+    }
+
+    private static Dao<String, Entry<String>> createDao(Class<?> factory, Path dir, long threshold) throws Exception {
+        DaoFactory.Factory<?, ?> f = (DaoFactory.Factory<?, ?>) factory.getDeclaredConstructor().newInstance();
+        return f.createStringDao(new Config(dir, threshold));
+    }
+}
@@ -0,0 +1,213 @@
+package ru.mail.polis.alexanderkiselyov;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.alexanderkiselyov.ByteArrayDaoFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Cached blocks are told from missed ones by rewriting the file under the cache:
+ * hit returns old bytes, miss reads new ones.
+ */
+public class BlockCacheTest extends BaseTest {
+    private static final byte OLD = 1;
+    private static final byte NEW = 2;
+
+    @Test
+    void clockGivesSecondChanceToHitBlocks(@TempDir Path dir) throws IOException {
+        Path file = writeBlocks(dir, 5, OLD);
+        BlockCache cache = new BlockCache(3L * BlockCache.BLOCK_SIZE);
+        int fileId = cache.nextFileId();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(cache, fileId, channel, 0);
+            read(cache, fileId, channel, 1);
+            read(cache, fileId, channel, 2);
+            // hand clears all marks and takes block 0
+            read(cache, fileId, channel, 3);
+            // block 1 is marked again, so block 2 is taken instead of it
+            read(cache, fileId, channel, 1);
+            read(cache, fileId, channel, 4);
+
+            writeBlocks(dir, 5, NEW);
+            Assertions.assertEquals(OLD, read(cache, fileId, channel, 1));
+            Assertions.assertEquals(OLD, read(cache, fileId, channel, 3));
+            Assertions.assertEquals(OLD, read(cache, fileId, channel, 4));
+            Assertions.assertEquals(NEW, read(cache, fileId, channel, 0));
+            Assertions.assertEquals(NEW, read(cache, fileId, channel, 2));
+        }
+    }
+
+    @Test
+    void byteBudgetLimitsCachedBlocks(@TempDir Path dir) throws IOException {
+        int budgetBlocks = 10;
+        Path file = writeBlocks(dir, budgetBlocks * 2, OLD);
+        // budget is rounded down to whole blocks
+        BlockCache cache = new BlockCache(budgetBlocks * BlockCache.BLOCK_SIZE + BlockCache.BLOCK_SIZE - 1L);
+        int fileId = cache.nextFileId();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int block = 0; block < budgetBlocks * 2; block++) {
+                read(cache, fileId, channel, block);
+            }
+
+            writeBlocks(dir, budgetBlocks * 2, NEW);
+            // hits do not change cache, so all cached blocks are checked before the first miss
+            for (int block = budgetBlocks; block < budgetBlocks * 2; block++) {
+                Assertions.assertEquals(OLD, read(cache, fileId, channel, block));
+            }
+            for (int block = 0; block < budgetBlocks; block++) {
+                Assertions.assertEquals(NEW, read(cache, fileId, channel, block));
+            }
+        }
+    }
+
+    @Test
+    void readSpansBlocksAndStopsAtEnd(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("data");
+        byte[] data = new byte[BlockCache.BLOCK_SIZE * 2 + 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Files.write(file, data);
+        BlockCache cache = new BlockCache(BlockCache.DEFAULT_CAPACITY_BYTES);
+        int fileId = cache.nextFileId();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BlockCache.BLOCK_SIZE + 200);
+            cache.read(fileId, channel, BlockCache.BLOCK_SIZE - 100, buffer);
+            for (int i = 0; i < buffer.capacity(); i++) {
+                Assertions.assertEquals((byte) (BlockCache.BLOCK_SIZE - 100 + i), buffer.get(i));
+            }
+
+            Assertions.assertThrows(IOException.class,
+                    () -> cache.read(fileId, channel, data.length - 10, ByteBuffer.allocate(20)));
+        }
+    }
+
+    @Test
+    void compactedFilesAreNotReadFromStaleBlocks(@TempDir Path dir) throws IOException {
+        BlockCache cache = new BlockCache(BlockCache.DEFAULT_CAPACITY_BYTES);
+        Dao<String, Entry<String>> dao = createDao(dir, cache);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                dao.upsert(entry(keyAt(i), "old" + i));
+            }
+            dao.flush();
+            for (int i = 0; i < 1000; i += 2) {
+                dao.upsert(entry(keyAt(i), null));
+            }
+            dao.flush();
+            // blocks of both tables are cached
+            Assertions.assertEquals(500, count(dao));
+
+            dao.compact();
+            for (int i = 1; i < 1000; i += 2) {
+                dao.upsert(entry(keyAt(i), "new" + i));
+            }
+            dao.flush();
+            dao.compact();
+
+            List<Entry<String>> expected = new ArrayList<>();
+            for (int i = 1; i < 1000; i += 2) {
+                expected.add(entry(keyAt(i), "new" + i));
+            }
+            assertSame(dao.all(), expected);
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void sharedCacheKeepsDaosApart(@TempDir Path dir) throws IOException {
+        BlockCache cache = new BlockCache(BlockCache.DEFAULT_CAPACITY_BYTES);
+        // both daos have files with the same names
+        Dao<String, Entry<String>> first = createDao(Files.createDirectory(dir.resolve("first")), cache);
+        Dao<String, Entry<String>> second = createDao(Files.createDirectory(dir.resolve("second")), cache);
+        try {
+            first.upsert(entry("key", "first"));
+            second.upsert(entry("key", "second"));
+            first.flush();
+            second.flush();
+
+            assertSame(first.get("key"), entry("key", "first"));
+            assertSame(second.get("key"), entry("key", "second"));
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    void readsShareChannelsOfTable(@TempDir Path dir) throws IOException {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (!(os instanceof UnixOperatingSystemMXBean unix)) {
+            return; // open files are not counted on this platform
+        }
+        BlockCache cache = new BlockCache(BlockCache.DEFAULT_CAPACITY_BYTES);
+        Dao<String, Entry<String>> dao = createDao(dir, cache);
+        for (int i = 0; i < 100; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+
+        dao = createDao(dir, cache);
+        try {
+            long opened = unix.getOpenFileDescriptorCount();
+            for (int i = 0; i < 1000; i++) {
+                assertSame(dao.get(keyAt(i % 100)), entryAt(i % 100));
+            }
+            // every get used to open both files of the table again
+            Assertions.assertTrue(unix.getOpenFileDescriptorCount() - opened < 100);
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static byte read(BlockCache cache, int fileId, FileChannel channel, int block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        cache.read(fileId, channel, (long) block * BlockCache.BLOCK_SIZE, buffer);
+        return buffer.get(0);
+    }
+
+    private static Path writeBlocks(Path dir, int blocks, byte value) throws IOException {
+        byte[] data = new byte[blocks * BlockCache.BLOCK_SIZE];
+        Arrays.fill(data, value);
+        return Files.write(dir.resolve("data"), data);
+    }
+
+    private static int count(Dao<String, Entry<String>> dao) throws IOException {
+        int count = 0;
+        Iterator<Entry<String>> iterator = dao.all();
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir, BlockCache cache) throws IOException {
+        return new ByteArrayDaoFactory() {
+            @Override
+            public Dao<byte[], BaseEntry<byte[]>> createDao(Config config) throws IOException {
+                return new InMemoryDao(config, cache);
+            }
+        }.createStringDao(new Config(dir, 1 << 20));
+    }
+}
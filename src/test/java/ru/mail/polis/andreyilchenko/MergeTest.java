@@ -0,0 +1,76 @@
+package ru.mail.polis.andreyilchenko;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.BaseEntry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sources of {@link PersistentDao#merge} are ordered by priority, the shared merge itself is covered by
+ * {@link ru.mail.polis.MergeIteratorTest}.
+ */
+public class MergeTest {
+
+    @Test
+    void lowerPriorityWinsOnEqualKeys() {
+        // list order differs from priority order
+        List<PeekingPriorityIterator> iterators = List.of(
+                source(2, entry("a", "oldest"), entry("b", "oldest"), entry("c", "oldest")),
+                source(0, entry("a", "newest"), entry("c", "newest")),
+                source(1, entry("a", "middle"), entry("b", "middle"))
+        );
+
+        Assertions.assertEquals(
+                List.of("a=newest", "b=middle", "c=newest"),
+                drain(PersistentDao.merge(iterators)));
+    }
+
+    @Test
+    void tombstonesShadowOlderAndAreSkipped() {
+        List<PeekingPriorityIterator> iterators = List.of(
+                source(0, entry("a", null), entry("d", "newest")),
+                source(1, entry("a", "oldest"), entry("b", null), entry("c", "oldest"))
+        );
+
+        Assertions.assertEquals(List.of("c=oldest", "d=newest"), drain(PersistentDao.merge(iterators)));
+    }
+
+    @Test
+    void onlyTombstones() {
+        Iterator<BaseEntry<ByteBuffer>> merged = PersistentDao.merge(List.of(
+                source(0, entry("a", null)), source(1, entry("b", null)), source(2, entry("a", "2"))));
+
+        Assertions.assertFalse(merged.hasNext());
+    }
+
+    @SafeVarargs
+    private static PeekingPriorityIterator source(int priority, BaseEntry<ByteBuffer>... entries) {
+        return new PeekingPriorityIterator(List.of(entries).iterator(), priority);
+    }
+
+    private static BaseEntry<ByteBuffer> entry(String key, String value) {
+        return new BaseEntry<>(buffer(key), value == null ? null : buffer(value));
+    }
+
+    private static ByteBuffer buffer(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
+    private static List<String> drain(Iterator<BaseEntry<ByteBuffer>> iterator) {
+        List<String> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            BaseEntry<ByteBuffer> entry = iterator.next();
+            result.add(string(entry.key()) + "=" + string(entry.value()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,195 @@
+package ru.mail.polis.artyomdrozdov;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.Config;
+import ru.mail.polis.Entry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+public class WriteAheadLogTest {
+    private static final Consumer<Entry<MemorySegment>> NOT_REPLAYED = entry -> Assertions.fail("Log must be empty");
+
+    @Test
+    void replayAfterCrash(@TempDir Path dir) throws IOException {
+        Config config = new Config(dir, 1 << 20);
+        MemorySegmentDao crashed = new MemorySegmentDao(config);
+        for (int i = 0; i < 100; i++) {
+            crashed.upsert(entry(key(i), "value" + i));
+        }
+        crashed.upsert(entry(key(0), null));
+
+        // the first dao is never closed, its memory is known only to the log
+        MemorySegmentDao restored = new MemorySegmentDao(config);
+        try {
+            Assertions.assertNull(restored.get(segment(key(0))));
+            for (int i = 1; i < 100; i++) {
+                Assertions.assertEquals("value" + i, string(restored.get(segment(key(i))).value()));
+            }
+        } finally {
+            restored.close();
+        }
+        Assertions.assertEquals(List.of(), segments(dir));
+    }
+
+    @Test
+    void tornTail(@TempDir Path dir) throws IOException {
+        WriteAheadLog log = WriteAheadLog.open(dir, SyncPolicy.EVERY_WRITE, NOT_REPLAYED);
+        append(log, List.of(entry(key(0), "value")));
+        append(log, List.of(entry(key(1), "value")));
+        // batch is one record, so it is lost as a whole
+        append(log, List.of(entry(key(2), "value"), entry(key(3), "value")));
+        log.close();
+
+        Path segment = dir.resolve("wal0.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        Assertions.assertEquals(List.of(key(0), key(1)), replay(dir));
+    }
+
+    @Test
+    void corruptedTail(@TempDir Path dir) throws IOException {
+        WriteAheadLog log = WriteAheadLog.open(dir, SyncPolicy.EVERY_WRITE, NOT_REPLAYED);
+        append(log, List.of(entry(key(0), "value")));
+        append(log, List.of(entry(key(1), "value")));
+        append(log, List.of(entry(key(2), "value")));
+        log.close();
+
+        Path segment = dir.resolve("wal0.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            last.put(0, (byte) (last.get(0) ^ 1));
+            channel.write(last.rewind(), channel.size() - 1);
+        }
+
+        // records appended after restart go to the next segment and are replayed after the good ones
+        List<String> keys = new ArrayList<>();
+        WriteAheadLog reopened = WriteAheadLog.open(
+                dir, SyncPolicy.EVERY_WRITE, entry -> keys.add(string(entry.key())));
+        Assertions.assertEquals(List.of(key(0), key(1)), keys);
+        append(reopened, List.of(entry(key(3), "value")));
+        reopened.close();
+
+        Assertions.assertEquals(List.of(key(0), key(1), key(3)), replay(dir));
+    }
+
+    @Test
+    void segmentsDeletedAfterFlushAndCompact(@TempDir Path dir) throws IOException {
+        MemorySegmentDao dao = new MemorySegmentDao(new Config(dir, 1 << 20));
+        try {
+            dao.upsert(entry(key(0), "value"));
+            Assertions.assertEquals(List.of("wal0.log"), segments(dir));
+
+            dao.flush();
+            Assertions.assertEquals(List.of("wal1.log"), segments(dir));
+
+            dao.upsert(entry(key(1), "value"));
+            dao.compact();
+            Assertions.assertEquals(List.of("wal2.log"), segments(dir));
+        } finally {
+            dao.close();
+        }
+        Assertions.assertEquals(List.of(), segments(dir));
+    }
+
+    @Test
+    void everyWriteSyncWaitsForRecord(@TempDir Path dir) throws IOException {
+        WriteAheadLog log = WriteAheadLog.open(dir, SyncPolicy.EVERY_WRITE, NOT_REPLAYED);
+        try {
+            append(log, List.of(entry(key(0), "value")));
+            Assertions.assertTrue(Files.size(dir.resolve("wal0.log")) > 0);
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    void periodicWritesWithoutSync(@TempDir Path dir) throws Exception {
+        WriteAheadLog log = WriteAheadLog.open(dir, SyncPolicy.periodic(10), NOT_REPLAYED);
+        try {
+            log.append(List.of(entry(key(0), "value")), () -> { });
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (Files.size(dir.resolve("wal0.log")) == 0) {
+                Assertions.assertTrue(System.nanoTime() < deadline, "Record is not written");
+                Thread.onSpinWait();
+            }
+        } finally {
+            log.close();
+        }
+        Assertions.assertEquals(List.of(key(0)), replay(dir));
+    }
+
+    @Test
+    void closeWritesQueuedRecords(@TempDir Path dir) throws IOException {
+        WriteAheadLog log = WriteAheadLog.open(dir, SyncPolicy.NONE, NOT_REPLAYED);
+        for (int i = 0; i < 100; i++) {
+            // returns right away, nothing is waited
+            append(log, List.of(entry(key(i), "value")));
+        }
+        log.close();
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(key(i));
+        }
+        Assertions.assertEquals(expected, replay(dir));
+    }
+
+    @Test
+    void periodicIntervalMustBePositive() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SyncPolicy.periodic(0));
+    }
+
+    private static void append(WriteAheadLog log, List<Entry<MemorySegment>> entries) {
+        log.sync(log.append(entries, () -> { }));
+    }
+
+    private static List<String> replay(Path dir) throws IOException {
+        List<String> keys = new ArrayList<>();
+        WriteAheadLog.open(dir, SyncPolicy.NONE, entry -> keys.add(string(entry.key()))).close();
+        return keys;
+    }
+
+    private static List<String> segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("wal"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static Entry<MemorySegment> entry(String key, String value) {
+        return new BaseEntry<>(segment(key), value == null ? null : segment(value));
+    }
+
+    private static String key(int index) {
+        return String.format("key%05d", index);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
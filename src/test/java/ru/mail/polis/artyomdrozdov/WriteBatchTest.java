@@ -0,0 +1,134 @@
+package ru.mail.polis.artyomdrozdov;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.WriteBatch;
+import ru.mail.polis.test.artyomdrozdov.MemorySegmentDaoFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link MemorySegmentDao#write(WriteBatch)} appends the batch to log as one record.
+ * Crash is simulated by opening the second dao without closing the first one.
+ */
+public class WriteBatchTest extends BaseTest {
+    private static final int COUNT = 1_000;
+
+    @Test
+    void laterEntryWins(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            dao.upsert(entryAt(3));
+            dao.write(batch(List.of(entry(keyAt(1), "old"), entryAt(2), entryAt(1), entry(keyAt(3), null))));
+
+            assertSame(dao.all(), entryAt(1), entryAt(2));
+            Assertions.assertNull(dao.get(keyAt(3)));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void batchIsReplayedWhole(@TempDir Path dir) throws IOException {
+        createDao(dir).write(batch(entries(COUNT)));
+
+        Dao<String, Entry<String>> restored = createDao(dir);
+        try {
+            assertSame(restored.all(), entries(COUNT));
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    void tornBatchIsLostWhole(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> crashed = createDao(dir);
+        crashed.upsert(entryAt(0));
+        List<Entry<String>> entries = new ArrayList<>();
+        for (int i = 1; i < 10; i++) {
+            entries.add(entryAt(i));
+        }
+        crashed.write(batch(entries));
+
+        // the last byte of the batch record never reached disk
+        try (FileChannel channel = FileChannel.open(dir.resolve("wal0.log"), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        Dao<String, Entry<String>> restored = createDao(dir);
+        try {
+            assertSame(restored.all(), entryAt(0));
+        } finally {
+            restored.close();
+        }
+    }
+
+    @Test
+    void concurrentBatchesWithFlushes(@TempDir Path dir) throws Exception {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        int writers = 4;
+        int batchSize = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int writer = 0; writer < writers; writer++) {
+                int first = writer * batchSize;
+                futures.add(executor.submit(() -> {
+                    for (int start = first; start < COUNT; start += writers * batchSize) {
+                        List<Entry<String>> entries = new ArrayList<>(batchSize);
+                        for (int i = start; i < start + batchSize; i++) {
+                            entries.add(entryAt(i));
+                        }
+                        dao.write(batch(entries));
+                    }
+                    return null;
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10; i++) {
+                    dao.flush();
+                }
+                return null;
+            }));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertSame(dao.all(), entries(COUNT));
+
+        // entries which are not flushed yet are in the log
+        Dao<String, Entry<String>> restored = createDao(dir);
+        try {
+            assertSame(restored.all(), entries(COUNT));
+        } finally {
+            restored.close();
+        }
+    }
+
+    private static WriteBatch<String, Entry<String>> batch(List<Entry<String>> entries) {
+        WriteBatch.Builder<String, Entry<String>> builder = WriteBatch.builder();
+        for (Entry<String> entry : entries) {
+            builder.upsert(entry);
+        }
+        return builder.build();
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new MemorySegmentDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+}
@@ -0,0 +1,85 @@
+package ru.mail.polis.baidiyarosan;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.baidiyarosan.ByteBufferDaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Background compaction fails while compaction folder is replaced with a file.
+ */
+public class CompactionFailureTest extends BaseTest {
+    private static final int FILES = 3;
+    private static final int PER_FILE = 50;
+
+    @Test
+    void failureIsThrownByClose(@TempDir Path dir) throws IOException {
+        fill(dir);
+        Path compactionDir = dir.resolve(FileUtils.COMPACTION_FOLDER);
+
+        Dao<String, Entry<String>> dao = createDao(dir);
+        Files.delete(compactionDir);
+        Files.createFile(compactionDir);
+        dao.compact();
+        Assertions.assertThrows(IOException.class, dao::close);
+
+        Files.delete(compactionDir);
+        Files.createDirectory(compactionDir);
+        assertAll(dir, FILES);
+
+        dao = createDao(dir);
+        dao.compact();
+        dao.close();
+        assertAll(dir, 1);
+    }
+
+    @Test
+    void failureIsThrownOnceByNextCompact(@TempDir Path dir) throws IOException {
+        fill(dir);
+        Path compactionDir = dir.resolve(FileUtils.COMPACTION_FOLDER);
+
+        Dao<String, Entry<String>> dao = createDao(dir);
+        Files.delete(compactionDir);
+        Files.createFile(compactionDir);
+        dao.compact();
+        Assertions.assertThrows(IOException.class, dao::compact);
+
+        Files.delete(compactionDir);
+        Files.createDirectory(compactionDir);
+        dao.compact();
+        dao.close();
+        assertAll(dir, 1);
+    }
+
+    private void assertAll(Path dir, int files) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            assertSame(dao.all(), entries(FILES * PER_FILE));
+        } finally {
+            dao.close();
+        }
+        Assertions.assertEquals(files, FileUtils.getPaths(dir).size());
+    }
+
+    private void fill(Path dir) throws IOException {
+        for (int file = 0; file < FILES; file++) {
+            Dao<String, Entry<String>> dao = createDao(dir);
+            for (int i = 0; i < PER_FILE; i++) {
+                dao.upsert(entryAt(file * PER_FILE + i));
+            }
+            dao.close();
+        }
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new ByteBufferDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+}
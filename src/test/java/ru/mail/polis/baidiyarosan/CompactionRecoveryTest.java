@@ -0,0 +1,151 @@
+package ru.mail.polis.baidiyarosan;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.baidiyarosan.ByteBufferDaoFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Crash is simulated by leaving files in the state compaction of files 2 and 3 of 5 had at some step.
+ */
+public class CompactionRecoveryTest extends BaseTest {
+    private static final int FILES = 5;
+    private static final int PER_FILE = 50;
+
+    @Test
+    void uncommittedOutputIsDropped(@TempDir Path dir) throws IOException {
+        fill(dir);
+        writeOutput(dir);
+
+        assertRecovered(dir, FILES);
+        Assertions.assertTrue(Files.notExists(FileUtils.getCompactionDataPath(dir)));
+        Assertions.assertTrue(Files.notExists(FileUtils.getCompactionIndexPath(dir)));
+    }
+
+    @Test
+    void committedBeforeReplace(@TempDir Path dir) throws IOException {
+        fill(dir);
+        writeOutput(dir);
+        FileUtils.commitCompaction(dir, 2, 3, FILES, true);
+
+        assertRecovered(dir, FILES - 1);
+    }
+
+    @Test
+    void crashedWhileMovingOutput(@TempDir Path dir) throws IOException {
+        fill(dir);
+        writeOutput(dir);
+        FileUtils.commitCompaction(dir, 2, 3, FILES, true);
+        FileUtils.deleteFile(dir, 2);
+        FileUtils.deleteFile(dir, 3);
+        Files.move(FileUtils.getCompactionDataPath(dir), FileUtils.getCompactedDataPath(dir, 2));
+
+        assertRecovered(dir, FILES - 1);
+    }
+
+    @Test
+    void crashedWhileRenumbering(@TempDir Path dir) throws IOException {
+        fill(dir);
+        writeOutput(dir);
+        FileUtils.deleteFile(dir, 2);
+        FileUtils.deleteFile(dir, 3);
+        Files.move(FileUtils.getCompactionDataPath(dir), FileUtils.getCompactedDataPath(dir, 2));
+        Files.move(FileUtils.getCompactionIndexPath(dir), FileUtils.getIndexPath(dir, 2));
+        // file 4 is moved to 3, only data of file 5 is moved to 4
+        Files.move(FileUtils.getDataPath(dir, 4), FileUtils.getDataPath(dir, 3));
+        Files.move(FileUtils.getIndexPath(dir, 4), FileUtils.getIndexPath(dir, 3));
+        Files.move(FileUtils.getDataPath(dir, 5), FileUtils.getDataPath(dir, 4));
+        Files.writeString(FileUtils.getCompactionCommitPath(dir), "2 3 " + FILES + " 1 1");
+
+        assertRecovered(dir, FILES - 1);
+    }
+
+    @Test
+    void committedEmptyOutput(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int i = 0; i < PER_FILE; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+        dao = createDao(dir);
+        for (int i = 0; i < PER_FILE; i++) {
+            dao.upsert(entry(keyAt(i), null));
+        }
+        dao.close();
+        for (int file = 1; file < 3; file++) {
+            dao = createDao(dir);
+            for (int i = 0; i < PER_FILE; i++) {
+                dao.upsert(entryAt(file * PER_FILE + i));
+            }
+            dao.close();
+        }
+        // entries of file 1 are deleted by file 2, so their compaction writes nothing
+        FileUtils.commitCompaction(dir, 1, 2, 4, false);
+
+        dao = createDao(dir);
+        try {
+            List<Entry<String>> expected = new ArrayList<>();
+            for (int i = PER_FILE; i < 3 * PER_FILE; i++) {
+                expected.add(entryAt(i));
+            }
+            assertSame(dao.all(), expected);
+        } finally {
+            dao.close();
+        }
+        Assertions.assertEquals(2, FileUtils.getPaths(dir).size());
+    }
+
+    private void assertRecovered(Path dir, int files) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            List<Entry<String>> expected = new ArrayList<>();
+            for (int i = 0; i < FILES * PER_FILE; i++) {
+                expected.add(entryAt(i));
+            }
+            assertSame(dao.all(), expected);
+        } finally {
+            dao.close();
+        }
+        Assertions.assertEquals(files, FileUtils.getPaths(dir).size());
+        Assertions.assertTrue(Files.notExists(FileUtils.getCompactionCommitPath(dir)));
+    }
+
+    // every file has its own keys, so that each entry shows whether its file survived
+    private void fill(Path dir) throws IOException {
+        for (int file = 0; file < FILES; file++) {
+            Dao<String, Entry<String>> dao = createDao(dir);
+            for (int i = 0; i < PER_FILE; i++) {
+                dao.upsert(entryAt(file * PER_FILE + i));
+            }
+            dao.close();
+        }
+    }
+
+    // output of merging files 2 and 3
+    private static void writeOutput(Path dir) throws IOException {
+        List<PeekIterator<BaseEntry<ByteBuffer>>> list = new ArrayList<>();
+        for (int i = 2; i <= 3; i++) {
+            list.add(new PeekIterator<>(FileUtils.getFileIterator(
+                    FileUtils.map(FileUtils.getDataPath(dir, i)),
+                    FileUtils.map(FileUtils.getIndexPath(dir, i))), 3 - i));
+        }
+        FileUtils.write(new MergingIterator(list, false),
+                FileUtils.getCompactionDataPath(dir), FileUtils.getCompactionIndexPath(dir));
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new ByteBufferDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+}
@@ -0,0 +1,65 @@
+package ru.mail.polis.baidiyarosan;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.Config;
+import ru.mail.polis.metrics.DaoStats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+public class MetricsTest {
+    private static final int FILES = 3;
+
+    @Test
+    void getCountsProbedFiles(@TempDir Path dir) throws IOException {
+        DaoStats stats = new DaoStats("baidiyarosan");
+        MemoryAndDiskDao dao = new MemoryAndDiskDao(new Config(dir, 1 << 20), 0, stats);
+        try {
+            // file N has keyN and the shared key
+            for (int file = 0; file < FILES; file++) {
+                dao.upsert(entry("key" + file, "file" + file));
+                dao.upsert(entry("shared", "file" + file));
+                dao.flush();
+            }
+            // flush runs in background, the next one waits for it
+            dao.flush();
+            dao.upsert(entry("memory", "memory"));
+            dao.upsert(new BaseEntry<>(buffer("key1"), null));
+
+            Assertions.assertEquals("memory", value(dao.get(buffer("memory"))));
+            Assertions.assertEquals(0, stats.getTablesPerGetMax());
+            // tombstone in memory hides the file
+            Assertions.assertNull(dao.get(buffer("key1")));
+            Assertions.assertEquals(0, stats.getTablesPerGetMax());
+
+            // the newest file has the latest version
+            Assertions.assertEquals("file2", value(dao.get(buffer("shared"))));
+            Assertions.assertEquals(1, stats.getTablesPerGetMax());
+
+            Assertions.assertEquals("file0", value(dao.get(buffer("key0"))));
+            Assertions.assertNull(dao.get(buffer("absent")));
+            Assertions.assertEquals(FILES, stats.getTablesPerGetMax());
+            Assertions.assertEquals(5, stats.getGets());
+            Assertions.assertEquals((0 + 0 + 1 + FILES + FILES) / 5.0, stats.getTablesPerGetMean(), 1e-9);
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static BaseEntry<ByteBuffer> entry(String key, String value) {
+        return new BaseEntry<>(buffer(key), buffer(value));
+    }
+
+    private static ByteBuffer buffer(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String value(BaseEntry<ByteBuffer> entry) {
+        return entry == null ? null : StandardCharsets.UTF_8.decode(entry.value().duplicate()).toString();
+    }
+}
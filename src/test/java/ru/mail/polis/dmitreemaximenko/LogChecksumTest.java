@@ -0,0 +1,177 @@
+package ru.mail.polis.dmitreemaximenko;
+
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.dmitreemaximenko.MemorySegmentDaoFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Logs are written with checksums of {@link LogFile#BLOCK_SIZE} blocks in a trailer.
+ * Corruption is made by flipping a byte of the closed log.
+ */
+public class LogChecksumTest extends BaseTest {
+    private static final int COUNT = 10_000;
+    private static final long CORRUPTED_OFFSET = LogFile.BLOCK_SIZE + 100;
+
+    private MemorySegmentDao opened;
+
+    @Test
+    void blockIsVerifiedOnRead(@TempDir Path dir) throws IOException {
+        Path log = writeLog(dir);
+        flipByte(log, CORRUPTED_OFFSET);
+
+        try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+            LogFile file = LogFile.map(log, scope);
+            Assertions.assertTrue(file.hasChecksums());
+            Assertions.assertTrue(file.blocksCount() > 2);
+            file.check(0, Long.BYTES);
+            Assertions.assertNull(file.corruption());
+
+            Assertions.assertThrows(UncheckedIOException.class, () -> file.check(CORRUPTED_OFFSET, 1));
+            Assertions.assertNotNull(file.corruption());
+            // corrupted log fails reads of blocks verified before
+            Assertions.assertThrows(UncheckedIOException.class, () -> file.check(0, Long.BYTES));
+            Assertions.assertFalse(file.isVerified());
+        }
+    }
+
+    @Test
+    void verifiedLogIsNotCheckedAgain(@TempDir Path dir) throws IOException {
+        Path log = writeLog(dir);
+        try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+            LogFile file = LogFile.map(log, scope);
+            file.check(0, LogFile.BLOCK_SIZE);
+            Assertions.assertEquals(LogFile.BLOCK_SIZE, file.verifiedUntil(0));
+            Assertions.assertFalse(file.isVerified());
+
+            file.check(0, file.body().byteSize());
+            Assertions.assertTrue(file.isVerified());
+            Assertions.assertEquals(Long.MAX_VALUE, file.verifiedUntil(0));
+        }
+    }
+
+    @Test
+    void corruptedLogFailsReads(@TempDir Path dir) throws IOException {
+        Path log = writeLog(dir);
+        flipByte(log, CORRUPTED_OFFSET);
+        byte[] corrupted = Files.readAllBytes(log);
+
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            Assertions.assertThrows(UncheckedIOException.class, () -> list(dao.all()));
+        } finally {
+            dao.close();
+        }
+        Assertions.assertArrayEquals(corrupted, Files.readAllBytes(log));
+    }
+
+    @Test
+    void scrubberKeepsCorruptedLog(@TempDir Path dir) throws Exception {
+        Path log = writeLog(dir);
+        flipByte(log, CORRUPTED_OFFSET);
+        byte[] corrupted = Files.readAllBytes(log);
+
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            opened.awaitScrubbed();
+            // log is neither replaced nor dropped, so older entries can not show up instead of lost ones
+            Assertions.assertArrayEquals(corrupted, Files.readAllBytes(log));
+            Assertions.assertEquals(Set.of("log0"), fileNames(dir));
+            Assertions.assertThrows(UncheckedIOException.class, () -> dao.get(keyAt(0)));
+
+            dao.upsert(entry(keyAt(COUNT), "new"));
+        } finally {
+            dao.close();
+        }
+        Assertions.assertEquals(Set.of("log0", "log1"), fileNames(dir));
+    }
+
+    @Test
+    void legacyLogIsReadUnverified(@TempDir Path dir) throws IOException {
+        Path log = writeLog(dir);
+        byte[] bytes = Files.readAllBytes(log);
+        long bodySize = ByteBuffer.wrap(bytes, bytes.length - 2 * Long.BYTES, Long.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .getLong();
+        // log without trailer as written before checksums
+        byte[] body = Arrays.copyOf(bytes, (int) bodySize);
+        // the last byte of the log belongs to the value of the last entry
+        body[body.length - 1] ^= 1;
+        Files.write(log, body);
+
+        try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+            LogFile file = LogFile.map(log, scope);
+            Assertions.assertFalse(file.hasChecksums());
+            Assertions.assertTrue(file.isVerified());
+        }
+
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            List<Entry<String>> all = list(dao.all());
+            Assertions.assertEquals(COUNT, all.size());
+            assertSame(all.subList(0, COUNT - 1).iterator(), entries(COUNT - 1));
+            Assertions.assertNotEquals(valueAt(COUNT - 1), dao.get(keyAt(COUNT - 1)).value());
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void brokenTrailerFailsOpen(@TempDir Path dir) throws IOException {
+        Path log = writeLog(dir);
+        byte[] bytes = Files.readAllBytes(log);
+        // body size in footer points inside the body
+        flipByte(log, bytes.length - 2L * Long.BYTES);
+
+        Assertions.assertThrows(IOException.class, () -> createDao(dir));
+    }
+
+    private Path writeLog(Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (Entry<String> entry : entries(COUNT)) {
+            dao.upsert(entry);
+        }
+        dao.close();
+        return dir.resolve("log0");
+    }
+
+    private static void flipByte(Path file, long offset) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) offset] ^= 1;
+        Files.write(file, bytes);
+    }
+
+    private static Set<String> fileNames(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+
+    private Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new MemorySegmentDaoFactory() {
+            @Override
+            public Dao<MemorySegment, Entry<MemorySegment>> createDao(Config config) throws IOException {
+                opened = new MemorySegmentDao(config);
+                return opened;
+            }
+        }.createStringDao(new Config(dir, 1 << 20));
+    }
+}
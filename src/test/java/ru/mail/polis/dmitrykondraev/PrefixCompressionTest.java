@@ -0,0 +1,91 @@
+package ru.mail.polis.dmitrykondraev;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.DaoFactory;
+import ru.mail.polis.test.dmitrykondraev.MemorySegmentDaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tables written by {@link MemorySegmentDaoFactory} have prefix compressed keys.
+ */
+public class PrefixCompressionTest extends BaseTest {
+    private static final int COUNT = 1_000;
+
+    @Test
+    void sharedPrefixKeys(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int i = 0; i < COUNT; i++) {
+            dao.upsert(entry(keyAt("user:profile:", i), "value" + i));
+        }
+        dao.upsert(entry(keyAt("user:profile:", 7), null));
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                if (i == 7) {
+                    Assertions.assertNull(dao.get(keyAt("user:profile:", i)));
+                } else {
+                    assertSame(dao.get(keyAt("user:profile:", i)), entry(keyAt("user:profile:", i), "value" + i));
+                }
+            }
+            Assertions.assertNull(dao.get("user:profile:"));
+            Assertions.assertNull(dao.get(keyAt("user:profile:", COUNT)));
+
+            List<Entry<String>> expected = new ArrayList<>();
+            for (int i = 100; i < 200; i++) {
+                if (i != 7) {
+                    expected.add(entry(keyAt("user:profile:", i), "value" + i));
+                }
+            }
+            assertSame(dao.get(keyAt("user:profile:", 100), keyAt("user:profile:", 200)), expected);
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void readsTablesWithoutCompression(@TempDir Path dir) throws IOException {
+        FilesBackedDao uncompressed = new FilesBackedDao(new Config(dir, 1 << 20), 0);
+        for (int i = 0; i < COUNT; i += 2) {
+            uncompressed.upsert(MemorySegmentEntry.of(segment(keyAt(i)), segment(valueAt(i))));
+        }
+        uncompressed.close();
+
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int i = 1; i < COUNT; i += 2) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            List<Entry<String>> expected = new ArrayList<>();
+            for (int i = 0; i < COUNT; i++) {
+                expected.add(entryAt(i));
+            }
+            assertSame(dao.all(), expected);
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static MemorySegment segment(String data) {
+        return new MemorySegmentDaoFactory().fromString(data);
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new MemorySegmentDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+}
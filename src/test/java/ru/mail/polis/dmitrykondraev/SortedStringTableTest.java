@@ -0,0 +1,94 @@
+package ru.mail.polis.dmitrykondraev;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+public class SortedStringTableTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 2, 3, 16})
+    void roundTrip(int restartInterval, @TempDir Path dir) throws IOException {
+        NavigableMap<MemorySegment, MemorySegmentEntry> entries = sharedPrefixEntries();
+        SortedStringTable.of(dir, restartInterval).write(entries.values()).close();
+
+        // format is detected on read
+        SortedStringTable table = SortedStringTable.of(dir);
+        try {
+            for (MemorySegmentEntry entry : entries.values()) {
+                assertEntry(entry, table.get(entry.key()));
+            }
+            for (String absent : List.of("0", "ab\u0000", "abcc", "user:profile:00010x", "user:profile:", "zz")) {
+                Assertions.assertNull(table.get(segment(absent)), absent);
+            }
+            assertRange(entries, table, MemorySegmentComparator.MINIMAL, null);
+            List<MemorySegment> keys = new ArrayList<>(entries.keySet());
+            for (int i = 0; i < keys.size(); i += 7) {
+                assertRange(entries, table, keys.get(i), null);
+                assertRange(entries, table, keys.get(i), keys.get((i * 3 + 5) % keys.size()));
+            }
+            assertRange(entries, table, segment("abcc"), segment("user:profile:00050x"));
+        } finally {
+            table.close();
+        }
+    }
+
+    // keys share prefixes of different length, some keys are prefixes of the next ones
+    private static NavigableMap<MemorySegment, MemorySegmentEntry> sharedPrefixEntries() {
+        NavigableMap<MemorySegment, MemorySegmentEntry> entries = new TreeMap<>(MemorySegmentComparator.INSTANCE);
+        List<String> keys = new ArrayList<>(List.of("", "a", "ab", "abc", "abcd", "abd", "b", "ba"));
+        for (int i = 0; i < 100; i++) {
+            keys.add(String.format("user:profile:%06d", i));
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            MemorySegment key = segment(keys.get(i));
+            MemorySegment value = switch (i % 5) {
+                case 0 -> null;
+                case 1 -> segment("");
+                default -> segment("value" + i);
+            };
+            entries.put(key, MemorySegmentEntry.of(key, value));
+        }
+        return entries;
+    }
+
+    private static void assertRange(NavigableMap<MemorySegment, MemorySegmentEntry> entries,
+                                    SortedStringTable table,
+                                    MemorySegment from,
+                                    MemorySegment to) throws IOException {
+        if (to != null && MemorySegmentComparator.INSTANCE.compare(from, to) > 0) {
+            return;
+        }
+        Iterator<MemorySegmentEntry> actual = table.get(from, to);
+        for (MemorySegmentEntry expected : (to == null ? entries.tailMap(from) : entries.subMap(from, to)).values()) {
+            Assertions.assertTrue(actual.hasNext());
+            assertEntry(expected, actual.next());
+        }
+        Assertions.assertFalse(actual.hasNext());
+    }
+
+    private static void assertEntry(MemorySegmentEntry expected, MemorySegmentEntry actual) {
+        Assertions.assertNotNull(actual);
+        Assertions.assertEquals(string(expected.key()), string(actual.key()));
+        Assertions.assertEquals(string(expected.value()), string(actual.value()));
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return segment == null ? null : new String(segment.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
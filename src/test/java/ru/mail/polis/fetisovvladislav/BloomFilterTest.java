@@ -0,0 +1,90 @@
+package ru.mail.polis.fetisovvladislav;
+
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.vladislavfetisov.BloomFilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class BloomFilterTest {
+    private static final int KEYS = 10_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    @Test
+    void noFalseNegatives() {
+        BloomFilter filter = filled();
+        for (int i = 0; i < KEYS; i++) {
+            Assertions.assertTrue(filter.mightContain(key("k", i)), "Key " + i + " lost");
+        }
+    }
+
+    @Test
+    void boundedFalsePositiveRate() {
+        BloomFilter filter = filled();
+        int probes = 100_000;
+        int falsePositives = 0;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain(key("absent", i))) {
+                falsePositives++;
+            }
+        }
+        // twice the configured rate leaves room for randomness of hashing
+        Assertions.assertTrue(falsePositives < probes * FALSE_POSITIVE_RATE * 2,
+                "Too many false positives: " + falsePositives + " of " + probes);
+    }
+
+    @Test
+    void emptyKey() {
+        BloomFilter filter = BloomFilter.create(1, FALSE_POSITIVE_RATE);
+        filter.add(MemorySegment.ofArray(new byte[0]));
+        Assertions.assertTrue(filter.mightContain(MemorySegment.ofArray(new byte[0])));
+    }
+
+    @Test
+    void writeAndLoad(@TempDir Path dir) throws IOException {
+        Path file = Files.createFile(dir.resolve("filter"));
+        BloomFilter written = filled();
+        written.write(file);
+        try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+            BloomFilter loaded = BloomFilter.load(file, scope);
+            for (int i = 0; i < KEYS; i++) {
+                Assertions.assertTrue(loaded.mightContain(key("k", i)));
+            }
+            for (int i = 0; i < KEYS; i++) {
+                MemorySegment absent = key("absent", i);
+                Assertions.assertEquals(written.mightContain(absent), loaded.mightContain(absent));
+            }
+        }
+    }
+
+    @Test
+    void fileIsLittleEndian(@TempDir Path dir) throws IOException {
+        Path file = Files.createFile(dir.resolve("filter"));
+        filled().write(file);
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        long hashCount = header.getLong(0);
+        long bitsCount = header.getLong(Long.BYTES);
+        Assertions.assertTrue(hashCount > 0 && hashCount < Long.SIZE, "Hash count " + hashCount);
+        Assertions.assertEquals((Files.size(file) - 2L * Long.BYTES) * Byte.SIZE, bitsCount);
+    }
+
+    private static BloomFilter filled() {
+        BloomFilter filter = BloomFilter.create(KEYS, FALSE_POSITIVE_RATE);
+        for (int i = 0; i < KEYS; i++) {
+            filter.add(key("k", i));
+        }
+        return filter;
+    }
+
+    private static MemorySegment key(String prefix, int i) {
+        return MemorySegment.ofArray((prefix + i).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,47 @@
+package ru.mail.polis.fetisovvladislav;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Flushed memory of {@link ru.mail.polis.vladislavfetisov.LsmDao} is freed once its last iterator ends,
+ * threshold flush and retry are covered by {@link ru.mail.polis.FlushTest}.
+ */
+public class FlushTest extends BaseTest {
+    private static final int COUNT = 1_000;
+    private static final long THRESHOLD = 1 << 10;
+
+    @Test
+    void iteratorOutlivesFlushedMemory(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int i = 0; i < COUNT / 10; i++) {
+            dao.upsert(entryAt(i));
+        }
+        Iterator<Entry<String>> iterator = dao.all();
+        Entry<String> first = iterator.next();
+
+        // memory of the iterator is flushed and released by dao, but not freed until iterator ends
+        dao.flush();
+        for (int i = COUNT / 10; i < COUNT; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.flush();
+
+        assertSame(first, entryAt(0));
+        assertSame(iterator, entries(COUNT / 10).subList(1, COUNT / 10));
+        dao.close();
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new MemorySegmentDaoFactory().createStringDao(new Config(dir, THRESHOLD));
+    }
+}
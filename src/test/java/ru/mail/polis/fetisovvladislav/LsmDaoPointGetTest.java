@@ -0,0 +1,72 @@
+package ru.mail.polis.fetisovvladislav;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.DaoFactory;
+import ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Point gets of {@link ru.mail.polis.vladislavfetisov.LsmDao} go through bloom filters of flushed tables.
+ */
+public class LsmDaoPointGetTest extends BaseTest {
+    private static final int COUNT = 2_000;
+
+    @Test
+    void getAfterFlush(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(entryAt(i));
+            }
+            dao.upsert(entry(keyAt(7), null));
+            dao.flush();
+            assertPointGets(dao);
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void getAfterReopen(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int i = 0; i < COUNT; i++) {
+            dao.upsert(entryAt(i));
+            if (i % 500 == 499) {
+                dao.flush();
+            }
+        }
+        dao.flush();
+        dao.upsert(entry(keyAt(7), null));
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            assertPointGets(dao);
+        } finally {
+            dao.close();
+        }
+    }
+
+    private void assertPointGets(Dao<String, Entry<String>> dao) throws IOException {
+        for (int i = 0; i < COUNT; i++) {
+            if (i == 7) {
+                Assertions.assertNull(dao.get(keyAt(i)));
+            } else {
+                assertSame(dao.get(keyAt(i)), entryAt(i));
+            }
+            Assertions.assertNull(dao.get(keyAt("absent", i)));
+        }
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new MemorySegmentDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+}
@@ -0,0 +1,110 @@
+package ru.mail.polis.glebkomissarov;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.DaoFactory;
+import ru.mail.polis.test.glebkomissarov.MemorySegmentDaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tables are skipped by their first and last keys, every table is written by closing the dao.
+ */
+public class KeyFenceTest extends BaseTest {
+
+    @Test
+    void keyBelowNewerTableIsFoundInOlder(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        dao.upsert(entryAt(1));
+        dao.upsert(entryAt(9));
+        dao.close();
+        dao = DaoFactory.Factory.reopen(dao);
+        dao.upsert(entryAt(4));
+        dao.upsert(entryAt(5));
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(dao.get(keyAt(1)), entryAt(1));
+            assertSame(dao.get(keyAt(9)), entryAt(9));
+            assertSame(dao.get(keyAt(4)), entryAt(4));
+            Assertions.assertNull(dao.get(keyAt(0)));
+            Assertions.assertNull(dao.get(keyAt(3)));
+            Assertions.assertNull(dao.get(keyAt(10)));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void tombstoneInsideFenceHidesOlderEntry(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int i = 0; i < 10; i++) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+        dao = DaoFactory.Factory.reopen(dao);
+        dao.upsert(entry(keyAt(5), null));
+        dao.upsert(entry(keyAt(6), "new"));
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            Assertions.assertNull(dao.get(keyAt(5)));
+            assertSame(dao.get(keyAt(6)), entry(keyAt(6), "new"));
+            assertSame(dao.get(keyAt(7)), entryAt(7));
+            assertSame(dao.get(keyAt(4), keyAt(8)), entryAt(4), entry(keyAt(6), "new"), entryAt(7));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void rangeSkipsDisjointTables(@TempDir Path dir) throws IOException {
+        // tables [0, 9], [20, 29], [40, 49]
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int start = 0; start < 50; start += 20) {
+            for (int i = start; i < start + 10; i++) {
+                dao.upsert(entryAt(i));
+            }
+            dao.close();
+            dao = DaoFactory.Factory.reopen(dao);
+        }
+
+        try {
+            Assertions.assertFalse(dao.get(keyAt(10), keyAt(20)).hasNext());
+            Assertions.assertFalse(dao.get(keyAt(50), null).hasNext());
+            Assertions.assertFalse(dao.get(null, keyAt(0)).hasNext());
+            assertSame(dao.get(keyAt(5), keyAt(25)), range(5, 10, 20, 25));
+            // upper bound equal to the first key of a table excludes it, lower bound equal to the last one includes it
+            assertSame(dao.get(keyAt(0), keyAt(20)), range(0, 10));
+            assertSame(dao.get(keyAt(29), keyAt(40)), range(29, 30));
+            assertSame(dao.all(), range(0, 10, 20, 30, 40, 50));
+        } finally {
+            dao.close();
+        }
+    }
+
+    // entries of [from, to) pairs
+    private List<Entry<String>> range(int... bounds) {
+        List<Entry<String>> result = new ArrayList<>();
+        for (int i = 0; i < bounds.length; i += 2) {
+            for (int index = bounds[i]; index < bounds[i + 1]; index++) {
+                result.add(entryAt(index));
+            }
+        }
+        return result;
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new MemorySegmentDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+}
@@ -0,0 +1,90 @@
+package ru.mail.polis.kirillpobedonostsev;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class BlockCodecTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1})
+    void emptyBlock(int codecId) {
+        assertRoundTrip(BlockCodec.byId(codecId), new byte[0]);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1})
+    void shortBlocks(int codecId) {
+        for (int length = 1; length <= 20; length++) {
+            byte[] src = new byte[length];
+            Arrays.fill(src, (byte) 'a');
+            assertRoundTrip(BlockCodec.byId(codecId), src);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1})
+    void incompressible(int codecId) {
+        byte[] src = new byte[DataFile.BLOCK_SIZE];
+        new Random(42).nextBytes(src);
+        assertRoundTrip(BlockCodec.byId(codecId), src);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1})
+    void repetitive(int codecId) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < DataFile.BLOCK_SIZE; i++) {
+            text.append("key").append(i % 100).append("value").append(i % 7);
+        }
+        assertRoundTrip(BlockCodec.byId(codecId), text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1})
+    void longRunsAndLiterals(int codecId) {
+        // run and literals are longer than 15 + 255, so their lengths take several bytes
+        byte[] src = new byte[4 * 1024];
+        Arrays.fill(src, 0, 1024, (byte) 'x');
+        byte[] random = new byte[1024];
+        new Random(7).nextBytes(random);
+        System.arraycopy(random, 0, src, 1024, random.length);
+        // distant match, offset does not fit in one byte
+        System.arraycopy(random, 0, src, 3 * 1024, random.length);
+        assertRoundTrip(BlockCodec.byId(codecId), src);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1})
+    void prefixOfBuffer(int codecId) {
+        BlockCodec codec = BlockCodec.byId(codecId);
+        byte[] src = "first part, first part, first part; rest is not compressed"
+                .getBytes(StandardCharsets.UTF_8);
+        int length = src.length / 2;
+        byte[] compressed = new byte[codec.maxCompressedLength(length)];
+        int compressedLength = codec.compress(src, length, compressed);
+        byte[] decompressed = new byte[length];
+        codec.decompress(ByteBuffer.wrap(compressed, 0, compressedLength).slice(), decompressed);
+        Assertions.assertArrayEquals(Arrays.copyOf(src, length), decompressed);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1})
+    void codecIdIsStable(int codecId) {
+        Assertions.assertEquals(codecId, BlockCodec.byId(codecId).id());
+    }
+
+    private static void assertRoundTrip(BlockCodec codec, byte[] src) {
+        byte[] compressed = new byte[codec.maxCompressedLength(src.length)];
+        int compressedLength = codec.compress(src, src.length, compressed);
+        Assertions.assertTrue(compressedLength <= codec.maxCompressedLength(src.length));
+        byte[] decompressed = new byte[src.length];
+        codec.decompress(ByteBuffer.wrap(compressed, 0, compressedLength).slice(), decompressed);
+        Assertions.assertArrayEquals(src, decompressed);
+    }
+}
@@ -0,0 +1,88 @@
+package ru.mail.polis.kirillpobedonostsev;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.DaoFactory;
+import ru.mail.polis.test.kirillpobedonostsev.ByteBufferDaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Files written by {@link ByteBufferDaoFactory} are compressed with LZ4.
+ */
+public class CompressedDaoTest extends BaseTest {
+    private static final int COUNT = 3_000;
+
+    @Test
+    void compressibleAndIncompressibleValues(@TempDir Path dir) throws IOException {
+        Random random = new Random(42);
+        List<Entry<String>> expected = new ArrayList<>();
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int i = 0; i < COUNT; i++) {
+            // every other value is random, so some blocks barely compress
+            String value = i % 2 == 0 ? valueAt(i) : randomString(random, 100);
+            Entry<String> entry = entry(keyAt(i), value);
+            dao.upsert(entry);
+            expected.add(entry);
+        }
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(dao.all(), expected);
+            assertSame(dao.get(keyAt(COUNT / 2), keyAt(COUNT / 2 + 10)), expected.subList(COUNT / 2, COUNT / 2 + 10));
+            assertSame(dao.get(keyAt(COUNT - 1)), expected.get(COUNT - 1));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void readsUncompressedFiles(@TempDir Path dir) throws IOException {
+        PersistenceDao uncompressed = new PersistenceDao(new Config(dir, 1 << 20), BlockCodec.NONE);
+        ByteBufferDaoFactory factory = new ByteBufferDaoFactory();
+        for (int i = 0; i < COUNT; i += 2) {
+            uncompressed.upsert(factory.fromBaseEntry(
+                    new BaseEntry<>(factory.fromString(keyAt(i)), factory.fromString(valueAt(i)))));
+        }
+        uncompressed.close();
+
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int i = 1; i < COUNT; i += 2) {
+            dao.upsert(entryAt(i));
+        }
+        dao.close();
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            List<Entry<String>> expected = new ArrayList<>();
+            for (int i = 0; i < COUNT; i++) {
+                expected.add(entryAt(i));
+            }
+            assertSame(dao.all(), expected);
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            result.append((char) ('!' + random.nextInt(90)));
+        }
+        return result.toString();
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new ByteBufferDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+}
@@ -0,0 +1,203 @@
+package ru.mail.polis.levsaskov;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parts are mapped on first access and unmapped by LRU limit or when idle,
+ * files are unmapped only after the last reader releases them.
+ */
+public class StorageSystemTest {
+    private static final Duration NEVER = Duration.ofDays(1);
+    private static final long WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    void partsAreMappedOnFirstAccess(@TempDir Path dir) throws IOException {
+        StorageSystem storage = createStorage(dir, 10, NEVER, 3);
+        try {
+            for (int partN = 0; partN < 3; partN++) {
+                Assertions.assertFalse(storage.getStoragePart(partN).isMapped());
+            }
+
+            Assertions.assertEquals("part2", value(storage.findEntry(buffer("key2"))));
+            Assertions.assertFalse(storage.getStoragePart(0).isMapped());
+            Assertions.assertFalse(storage.getStoragePart(1).isMapped());
+            Assertions.assertTrue(storage.getStoragePart(2).isMapped());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedPartIsUnmapped(@TempDir Path dir) throws IOException {
+        StorageSystem storage = createStorage(dir, 2, NEVER, 3);
+        try {
+            // parts are probed from the newest one: 2, 1, 0
+            Assertions.assertEquals("part0", value(storage.findEntry(buffer("key0"))));
+            assertMapped(storage, true, true, false);
+
+            Assertions.assertEquals("part2", value(storage.findEntry(buffer("key2"))));
+            assertMapped(storage, true, false, true);
+
+            // probes 2 and then remaps 1
+            Assertions.assertEquals("part1", value(storage.findEntry(buffer("key1"))));
+            assertMapped(storage, false, true, true);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void idlePartIsUnmapped(@TempDir Path dir) throws Exception {
+        StorageSystem storage = createStorage(dir, 10, Duration.ofMillis(10), 1);
+        try {
+            StoragePart part = storage.getStoragePart(0);
+            Assertions.assertEquals("part0", value(storage.findEntry(buffer("key0"))));
+
+            long deadline = System.nanoTime() + WAIT_NANOS;
+            while (part.getOpenMappings() != 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertFalse(part.isMapped());
+            Assertions.assertEquals(0, part.getOpenMappings());
+            Assertions.assertEquals("part0", value(storage.findEntry(buffer("key0"))));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void partReadDuringSweepsIsUnmappedWhenIdle(@TempDir Path dir) throws Exception {
+        StorageSystem storage = createStorage(dir, 10, Duration.ofMillis(1), 3);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // part read while sweeper drops it is mapped again and must be registered to be dropped later
+            List<Future<?>> readers = new ArrayList<>();
+            for (int reader = 0; reader < 4; reader++) {
+                readers.add(executor.submit(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        Assertions.assertEquals("part0", value(storage.findEntry(buffer("key0"))));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+
+            long deadline = System.nanoTime() + WAIT_NANOS;
+            for (int partN = 0; partN < 3; partN++) {
+                StoragePart part = storage.getStoragePart(partN);
+                while (part.getOpenMappings() != 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assertions.assertFalse(part.isMapped(), "Part " + partN);
+                Assertions.assertEquals(0, part.getOpenMappings(), "Part " + partN);
+            }
+        } finally {
+            executor.shutdown();
+            storage.close();
+        }
+    }
+
+    @Test
+    void unmappedPartIsReadByOpenIterator(@TempDir Path dir) throws IOException {
+        StorageSystem storage = createStorage(dir, 10, NEVER, 1);
+        try {
+            StoragePart part = storage.getStoragePart(0);
+            Iterator<BaseEntry<ByteBuffer>> iterator = part.get(null, null);
+            Assertions.assertEquals("key0", string(iterator.next().key()));
+
+            part.unmap();
+            Assertions.assertFalse(part.isMapped());
+            Assertions.assertEquals(1, part.getOpenMappings());
+            // the next access maps the files again, the old mapping is still read by iterator
+            Assertions.assertEquals("part0", value(part.get(buffer("key0"))));
+            Assertions.assertEquals(2, part.getOpenMappings());
+
+            List<String> keys = new ArrayList<>();
+            iterator.forEachRemaining(entry -> keys.add(string(entry.key())));
+            Assertions.assertEquals(List.of("key0a", "key0b"), keys);
+            Assertions.assertEquals(1, part.getOpenMappings());
+
+            part.unmap();
+            Assertions.assertEquals(0, part.getOpenMappings());
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void droppedIteratorReleasesMapping(@TempDir Path dir) throws Exception {
+        StorageSystem storage = createStorage(dir, 10, NEVER, 1);
+        try {
+            StoragePart part = storage.getStoragePart(0);
+            Assertions.assertEquals("key0", string(part.get(null, null).next().key()));
+
+            part.unmap();
+            long deadline = System.nanoTime() + WAIT_NANOS;
+            while (part.getOpenMappings() != 0 && System.nanoTime() < deadline) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(0, part.getOpenMappings());
+        } finally {
+            storage.close();
+        }
+    }
+
+    private static void assertMapped(StorageSystem storage, boolean... mapped) {
+        for (int partN = 0; partN < mapped.length; partN++) {
+            Assertions.assertEquals(mapped[partN], storage.getStoragePart(partN).isMapped(), "Part " + partN);
+        }
+    }
+
+    // part N has keyN, keyNa and keyNb with values "partN"
+    private static StorageSystem createStorage(Path dir, int maxMappedParts, Duration idleTimeout, int parts)
+            throws IOException {
+        StorageSystem writer = new StorageSystem();
+        writer.init(dir);
+        for (int partN = 0; partN < parts; partN++) {
+            ConcurrentNavigableMap<ByteBuffer, BaseEntry<ByteBuffer>> entries = new ConcurrentSkipListMap<>();
+            for (String suffix : List.of("", "a", "b")) {
+                ByteBuffer key = buffer("key" + partN + suffix);
+                entries.put(key, new BaseEntry<>(key, buffer("part" + partN)));
+            }
+            writer.save(entries);
+        }
+        writer.close();
+
+        StorageSystem storage = new StorageSystem(maxMappedParts, idleTimeout);
+        storage.init(dir);
+        return storage;
+    }
+
+    private static ByteBuffer buffer(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(ByteBuffer buffer) {
+        return new String(buffer.array(), StandardCharsets.UTF_8);
+    }
+
+    private static String value(BaseEntry<ByteBuffer> entry) {
+        return entry == null ? null : string(entry.value());
+    }
+}
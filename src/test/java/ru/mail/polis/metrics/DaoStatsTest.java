@@ -0,0 +1,79 @@
+package ru.mail.polis.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class DaoStatsTest {
+
+    @Test
+    void eventsAreAggregated() {
+        DaoStats stats = new DaoStats("aggregated");
+        stats.onGet(0);
+        stats.onGet(3);
+        stats.onScan(100);
+        stats.onFlush(10, 1000, 5);
+        stats.onFlush(20, 3000, 7);
+        stats.onCompaction(4000, 2000, 11);
+        stats.onFlushStall(2);
+        stats.onFlushStall(9);
+
+        Assertions.assertEquals(2, stats.getGets());
+        Assertions.assertEquals(1.5, stats.getTablesPerGetMean(), 1e-9);
+        Assertions.assertEquals(3, stats.getTablesPerGetMax());
+        Assertions.assertEquals(1, stats.getScans());
+        Assertions.assertEquals(100, stats.getBytesReturnedPerScanP99());
+        Assertions.assertEquals(2, stats.getFlushes());
+        Assertions.assertEquals(30, stats.getFlushedEntries());
+        Assertions.assertEquals(4000, stats.getFlushedBytes());
+        Assertions.assertEquals(1, stats.getCompactions());
+        Assertions.assertEquals(4000, stats.getCompactionInputBytes());
+        Assertions.assertEquals(2000, stats.getCompactionOutputBytes());
+        Assertions.assertEquals(1.5, stats.getWriteAmplification(), 1e-9);
+        Assertions.assertEquals(2, stats.getFlushStalls());
+        Assertions.assertEquals(11, stats.getFlushStallTimeTotal());
+        Assertions.assertEquals(9, stats.getFlushStallTimeMax());
+    }
+
+    @Test
+    void noWriteAmplificationWithoutFlushes() {
+        DaoStats stats = new DaoStats("idle");
+        stats.onCompaction(100, 100, 1);
+        Assertions.assertEquals(0, stats.getWriteAmplification());
+    }
+
+    @Test
+    void publishedAsMXBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        // name is quoted, so it may have characters reserved in object names
+        DaoStats stats = new DaoStats("dao,with=chars");
+        ObjectName name = new ObjectName("ru.mail.polis:type=DaoStats,name=" + ObjectName.quote("dao,with=chars"));
+        stats.register();
+        try {
+            stats.register();
+            stats.onGet(2);
+            stats.onFlush(1, 100, 1);
+
+            Assertions.assertEquals(1L, server.getAttribute(name, "Gets"));
+            Assertions.assertEquals(2L, server.getAttribute(name, "TablesPerGetMax"));
+            DaoStatsMXBean proxy = JMX.newMXBeanProxy(server, name, DaoStatsMXBean.class);
+            Assertions.assertEquals(100, proxy.getFlushedBytes());
+            Assertions.assertEquals(1.0, proxy.getWriteAmplification(), 1e-9);
+
+            Assertions.assertThrows(IllegalStateException.class, () -> new DaoStats("dao,with=chars").register());
+        } finally {
+            stats.unregister();
+        }
+        Assertions.assertFalse(server.isRegistered(name));
+        stats.unregister();
+
+        // name is free again
+        stats.register();
+        Assertions.assertTrue(server.isRegistered(name));
+        stats.unregister();
+    }
+}
@@ -0,0 +1,89 @@
+package ru.mail.polis.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class HistogramTest {
+
+    @Test
+    void empty() {
+        Histogram histogram = new Histogram();
+        Assertions.assertEquals(0, histogram.count());
+        Assertions.assertEquals(0, histogram.sum());
+        Assertions.assertEquals(0, histogram.max());
+        Assertions.assertEquals(0, histogram.mean());
+        Assertions.assertEquals(0, histogram.percentile(99));
+    }
+
+    @Test
+    void percentileIsUpperBoundOfBucket() {
+        Histogram histogram = new Histogram();
+        // 90 values in bucket [0], 9 in [16, 31], 1 in [512, 1023]
+        for (int i = 0; i < 90; i++) {
+            histogram.record(0);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(20);
+        }
+        histogram.record(600);
+
+        Assertions.assertEquals(100, histogram.count());
+        Assertions.assertEquals(9 * 20 + 600, histogram.sum());
+        Assertions.assertEquals(7.8, histogram.mean(), 1e-9);
+        Assertions.assertEquals(0, histogram.percentile(50));
+        Assertions.assertEquals(0, histogram.percentile(90));
+        Assertions.assertEquals(31, histogram.percentile(91));
+        Assertions.assertEquals(31, histogram.percentile(99));
+        // bucket bound is capped by max
+        Assertions.assertEquals(600, histogram.percentile(100));
+        Assertions.assertEquals(600, histogram.percentile(1000));
+        Assertions.assertEquals(0, histogram.percentile(-1));
+    }
+
+    @Test
+    void extremeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        Assertions.assertEquals(0, histogram.max());
+        Assertions.assertEquals(0, histogram.sum());
+        Assertions.assertEquals(0, histogram.percentile(100));
+
+        histogram.record(Long.MAX_VALUE);
+        Assertions.assertEquals(Long.MAX_VALUE, histogram.max());
+        Assertions.assertEquals(Long.MAX_VALUE, histogram.percentile(100));
+    }
+
+    @Test
+    void concurrentRecords() throws Exception {
+        Histogram histogram = new Histogram();
+        int threads = 4;
+        int perThread = 100_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 1; i <= perThread; i++) {
+                        histogram.record(i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assertions.assertEquals((long) threads * perThread, histogram.count());
+        Assertions.assertEquals((long) threads * perThread * (perThread + 1) / 2, histogram.sum());
+        Assertions.assertEquals(perThread, histogram.max());
+        Assertions.assertEquals(perThread, histogram.percentile(100));
+    }
+}
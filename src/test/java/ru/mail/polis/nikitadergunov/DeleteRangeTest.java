@@ -0,0 +1,231 @@
+package ru.mail.polis.nikitadergunov;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.Config;
+import ru.mail.polis.Entry;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+public class DeleteRangeTest {
+    private static final long NO_FLUSH = 1 << 20;
+    // level 1 budget is ten times more, so compaction of level 0 goes no deeper
+    private static final long COMPACTED_TABLE_SIZE = 4 << 10;
+
+    @Test
+    void deletedInMemory(@TempDir Path dir) throws IOException {
+        MemorySegmentDao dao = new MemorySegmentDao(new Config(dir, NO_FLUSH), CompactionStrategy.FULL);
+        try {
+            upsert(dao, 0, 10, "value");
+            dao.deleteRange(segment(key(2)), segment(key(5)));
+
+            Assertions.assertEquals(List.of(0, 1, 5, 6, 7, 8, 9), keys(dao.get(null, null)));
+            Assertions.assertNull(dao.get(segment(key(2))));
+            Assertions.assertNull(dao.get(segment(key(4))));
+            Assertions.assertEquals("value", string(dao.get(segment(key(5))).value()));
+
+            // upsert after deletion is newer than the range
+            upsert(dao, 3, 4, "new");
+            Assertions.assertEquals(List.of(0, 1, 3, 5, 6, 7, 8, 9), keys(dao.get(null, null)));
+
+            dao.deleteRange(segment(key(7)), null);
+            Assertions.assertEquals(List.of(0, 1, 3, 5, 6), keys(dao.get(null, null)));
+            Assertions.assertEquals(List.of(3, 5), keys(dao.get(segment(key(2)), segment(key(6)))));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void deletedAfterFlush(@TempDir Path dir) throws IOException {
+        MemorySegmentDao dao = new MemorySegmentDao(new Config(dir, NO_FLUSH), CompactionStrategy.FULL);
+        try {
+            upsert(dao, 0, 10, "value");
+            dao.flush();
+
+            // range in memory hides flushed entries
+            dao.deleteRange(segment(key(2)), segment(key(5)));
+            Assertions.assertEquals(List.of(0, 1, 5, 6, 7, 8, 9), keys(dao.get(null, null)));
+            Assertions.assertNull(dao.get(segment(key(3))));
+
+            // range in newer table hides entries of older one
+            dao.flush();
+            Assertions.assertEquals(List.of(0, 1, 5, 6, 7, 8, 9), keys(dao.get(null, null)));
+            Assertions.assertNull(dao.get(segment(key(3))));
+
+            upsert(dao, 3, 4, "new");
+            dao.flush();
+            Assertions.assertEquals(List.of(0, 1, 3, 5, 6, 7, 8, 9), keys(dao.get(null, null)));
+            Assertions.assertEquals("new", string(dao.get(segment(key(3))).value()));
+
+            // compacted table has neither covered entries nor ranges
+            dao.compact();
+            Assertions.assertEquals(List.of(0, 1, 3, 5, 6, 7, 8, 9), keys(dao.get(null, null)));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void deletedAfterReopen(@TempDir Path dir) throws IOException {
+        MemorySegmentDao dao = new MemorySegmentDao(new Config(dir, NO_FLUSH), CompactionStrategy.FULL);
+        upsert(dao, 0, 10, "value");
+        dao.flush();
+        dao.deleteRange(segment(key(2)), segment(key(5)));
+        dao.deleteRange(segment(key(8)), null);
+        dao.close();
+
+        Assertions.assertEquals(List.of(0L, 1L), versions(dir));
+
+        MemorySegmentDao reopened = new MemorySegmentDao(new Config(dir, NO_FLUSH), CompactionStrategy.FULL);
+        try {
+            Assertions.assertEquals(List.of(0, 1, 5, 6, 7), keys(reopened.get(null, null)));
+            Assertions.assertNull(reopened.get(segment(key(2))));
+            Assertions.assertNull(reopened.get(segment(key(9))));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void compactionToBottomDropsRanges(@TempDir Path dir) throws IOException {
+        fillWithRange(dir);
+        Config config = new Config(dir, COMPACTED_TABLE_SIZE);
+        try (Storage storage = LeveledCompaction.compact(config, Storage.load(config))) {
+            for (Storage.Table table : storage.tables()) {
+                Assertions.assertEquals(1, table.level());
+                Assertions.assertTrue(table.tombstones().isEmpty());
+            }
+        }
+
+        assertKeysAfterRange(dir);
+    }
+
+    @Test
+    void compactionAboveOlderLevelClipsRanges(@TempDir Path dir) throws IOException {
+        MemorySegmentDao dao = new MemorySegmentDao(new Config(dir, NO_FLUSH), CompactionStrategy.FULL);
+        upsert(dao, 0, 1000, "old");
+        dao.close();
+        fillWithRange(dir);
+        // the oldest table is put deeper, so compacted tables are not at the bottom
+        Files.write(dir.resolve("levels"), List.of("5", "data1.dat 2", "data2.dat 0", "data3.dat 0",
+                "data4.dat 0", "data5.dat 0"), StandardCharsets.UTF_8);
+
+        Config config = new Config(dir, COMPACTED_TABLE_SIZE);
+        try (Storage storage = LeveledCompaction.compact(config, Storage.load(config))) {
+            List<Storage.Table> level1 = new ArrayList<>();
+            for (Storage.Table table : storage.tables()) {
+                if (table.level() == 1) {
+                    level1.add(table);
+                }
+            }
+            Assertions.assertTrue(level1.size() > 2);
+            level1.sort(Comparator.comparing(table -> string(table.minKey())));
+
+            // range is cut at table bounds, so that tables of the level do not overlap:
+            // cut range ends (exclusive) at the first key of the next table
+            RangeTombstones ranges = RangeTombstones.EMPTY;
+            for (int i = 0; i < level1.size(); i++) {
+                Storage.Table table = level1.get(i);
+                if (i + 1 < level1.size()) {
+                    MemorySegment nextMin = level1.get(i + 1).minKey();
+                    Assertions.assertTrue(MemorySegmentComparator.INSTANCE.compare(table.maxKey(), nextMin) <= 0);
+                }
+                ranges = ranges.union(table.tombstones());
+            }
+            Assertions.assertEquals(1, ranges.size());
+            Assertions.assertEquals(key(100), string(ranges.from(0)));
+            Assertions.assertEquals(key(900), string(ranges.to(0)));
+        }
+
+        // entries of the deeper table are still hidden
+        assertKeysAfterRange(dir);
+    }
+
+    // four tables on level 0: three with keys 0..999 and the newest one deleting [100;900)
+    // with every other key of the range written again
+    private static void fillWithRange(Path dir) throws IOException {
+        MemorySegmentDao dao = new MemorySegmentDao(new Config(dir, NO_FLUSH), CompactionStrategy.FULL);
+        for (int table = 0; table < 3; table++) {
+            for (int i = table; i < 1000; i += 3) {
+                dao.upsert(new BaseEntry<>(segment(key(i)), segment("new")));
+            }
+            dao.flush();
+        }
+        dao.deleteRange(segment(key(100)), segment(key(900)));
+        for (int i = 100; i < 900; i += 2) {
+            dao.upsert(new BaseEntry<>(segment(key(i)), segment("newest")));
+        }
+        dao.close();
+    }
+
+    private static void assertKeysAfterRange(Path dir) throws IOException {
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            if (i < 100 || i >= 900 || i % 2 == 0) {
+                expected.add(i);
+            }
+        }
+        MemorySegmentDao dao = new MemorySegmentDao(new Config(dir, NO_FLUSH), CompactionStrategy.LEVELED);
+        try {
+            Assertions.assertEquals(expected, keys(dao.get(null, null)));
+            Assertions.assertEquals("newest", string(dao.get(segment(key(500))).value()));
+            Assertions.assertNull(dao.get(segment(key(501))));
+        } finally {
+            dao.close();
+        }
+    }
+
+    // format versions of tables from the oldest to the newest
+    private static List<Long> versions(Path dir) throws IOException {
+        List<Long> result = new ArrayList<>();
+        for (int priority = 1; Files.exists(dir.resolve("data" + priority + ".dat")); priority++) {
+            Path table = dir.resolve("data" + priority + ".dat");
+            try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+                MemorySegment segment = MemorySegment.mapFile(table, 0, Files.size(table),
+                        FileChannel.MapMode.READ_ONLY, scope);
+                result.add(MemoryAccess.getLongAtOffset(segment, 0));
+            }
+        }
+        return result;
+    }
+
+    private static void upsert(MemorySegmentDao dao, int from, int to, String value) {
+        for (int i = from; i < to; i++) {
+            dao.upsert(new BaseEntry<>(segment(key(i)), segment(value)));
+        }
+    }
+
+    private static List<Integer> keys(Iterator<Entry<MemorySegment>> iterator) {
+        List<Integer> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(Integer.parseInt(string(iterator.next().key()).substring(1)));
+        }
+        return result;
+    }
+
+    private static String key(int i) {
+        return String.format("k%05d", i);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
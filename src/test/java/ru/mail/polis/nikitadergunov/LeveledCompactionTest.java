@@ -0,0 +1,162 @@
+package ru.mail.polis.nikitadergunov;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.Config;
+import ru.mail.polis.Entry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class LeveledCompactionTest {
+    private static final int TABLES = LeveledCompaction.LEVEL_0_TABLES_LIMIT;
+    private static final int PER_TABLE = 100;
+
+    @Test
+    void reopenAfterCompaction(@TempDir Path dir) throws IOException {
+        Config config = new Config(dir, 1 << 10);
+        fill(config);
+        Storage storage = Storage.load(config);
+        LeveledCompaction.compact(config, storage).close();
+
+        assertAllKeys(config);
+    }
+
+    @Test
+    void crashBeforeCommit(@TempDir Path dir, @TempDir Path snapshot) throws IOException {
+        Config config = new Config(dir, 1 << 10);
+        fill(config);
+        copy(dir, snapshot);
+        Set<String> before = files(dir);
+        Storage storage = Storage.load(config);
+        LeveledCompaction.compact(config, storage).close();
+
+        // outputs are written, levels file is not
+        for (String output : newTables(before, files(dir))) {
+            Files.copy(dir.resolve(output), snapshot.resolve(output.replace(".dat", ".cmp")));
+        }
+
+        Config crashed = new Config(snapshot, 1 << 10);
+        assertAllKeys(crashed);
+        Assertions.assertEquals(before, files(snapshot));
+    }
+
+    @Test
+    void crashAfterCommit(@TempDir Path dir, @TempDir Path snapshot) throws IOException {
+        Config config = new Config(dir, 1 << 10);
+        fill(config);
+        copy(dir, snapshot);
+        Set<String> before = files(dir);
+        Storage storage = Storage.load(config);
+        LeveledCompaction.compact(config, storage).close();
+        Set<String> after = files(dir);
+
+        // levels file is written, outputs are neither renamed nor inputs deleted
+        for (String output : newTables(before, after)) {
+            Files.copy(dir.resolve(output), snapshot.resolve(output.replace(".dat", ".cmp")));
+        }
+        Files.copy(dir.resolve("levels"), snapshot.resolve("levels"), StandardCopyOption.REPLACE_EXISTING);
+
+        Config crashed = new Config(snapshot, 1 << 10);
+        assertAllKeys(crashed);
+        Assertions.assertEquals(after, files(snapshot));
+    }
+
+    @Test
+    void fileNumbersArePerDirectory(@TempDir Path first, @TempDir Path second) throws IOException {
+        MemorySegmentDao firstDao = new MemorySegmentDao(new Config(first, 1 << 10), CompactionStrategy.FULL);
+        MemorySegmentDao secondDao = new MemorySegmentDao(new Config(second, 1 << 10), CompactionStrategy.FULL);
+        for (int i = 0; i < 3; i++) {
+            firstDao.upsert(new BaseEntry<>(segment(key(i)), segment("first")));
+            firstDao.flush();
+        }
+        secondDao.upsert(new BaseEntry<>(segment(key(0)), segment("second")));
+        secondDao.flush();
+        firstDao.close();
+        secondDao.close();
+
+        Assertions.assertEquals(Set.of("data1.dat", "data2.dat", "data3.dat"), files(first));
+        Assertions.assertEquals(Set.of("data1.dat"), files(second));
+
+        // numbering goes on from the newest file after reopen
+        MemorySegmentDao reopened = new MemorySegmentDao(new Config(first, 1 << 10), CompactionStrategy.FULL);
+        reopened.upsert(new BaseEntry<>(segment(key(3)), segment("first")));
+        reopened.close();
+        Assertions.assertEquals(Set.of("data1.dat", "data2.dat", "data3.dat", "data4.dat"), files(first));
+    }
+
+    private static void fill(Config config) throws IOException {
+        // full strategy does not compact on its own, so level 0 is left full
+        MemorySegmentDao dao = new MemorySegmentDao(config, CompactionStrategy.FULL);
+        for (int table = 0; table < TABLES; table++) {
+            for (int i = 0; i < PER_TABLE; i++) {
+                dao.upsert(new BaseEntry<>(segment(key(table * PER_TABLE + i)), segment("value" + table)));
+            }
+            dao.flush();
+        }
+        dao.close();
+    }
+
+    private static void assertAllKeys(Config config) throws IOException {
+        MemorySegmentDao dao = new MemorySegmentDao(config, CompactionStrategy.LEVELED);
+        try {
+            List<String> keys = new ArrayList<>();
+            Iterator<Entry<MemorySegment>> iterator = dao.get(null, null);
+            while (iterator.hasNext()) {
+                keys.add(string(iterator.next().key()));
+            }
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < TABLES * PER_TABLE; i++) {
+                expected.add(key(i));
+            }
+            Assertions.assertEquals(expected, keys);
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static List<String> newTables(Set<String> before, Set<String> after) {
+        return after.stream()
+                .filter(file -> file.endsWith(".dat") && !before.contains(file))
+                .toList();
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        for (String file : files(from)) {
+            Files.copy(from.resolve(file), to.resolve(file));
+        }
+    }
+
+    private static Set<String> files(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(file -> file.endsWith(".dat"))
+                    .collect(Collectors.toCollection(TreeSet::new));
+        }
+    }
+
+    private static String key(int i) {
+        return String.format("k%05d", i);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
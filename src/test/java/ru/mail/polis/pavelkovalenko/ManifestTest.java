@@ -0,0 +1,237 @@
+package ru.mail.polis.pavelkovalenko;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.pavelkovalenko.utils.Utils;
+import ru.mail.polis.test.DaoFactory;
+import ru.mail.polis.test.pavelkovalenko.ByteBufferDaoFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Crash is simulated by changing files of the closed dao: tail of the manifest is torn or corrupted,
+ * files of tables are left or brought back.
+ */
+public class ManifestTest extends BaseTest {
+
+    @Test
+    void reopenReplaysEdits(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        dao.upsert(entryAt(1));
+        dao.flush();
+        dao.upsert(entryAt(2));
+        dao.flush();
+        dao.upsert(entryAt(3));
+        dao.close();
+
+        Manifest manifest = new Manifest(dir);
+        Assertions.assertTrue(manifest.exists());
+        Assertions.assertEquals(Set.of(1, 2, 3), manifest.tables());
+        Assertions.assertEquals(4, manifest.nextTableNumber());
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(dao.all(), entryAt(1), entryAt(2), entryAt(3));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void tornEditIsCutOff(@TempDir Path dir) throws IOException {
+        writeTwoTables(dir);
+        Path file = dir.resolve(Utils.MANIFEST_FILENAME);
+        // the last edit was not written whole
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        assertFirstTableOnly(dir);
+    }
+
+    @Test
+    void editWithBadChecksumIsCutOff(@TempDir Path dir) throws IOException {
+        writeTwoTables(dir);
+        Path file = dir.resolve(Utils.MANIFEST_FILENAME);
+        byte[] log = Files.readAllBytes(file);
+        log[log.length - 1] ^= 1;
+        Files.write(file, log);
+
+        assertFirstTableOnly(dir);
+    }
+
+    @Test
+    void notCommittedTableIsIgnored(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        dao.upsert(entryAt(1));
+        dao.close();
+        // table is written, but crash happened before its edit
+        Path manifest = dir.resolve(Utils.MANIFEST_FILENAME);
+        byte[] committed = Files.readAllBytes(manifest);
+        dao = DaoFactory.Factory.reopen(dao);
+        dao.upsert(entryAt(2));
+        dao.close();
+        Files.write(manifest, committed);
+        Assertions.assertTrue(Files.exists(Utils.getPairedFiles(dir, 2).dataFile()));
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(dao.all(), entryAt(1));
+            // number of the lost table is given again, its files are replaced
+            dao.upsert(entryAt(3));
+            dao.flush();
+            Assertions.assertEquals(Set.of(1, 2), new Manifest(dir).tables());
+            assertSame(dao.all(), entryAt(1), entryAt(3));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void legacyDirectoryIsCommittedOnce(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        dao.upsert(entryAt(1));
+        dao.flush();
+        dao.upsert(entryAt(2));
+        dao.close();
+        // data written before manifest was introduced
+        Path manifest = dir.resolve(Utils.MANIFEST_FILENAME);
+        Files.delete(manifest);
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(dao.all(), entryAt(1), entryAt(2));
+        } finally {
+            dao.close();
+        }
+        byte[] committed = Files.readAllBytes(manifest);
+        Assertions.assertEquals(editSize(2, 0), committed.length);
+        Assertions.assertEquals(Set.of(1, 2), new Manifest(dir).tables());
+
+        // the directory is not scanned again
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(dao.all(), entryAt(1), entryAt(2));
+        } finally {
+            dao.close();
+        }
+        Assertions.assertArrayEquals(committed, Files.readAllBytes(manifest));
+    }
+
+    @Test
+    void compactionIsOneEdit(@TempDir Path dir, @TempDir Path backup) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        dao.upsert(entryAt(1));
+        dao.upsert(entryAt(2));
+        dao.flush();
+        dao.upsert(entryAt(3));
+        dao.flush();
+        List<Path> removedFiles = List.of(
+                Utils.getPairedFiles(dir, 1).dataFile(), Utils.getPairedFiles(dir, 1).indexesFile(),
+                Utils.getPairedFiles(dir, 2).dataFile(), Utils.getPairedFiles(dir, 2).indexesFile()
+        );
+        for (Path file : removedFiles) {
+            Files.copy(file, backup.resolve(file.getFileName()));
+        }
+
+        Path manifest = dir.resolve(Utils.MANIFEST_FILENAME);
+        long sizeBefore = Files.size(manifest);
+        dao.compact();
+        Assertions.assertEquals(sizeBefore + editSize(1, 2), Files.size(manifest));
+        dao.close();
+
+        // crash happened after the edit, but before removed tables were deleted
+        for (Path file : removedFiles) {
+            Files.copy(backup.resolve(file.getFileName()), file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        dao = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(dao.all(), entryAt(1), entryAt(2), entryAt(3));
+        } finally {
+            dao.close();
+        }
+        for (Path file : removedFiles) {
+            Assertions.assertFalse(Files.exists(file));
+        }
+        Assertions.assertEquals(Set.of(3), new Manifest(dir).tables());
+    }
+
+    @Test
+    void rewriteLeavesOneEdit(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        for (int i = 0; i < 5; i++) {
+            dao.upsert(entryAt(i));
+            dao.flush();
+        }
+        dao.close();
+        Path file = dir.resolve(Utils.MANIFEST_FILENAME);
+        Set<Integer> tables = new Manifest(dir).tables();
+        Assertions.assertTrue(tables.size() >= 5);
+        Assertions.assertEquals((long) tables.size() * editSize(1, 0), Files.size(file));
+
+        Manifest manifest = new Manifest(dir);
+        manifest.commit(List.of(), List.of(1));
+        Assertions.assertEquals(Set.of(1), manifest.removedTables());
+        manifest.rewrite();
+        Assertions.assertEquals(editSize(tables.size() - 1, 0), Files.size(file));
+        Assertions.assertTrue(manifest.removedTables().isEmpty());
+        Assertions.assertEquals(manifest.tables(), new Manifest(dir).tables());
+        Assertions.assertFalse(manifest.tables().contains(1));
+        int next = tables.size() + 1;
+        Assertions.assertEquals(next, new Manifest(dir).nextTableNumber());
+
+        // rewritten log is appended to
+        manifest.commit(List.of(next), List.of(2));
+        manifest.close();
+        Set<Integer> expected = new TreeSet<>(tables);
+        expected.removeAll(List.of(1, 2));
+        expected.add(next);
+        Assertions.assertEquals(expected, new Manifest(dir).tables());
+    }
+
+    private void writeTwoTables(Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        dao.upsert(entryAt(1));
+        dao.flush();
+        dao.upsert(entryAt(2));
+        dao.close();
+    }
+
+    private void assertFirstTableOnly(Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            assertSame(dao.all(), entryAt(1));
+            Assertions.assertEquals(editSize(1, 0), Files.size(dir.resolve(Utils.MANIFEST_FILENAME)));
+
+            // files of the lost table are replaced by the next flush
+            dao.upsert(entryAt(3));
+            dao.flush();
+            assertSame(dao.all(), entryAt(1), entryAt(3));
+        } finally {
+            dao.close();
+        }
+    }
+
+    // length, crc, version, next table number and both lists with their sizes
+    private static int editSize(int added, int removed) {
+        return Integer.BYTES * 2 + Long.BYTES + Integer.BYTES * (3 + added + removed);
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new ByteBufferDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+}
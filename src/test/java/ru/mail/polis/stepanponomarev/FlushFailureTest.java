@@ -0,0 +1,102 @@
+package ru.mail.polis.stepanponomarev;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.DaoFactory;
+import ru.mail.polis.test.stepanponomarev.LSMDaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Background flush fails while storage directory is moved away.
+ */
+public class FlushFailureTest extends BaseTest {
+    private static final int COUNT = 1_000;
+
+    @Test
+    void failedFlushIsWrittenAgain(@TempDir Path root) throws IOException {
+        Path dir = Files.createDirectory(root.resolve("dao"));
+        Dao<String, Entry<String>> dao = createDao(dir);
+        failFlush(dao, root);
+
+        upsertRange(dao, COUNT / 2, COUNT);
+        dao.flush();
+        dao.close();
+
+        assertReopened(dao);
+    }
+
+    @Test
+    void closeWritesFailedFlush(@TempDir Path root) throws IOException, InterruptedException {
+        Path dir = Files.createDirectory(root.resolve("dao"));
+        Dao<String, Entry<String>> dao = createDao(dir);
+        failFlush(dao, root);
+
+        upsertRange(dao, COUNT / 2, COUNT);
+        dao.close();
+        assertFlusherStopped();
+
+        assertReopened(dao);
+    }
+
+    @Test
+    void failedCloseStopsFlusher(@TempDir Path root) throws IOException, InterruptedException {
+        Path dir = Files.createDirectory(root.resolve("dao"));
+        Dao<String, Entry<String>> dao = createDao(dir);
+        upsertRange(dao, 0, COUNT);
+
+        Files.move(dir, root.resolve("aside"));
+        Assertions.assertThrows(IOException.class, dao::close);
+        assertFlusherStopped();
+    }
+
+    // failure is reported by the second flush, frozen memTable is still read after it
+    private void failFlush(Dao<String, Entry<String>> dao, Path root) throws IOException {
+        Path dir = root.resolve("dao");
+        Path aside = root.resolve("aside");
+        upsertRange(dao, 0, COUNT / 2);
+
+        Files.move(dir, aside);
+        dao.flush();
+        Assertions.assertThrows(IOException.class, dao::flush);
+        Files.move(aside, dir);
+
+        assertSame(dao.get(keyAt(1)), entryAt(1));
+        assertSame(dao.all(), entries(COUNT / 2));
+    }
+
+    private void assertReopened(Dao<String, Entry<String>> dao) throws IOException {
+        Dao<String, Entry<String>> reopened = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(reopened.all(), entries(COUNT));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static void assertFlusherStopped() throws InterruptedException {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("stepanponomarev-flusher")) {
+                thread.join(1_000);
+                Assertions.assertFalse(thread.isAlive());
+            }
+        }
+    }
+
+    private void upsertRange(Dao<String, Entry<String>> dao, int from, int to) {
+        for (int i = from; i < to; i++) {
+            dao.upsert(entryAt(i));
+        }
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new LSMDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+}
@@ -0,0 +1,75 @@
+package ru.mail.polis.stepanponomarev;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.metrics.DaoStats;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+public class MetricsTest {
+    private static final int COUNT = 1_000;
+
+    @Test
+    void engineEventsAreCounted(@TempDir Path dir) throws IOException {
+        DaoStats stats = new DaoStats("stepanponomarev");
+        LSMDao dao = new LSMDao(dir, stats);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(entry(key(i), "value" + i));
+            }
+            // found in memory
+            Assertions.assertNotNull(dao.get(segment(key(1))));
+            Assertions.assertEquals(0, stats.getTablesPerGetMax());
+
+            dao.flush();
+            // flush runs in background, the next one waits for it
+            dao.flush();
+            Assertions.assertEquals(1, stats.getFlushes());
+            Assertions.assertEquals(COUNT, stats.getFlushedEntries());
+            Assertions.assertTrue(stats.getFlushedBytes() > 0);
+
+            dao.upsert(entry(key(0), "new"));
+            dao.flush();
+            dao.flush();
+            Assertions.assertNull(dao.get(segment(key(COUNT))));
+            Assertions.assertEquals(2, stats.getTablesPerGetMax());
+            Assertions.assertEquals(2, stats.getGets());
+
+            // partially read scan is not reported
+            Iterator<TimestampEntry> partial = dao.get(null, null);
+            partial.next();
+            long bytes = 0;
+            Iterator<TimestampEntry> full = dao.get(segment(key(10)), segment(key(20)));
+            while (full.hasNext()) {
+                bytes += full.next().getSizeBytes();
+            }
+            Assertions.assertEquals(1, stats.getScans());
+            Assertions.assertEquals(bytes, stats.getBytesReturnedPerScanMean(), 1e-9);
+
+            dao.compact();
+            Assertions.assertEquals(1, stats.getCompactions());
+            Assertions.assertTrue(stats.getCompactionInputBytes() > stats.getCompactionOutputBytes());
+            Assertions.assertTrue(stats.getWriteAmplification() > 1);
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static TimestampEntry entry(String key, String value) {
+        return new TimestampEntry(new BaseEntry<>(segment(key), segment(value)));
+    }
+
+    private static String key(int index) {
+        return String.format("key%05d", index);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
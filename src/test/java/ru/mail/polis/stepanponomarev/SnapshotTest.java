@@ -0,0 +1,187 @@
+package ru.mail.polis.stepanponomarev;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.WriteBatch;
+import ru.mail.polis.stepanponomarev.store.Storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SnapshotTest {
+
+    @Test
+    void isolatedFromLaterUpsertsAndDeletes(@TempDir Path dir) throws IOException {
+        LSMDao dao = new LSMDao(dir);
+        try {
+            dao.upsert(entry("a", "old"));
+            dao.upsert(entry("b", "old"));
+            try (Snapshot snapshot = dao.snapshot()) {
+                dao.upsert(entry("a", "new"));
+                dao.upsert(entry("b", null));
+                dao.upsert(entry("c", "new"));
+
+                Assertions.assertEquals("old", value(snapshot.get(segment("a"))));
+                Assertions.assertEquals("old", value(snapshot.get(segment("b"))));
+                Assertions.assertNull(snapshot.get(segment("c")));
+                Assertions.assertEquals(List.of("a=old", "b=old"), strings(snapshot.get(null, null)));
+                Assertions.assertEquals(List.of("a=new", "c=new"), strings(dao.all()));
+            }
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void batchIsSeenWhole(@TempDir Path dir) throws IOException {
+        LSMDao dao = new LSMDao(dir);
+        try {
+            try (Snapshot before = dao.snapshot()) {
+                dao.write(WriteBatch.<MemorySegment, TimestampEntry>builder()
+                        .upsert(entry("a", "batch"))
+                        .upsert(entry("b", "batch"))
+                        .build());
+                try (Snapshot after = dao.snapshot()) {
+                    Assertions.assertEquals(List.of(), strings(before.get(null, null)));
+                    Assertions.assertEquals(List.of("a=batch", "b=batch"), strings(after.get(null, null)));
+                }
+            }
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void keepsVersionsThroughFlushAndCompact(@TempDir Path dir) throws IOException {
+        LSMDao dao = new LSMDao(dir);
+        try {
+            dao.upsert(entry("a", "old"));
+            dao.upsert(entry("b", "old"));
+            dao.flush();
+            try (Snapshot snapshot = dao.snapshot()) {
+                dao.upsert(entry("a", "new"));
+                dao.upsert(entry("b", null));
+                dao.flush();
+                dao.compact();
+
+                Assertions.assertEquals(List.of("a=old", "b=old"), strings(snapshot.get(null, null)));
+                Assertions.assertEquals(List.of("a=new"), strings(dao.all()));
+            }
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void versionsAreDroppedAfterRelease(@TempDir Path dir) throws IOException {
+        Storage storage = new Storage(dir);
+        try {
+            storage.put(entry("a", "old"));
+            long snapshot = storage.openSnapshot();
+            storage.put(entry("a", "new"));
+            storage.compact(System.currentTimeMillis());
+            Assertions.assertEquals("old", value(storage.get(segment("a"), snapshot)));
+
+            storage.releaseSnapshot(snapshot);
+            storage.compact(System.currentTimeMillis());
+            // nothing sees the old version anymore, so compaction has dropped it
+            Assertions.assertNull(storage.get(segment("a"), snapshot));
+            Assertions.assertEquals("new", value(storage.get(segment("a"), Storage.LATEST)));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void clockIsSeededAfterReopen(@TempDir Path dir) throws IOException {
+        // versions from the future, e.g. written before wall clock went back
+        long future = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        Storage storage = new Storage(dir);
+        storage.put(new TimestampEntry(segment("a"), segment("old"), future));
+        storage.close();
+
+        Storage reopened = new Storage(dir);
+        try {
+            long snapshot = reopened.openSnapshot();
+            Assertions.assertTrue(snapshot >= future);
+            reopened.put(entry("a", "new"));
+            reopened.releaseSnapshot(snapshot);
+
+            Assertions.assertEquals("new", value(reopened.get(segment("a"), Storage.LATEST)));
+            Assertions.assertEquals("old", value(reopened.get(segment("a"), snapshot)));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void flushesDuringCompactionAreKept(@TempDir Path dir) throws Exception {
+        LSMDao dao = new LSMDao(dir);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 10_000; i++) {
+                dao.upsert(entry(key(i), "compacted"));
+            }
+            dao.flush();
+            Future<?> compaction = executor.submit(() -> {
+                dao.compact();
+                return null;
+            });
+            // flush is not blocked by compaction, new tables stay on top of the compacted one
+            for (int i = 0; i < 10; i++) {
+                dao.upsert(entry(key(i), "flushed"));
+                dao.flush();
+            }
+            compaction.get();
+            dao.compact();
+
+            Iterator<TimestampEntry> entries = dao.all();
+            for (int i = 0; i < 10_000; i++) {
+                Assertions.assertEquals(key(i) + "=" + (i < 10 ? "flushed" : "compacted"), string(entries.next()));
+            }
+            Assertions.assertFalse(entries.hasNext());
+        } finally {
+            executor.shutdown();
+            dao.close();
+        }
+    }
+
+    private static TimestampEntry entry(String key, String value) {
+        return new TimestampEntry(new BaseEntry<>(segment(key), value == null ? null : segment(value)));
+    }
+
+    private static String key(int index) {
+        return String.format("key%05d", index);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String value(TimestampEntry entry) {
+        return entry == null ? null : new String(entry.value().toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String string(TimestampEntry entry) {
+        return new String(entry.key().toByteArray(), StandardCharsets.UTF_8) + "=" + value(entry);
+    }
+
+    private static List<String> strings(Iterator<TimestampEntry> iterator) {
+        List<String> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(string(iterator.next()));
+        }
+        return result;
+    }
+}
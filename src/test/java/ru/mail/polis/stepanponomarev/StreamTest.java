@@ -0,0 +1,142 @@
+package ru.mail.polis.stepanponomarev;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.stepanponomarev.store.Storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Streams are split by first keys of sstable blocks.
+ */
+public class StreamTest {
+    private static final int COUNT = 10_000;
+
+    @Test
+    void splitKeyIsInsideRange(@TempDir Path dir) throws IOException {
+        Storage storage = new Storage(dir);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                storage.put(entry(key(i), "value" + i));
+            }
+            // memory is not split
+            Assertions.assertNull(storage.splitKey(null, null));
+            storage.flush(System.currentTimeMillis());
+            // flush runs in background, the next one waits for it
+            storage.flush(System.currentTimeMillis());
+
+            Assertions.assertNotNull(storage.splitKey(null, null));
+            for (int from = 0; from < COUNT; from += 1_000) {
+                for (int to = from + 2_000; to <= COUNT; to += 3_000) {
+                    String splitKey = string(storage.splitKey(segment(key(from)), segment(key(to))));
+                    Assertions.assertNotNull(splitKey);
+                    Assertions.assertTrue(splitKey.compareTo(key(from)) > 0, splitKey);
+                    Assertions.assertTrue(splitKey.compareTo(key(to)) < 0, splitKey);
+                }
+            }
+            // a few blocks are not split
+            Assertions.assertNull(storage.splitKey(segment(key(100)), segment(key(120))));
+            Assertions.assertNull(storage.splitKey(segment(key(COUNT)), null));
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    void parallelSameAsSequential(@TempDir Path dir) throws IOException {
+        LSMDao dao = new LSMDao(dir);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(entry(key(i), "value" + i));
+            }
+            dao.flush();
+            for (int i = 0; i < COUNT; i += 3) {
+                dao.upsert(entry(key(i), null));
+            }
+            dao.flush();
+            for (int i = 0; i < COUNT; i += 5) {
+                dao.upsert(entry(key(i), "memory" + i));
+            }
+            // the second flush has waited for the first table, which is enough to split
+
+            Spliterator<TimestampEntry> spliterator = dao.stream(null, null).spliterator();
+            Assertions.assertNotNull(spliterator.trySplit());
+
+            List<String> sequential = strings(dao.stream(segment(key(7)), null));
+            List<String> parallel = strings(dao.stream(segment(key(7)), null).parallel());
+            Assertions.assertEquals(sequential, parallel);
+            Assertions.assertEquals(strings(dao.get(segment(key(7)), null)), parallel);
+            Assertions.assertEquals(COUNT - 7 - (COUNT - 7) / 3 + (COUNT - 7) / 15, parallel.size());
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void versionsOfKeyStayInOnePart(@TempDir Path dir) throws IOException {
+        LSMDao dao = new LSMDao(dir);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(entry(key(i), "old" + i));
+            }
+            try (Snapshot snapshot = dao.snapshot()) {
+                for (int i = 0; i < COUNT; i++) {
+                    dao.upsert(entry(key(i), "new" + i));
+                }
+                // both versions of every key are in one table
+                dao.compact();
+
+                List<String> old = strings(snapshot.stream(null, null).parallel());
+                List<String> latest = strings(dao.stream(null, null).parallel());
+                Assertions.assertEquals(COUNT, old.size());
+                Assertions.assertEquals(COUNT, latest.size());
+                for (int i = 0; i < COUNT; i++) {
+                    Assertions.assertEquals(key(i) + "=old" + i, old.get(i));
+                    Assertions.assertEquals(key(i) + "=new" + i, latest.get(i));
+                }
+            }
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static TimestampEntry entry(String key, String value) {
+        return new TimestampEntry(new BaseEntry<>(segment(key), value == null ? null : segment(value)));
+    }
+
+    private static String key(int index) {
+        return String.format("key%05d", index);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return segment == null ? null : new String(segment.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(Stream<TimestampEntry> stream) {
+        return strings(stream.collect(Collectors.toList()).iterator());
+    }
+
+    private static List<String> strings(Iterator<TimestampEntry> iterator) {
+        List<String> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            TimestampEntry entry = iterator.next();
+            result.add(string(entry.key()) + "=" + string(entry.value()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,202 @@
+package ru.mail.polis.stepanponomarev;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.metrics.DaoMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Time goes by the injected clock only, so expiration is checked without sleeps.
+ */
+public class TtlTest {
+    private static final long START = 1_700_000_000_000L;
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    private final AtomicLong clock = new AtomicLong(START);
+
+    @Test
+    void expiredOnRead(@TempDir Path dir) throws IOException {
+        LSMDao dao = createDao(dir);
+        try {
+            dao.upsert(entry("a", "old"));
+            dao.upsert(expiring("a", "new"));
+            dao.upsert(expiring("b", "new"));
+            dao.upsert(entry("c", "kept"));
+            try (Snapshot snapshot = dao.snapshot()) {
+                clock.addAndGet(TTL.toMillis() - 1);
+                Assertions.assertEquals("new", value(dao.get(segment("a"))));
+                Assertions.assertEquals(List.of("a=new", "b=new", "c=kept"), strings(dao.all()));
+
+                clock.incrementAndGet();
+                // expired version hides older ones as a tombstone does
+                Assertions.assertNull(dao.get(segment("a")));
+                Assertions.assertNull(dao.get(segment("b")));
+                Assertions.assertEquals(List.of("c=kept"), strings(dao.all()));
+                Assertions.assertEquals(List.of("c=kept"), strings(dao.stream(null, null).iterator()));
+                // entries expire in snapshots as well
+                Assertions.assertNull(snapshot.get(segment("a")));
+                Assertions.assertEquals(List.of("c=kept"), strings(snapshot.get(null, null)));
+            }
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void expirationIsKeptByFlush(@TempDir Path dir) throws IOException {
+        LSMDao dao = createDao(dir);
+        dao.upsert(entry("a", "old"));
+        dao.flush();
+        dao.upsert(expiring("a", "new"));
+        dao.close();
+
+        dao = createDao(dir);
+        try {
+            Assertions.assertEquals("new", value(dao.get(segment("a"))));
+
+            clock.addAndGet(TTL.toMillis());
+            Assertions.assertNull(dao.get(segment("a")));
+            Assertions.assertEquals(List.of(), strings(dao.all()));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void expiredIsFlushedAsTombstone(@TempDir Path dir) throws IOException {
+        LSMDao dao = createDao(dir);
+        dao.upsert(entry("a", "old"));
+        dao.flush();
+        dao.upsert(expiring("a", "new"));
+        clock.addAndGet(TTL.toMillis());
+        dao.flush();
+        dao.close();
+
+        // value is not written, so the entry stays removed even if clock goes back
+        clock.set(START);
+        dao = createDao(dir);
+        try {
+            Assertions.assertNull(dao.get(segment("a")));
+            Assertions.assertEquals(List.of(), strings(dao.all()));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void expiredIsDroppedByCompaction(@TempDir Path dir) throws IOException {
+        LSMDao dao = createDao(dir);
+        try {
+            dao.upsert(entry("a", "old"));
+            dao.flush();
+            dao.upsert(expiring("a", "new"));
+            dao.upsert(expiring("b", "new"));
+            dao.flush();
+
+            clock.addAndGet(TTL.toMillis());
+            dao.compact();
+            Assertions.assertEquals(List.of(), strings(dao.all()));
+        } finally {
+            dao.close();
+        }
+
+        // expired versions and versions they hid are gone, nothing is left to write
+        try (Stream<Path> files = Files.list(dir)) {
+            Assertions.assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void tablesWithoutExpirationAreReadAsVersion3(@TempDir Path dir) throws IOException {
+        LSMDao dao = createDao(dir);
+        dao.upsert(entry("a", "v3"));
+        dao.upsert(entry("b", null));
+        dao.close();
+
+        // tables without expiring entries are laid out the same, only the version differs
+        List<Path> indexes;
+        try (Stream<Path> files = Files.walk(dir)) {
+            indexes = files.filter(file -> file.endsWith("sstable.blocks")).toList();
+        }
+        Assertions.assertFalse(indexes.isEmpty());
+        for (Path index : indexes) {
+            Assertions.assertEquals(4, setVersion(index, 3));
+        }
+
+        dao = createDao(dir);
+        try {
+            Assertions.assertEquals("v3", value(dao.get(segment("a"))));
+            Assertions.assertNull(dao.get(segment("b")));
+
+            dao.upsert(expiring("c", "v4"));
+            dao.flush();
+            dao.compact();
+            Assertions.assertEquals(List.of("a=v3", "c=v4"), strings(dao.all()));
+        } finally {
+            dao.close();
+        }
+    }
+
+    // returns the previous version
+    private static long setVersion(Path index, long version) throws IOException {
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.nativeOrder());
+            long position = channel.size() - Long.BYTES;
+            channel.read(buffer, position);
+            long previous = buffer.getLong(0);
+            buffer.clear();
+            buffer.putLong(0, version);
+            channel.write(buffer, position);
+            return previous;
+        }
+    }
+
+    private LSMDao createDao(Path dir) throws IOException {
+        return new LSMDao(dir, DaoMetrics.NONE, clock::get);
+    }
+
+    private TimestampEntry entry(String key, String value) {
+        return new TimestampEntry(new BaseEntry<>(segment(key), value == null ? null : segment(value)), clock::get);
+    }
+
+    private TimestampEntry expiring(String key, String value) {
+        return new TimestampEntry(new BaseEntry<>(segment(key), segment(value)), TTL, clock::get);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String value(TimestampEntry entry) {
+        return entry == null ? null : new String(entry.value().toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String string(TimestampEntry entry) {
+        return new String(entry.key().toByteArray(), StandardCharsets.UTF_8) + "=" + value(entry);
+    }
+
+    private static List<String> strings(Iterator<TimestampEntry> iterator) {
+        List<String> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(string(iterator.next()));
+        }
+        return result;
+    }
+}
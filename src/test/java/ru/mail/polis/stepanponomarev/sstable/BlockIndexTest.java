@@ -0,0 +1,204 @@
+package ru.mail.polis.stepanponomarev.sstable;
+
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stepanponomarev.TimestampEntry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Every entry takes {@link #ENTRY_SIZE} bytes, so a block holds exactly {@link #ENTRIES_PER_BLOCK} keys
+ * and block b starts with key {@code ENTRIES_PER_BLOCK * b}.
+ */
+public class BlockIndexTest {
+    private static final int COUNT = 1000;
+    private static final String VALUE = "v".repeat(34);
+    // keySize, key, timestamp, valueSize, value
+    private static final long ENTRY_SIZE = Long.BYTES * 3 + key(0).length() + VALUE.length();
+    private static final int ENTRIES_PER_BLOCK = (int) (BlockIndex.BLOCK_SIZE_BYTES / ENTRY_SIZE);
+
+    @Test
+    void tableSpansManyBlocks(@TempDir Path dir) throws IOException {
+        try (SSTable table = write(dir, entries(COUNT))) {
+            BlockIndex index = readIndex(dir);
+            Assertions.assertEquals((COUNT + ENTRIES_PER_BLOCK - 1) / ENTRIES_PER_BLOCK, index.size());
+            for (int block = 0; block < index.size(); block++) {
+                Assertions.assertEquals(key(block * ENTRIES_PER_BLOCK), string(index.firstKey(block)));
+                Assertions.assertEquals(block * BlockIndex.BLOCK_SIZE_BYTES, index.offset(block));
+            }
+            Assertions.assertEquals(range(0, COUNT), keys(table.get(null, null)));
+        }
+    }
+
+    @Test
+    void findBlockAroundFirstKey(@TempDir Path dir) throws IOException {
+        try (SSTable ignored = write(dir, entries(COUNT))) {
+            BlockIndex index = readIndex(dir);
+            for (int block = 1; block < index.size(); block++) {
+                int first = block * ENTRIES_PER_BLOCK;
+                Assertions.assertEquals(block, index.findBlock(segment(key(first))));
+                Assertions.assertEquals(block, index.findBlock(segment(key(first) + "0")));
+                Assertions.assertEquals(block - 1, index.findBlock(segment(key(first - 1))));
+                Assertions.assertEquals(block - 1, index.findBlock(segment(key(first - 1) + "0")));
+            }
+            Assertions.assertEquals(-1, index.findBlock(segment("a")));
+            Assertions.assertEquals(0, index.findBlock(segment(key(0))));
+            Assertions.assertEquals(index.size() - 1, index.findBlock(segment("l")));
+        }
+    }
+
+    @Test
+    void seekAroundBlockStart(@TempDir Path dir) throws IOException {
+        try (SSTable table = write(dir, entries(COUNT))) {
+            assertSeeks(table);
+        }
+    }
+
+    @Test
+    void versionsOfKeyStayInOneBlock(@TempDir Path dir) throws IOException {
+        // the last key of the first block has three versions, the block would be full after the first one
+        int versioned = ENTRIES_PER_BLOCK - 1;
+        List<TimestampEntry> entries = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            int versions = i == versioned ? 3 : 1;
+            for (int timestamp = versions; timestamp > 0; timestamp--) {
+                entries.add(new TimestampEntry(segment(key(i)), segment(VALUE), timestamp));
+            }
+        }
+
+        try (SSTable table = write(dir, entries)) {
+            BlockIndex index = readIndex(dir);
+            Assertions.assertEquals(key(versioned + 1), string(index.firstKey(1)));
+            Assertions.assertEquals((versioned + 3) * ENTRY_SIZE, index.offset(1));
+
+            List<TimestampEntry> found = list(table.get(segment(key(versioned)), segment(key(versioned + 1))));
+            Assertions.assertEquals(3, found.size());
+            for (int i = 0; i < found.size(); i++) {
+                Assertions.assertEquals(key(versioned), string(found.get(i).key()));
+                Assertions.assertEquals(3 - i, found.get(i).getTimestamp());
+            }
+            Assertions.assertEquals(range(versioned + 1, versioned + 2),
+                    keys(table.get(segment(key(versioned) + "0"), segment(key(versioned + 2)))));
+        }
+    }
+
+    @Test
+    void denseIndexIsReadAsBlocks(@TempDir Path dir) throws IOException {
+        write(dir, entries(COUNT)).close();
+        // table written before block format: offset of every entry in sstable.index
+        Files.delete(dir.resolve("sstable.blocks"));
+        ByteBuffer dense = ByteBuffer.allocate(COUNT * Long.BYTES).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < COUNT; i++) {
+            dense.putLong(i * ENTRY_SIZE);
+        }
+        Files.write(dir.resolve("sstable.index"), dense.array());
+
+        try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+            BlockIndex index = BlockIndex.fromDense(map(dir.resolve("sstable.index"), scope),
+                    map(dir.resolve("sstable.data"), scope));
+            Assertions.assertEquals((COUNT + ENTRIES_PER_BLOCK - 1) / ENTRIES_PER_BLOCK, index.size());
+            for (int block = 0; block < index.size(); block++) {
+                Assertions.assertEquals(key(block * ENTRIES_PER_BLOCK), string(index.firstKey(block)));
+                Assertions.assertEquals(block * BlockIndex.BLOCK_SIZE_BYTES, index.offset(block));
+            }
+            Assertions.assertEquals(BlockIndex.UNKNOWN_TIMESTAMP, index.maxTimestamp());
+        }
+
+        try (SSTable table = SSTable.upInstance(dir)) {
+            Assertions.assertEquals(COUNT, table.getMaxTimestamp());
+            Assertions.assertEquals(range(0, COUNT), keys(table.get(null, null)));
+            assertSeeks(table);
+        }
+    }
+
+    // bounds exactly on, just before and just after the first key of every block
+    private static void assertSeeks(SSTable table) {
+        for (int first = ENTRIES_PER_BLOCK; first < COUNT; first += ENTRIES_PER_BLOCK) {
+            for (int from = first - 1; from <= first + 1; from++) {
+                Assertions.assertEquals(range(from, COUNT), keys(table.get(segment(key(from)), null)));
+                Assertions.assertEquals(range(0, from), keys(table.get(null, segment(key(from)))));
+            }
+            Assertions.assertEquals(range(first, COUNT), keys(table.get(segment(key(first - 1) + "0"), null)));
+            Assertions.assertEquals(range(0, first), keys(table.get(null, segment(key(first - 1) + "0"))));
+            Assertions.assertEquals(range(first - 1, first + 1),
+                    keys(table.get(segment(key(first - 1)), segment(key(first + 1)))));
+            int next = first + ENTRIES_PER_BLOCK;
+            Assertions.assertEquals(range(first, Math.min(next, COUNT)),
+                    keys(table.get(segment(key(first)), segment(key(next)))));
+        }
+        Assertions.assertEquals(List.of(), keys(table.get(segment("l"), null)));
+        Assertions.assertEquals(List.of(), keys(table.get(null, segment("a"))));
+    }
+
+    private static SSTable write(Path dir, List<TimestampEntry> entries) throws IOException {
+        long sizeBytes = 0;
+        for (TimestampEntry entry : entries) {
+            sizeBytes += entry.getSizeBytes();
+        }
+        return SSTable.createInstance(dir, entries.iterator(), sizeBytes, entries.size());
+    }
+
+    private static BlockIndex readIndex(Path dir) throws IOException {
+        return BlockIndex.read(map(dir.resolve("sstable.blocks"), ResourceScope.newImplicitScope()));
+    }
+
+    private static MemorySegment map(Path file, ResourceScope scope) throws IOException {
+        return MemorySegment.mapFile(file, 0, Files.size(file), FileChannel.MapMode.READ_ONLY, scope);
+    }
+
+    private static List<TimestampEntry> entries(int count) {
+        List<TimestampEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new TimestampEntry(segment(key(i)), segment(VALUE), i + 1));
+        }
+        return entries;
+    }
+
+    private static List<String> range(int from, int to) {
+        List<String> keys = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            keys.add(key(i));
+        }
+        return keys;
+    }
+
+    private static List<String> keys(Iterator<TimestampEntry> iterator) {
+        List<String> keys = new ArrayList<>();
+        for (TimestampEntry entry : list(iterator)) {
+            keys.add(string(entry.key()));
+        }
+        return keys;
+    }
+
+    private static List<TimestampEntry> list(Iterator<TimestampEntry> iterator) {
+        List<TimestampEntry> entries = new ArrayList<>();
+        while (iterator.hasNext()) {
+            entries.add(iterator.next());
+        }
+        return entries;
+    }
+
+    private static String key(int i) {
+        return String.format("k%05d", i);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,155 @@
+package ru.mail.polis.vladislavfetisov;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.Entry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ArenaMemTableTest {
+    private static final int COUNT = 10_000;
+
+    @Test
+    void overwrite() {
+        ArenaMemTable table = new ArenaMemTable();
+        table.put(entry(key(1), "first"));
+        table.put(entry(key(1), "second"));
+        table.put(entry(key(0), "other"));
+
+        Assertions.assertEquals("second", string(table.get(segment(key(1))).value()));
+        Assertions.assertEquals(List.of(key(0), key(1)), keys(table.get(null, null)));
+        table.release();
+    }
+
+    @Test
+    void tombstone() {
+        ArenaMemTable table = new ArenaMemTable();
+        table.put(entry(key(1), "value"));
+        table.put(entry(key(1), null));
+        table.put(entry(key(2), null));
+
+        Assertions.assertNull(table.get(segment(key(1))).value());
+        Assertions.assertNull(table.get(segment(key(0))));
+        Iterator<Entry<MemorySegment>> iterator = table.get(null, null);
+        Assertions.assertTrue(Utils.isTombstone(iterator.next()));
+        Assertions.assertTrue(Utils.isTombstone(iterator.next()));
+        Assertions.assertFalse(iterator.hasNext());
+        table.release();
+    }
+
+    @Test
+    void range() {
+        ArenaMemTable table = new ArenaMemTable();
+        for (int i = 0; i < 100; i++) {
+            table.put(entry(key(i), "value" + i));
+        }
+
+        Assertions.assertEquals(List.of(key(10), key(11)), keys(table.get(segment(key(10)), segment(key(12)))));
+        Assertions.assertEquals(List.of(key(98), key(99)), keys(table.get(segment(key(98)), null)));
+        Assertions.assertEquals(List.of(), keys(table.get(segment(key(5)), segment(key(5)))));
+        table.release();
+    }
+
+    @Test
+    void concurrentInsertAndRead() throws Exception {
+        ArenaMemTable table = new ArenaMemTable();
+        int writers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 1);
+        try {
+            AtomicBoolean written = new AtomicBoolean();
+            // reader never sees keys out of order or a value not written for the key
+            Future<?> reader = executor.submit(() -> {
+                while (!written.get()) {
+                    String previous = null;
+                    Iterator<Entry<MemorySegment>> iterator = table.get(null, null);
+                    while (iterator.hasNext()) {
+                        Entry<MemorySegment> entry = iterator.next();
+                        String key = string(entry.key());
+                        Assertions.assertTrue(previous == null || previous.compareTo(key) < 0);
+                        Assertions.assertTrue(string(entry.value()).startsWith(key));
+                        previous = key;
+                    }
+                }
+            });
+            List<Future<?>> puts = new ArrayList<>();
+            for (int writer = 0; writer < writers; writer++) {
+                int first = writer;
+                puts.add(executor.submit(() -> {
+                    for (int i = first; i < COUNT; i += writers) {
+                        table.put(entry(key(i), key(i) + "-old"));
+                        table.put(entry(key(i), key(i) + "-new"));
+                    }
+                }));
+            }
+            for (Future<?> put : puts) {
+                put.get();
+            }
+            written.set(true);
+            reader.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        Iterator<Entry<MemorySegment>> iterator = table.get(null, null);
+        for (int i = 0; i < COUNT; i++) {
+            Entry<MemorySegment> entry = iterator.next();
+            Assertions.assertEquals(key(i), string(entry.key()));
+            Assertions.assertEquals(key(i) + "-new", string(entry.value()));
+        }
+        Assertions.assertFalse(iterator.hasNext());
+        table.release();
+    }
+
+    @Test
+    void releasedAfterOwnerAndIterators() {
+        ArenaMemTable table = new ArenaMemTable();
+        table.put(entry(key(0), "first"));
+        table.put(entry(key(1), "second"));
+        Iterator<Entry<MemorySegment>> iterator = table.get(null, null);
+        Entry<MemorySegment> read = iterator.next();
+
+        table.release();
+        // iterator keeps the table
+        table.acquire();
+        table.release();
+        Assertions.assertEquals(key(1), string(iterator.next().key()));
+        Assertions.assertFalse(iterator.hasNext());
+
+        Assertions.assertThrows(IllegalStateException.class, table::acquire);
+        // entries are copied, so they are valid after table is freed
+        Assertions.assertEquals("first", string(read.value()));
+    }
+
+    private static List<String> keys(Iterator<Entry<MemorySegment>> iterator) {
+        List<String> keys = new ArrayList<>();
+        while (iterator.hasNext()) {
+            keys.add(string(iterator.next().key()));
+        }
+        return keys;
+    }
+
+    private static Entry<MemorySegment> entry(String key, String value) {
+        return new BaseEntry<>(segment(key), value == null ? null : segment(value));
+    }
+
+    private static String key(int index) {
+        return String.format("key%05d", index);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return new String(segment.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
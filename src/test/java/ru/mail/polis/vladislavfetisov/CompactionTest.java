@@ -0,0 +1,195 @@
+package ru.mail.polis.vladislavfetisov;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.DaoFactory;
+import ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@link LsmDao#compact()} merges key ranges in parallel, every range to its own table.
+ */
+public class CompactionTest extends BaseTest {
+    private static final int PARALLELISM = 4;
+    // enough for every range to get at least 16K entries
+    private static final int COUNT = 70_000;
+
+    @Test
+    void rangesAreCompactedToSeparateTables(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir, PARALLELISM);
+        List<Entry<String>> expected = fillTwoTables(dao);
+
+        dao.compact();
+        Assertions.assertEquals(PARALLELISM, tableNames(dir).size());
+        assertSame(dao.all(), expected);
+        String from = keyAt(COUNT / 2);
+        String to = keyAt(COUNT / 2 + 100);
+        assertSame(dao.get(from, to), expected.stream()
+                .filter(e -> e.key().compareTo(from) >= 0 && e.key().compareTo(to) < 0)
+                .toList());
+        for (int i = 0; i < COUNT; i += 997) {
+            Assertions.assertEquals(i % 3 == 0 ? null : valueFor(i), value(dao.get(keyAt(i))));
+        }
+        dao.close();
+
+        // tables do not overlap, so their order on disk does not matter
+        Dao<String, Entry<String>> reopened = DaoFactory.Factory.reopen(dao);
+        try {
+            assertSame(reopened.all(), expected);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void sameAsSequential(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> parallel = createDao(Files.createDirectory(dir.resolve("parallel")), PARALLELISM);
+        Dao<String, Entry<String>> sequential = createDao(Files.createDirectory(dir.resolve("sequential")), 1);
+        try {
+            fillTwoTables(parallel);
+            fillTwoTables(sequential);
+            parallel.compact();
+            sequential.compact();
+
+            Assertions.assertEquals(1, tableNames(dir.resolve("sequential")).size());
+            assertSame(parallel.all(), list(sequential.all()));
+        } finally {
+            parallel.close();
+            sequential.close();
+        }
+    }
+
+    @Test
+    void smallTablesAreCompactedToOne(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir, PARALLELISM);
+        try {
+            dao.upsert(entryAt(1));
+            dao.flush();
+            dao.upsert(entryAt(2));
+            dao.flush();
+
+            dao.compact();
+            Assertions.assertEquals(1, tableNames(dir).size());
+            assertSame(dao.all(), entryAt(1), entryAt(2));
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void deletedRangesWriteNoTables(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir, PARALLELISM);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(entryAt(i));
+            }
+            dao.flush();
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(entry(keyAt(i), null));
+            }
+            dao.flush();
+
+            dao.compact();
+            Assertions.assertEquals(Set.of(), tableNames(dir));
+            Assertions.assertFalse(dao.all().hasNext());
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void failedRangeRemovesWrittenTables(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir, PARALLELISM);
+        try {
+            List<Entry<String>> expected = fillTwoTables(dao);
+            Set<Path> before = files(dir);
+            Assertions.assertEquals(Set.of("0", "1"), tableNames(dir));
+
+            // ranges are written to tables 2..5, index of the second one can't be created
+            Path foreign = Files.createFile(dir.resolve("3" + SSTable.INDEX + SSTable.TEMP));
+            Assertions.assertThrows(IOException.class, dao::compact);
+
+            Set<Path> expectedFiles = new HashSet<>(before);
+            expectedFiles.add(foreign);
+            Assertions.assertEquals(expectedFiles, files(dir));
+            assertSame(dao.all(), expected);
+
+            // the failed table numbers are not used again
+            dao.compact();
+            Assertions.assertEquals(PARALLELISM, tableNames(dir).size());
+            Assertions.assertTrue(Files.exists(foreign));
+            assertSame(dao.all(), expected);
+        } finally {
+            dao.close();
+        }
+    }
+
+    // first table has all keys, second one overwrites every other key and deletes every third one
+    private List<Entry<String>> fillTwoTables(Dao<String, Entry<String>> dao) throws IOException {
+        for (int i = 0; i < COUNT; i++) {
+            dao.upsert(entry(keyAt(i), "old" + i));
+        }
+        dao.flush();
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 3 == 0) {
+                dao.upsert(entry(keyAt(i), null));
+            } else if (i % 2 == 0) {
+                dao.upsert(entry(keyAt(i), valueFor(i)));
+            }
+        }
+        dao.flush();
+
+        List<Entry<String>> expected = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 3 != 0) {
+                expected.add(entry(keyAt(i), valueFor(i)));
+            }
+        }
+        return expected;
+    }
+
+    private static String valueFor(int i) {
+        return (i % 2 == 0 ? "new" : "old") + i;
+    }
+
+    private static String value(Entry<String> entry) {
+        return entry == null ? null : entry.value();
+    }
+
+    private static Set<Path> files(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.collect(Collectors.toSet());
+        }
+    }
+
+    private static Set<String> tableNames(Path dir) throws IOException {
+        return files(dir).stream()
+                .map(path -> path.getFileName().toString())
+                .filter(name -> name.chars().allMatch(Character::isDigit))
+                .collect(Collectors.toSet());
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir, int parallelism) throws IOException {
+        return new MemorySegmentDaoFactory() {
+            @Override
+            public Dao<MemorySegment, Entry<MemorySegment>> createDao(Config config) {
+                return new LsmDao(config, SSTable.DEFAULT_FALSE_POSITIVE_RATE, parallelism);
+            }
+        }.createStringDao(new Config(dir, 1L << 30));
+    }
+}
@@ -0,0 +1,133 @@
+package ru.mail.polis.vladislavfetisov;
+
+import jdk.incubator.foreign.MemorySegment;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.BaseEntry;
+import ru.mail.polis.BaseTest;
+import ru.mail.polis.Config;
+import ru.mail.polis.Dao;
+import ru.mail.polis.Entry;
+import ru.mail.polis.test.vladislavfetisov.MemorySegmentDaoFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+/**
+ * {@link LsmDao#stream} is split by keys of the largest table.
+ */
+public class StreamTest extends BaseTest {
+    private static final int COUNT = 10_000;
+
+    @Test
+    void tableSplitKey(@TempDir Path dir) throws IOException {
+        List<Entry<MemorySegment>> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(new BaseEntry<>(segment(key(i)), segment("value" + i)));
+        }
+        SSTable.Sizes sizes = Utils.getSizes(entries.iterator());
+        SSTable table = SSTable.writeTable(dir.resolve("0"), entries.iterator(),
+                sizes.tableSize(), sizes.indexSize(), SSTable.DEFAULT_FALSE_POSITIVE_RATE);
+        try {
+            Assertions.assertEquals(key(50), string(table.splitKey(null, null, 2)));
+            Assertions.assertEquals(key(15), string(table.splitKey(segment(key(10)), segment(key(20)), 2)));
+            // bounds between keys: range is [11, 21)
+            Assertions.assertEquals(key(16), string(table.splitKey(segment(key(10) + "a"), segment(key(20) + "a"), 2)));
+
+            Assertions.assertNull(table.splitKey(segment(key(10)), segment(key(20)), 11));
+            // one entry can't be split whatever the minimum is
+            Assertions.assertNull(table.splitKey(segment(key(10)), segment(key(11)), 0));
+            Assertions.assertNull(table.splitKey(segment(key(100)), null, 2));
+            Assertions.assertNull(table.splitKey(null, segment(key(0)), 2));
+        } finally {
+            table.close();
+        }
+    }
+
+    @Test
+    void parallelSameAsSequential(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(entryAt(i));
+            }
+            dao.flush();
+            for (int i = 0; i < COUNT; i += 3) {
+                dao.upsert(entry(keyAt(i), null));
+            }
+            dao.flush();
+            // memory is read by every part too
+            for (int i = 0; i < COUNT; i += 5) {
+                dao.upsert(entry(keyAt(i), "memory" + i));
+            }
+
+            List<Entry<String>> sequential = dao.stream(keyAt(7), null).collect(Collectors.toList());
+            List<Entry<String>> parallel = dao.stream(keyAt(7), null).parallel().collect(Collectors.toList());
+            Assertions.assertEquals(sequential, parallel);
+
+            List<Entry<String>> expected = new ArrayList<>();
+            for (int i = 7; i < COUNT; i++) {
+                if (i % 5 == 0) {
+                    expected.add(entry(keyAt(i), "memory" + i));
+                } else if (i % 3 != 0) {
+                    expected.add(entryAt(i));
+                }
+            }
+            assertSame(parallel.iterator(), expected);
+        } finally {
+            dao.close();
+        }
+    }
+
+    @Test
+    void onlyLargeTablesAreSplit(@TempDir Path dir) throws IOException {
+        Dao<String, Entry<String>> dao = createDao(dir);
+        try {
+            for (int i = 0; i < 100; i++) {
+                dao.upsert(entryAt(i));
+            }
+            dao.flush();
+            // test dao maps the stream, its spliterator is split only when parallel
+            Assertions.assertNull(dao.stream(null, null).parallel().spliterator().trySplit());
+
+            for (int i = 0; i < COUNT; i++) {
+                dao.upsert(entryAt(i));
+            }
+            dao.flush();
+            Spliterator<Entry<String>> suffix = dao.stream(keyAt(10), keyAt(20)).parallel().spliterator();
+            Assertions.assertNull(suffix.trySplit());
+
+            suffix = dao.stream(null, null).parallel().spliterator();
+            Spliterator<Entry<String>> prefix = suffix.trySplit();
+            Assertions.assertNotNull(prefix);
+            List<Entry<String>> all = new ArrayList<>();
+            prefix.forEachRemaining(all::add);
+            suffix.forEachRemaining(all::add);
+            assertSame(all.iterator(), entries(COUNT));
+        } finally {
+            dao.close();
+        }
+    }
+
+    private static Dao<String, Entry<String>> createDao(Path dir) throws IOException {
+        return new MemorySegmentDaoFactory().createStringDao(new Config(dir, 1 << 20));
+    }
+
+    private static String key(int index) {
+        return String.format("key%05d", index);
+    }
+
+    private static MemorySegment segment(String data) {
+        return MemorySegment.ofArray(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(MemorySegment segment) {
+        return segment == null ? null : new String(segment.toByteArray(), StandardCharsets.UTF_8);
+    }
+}